@@ -10,14 +10,26 @@
  *******************************************************************************/
 package org.weasis.core.api.image;
 
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.RenderedImage;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
 import org.weasis.core.api.util.LangUtil;
+import org.weasis.opencv.data.PlanarImage;
+import org.weasis.opencv.op.ImageConversion;
+import org.weasis.opencv.op.ImageProcessor;
 
 public abstract class AbstractOp implements ImageOpNode {
 
     protected HashMap<String, Object> params;
+    private volatile boolean dirty = true;
 
     public AbstractOp() {
         params = new HashMap<>();
@@ -28,20 +40,43 @@ public abstract class AbstractOp implements ImageOpNode {
         clearIOCache();
     }
 
+    protected static boolean isIOParam(String key) {
+        return key.startsWith("op.input") || key.startsWith("op.output"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static boolean isModified(Object oldValue, Object newValue) {
+        if (oldValue == newValue) {
+            // An array can have been modified before being set again
+            return newValue != null && newValue.getClass().isArray();
+        }
+        return !Objects.deepEquals(oldValue, newValue);
+    }
+
     @Override
     public void clearParams() {
         params.clear();
+        dirty = true;
     }
 
     @Override
     public void clearIOCache() {
         for (String key : params.keySet()) {
-            if (key.startsWith("op.input") || key.startsWith("op.output")) { //$NON-NLS-1$ //$NON-NLS-2$
+            if (isIOParam(key)) {
                 params.put(key, null);
             }
         }
     }
 
+    @Override
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
     @Override
     public Object getParam(String key) {
         if (key == null) {
@@ -53,7 +88,10 @@ public abstract class AbstractOp implements ImageOpNode {
     @Override
     public void setParam(String key, Object value) {
         if (key != null) {
-            params.put(key, value);
+            Object old = params.put(key, value);
+            if (!isIOParam(key) && isModified(old, value)) {
+                dirty = true;
+            }
         }
     }
 
@@ -61,13 +99,17 @@ public abstract class AbstractOp implements ImageOpNode {
     public void setAllParameters(Map<String, Object> map) {
         if (map != null) {
             params.putAll(map);
+            dirty = true;
         }
     }
 
     @Override
     public void removeParam(String key) {
-        if (key != null) {
+        if (key != null && params.containsKey(key)) {
             params.remove(key);
+            if (!isIOParam(key)) {
+                dirty = true;
+            }
         }
     }
 
@@ -78,7 +120,7 @@ public abstract class AbstractOp implements ImageOpNode {
 
     @Override
     public void setEnabled(boolean enabled) {
-        params.put(Param.ENABLE, enabled);
+        setParam(Param.ENABLE, enabled);
     }
 
     @Override
@@ -89,7 +131,7 @@ public abstract class AbstractOp implements ImageOpNode {
     @Override
     public void setName(String name) {
         if (name != null) {
-            params.put(Param.NAME, name);
+            setParam(Param.NAME, name);
         }
     }
 
@@ -97,4 +139,44 @@ public abstract class AbstractOp implements ImageOpNode {
     public void handleImageOpEvent(ImageOpEvent event) {
     }
 
+    protected AffineTransform getInputTransform() {
+        return (AffineTransform) params.get(Param.INPUT_TRANSFORM);
+    }
+
+    /**
+     * Converts a shape defined in the coordinates of the source image into the coordinates of the input image.
+     *
+     * @param shape
+     * @return the shape in the coordinates of the input image
+     */
+    protected Shape toInputCoordinates(Shape shape) {
+        AffineTransform transform = getInputTransform();
+        if (shape == null || transform == null) {
+            return shape;
+        }
+        return transform.createTransformedShape(shape);
+    }
+
+    /**
+     * Converts a mask having the size of the source image into the coordinates of the input image.
+     *
+     * @param mask
+     *            the mask with the size of the source image
+     * @param input
+     *            the input image
+     * @return the mask with the size of the input image
+     */
+    protected Mat toInputCoordinates(RenderedImage mask, PlanarImage input) {
+        Mat img = ImageConversion.toMat(mask);
+        AffineTransform transform = getInputTransform();
+        if (transform == null) {
+            return img;
+        }
+        Mat matrix = new Mat(2, 3, CvType.CV_64FC1);
+        matrix.put(0, 0, transform.getScaleX(), transform.getShearX(), transform.getTranslateX(),
+            transform.getShearY(), transform.getScaleY(), transform.getTranslateY());
+        return ImageProcessor.warpAffine(img, matrix, new Size(input.width(), input.height()),
+            Imgproc.INTER_NEAREST);
+    }
+
 }
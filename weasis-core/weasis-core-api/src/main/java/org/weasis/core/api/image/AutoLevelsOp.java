@@ -42,6 +42,11 @@ public class AutoLevelsOp extends AbstractOp {
         return new AutoLevelsOp(this);
     }
 
+    @Override
+    public boolean supportsRegionProcessing() {
+        return true;
+    }
+
     @Override
     public void process() throws Exception {
         ImageElement imageElement = (ImageElement) params.get(P_IMAGE_ELEMENT);
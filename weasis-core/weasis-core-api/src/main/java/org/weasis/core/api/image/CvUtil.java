@@ -21,6 +21,7 @@ import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
 import org.weasis.core.api.image.util.KernelData;
 import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
 import org.weasis.opencv.data.ImageCV;
 import org.weasis.opencv.data.PlanarImage;
 
@@ -56,7 +57,7 @@ public class CvUtil {
     public static ImageCV meanStack(List<ImageElement> sources) {
         if (sources.size() > 1) {
             ImageElement firstImg = sources.get(0);
-            PlanarImage img = firstImg.getImage(null, false);
+            PlanarImage img = firstImg.getImage(null, false, Priority.BATCH);
 
             Integer type = null;
             Mat mean = new Mat(img.height(), img.width(), CvType.CV_32F);
@@ -64,7 +65,7 @@ public class CvUtil {
             int numbSrc = sources.size();
             for (int i = 1; i < numbSrc; i++) {
                 ImageElement imgElement = sources.get(i);
-                PlanarImage image = imgElement.getImage(null, false);
+                PlanarImage image = imgElement.getImage(null, false, Priority.BATCH);
                 if (image.width() != img.width() && image.height() != img.height()) {
                     continue;
                 }
@@ -95,13 +96,13 @@ public class CvUtil {
         if (sources.size() > 1) {
             ImageElement firstImg = sources.get(0);
             ImageCV dstImg = new ImageCV();
-            PlanarImage img = firstImg.getImage(null, false);
+            PlanarImage img = firstImg.getImage(null, false, Priority.BATCH);
             img.toMat().copyTo(dstImg);
 
             int numbSrc = sources.size();
             for (int i = 1; i < numbSrc; i++) {
                 ImageElement imgElement = sources.get(i);
-                PlanarImage image = imgElement.getImage(null, false);
+                PlanarImage image = imgElement.getImage(null, false, Priority.BATCH);
                 if (image.width() != dstImg.width() && image.height() != dstImg.height()) {
                     continue;
                 }
@@ -118,13 +119,13 @@ public class CvUtil {
         if (sources.size() > 1) {
             ImageElement firstImg = sources.get(0);
             ImageCV dstImg = new ImageCV();
-            PlanarImage img = firstImg.getImage(null, false);
+            PlanarImage img = firstImg.getImage(null, false, Priority.BATCH);
             img.toMat().copyTo(dstImg);
 
             int numbSrc = sources.size();
             for (int i = 1; i < numbSrc; i++) {
                 ImageElement imgElement = sources.get(i);
-                PlanarImage image = imgElement.getImage(null, false);
+                PlanarImage image = imgElement.getImage(null, false, Priority.BATCH);
                 if (image.width() != dstImg.width() && image.height() != dstImg.height()) {
                     continue;
                 }
@@ -41,6 +41,11 @@ public class FilterOp extends AbstractOp {
         return new FilterOp(this);
     }
 
+    @Override
+    public boolean supportsRegionProcessing() {
+        return true;
+    }
+
     @Override
     public void process() throws Exception {
         PlanarImage source = (PlanarImage) params.get(Param.INPUT_IMG);
@@ -23,6 +23,16 @@ public interface ImageOpNode extends Copyable<ImageOpNode> {
 
         public static final String INPUT_IMG = "op.input.img"; //$NON-NLS-1$
         public static final String OUTPUT_IMG = "op.output.img"; //$NON-NLS-1$
+        /**
+         * Transformation from the coordinates of the source image to the coordinates of the input image, when only a
+         * region or a reduced resolution of the source image is processed (AffineTransform, null means identity).
+         */
+        public static final String INPUT_TRANSFORM = "op.input.transform"; //$NON-NLS-1$
+        /**
+         * Intermediate result of the operation which can be reused when only the parameters of its last steps change
+         * (IntermediateImage, e.g. the image after the modality LUT).
+         */
+        public static final String INTERMEDIATE_IMG = "op.output.intermediate"; //$NON-NLS-1$
 
         private Param() {
         }
@@ -55,4 +65,22 @@ public interface ImageOpNode extends Copyable<ImageOpNode> {
 
     void handleImageOpEvent(ImageOpEvent event);
 
+    /**
+     * @return true when a parameter (other than the input and output values) has changed since the last processing
+     */
+    default boolean isDirty() {
+        return true;
+    }
+
+    default void setDirty(boolean dirty) {
+    }
+
+    /**
+     * @return true when the operation can be applied on a region or on a reduced resolution of the source image (see
+     *         {@link Param#INPUT_TRANSFORM})
+     */
+    default boolean supportsRegionProcessing() {
+        return false;
+    }
+
 }
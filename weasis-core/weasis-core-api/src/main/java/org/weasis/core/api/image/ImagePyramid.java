@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.weasis.opencv.data.ImageCV;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Multi-resolution view of a single image. The reduced levels are computed on demand (by area averaging) and kept until
+ * {@link #release()}.
+ *
+ */
+public class ImagePyramid implements MultiResolutionSource {
+
+    // Do not build levels smaller than this size
+    private static final int MIN_LEVEL_SIZE = 64;
+
+    private final PlanarImage source;
+    private final List<PlanarImage> levels;
+    private final int levelCount;
+
+    public ImagePyramid(PlanarImage source) {
+        this.source = Objects.requireNonNull(source);
+        this.levels = new ArrayList<>();
+        this.levels.add(source);
+        int count = 1;
+        int w = source.width();
+        int h = source.height();
+        while (Math.min(w, h) / 2 >= MIN_LEVEL_SIZE) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+            count++;
+        }
+        this.levelCount = count;
+    }
+
+    public PlanarImage getSource() {
+        return source;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    @Override
+    public synchronized PlanarImage getLevel(int level) {
+        if (level < 0 || level >= levelCount) {
+            throw new IllegalArgumentException("No resolution level " + level); //$NON-NLS-1$
+        }
+        while (levels.size() <= level) {
+            PlanarImage previous = levels.get(levels.size() - 1);
+            ImageCV dstImg = new ImageCV();
+            Imgproc.resize(previous.toMat(), dstImg,
+                new Size((previous.width() + 1) / 2.0, (previous.height() + 1) / 2.0), 0, 0, Imgproc.INTER_AREA);
+            levels.add(dstImg);
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * Releases the reduced levels, the source image is not released.
+     */
+    public synchronized void release() {
+        for (int i = 1; i < levels.size(); i++) {
+            levels.get(i).release();
+        }
+        levels.subList(1, levels.size()).clear();
+    }
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.image;
+
+import org.weasis.opencv.data.ImageSize;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Keeps the result of the first steps of an operation (e.g. the modality LUT before the VOI LUT) to be reused as long
+ * as the source image and the transformation are the same instances.
+ *
+ * @see org.weasis.core.api.image.ImageOpNode.Param#INTERMEDIATE_IMG
+ */
+public final class IntermediateImage implements ImageSize {
+
+    private PlanarImage source;
+    private Object transformation;
+    private PlanarImage image;
+
+    public synchronized PlanarImage get(PlanarImage source, Object transformation) {
+        if (source != null && this.source == source && this.transformation == transformation) {
+            return image;
+        }
+        return null;
+    }
+
+    public synchronized void set(PlanarImage source, Object transformation, PlanarImage image) {
+        this.source = source;
+        this.transformation = transformation;
+        this.image = image;
+    }
+
+    @Override
+    public synchronized long physicalBytes() {
+        return image == null ? 0L : image.physicalBytes();
+    }
+}
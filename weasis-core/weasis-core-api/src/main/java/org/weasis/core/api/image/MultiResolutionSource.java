@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.image;
+
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * An image available at several resolutions. The level 0 is the full resolution and each level is about half the size
+ * of the previous one.
+ *
+ */
+public interface MultiResolutionSource {
+
+    int getLevelCount();
+
+    /**
+     * @param level
+     *            the resolution level, between 0 and getLevelCount() - 1
+     * @return the image at the given resolution level
+     */
+    PlanarImage getLevel(int level);
+}
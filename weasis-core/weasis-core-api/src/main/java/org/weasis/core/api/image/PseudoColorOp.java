@@ -53,6 +53,11 @@ public class PseudoColorOp extends AbstractOp {
         return new PseudoColorOp(this);
     }
 
+    @Override
+    public boolean supportsRegionProcessing() {
+        return true;
+    }
+
     @Override
     public void process() throws Exception {
         PlanarImage source = (PlanarImage) params.get(Param.INPUT_IMG);
@@ -10,6 +10,10 @@
  *******************************************************************************/
 package org.weasis.core.api.image;
 
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -20,7 +24,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.Messages;
 import org.weasis.core.api.image.ImageOpNode.Param;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.opencv.data.ImageSize;
 import org.weasis.opencv.data.PlanarImage;
+import org.weasis.opencv.op.ImageProcessor;
 
 public class SimpleOpManager implements OpManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleOpManager.class);
@@ -31,9 +38,23 @@ public class SimpleOpManager implements OpManager {
         BEFORE, AFTER
     }
 
+    // Extra pixels around the visible region for the interpolation and the filter kernels
+    private static final int REGION_MARGIN = 8;
+
+    // Memory budget for the intermediate outputs kept to avoid re-executing the unchanged operations
+    private static final long CACHE_MAX_BYTES =
+        BundleTools.SYSTEM_PREFERENCES.getIntProperty("weasis.display.op.cache.size", 64) * 1024L * 1024L; //$NON-NLS-1$
+
     private final HashMap<String, ImageOpNode> nodes;
     private final List<ImageOpNode> operations;
     private String name;
+    private volatile boolean regionProcessing;
+    private ImagePyramid pyramid;
+    private PlanarImage regionLevel;
+    private Rectangle regionBounds;
+    private PlanarImage regionInput;
+    private Object processedInput;
+    private boolean invalidated;
 
     public SimpleOpManager() {
         this(IMAGE_OP_NAME);
@@ -72,6 +93,43 @@ public class SimpleOpManager implements OpManager {
         return name;
     }
 
+    public boolean isRegionProcessing() {
+        return regionProcessing;
+    }
+
+    /**
+     * When enabled and the last geometric operation is an AffineTransformOp, the operations are applied only on the
+     * region of the source image that is visible in the destination bounds and at the lowest resolution level that
+     * keeps the display resolution. All the operations before the AffineTransformOp must support the region
+     * processing, otherwise the full image is processed.
+     *
+     * @param regionProcessing
+     */
+    public void setRegionProcessing(boolean regionProcessing) {
+        this.regionProcessing = regionProcessing;
+        if (!regionProcessing) {
+            releasePyramid();
+        }
+    }
+
+    private synchronized void releasePyramid() {
+        if (pyramid != null) {
+            pyramid.release();
+            pyramid = null;
+        }
+        regionLevel = null;
+        regionBounds = null;
+        regionInput = null;
+    }
+
+    /**
+     * Forces all the operations to be executed at the next processing, even those whose parameters and input have not
+     * changed.
+     */
+    public void invalidate() {
+        this.invalidated = true;
+    }
+
     @Override
     public List<ImageOpNode> getOperations() {
         return operations;
@@ -129,6 +187,7 @@ public class SimpleOpManager implements OpManager {
         clearNodeParams();
         operations.clear();
         nodes.clear();
+        releasePyramid();
     }
 
     @Override
@@ -143,6 +202,7 @@ public class SimpleOpManager implements OpManager {
         for (ImageOpNode node : operations) {
             node.clearIOCache();
         }
+        processedInput = null;
     }
 
     @Override
@@ -207,35 +267,204 @@ public class SimpleOpManager implements OpManager {
         if (node != null) {
             node.setParam(Param.OUTPUT_IMG, null);
         }
+        invalidate();
     }
 
     @Override
     public PlanarImage process() {
         PlanarImage source = getFirstNodeInputImage();
         if (source != null && source.width() > 0) {
-            for (int i = 0; i < operations.size(); i++) {
-                ImageOpNode op = operations.get(i);
-                try {
-                    if (i > 0) {
-                        op.setParam(Param.INPUT_IMG, operations.get(i - 1).getParam(Param.OUTPUT_IMG));
-                    }
-                    if (op.isEnabled()) {
-                        op.process();
-                    } else {
-                        // Skip this operation
-                        op.setParam(Param.OUTPUT_IMG, op.getParam(Param.INPUT_IMG));
-                    }
-                } catch (Exception e) {
-                    LOGGER.error("Image {} failed: {}", op.getParam(Param.NAME), e); //$NON-NLS-1$
-                    op.setParam(Param.OUTPUT_IMG, op.getParam(Param.INPUT_IMG));
+            ImageOpNode affineNode = regionProcessing ? getRegionTarget() : null;
+            double[] matrix = null;
+            AffineTransform inputTransform = null;
+            if (affineNode != null) {
+                matrix = (double[]) affineNode.getParam(AffineTransformOp.P_AFFINE_MATRIX);
+                inputTransform = setVisibleRegion(source, affineNode);
+            }
+            try {
+                processOperations(affineNode, inputTransform);
+            } finally {
+                if (inputTransform != null) {
+                    operations.get(0).setParam(Param.INPUT_IMG, source);
+                    affineNode.setParam(AffineTransformOp.P_AFFINE_MATRIX, matrix);
                 }
             }
         } else {
             clearNodeIOCache();
+            releasePyramid();
         }
         return getLastNodeOutputImage();
     }
 
+    private void processOperations(ImageOpNode affineNode, AffineTransform inputTransform) {
+        boolean beforeAffine = inputTransform != null;
+        Object firstInput = operations.get(0).getParam(Param.INPUT_IMG);
+        // Only the operations from the first one having a new input or a modified parameter are executed again
+        boolean changed = invalidated || firstInput != processedInput;
+        invalidated = false;
+        processedInput = firstInput;
+        for (int i = 0; i < operations.size(); i++) {
+            ImageOpNode op = operations.get(i);
+            try {
+                if (i > 0) {
+                    op.setParam(Param.INPUT_IMG, operations.get(i - 1).getParam(Param.OUTPUT_IMG));
+                }
+                if (op == affineNode) {
+                    beforeAffine = false;
+                }
+                op.setParam(Param.INPUT_TRANSFORM, beforeAffine ? inputTransform : null);
+                if (!changed && !op.isDirty() && op.getParam(Param.OUTPUT_IMG) != null) {
+                    continue;
+                }
+                changed = true;
+                op.setDirty(false);
+                if (op.isEnabled()) {
+                    op.process();
+                } else {
+                    // Skip this operation
+                    op.setParam(Param.OUTPUT_IMG, op.getParam(Param.INPUT_IMG));
+                }
+            } catch (Exception e) {
+                LOGGER.error("Image {} failed: {}", op.getParam(Param.NAME), e); //$NON-NLS-1$
+                op.setParam(Param.OUTPUT_IMG, op.getParam(Param.INPUT_IMG));
+            }
+        }
+        releaseIntermediateOutputs();
+    }
+
+    /**
+     * Keeps the intermediate outputs in the memory budget, starting with the ones at the end of the chain because
+     * their operations are modified more often (e.g. zoom and pan).
+     */
+    private void releaseIntermediateOutputs() {
+        long size = 0;
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            ImageOpNode op = operations.get(i);
+            Object output = op.getParam(Param.OUTPUT_IMG);
+            if (i < operations.size() - 1 && output instanceof ImageSize && output != op.getParam(Param.INPUT_IMG)) {
+                size += ((ImageSize) output).physicalBytes();
+                if (size > CACHE_MAX_BYTES) {
+                    op.setParam(Param.OUTPUT_IMG, null);
+                    operations.get(i + 1).setParam(Param.INPUT_IMG, null);
+                }
+            }
+            Object intermediate = op.getParam(Param.INTERMEDIATE_IMG);
+            if (intermediate instanceof ImageSize) {
+                size += ((ImageSize) intermediate).physicalBytes();
+                if (size > CACHE_MAX_BYTES) {
+                    op.setParam(Param.INTERMEDIATE_IMG, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the AffineTransformOp when all the enabled operations before it support the region processing
+     */
+    private ImageOpNode getRegionTarget() {
+        for (int i = 0; i < operations.size(); i++) {
+            ImageOpNode op = operations.get(i);
+            if (op instanceof AffineTransformOp) {
+                return i == 0 ? null : op;
+            }
+            if (op.isEnabled() && !op.supportsRegionProcessing()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the input of the first operation by the part of the source image which is visible through the affine
+     * transformation and adapts the transformation to the new input.
+     *
+     * @return the transformation from the source image to the new input or null when the full image must be processed
+     */
+    private AffineTransform setVisibleRegion(PlanarImage source, ImageOpNode affineNode) {
+        double[] m = (double[]) affineNode.getParam(AffineTransformOp.P_AFFINE_MATRIX);
+        Rectangle2D bounds = (Rectangle2D) affineNode.getParam(AffineTransformOp.P_DST_BOUNDS);
+        if (m == null || m.length < 6 || bounds == null || bounds.isEmpty()) {
+            return null;
+        }
+        AffineTransform srcToDst = new AffineTransform(m[0], m[3], m[1], m[4], m[2], m[5]);
+        Rectangle2D visible;
+        try {
+            visible = srcToDst.createInverse()
+                .createTransformedShape(new Rectangle2D.Double(0, 0, bounds.getWidth(), bounds.getHeight()))
+                .getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+
+        // Choose the lowest resolution level which is still larger than the display resolution
+        MultiResolutionSource levels = getMultiResolutionSource(source);
+        double scale = Math.max(Math.hypot(m[0], m[3]), Math.hypot(m[1], m[4]));
+        int level = 0;
+        while (level + 1 < levels.getLevelCount() && scale * (1 << (level + 1)) <= 1.0) {
+            level++;
+        }
+        PlanarImage img = level == 0 ? source : levels.getLevel(level);
+        double fx = source.width() / (double) img.width();
+        double fy = source.height() / (double) img.height();
+
+        // Visible region in the coordinates of the level (resize aligns the centers of the pixels)
+        int x1 = (int) Math.floor((visible.getMinX() + 0.5) / fx - 0.5) - REGION_MARGIN;
+        int y1 = (int) Math.floor((visible.getMinY() + 0.5) / fy - 0.5) - REGION_MARGIN;
+        int x2 = (int) Math.ceil((visible.getMaxX() + 0.5) / fx - 0.5) + REGION_MARGIN;
+        int y2 = (int) Math.ceil((visible.getMaxY() + 0.5) / fy - 0.5) + REGION_MARGIN;
+        Rectangle region =
+            new Rectangle(x1, y1, x2 - x1, y2 - y1).intersection(new Rectangle(img.width(), img.height()));
+        if (region.isEmpty() || (level == 0 && region.width == img.width() && region.height == img.height())) {
+            return null;
+        }
+
+        // Transformation from the input to the source image
+        AffineTransform inputToSrc = new AffineTransform(fx, 0.0, 0.0, fy, fx * (region.x + 0.5) - 0.5,
+            fy * (region.y + 0.5) - 0.5);
+        AffineTransform inputToDst = new AffineTransform(srcToDst);
+        inputToDst.concatenate(inputToSrc);
+        AffineTransform srcToInput;
+        try {
+            srcToInput = inputToSrc.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+
+        PlanarImage input = getRegionInput(img, region);
+        operations.get(0).setParam(Param.INPUT_IMG, input);
+        affineNode.setParam(AffineTransformOp.P_AFFINE_MATRIX,
+            new double[] { inputToDst.getScaleX(), inputToDst.getShearX(), inputToDst.getTranslateX(),
+                inputToDst.getShearY(), inputToDst.getScaleY(), inputToDst.getTranslateY() });
+        return srcToInput;
+    }
+
+    /**
+     * @return the same instance as long as the visible region does not change, so the operations after the first one
+     *         are not executed again
+     */
+    private synchronized PlanarImage getRegionInput(PlanarImage img, Rectangle region) {
+        if (region.width == img.width() && region.height == img.height()) {
+            return img;
+        }
+        if (img != regionLevel || !region.equals(regionBounds)) {
+            regionLevel = img;
+            regionBounds = region;
+            regionInput = ImageProcessor.crop(img.toMat(), region);
+        }
+        return regionInput;
+    }
+
+    private synchronized MultiResolutionSource getMultiResolutionSource(PlanarImage source) {
+        if (source instanceof MultiResolutionSource) {
+            return (MultiResolutionSource) source;
+        }
+        if (pyramid == null || pyramid.getSource() != source) {
+            releasePyramid();
+            pyramid = new ImagePyramid(source);
+        }
+        return pyramid;
+    }
+
     @Override
     public Object getParamValue(String opName, String param) {
         if (opName != null && param != null) {
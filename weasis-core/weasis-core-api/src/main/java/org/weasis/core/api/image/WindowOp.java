@@ -40,6 +40,11 @@ public class WindowOp extends AbstractOp {
         return new WindowOp(this);
     }
 
+    @Override
+    public boolean supportsRegionProcessing() {
+        return true;
+    }
+
     @Override
     public void handleImageOpEvent(ImageOpEvent event) {
         OpEvent type = event.getEventType();
@@ -70,6 +75,10 @@ public class WindowOp extends AbstractOp {
         ImageElement imageElement = (ImageElement) params.get(P_IMAGE_ELEMENT);
 
         if (imageElement != null) {
+            if (params.get(Param.INTERMEDIATE_IMG) == null) {
+                // Allows the image element to keep the modality transformation during the window/level changes
+                params.put(Param.INTERMEDIATE_IMG, new IntermediateImage());
+            }
             result = imageElement.getRenderedImage(source, params);
         }
 
@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.image.util;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Summed-area tables (sum, sum of squares and number of pixels) and row extrema of a single channel image, for
+ * computing the statistics of a ROI while it is drawn. The pixels of a ROI are the ones having their center inside the
+ * shape, each row of the ROI is a span of pixels requiring only a few lookups: the mean and the standard deviation of a
+ * rectangle are computed in constant time and the ones of the other shapes in a time proportional to the number of
+ * rows.
+ * <p>
+ * The minimum and the maximum use the extrema of blocks of 16 pixels of each row, indexed by a sparse table giving the
+ * extrema of any range of blocks with two lookups.
+ */
+public final class RoiStatisticsTable {
+    /** Above this size the tables would require too much memory */
+    public static final int MAX_PIXELS = 2048 * 1024;
+
+    private static final int BLOCK_SHIFT = 4;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private static final Object LOCK = new Object();
+    private static WeakReference<PlanarImage> lastImage;
+    private static RoiStatisticsTable lastTable;
+
+    private final int width;
+    private final int height;
+    private final float[] pixels;
+    private final Integer paddingValue;
+    private final Integer paddingLimit;
+    // (width + 1) * (height + 1), the first row and the first column are 0
+    private final double[] sum;
+    private final double[] sumSquares;
+    private final int[] count;
+    // [level][row * nbBlocks + block]
+    private final float[][] minTable;
+    private final float[][] maxTable;
+    private final int nbBlocks;
+
+    RoiStatisticsTable(float[] pixels, int width, int height, Integer paddingValue, Integer paddingLimit) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Invalid image size"); //$NON-NLS-1$
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.paddingValue = paddingValue;
+        this.paddingLimit = paddingLimit;
+        double padMin = Double.NaN;
+        double padMax = Double.NaN;
+        if (paddingValue != null) {
+            int limit = paddingLimit == null ? paddingValue : paddingLimit;
+            padMin = Math.min(paddingValue, limit);
+            padMax = Math.max(paddingValue, limit);
+        }
+        boolean padding = paddingValue != null;
+
+        int w1 = width + 1;
+        this.sum = new double[w1 * (height + 1)];
+        this.sumSquares = new double[sum.length];
+        this.count = padding ? new int[sum.length] : null;
+        this.nbBlocks = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        int nbLevels = nbBlocks == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(nbBlocks);
+        this.minTable = new float[nbLevels][];
+        this.maxTable = new float[nbLevels][];
+        float[] bmin = new float[height * nbBlocks];
+        float[] bmax = new float[height * nbBlocks];
+        Arrays.fill(bmin, Float.POSITIVE_INFINITY);
+        Arrays.fill(bmax, Float.NEGATIVE_INFINITY);
+
+        for (int y = 0; y < height; y++) {
+            double rowSum = 0.0;
+            double rowSquares = 0.0;
+            int rowCount = 0;
+            int prev = y * w1;
+            int cur = prev + w1;
+            for (int x = 0; x < width; x++) {
+                float v = pixels[y * width + x];
+                if (!padding || v < padMin || v > padMax) {
+                    rowSum += v;
+                    rowSquares += (double) v * v;
+                    rowCount++;
+                    int b = y * nbBlocks + (x >> BLOCK_SHIFT);
+                    if (v < bmin[b]) {
+                        bmin[b] = v;
+                    }
+                    if (v > bmax[b]) {
+                        bmax[b] = v;
+                    }
+                }
+                sum[cur + x + 1] = sum[prev + x + 1] + rowSum;
+                sumSquares[cur + x + 1] = sumSquares[prev + x + 1] + rowSquares;
+                if (padding) {
+                    count[cur + x + 1] = count[prev + x + 1] + rowCount;
+                }
+            }
+        }
+
+        minTable[0] = bmin;
+        maxTable[0] = bmax;
+        for (int l = 1; l < nbLevels; l++) {
+            int half = 1 << (l - 1);
+            float[] pmin = minTable[l - 1];
+            float[] pmax = maxTable[l - 1];
+            float[] lmin = new float[pmin.length];
+            float[] lmax = new float[pmax.length];
+            for (int y = 0; y < height; y++) {
+                int row = y * nbBlocks;
+                for (int b = 0; b + (1 << l) <= nbBlocks; b++) {
+                    lmin[row + b] = Math.min(pmin[row + b], pmin[row + b + half]);
+                    lmax[row + b] = Math.max(pmax[row + b], pmax[row + b + half]);
+                }
+            }
+            minTable[l] = lmin;
+            maxTable[l] = lmax;
+        }
+    }
+
+    /**
+     * @return the table of the image, built at the first call and kept for the last image. Returns null when the image
+     *         is not a single channel image or is too large.
+     */
+    public static RoiStatisticsTable getTable(PlanarImage image, Integer paddingValue, Integer paddingLimit) {
+        if (image == null || image.channels() != 1 || (long) image.width() * image.height() > MAX_PIXELS
+            || image.width() < 1 || image.height() < 1) {
+            return null;
+        }
+        synchronized (LOCK) {
+            PlanarImage img = lastImage == null ? null : lastImage.get();
+            if (img == image && lastTable != null && Objects.equals(lastTable.paddingValue, paddingValue)
+                && Objects.equals(lastTable.paddingLimit, paddingLimit)) {
+                return lastTable;
+            }
+            // Release the previous table before building the new one
+            lastImage = null;
+            lastTable = null;
+
+            Mat mat = new Mat();
+            image.toMat().convertTo(mat, CvType.CV_32F);
+            float[] data = new float[image.width() * image.height()];
+            mat.get(0, 0, data);
+            mat.release();
+
+            lastTable = new RoiStatisticsTable(data, image.width(), image.height(), paddingValue, paddingLimit);
+            lastImage = new WeakReference<>(image);
+            return lastTable;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param roi
+     *            the shape in the image coordinates
+     * @return the minimum, the maximum, the mean and the standard deviation ([4][1], like
+     *         ImageProcessor.meanStdDev()), or null when the shape does not contain any pixel
+     */
+    public double[][] getStatistics(Shape roi) {
+        Stats stats = new Stats();
+        if (roi instanceof Rectangle2D) {
+            addRectangle((Rectangle2D) roi, stats);
+        } else {
+            addShape(Objects.requireNonNull(roi), stats);
+        }
+        if (stats.count == 0) {
+            return null;
+        }
+        double mean = stats.sum / stats.count;
+        double variance = Math.max(0.0, stats.sumSquares / stats.count - mean * mean);
+        return new double[][] { { stats.min }, { stats.max }, { mean }, { Math.sqrt(variance) } };
+    }
+
+    private void addRectangle(Rectangle2D rect, Stats stats) {
+        int x0 = Math.max(0, firstPixel(rect.getMinX()));
+        int x1 = Math.min(width - 1, firstPixel(rect.getMaxX()) - 1);
+        int y0 = Math.max(0, firstPixel(rect.getMinY()));
+        int y1 = Math.min(height - 1, firstPixel(rect.getMaxY()) - 1);
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        int w1 = width + 1;
+        int a = y0 * w1 + x0;
+        int b = y0 * w1 + x1 + 1;
+        int c = (y1 + 1) * w1 + x0;
+        int d = (y1 + 1) * w1 + x1 + 1;
+        stats.sum += sum[d] - sum[b] - sum[c] + sum[a];
+        stats.sumSquares += sumSquares[d] - sumSquares[b] - sumSquares[c] + sumSquares[a];
+        stats.count += count == null ? (x1 - x0 + 1) * (y1 - y0 + 1) : count[d] - count[b] - count[c] + count[a];
+        for (int y = y0; y <= y1; y++) {
+            addRowExtrema(y, x0, x1, stats);
+        }
+    }
+
+    private void addShape(Shape shape, Stats stats) {
+        int[] spans = getSpans(shape, width, height);
+        for (int i = 0; i < spans.length; i += 3) {
+            addRow(spans[i], spans[i + 1], spans[i + 2], stats);
+        }
+    }
+
+    /**
+     * @param roi
+     *            the shape in the image coordinates
+     * @return the rows of pixels having their center inside the shape and inside the image, as triplets (y, first x,
+     *         last x)
+     */
+    public static int[] getSpans(Shape roi, int width, int height) {
+        Rectangle2D bounds = roi.getBounds2D();
+        int y0 = Math.max(0, firstPixel(bounds.getMinY()));
+        int y1 = Math.min(height - 1, firstPixel(bounds.getMaxY()) - 1);
+        if (y0 > y1) {
+            return new int[0];
+        }
+        if (roi instanceof Rectangle2D) {
+            int x0 = Math.max(0, firstPixel(bounds.getMinX()));
+            int x1 = Math.min(width - 1, firstPixel(bounds.getMaxX()) - 1);
+            if (x0 > x1) {
+                return new int[0];
+            }
+            int[] spans = new int[(y1 - y0 + 1) * 3];
+            for (int y = y0; y <= y1; y++) {
+                int k = (y - y0) * 3;
+                spans[k] = y;
+                spans[k + 1] = x0;
+                spans[k + 2] = x1;
+            }
+            return spans;
+        }
+
+        double[] edges = getEdges(roi);
+        int nbEdges = edges.length / 4;
+        double[] crossings = new double[Math.max(2, nbEdges)];
+        int[] spans = new int[(y1 - y0 + 1) * 3];
+        int nbSpans = 0;
+        for (int y = y0; y <= y1; y++) {
+            double cy = y + 0.5;
+            int nb = 0;
+            for (int e = 0; e < nbEdges; e++) {
+                int k = e * 4;
+                double ya = edges[k + 1];
+                double yb = edges[k + 3];
+                // Half-open interval, a vertex shared by two edges is counted once
+                if ((ya <= cy && cy < yb) || (yb <= cy && cy < ya)) {
+                    double xa = edges[k];
+                    crossings[nb++] = xa + (cy - ya) * (edges[k + 2] - xa) / (yb - ya);
+                }
+            }
+            Arrays.sort(crossings, 0, nb);
+            // Even-odd rule
+            for (int i = 0; i + 1 < nb; i += 2) {
+                int x0 = Math.max(0, firstPixel(crossings[i]));
+                int x1 = Math.min(width - 1, firstPixel(crossings[i + 1]) - 1);
+                if (x0 <= x1) {
+                    if (nbSpans * 3 + 3 > spans.length) {
+                        spans = Arrays.copyOf(spans, spans.length * 2);
+                    }
+                    spans[nbSpans * 3] = y;
+                    spans[nbSpans * 3 + 1] = x0;
+                    spans[nbSpans * 3 + 2] = x1;
+                    nbSpans++;
+                }
+            }
+        }
+        return Arrays.copyOf(spans, nbSpans * 3);
+    }
+
+    /**
+     * @return the edges of the flattened shape (x1, y1, x2, y2)
+     */
+    private static double[] getEdges(Shape shape) {
+        double[] edges = new double[64];
+        int nb = 0;
+        double[] coords = new double[6];
+        double startX = 0;
+        double startY = 0;
+        double lastX = 0;
+        double lastY = 0;
+        PathIterator it = shape.getPathIterator(new AffineTransform(), 0.1);
+        while (!it.isDone()) {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO) {
+                if (lastX != startX || lastY != startY) {
+                    edges = addEdge(edges, nb++, lastX, lastY, startX, startY);
+                }
+                startX = lastX = coords[0];
+                startY = lastY = coords[1];
+            } else if (type == PathIterator.SEG_LINETO) {
+                edges = addEdge(edges, nb++, lastX, lastY, coords[0], coords[1]);
+                lastX = coords[0];
+                lastY = coords[1];
+            } else if (type == PathIterator.SEG_CLOSE) {
+                if (lastX != startX || lastY != startY) {
+                    edges = addEdge(edges, nb++, lastX, lastY, startX, startY);
+                }
+                lastX = startX;
+                lastY = startY;
+            }
+            it.next();
+        }
+        // The open sub-paths are closed like when filling the shape
+        if (lastX != startX || lastY != startY) {
+            edges = addEdge(edges, nb++, lastX, lastY, startX, startY);
+        }
+        return Arrays.copyOf(edges, nb * 4);
+    }
+
+    private static double[] addEdge(double[] edges, int index, double x1, double y1, double x2, double y2) {
+        double[] e = edges;
+        if (index * 4 + 4 > e.length) {
+            e = Arrays.copyOf(e, e.length * 2);
+        }
+        e[index * 4] = x1;
+        e[index * 4 + 1] = y1;
+        e[index * 4 + 2] = x2;
+        e[index * 4 + 3] = y2;
+        return e;
+    }
+
+    /**
+     * @return the index of the first pixel having its center after the position
+     */
+    private static int firstPixel(double position) {
+        return (int) Math.ceil(position - 0.5);
+    }
+
+    private void addRow(int y, int x0, int x1, Stats stats) {
+        int w1 = width + 1;
+        int a = y * w1 + x0;
+        int b = y * w1 + x1 + 1;
+        int c = a + w1;
+        int d = b + w1;
+        stats.sum += sum[d] - sum[b] - sum[c] + sum[a];
+        stats.sumSquares += sumSquares[d] - sumSquares[b] - sumSquares[c] + sumSquares[a];
+        stats.count += count == null ? x1 - x0 + 1 : count[d] - count[b] - count[c] + count[a];
+        addRowExtrema(y, x0, x1, stats);
+    }
+
+    private void addRowExtrema(int y, int x0, int x1, Stats stats) {
+        int b0 = (x0 + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        int b1 = ((x1 + 1) >> BLOCK_SHIFT) - 1;
+        if (b0 > b1) {
+            addPixels(y, x0, x1, stats);
+            return;
+        }
+        addPixels(y, x0, (b0 << BLOCK_SHIFT) - 1, stats);
+        addPixels(y, (b1 + 1) << BLOCK_SHIFT, x1, stats);
+
+        int level = 31 - Integer.numberOfLeadingZeros(b1 - b0 + 1);
+        int row = y * nbBlocks;
+        int last = row + b1 - (1 << level) + 1;
+        float min = Math.min(minTable[level][row + b0], minTable[level][last]);
+        float max = Math.max(maxTable[level][row + b0], maxTable[level][last]);
+        if (min < stats.min) {
+            stats.min = min;
+        }
+        if (max > stats.max) {
+            stats.max = max;
+        }
+    }
+
+    private void addPixels(int y, int x0, int x1, Stats stats) {
+        int offset = y * width;
+        for (int x = x0; x <= x1; x++) {
+            float v = pixels[offset + x];
+            if (isPadding(v)) {
+                continue;
+            }
+            if (v < stats.min) {
+                stats.min = v;
+            }
+            if (v > stats.max) {
+                stats.max = v;
+            }
+        }
+    }
+
+    private boolean isPadding(float v) {
+        if (paddingValue == null) {
+            return false;
+        }
+        int limit = paddingLimit == null ? paddingValue : paddingLimit;
+        return v >= Math.min(paddingValue, limit) && v <= Math.max(paddingValue, limit);
+    }
+
+    private static class Stats {
+        double sum = 0.0;
+        double sumSquares = 0.0;
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+    }
+}
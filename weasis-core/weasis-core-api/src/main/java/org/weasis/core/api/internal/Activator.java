@@ -47,6 +47,10 @@ public class Activator implements BundleActivator, ServiceListener {
 
         // Trick for avoiding 403 error when downloading from some web sites
         System.setProperty("http.agent", "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:40.0) Gecko/20100101 Firefox/40.1"); //$NON-NLS-1$ //$NON-NLS-2$
+        // Keep alive more connections by server (5 by default) for downloading images in parallel
+        if (System.getProperty("http.maxConnections") == null) { //$NON-NLS-1$
+            System.setProperty("http.maxConnections", "32"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
         // Allows to connect through a proxy initialized by Java Webstart
         ProxyDetector.setProxyFromJavaWebStart();
 
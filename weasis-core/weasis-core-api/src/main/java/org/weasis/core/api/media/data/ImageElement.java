@@ -17,8 +17,8 @@ import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -31,7 +31,8 @@ import org.weasis.core.api.image.OpManager;
 import org.weasis.core.api.image.ZoomOp;
 import org.weasis.core.api.image.measure.MeasurementsAdapter;
 import org.weasis.core.api.image.util.Unit;
-import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
+import org.weasis.core.api.service.BundleTools;
 import org.weasis.opencv.data.PlanarImage;
 import org.weasis.opencv.op.ImageConversion;
 import org.weasis.opencv.op.ImageProcessor;
@@ -39,7 +40,10 @@ import org.weasis.opencv.op.ImageProcessor;
 public class ImageElement extends MediaElement {
     private static final Logger LOGGER = LoggerFactory.getLogger(ImageElement.class);
 
-    public static final ExecutorService IMAGE_LOADER = ThreadUtil.buildNewSingleThreadExecutor("Image Loader"); //$NON-NLS-1$
+    public static final ImageLoadScheduler IMAGE_LOADER = new ImageLoadScheduler("Image Loader", //$NON-NLS-1$
+        BundleTools.SYSTEM_PREFERENCES.getIntProperty("weasis.image.loader.threads", //$NON-NLS-1$
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
+    private static final int MAX_LOADING_ATTEMPTS = 3;
 
     private static final NativeCache<ImageElement, PlanarImage> mCache =
         new NativeCache<ImageElement, PlanarImage>(Runtime.getRuntime().maxMemory() / 2) {
@@ -59,8 +63,8 @@ public class ImageElement extends MediaElement {
                 }
             }
         };
- 
-    protected boolean readable = true;
+
+    protected volatile boolean readable = true;
 
     protected double pixelSizeX = 1.0;
     protected double pixelSizeY = 1.0;
@@ -79,6 +83,27 @@ public class ImageElement extends MediaElement {
         return mCache.size();
     }
 
+    /**
+     * @return the maximum size in bytes of the image cache
+     */
+    public static long getCacheMemoryLimit() {
+        return mCache.getMaxMemory();
+    }
+
+    /**
+     * @return the size in bytes of the images in the cache
+     */
+    public static long getCacheMemoryUsed() {
+        return mCache.getUsedMemory();
+    }
+
+    /**
+     * @return the statistics of the image cache (hits, misses, evictions...)
+     */
+    public static String getCacheStatistics() {
+        return mCache.toString();
+    }
+
     protected void findMinMaxValues(PlanarImage img, boolean exclude8bitImage) throws OutOfMemoryError {
         // This function can be called several times from the inner class Load.
         // Do not compute min and max it has already be done
@@ -237,6 +262,21 @@ public class ImageElement extends MediaElement {
         mCache.remove(this);
     }
 
+    /**
+     * Keeps the image in the cache until {@link #unpinImage()} is called, typically while the image is displayed.
+     */
+    public void pinImage() {
+        mCache.pin(this);
+    }
+
+    public void unpinImage() {
+        mCache.unpin(this);
+    }
+
+    public boolean isImagePinned() {
+        return mCache.isPinned(this);
+    }
+
     public boolean hasSameSize(ImageElement image) {
         if (image != null) {
             PlanarImage img = getImage();
@@ -265,6 +305,14 @@ public class ImageElement extends MediaElement {
         return getRenderedImage(imageSource, null);
     }
 
+    /**
+     * @return the key identifying the thumbnail of the default rendering across the sessions, or null when the image
+     *         has no persistent identifier (the thumbnail is then not stored)
+     */
+    public String getThumbnailKey() {
+        return null;
+    }
+
     /**
      * @param imageSource
      *            is the RenderedImage upon which transformation is done
@@ -349,23 +397,64 @@ public class ImageElement extends MediaElement {
         return getMediaURI().toString();
     }
 
-    public synchronized PlanarImage getImage(OpManager manager, boolean findMinMax) {
+    public PlanarImage getImage(OpManager manager, boolean findMinMax) {
+        return getImage(manager, findMinMax, Priority.DISPLAY);
+    }
+
+    /**
+     * Returns the full size, original image (or the result of the operations when the manager is not null). The
+     * calling thread waits until the image is loaded.
+     *
+     * @param manager
+     *            the operations to apply to the image, can be null
+     * @param findMinMax
+     *            compute the min and max values of the image
+     * @param priority
+     *            the priority of the loading request
+     * @return the image or null if the image is not readable
+     */
+    public PlanarImage getImage(OpManager manager, boolean findMinMax, Priority priority) {
         try {
-            return getCacheImage(startImageLoading(), manager, findMinMax);
+            return getCacheImage(startImageLoading(priority), manager, findMinMax);
         } catch (OutOfMemoryError e1) {
             LOGGER.warn("Out of MemoryError: {}", this, e1); //$NON-NLS-1$
-            
+
             mCache.expungeStaleEntries();
             CvUtil.runGarbageCollectorAndWait(100);
 
-            return getCacheImage(startImageLoading(), manager, findMinMax);
+            return getCacheImage(startImageLoading(priority), manager, findMinMax);
+        }
+    }
+
+    /**
+     * Submits asynchronously the loading of the image into the cache.
+     *
+     * @param priority
+     *            the priority of the loading request
+     * @return the future of the loading task or null when the image is already in the cache or not readable
+     */
+    public Future<PlanarImage> preloadImage(Priority priority) {
+        if (readable && mCache.get(this) == null) {
+            return IMAGE_LOADER.submit(this, new Load(), priority);
         }
+        return null;
+    }
+
+    /**
+     * Cancels the loading request of this image if it is still waiting to be executed.
+     *
+     * @return true if the request has been cancelled
+     */
+    public boolean cancelImageLoading() {
+        return IMAGE_LOADER.cancel(this);
     }
 
     private PlanarImage getCacheImage(PlanarImage cacheImage, OpManager manager, boolean findMinMax) {
         if (findMinMax) {
             try {
-                findMinMaxValues(cacheImage, true);
+                synchronized (this) {
+                    findMinMaxValues(cacheImage, true);
+                }
             } catch (Exception e) {
                 mCache.remove(this);
                 readable = false;
@@ -390,39 +479,34 @@ public class ImageElement extends MediaElement {
         return getImage(null);
     }
 
-    private PlanarImage startImageLoading() throws OutOfMemoryError {
+    private PlanarImage startImageLoading(Priority priority) throws OutOfMemoryError {
         PlanarImage cacheImage;
-        if ((cacheImage = mCache.get(this)) == null && readable && setAsLoading()) {
+        if ((cacheImage = mCache.get(this)) == null && readable) {
             LOGGER.debug("Asking for reading image: {}", this); //$NON-NLS-1$
-            Load ref = new Load();
-            Future<PlanarImage> future = IMAGE_LOADER.submit(ref);
-            PlanarImage img = null;
-            try {
-                img = future.get();
-
-            } catch (InterruptedException e) {
-                // Re-assert the thread's interrupted status
-                Thread.currentThread().interrupt();
-                // We don't need the result, so cancel the task too
-                future.cancel(true);
-            } catch (ExecutionException e) {
-                if (e.getCause() instanceof OutOfMemoryError) {
-                    setAsLoaded();
-                    throw (OutOfMemoryError) e.getCause();
-                } else {
-                    readable = false;
-                    LOGGER.error("Cannot read pixel data!: {}", this, e); //$NON-NLS-1$
-                }
-            }
-            if (img != null) {
-                readable = img.width() > 0;
-                if (readable) {
-                    mCache.put(this, img);
-                    cacheImage = img;
-                    this.setTag(TagW.ImageCache, true);
+            // A prefetch request can be cancelled before a waiting request has been merged, then submit again
+            for (int attempt = 0; attempt < MAX_LOADING_ATTEMPTS && cacheImage == null; attempt++) {
+                // Concurrent requests of the same image share the same task
+                Future<PlanarImage> future = IMAGE_LOADER.submit(this, new Load(), priority);
+                try {
+                    cacheImage = future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Re-assert the thread's interrupted status, the task can be shared with other requests
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (CancellationException e) {
+                    LOGGER.debug("Loading image has been cancelled: {}", this); //$NON-NLS-1$
+                    cacheImage = mCache.get(this);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof OutOfMemoryError) {
+                        throw (OutOfMemoryError) e.getCause();
+                    } else {
+                        readable = false;
+                        LOGGER.error("Cannot read pixel data!: {}", this, e); //$NON-NLS-1$
+                    }
+                    break;
                 }
             }
-            setAsLoaded();
         }
         return cacheImage;
     }
@@ -441,7 +525,29 @@ public class ImageElement extends MediaElement {
 
         @Override
         public PlanarImage call() throws Exception {
-            return loadImage();
+            PlanarImage cacheImage = mCache.get(ImageElement.this);
+            if (cacheImage != null || !readable) {
+                return cacheImage;
+            }
+            setAsLoading();
+            try {
+                PlanarImage img;
+                // The frames of a multi-frame file share the same reader, which cannot decode them concurrently
+                synchronized (mediaIO) {
+                    img = loadImage();
+                }
+                if (img != null) {
+                    readable = img.width() > 0;
+                    if (readable) {
+                        mCache.put(ImageElement.this, img);
+                        setTag(TagW.ImageCache, true);
+                        return img;
+                    }
+                }
+                return null;
+            } finally {
+                setAsLoaded();
+            }
         }
     }
 
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.weasis.core.api.util.ThreadUtil;
+
+/**
+ * Multi-threaded scheduler for decoding images. Requests are executed by priority (and by submission order for the
+ * same priority), the requests having the same key are merged and the requests waiting in the queue can be cancelled
+ * when they are not relevant anymore (e.g. when scrolling quickly through a stack).
+ *
+ */
+public class ImageLoadScheduler {
+
+    /**
+     * The priority of a loading request. The declaration order defines the execution order.
+     */
+    public enum Priority {
+        /** Image displayed in a view, a thread is waiting for the result */
+        DISPLAY,
+        /** Image likely displayed soon (cine, scrolling) */
+        PREFETCH,
+        /** Image required for building a thumbnail */
+        THUMBNAIL,
+        /** Image required by a batch processing (MPR, MIP...) */
+        BATCH;
+
+        public boolean isHigherThan(Priority p) {
+            return p == null || ordinal() < p.ordinal();
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<Object, LoadTask<?>> pendingTasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ImageLoadScheduler(String name, int nThreads) {
+        int nbThreads = Math.max(1, nThreads);
+        this.executor = new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), ThreadUtil.getThreadFactory(name));
+        // All the threads are required to allow re-queuing a task directly in the queue
+        this.executor.prestartAllCoreThreads();
+    }
+
+    public int getThreadNumber() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Submits a loading task without merging with other requests.
+     *
+     * @param task
+     *            the task to execute
+     * @param priority
+     *            the priority of the request
+     * @return the future of the task
+     */
+    public <T> Future<T> submit(Callable<T> task, Priority priority) {
+        LoadTask<T> t = new LoadTask<>(null, task, priority, sequence.getAndIncrement());
+        executor.execute(t);
+        return t;
+    }
+
+    /**
+     * Submits a loading task. When a request with the same key is already pending, no new task is created and the
+     * pending task is returned (its priority is raised when the new request has a higher priority).
+     *
+     * @param key
+     *            the key identifying the loaded element (cannot be null)
+     * @param task
+     *            the task to execute
+     * @param priority
+     *            the priority of the request
+     * @return the future of the task
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submit(Object key, Callable<T> task, Priority priority) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(priority);
+        while (true) {
+            LoadTask<?> pending = pendingTasks.get(key);
+            if (pending == null) {
+                LoadTask<T> t = new LoadTask<>(key, task, priority, sequence.getAndIncrement());
+                if (pendingTasks.putIfAbsent(key, t) == null) {
+                    executor.execute(t);
+                    return t;
+                }
+            } else if (mergeTask(pending, priority)) {
+                return (Future<T>) pending;
+            } else {
+                pendingTasks.remove(key, pending);
+            }
+        }
+    }
+
+    /**
+     * Merges a new request into a pending task. The lock on the task makes the merge atomic with the cancellation: a
+     * task cannot be cancelled once a display request has been merged, and a cancelled task is never merged.
+     *
+     * @return false when the task is already completed or cancelled
+     */
+    private boolean mergeTask(LoadTask<?> task, Priority priority) {
+        synchronized (task) {
+            if (task.isDone()) {
+                return false;
+            }
+            raisePriority(task, priority);
+            return true;
+        }
+    }
+
+    private void raisePriority(LoadTask<?> task, Priority priority) {
+        if (priority.isHigherThan(task.priority)) {
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            // Re-insert the task at its new position, if it is still in the queue
+            if (queue.remove(task)) {
+                task.priority = priority;
+                queue.offer(task);
+            } else {
+                task.priority = priority;
+            }
+        }
+    }
+
+    /**
+     * Cancels the request of the given key if it is still waiting in the queue. Running requests and requests with
+     * the display priority are not cancelled.
+     *
+     * @param key
+     *            the key of the request
+     * @return true if the request has been cancelled
+     */
+    public boolean cancel(Object key) {
+        LoadTask<?> task = key == null ? null : pendingTasks.get(key);
+        return task != null && cancelTask(task);
+    }
+
+    /**
+     * Cancels all the requests waiting in the queue matching the filter, excepting the requests having the display
+     * priority.
+     *
+     * @param filter
+     *            the predicate applied on the key of the requests
+     * @return the number of cancelled requests
+     */
+    public int cancelAll(Predicate<Object> filter) {
+        int count = 0;
+        Iterator<LoadTask<?>> it = pendingTasks.values().iterator();
+        while (it.hasNext()) {
+            LoadTask<?> task = it.next();
+            if (filter.test(task.key) && cancelTask(task)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean cancelTask(LoadTask<?> task) {
+        synchronized (task) {
+            if (task.priority != Priority.DISPLAY && executor.getQueue().remove(task)) {
+                task.cancel(false);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public boolean isPending(Object key) {
+        LoadTask<?> task = key == null ? null : pendingTasks.get(key);
+        return task != null && !task.isDone();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        pendingTasks.clear();
+    }
+
+    private class LoadTask<T> extends FutureTask<T> implements Comparable<LoadTask<?>> {
+        private final Object key;
+        private final long seq;
+        private volatile Priority priority;
+
+        LoadTask(Object key, Callable<T> callable, Priority priority, long seq) {
+            super(callable);
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        protected void done() {
+            if (key != null) {
+                pendingTasks.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(LoadTask<?> o) {
+            int c = Integer.compare(priority.ordinal(), o.priority.ordinal());
+            return c == 0 ? Long.compare(seq, o.seq) : c;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
@@ -11,62 +11,126 @@
 package org.weasis.core.api.media.data;
 
 import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.weasis.opencv.data.PlanarImage;
+import org.weasis.opencv.data.ImageSize;
 
-public class NativeCache<K, V extends PlanarImage> extends AbstractMap<K, V> {
+/**
+ * Cache of native images limited by the size in bytes of its values.
+ * <p>
+ * The entries are distributed in independent shards (each one with its own lock) and the memory is accounted
+ * atomically. The eviction policy is similar to W-TinyLFU: a new entry goes first in a small LRU window, when leaving
+ * the window it is admitted in the main space only if it has been requested more often than the least recently used
+ * entry of the main space. Thus, scrolling once through a large series cannot flush the images used frequently.
+ * Pinned entries (e.g. the images currently displayed) are never evicted.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <V>
+ *            the type of values
+ */
+public class NativeCache<K, V extends ImageSize> extends AbstractMap<K, V> {
+
+    private static final int SHARD_NUMBER = 16;
+    // Proportion of the memory for the admission window
+    private static final int WINDOW_PERCENT = 10;
 
-    protected final Map<K, V> hash;
+    private final Shard<K, V>[] shards;
     private final long maxNativeMemory;
-    private volatile long useNativeMemory;
+    private final long maxWindowMemory;
+    private final AtomicLong useNativeMemory = new AtomicLong();
+    private final AtomicLong useWindowMemory = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrentHashMap<Object, AtomicInteger> pinnedKeys = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch(1024);
+    private final ReentrantLock evictionLock = new ReentrantLock();
 
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
+
+    @SuppressWarnings("unchecked")
     public NativeCache(long maxNativeMemory) {
         this.maxNativeMemory = maxNativeMemory;
-        this.useNativeMemory = 0;
-        this.hash = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true));
+        this.maxWindowMemory = maxNativeMemory * WINDOW_PERCENT / 100;
+        this.shards = new Shard[SHARD_NUMBER];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard<>();
+        }
+    }
+
+    private Shard<K, V> getShard(Object key) {
+        return shards[spread(key.hashCode()) & (SHARD_NUMBER - 1)];
+    }
+
+    private static int spread(int h) {
+        int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
     }
 
     @Override
     public V get(Object key) {
-        return hash.get(key);
+        if (key == null) {
+            return null;
+        }
+        sketch.increment(key);
+        Shard<K, V> shard = getShard(key);
+        Node<K, V> node;
+        shard.lock.lock();
+        try {
+            node = shard.window.get(key);
+            if (node == null) {
+                node = shard.main.get(key);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        node.tick = clock.incrementAndGet();
+        hitCount.increment();
+        return node.value;
     }
 
     public boolean isMemoryAvailable() {
-        return useNativeMemory < maxNativeMemory;
+        return useNativeMemory.get() < maxNativeMemory;
     }
 
+    /**
+     * Frees 5% of the maximum memory (plus the overflow) by evicting the least recently used and not pinned entries.
+     */
     public void expungeStaleEntries() {
-        if (!isMemoryAvailable()) {
-            synchronized (hash) {
-                List<K> remKeys = new ArrayList<>();
-                // 5% of max memory + diff
-                long maxfreeSize = maxNativeMemory / 20 + (useNativeMemory - maxNativeMemory);
-                long freeSize = 0;
-                
-                for (Map.Entry<K, V> e : hash.entrySet()) {
-                    freeSize += physicalBytes(e.getValue());
-                    if (freeSize > maxfreeSize) {
+        long used = useNativeMemory.get();
+        if (used >= maxNativeMemory) {
+            evictionLock.lock();
+            try {
+                long target = maxNativeMemory - maxNativeMemory / 20;
+                while (useNativeMemory.get() > target) {
+                    Node<K, V> victim = findVictim(null);
+                    if (victim == null) {
                         break;
                     }
-                    remKeys.add(e.getKey());
-                }
-
-                for (K key : remKeys) {
-                    V val = hash.remove(key);
-                    useNativeMemory -= physicalBytes(val);
-                    afterEntryRemove(key, val);
+                    evict(victim);
                 }
+            } finally {
+                evictionLock.unlock();
             }
         }
     }
 
-    private long physicalBytes(V val) {
+    private static long physicalBytes(ImageSize val) {
         if (val != null) {
             return val.physicalBytes();
         }
@@ -78,45 +142,391 @@ public class NativeCache<K, V extends PlanarImage> extends AbstractMap<K, V> {
 
     @Override
     public V put(K key, V value) {
-        expungeStaleEntries();
-        V result = hash.put(key, value);
-        useNativeMemory += physicalBytes(value);
-        useNativeMemory -= physicalBytes(result);
-        return result;
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        sketch.increment(key);
+        Node<K, V> node = new Node<>(key, value, physicalBytes(value));
+        node.tick = clock.incrementAndGet();
+        Node<K, V> old;
+        Shard<K, V> shard = getShard(key);
+        shard.lock.lock();
+        try {
+            old = removeNode(shard, key);
+            shard.window.put(key, node);
+        } finally {
+            shard.lock.unlock();
+        }
+        useNativeMemory.addAndGet(node.size);
+        useWindowMemory.addAndGet(node.size);
+        if (old != null) {
+            updateMemory(old, -old.size);
+        }
+        evictIfRequired();
+        return old == null ? null : old.value;
     }
 
     @Override
     public V remove(Object key) {
-        V val = hash.remove(key);
-        useNativeMemory -= physicalBytes(val);
-        afterEntryRemove((K) key, val);
-        return val;
+        if (key == null) {
+            return null;
+        }
+        Node<K, V> node;
+        Shard<K, V> shard = getShard(key);
+        shard.lock.lock();
+        try {
+            node = removeNode(shard, key);
+        } finally {
+            shard.lock.unlock();
+        }
+        if (node == null) {
+            return null;
+        }
+        updateMemory(node, -node.size);
+        afterEntryRemove(node.key, node.value);
+        return node.value;
+    }
+
+    private Node<K, V> removeNode(Shard<K, V> shard, Object key) {
+        Node<K, V> node = shard.window.remove(key);
+        return node == null ? shard.main.remove(key) : node;
+    }
+
+    private void updateMemory(Node<K, V> node, long delta) {
+        useNativeMemory.addAndGet(delta);
+        if (node.inWindow) {
+            useWindowMemory.addAndGet(delta);
+        }
+    }
+
+    private void evictIfRequired() {
+        if (useWindowMemory.get() <= maxWindowMemory && useNativeMemory.get() <= maxNativeMemory) {
+            return;
+        }
+        // Only one thread applies the policy, the other ones do not wait
+        if (evictionLock.tryLock()) {
+            try {
+                while (useWindowMemory.get() > maxWindowMemory) {
+                    Node<K, V> candidate = findVictim(Boolean.TRUE);
+                    if (candidate == null) {
+                        break;
+                    }
+                    admitCandidate(candidate);
+                }
+                while (useNativeMemory.get() > maxNativeMemory) {
+                    Node<K, V> victim = findVictim(null);
+                    if (victim == null) {
+                        break;
+                    }
+                    evict(victim);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void admitCandidate(Node<K, V> candidate) {
+        while (useNativeMemory.get() > maxNativeMemory) {
+            Node<K, V> victim = findVictim(Boolean.FALSE);
+            if (victim == null) {
+                break;
+            }
+            if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                rejectionCount.increment();
+                evict(candidate);
+                return;
+            }
+        }
+        Shard<K, V> shard = getShard(candidate.key);
+        shard.lock.lock();
+        try {
+            if (shard.window.remove(candidate.key, candidate)) {
+                candidate.inWindow = false;
+                useWindowMemory.addAndGet(-candidate.size);
+                shard.main.put(candidate.key, candidate);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        Shard<K, V> shard = getShard(node.key);
+        boolean removed;
+        shard.lock.lock();
+        try {
+            removed = node.inWindow ? shard.window.remove(node.key, node) : shard.main.remove(node.key, node);
+        } finally {
+            shard.lock.unlock();
+        }
+        if (removed) {
+            updateMemory(node, -node.size);
+            evictionCount.increment();
+            afterEntryRemove(node.key, node.value);
+        }
+    }
+
+    /**
+     * Finds the least recently used entry among the eldest entry of each shard.
+     *
+     * @param window
+     *            TRUE for the window, FALSE for the main space and null for both
+     * @return the entry to evict or null if all the entries are pinned
+     */
+    private Node<K, V> findVictim(Boolean window) {
+        Node<K, V> victim = null;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                if (window == null || window) {
+                    victim = older(victim, eldestUnpinned(shard.window));
+                }
+                if (window == null || !window) {
+                    victim = older(victim, eldestUnpinned(shard.main));
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return victim;
+    }
+
+    private static <K, V> Node<K, V> older(Node<K, V> n1, Node<K, V> n2) {
+        if (n1 == null) {
+            return n2;
+        }
+        if (n2 == null) {
+            return n1;
+        }
+        return n2.tick < n1.tick ? n2 : n1;
+    }
+
+    private Node<K, V> eldestUnpinned(LinkedHashMap<K, Node<K, V>> map) {
+        for (Node<K, V> node : map.values()) {
+            if (!pinnedKeys.containsKey(node.key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prevents the entry of this key to be evicted. The key can be pinned before the value is put into the cache.
+     * Each call must be balanced with a call of {@link #unpin(Object)}.
+     *
+     * @param key
+     *            the key to pin
+     */
+    public void pin(K key) {
+        if (key != null) {
+            pinnedKeys.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    public void unpin(K key) {
+        if (key != null) {
+            pinnedKeys.computeIfPresent(key, (k, v) -> v.decrementAndGet() <= 0 ? null : v);
+        }
+    }
+
+    public boolean isPinned(K key) {
+        return key != null && pinnedKeys.containsKey(key);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return the number of new entries that have been evicted by the admission policy
+     */
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    public long getUsedMemory() {
+        return useNativeMemory.get();
+    }
+
+    public long getMaxMemory() {
+        return maxNativeMemory;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NativeCache[size=%d, memory=%d/%d, hits=%d, misses=%d, evictions=%d, rejections=%d]", //$NON-NLS-1$
+            size(), getUsedMemory(), maxNativeMemory, getHitCount(), getMissCount(), getEvictionCount(),
+            getRejectionCount());
     }
 
     @Override
     public void clear() {
-        hash.clear();
-        useNativeMemory = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.window.clear();
+                shard.main.clear();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        useNativeMemory.set(0);
+        useWindowMemory.set(0);
     }
 
     @Override
     public int size() {
-        return hash.size();
+        int size = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.window.size() + shard.main.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
     }
 
+    /**
+     * @return a snapshot of the entries. Modifying the set has no effect on the cache.
+     */
     @Override
     public Set<Entry<K, V>> entrySet() {
-        return hash.entrySet();
+        Set<Entry<K, V>> set = new HashSet<>();
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                addEntries(set, shard.window);
+                addEntries(set, shard.main);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return set;
+    }
+
+    private static <K, V> void addEntries(Set<Entry<K, V>> set, Map<K, Node<K, V>> map) {
+        for (Node<K, V> node : map.values()) {
+            set.add(new SimpleImmutableEntry<>(node.key, node.value));
+        }
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return hash.containsKey(key);
+        if (key == null) {
+            return false;
+        }
+        Shard<K, V> shard = getShard(key);
+        shard.lock.lock();
+        try {
+            return shard.window.containsKey(key) || shard.main.containsKey(key);
+        } finally {
+            shard.lock.unlock();
+        }
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return hash.containsValue(value);
+        Iterator<Entry<K, V>> it = entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() == value) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    private static class Node<K, V> {
+        final K key;
+        final V value;
+        final long size;
+        volatile long tick;
+        volatile boolean inWindow = true;
+
+        Node(K key, V value, long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private static class Shard<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        // Access order: the first entry is the least recently used
+        final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<K, Node<K, V>> main = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /**
+     * Count-Min sketch of 4-bit counters estimating the access frequency of the keys. The counters are halved
+     * periodically so that the old accesses are progressively forgotten. The updates are not synchronized: losing an
+     * increment in case of concurrent access is acceptable for an estimation.
+     */
+    static class FrequencySketch {
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = { 0x97CB3127, 0xB2A1E4F1, 0xC3A5C85C, 0x8EBC6AF1 };
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(64, capacity) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = 10 * size;
+        }
+
+        private int indexOf(int hash, int i) {
+            int h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 16;
+            return h & (table.length - 1);
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int freq = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int offset = (hash >>> (i << 3)) & 0xF;
+                int count = (int) ((table[indexOf(hash, i)] >>> ((offset & 0xF) << 2)) & 0xFL);
+                freq = Math.min(freq, count);
+            }
+            return freq;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int offset = (hash >>> (i << 3)) & 0xF;
+                int index = indexOf(hash, i);
+                int shift = offset << 2;
+                if (((table[index] >>> shift) & 0xFL) != 0xFL) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions = additions / 2;
+        }
+    }
 }
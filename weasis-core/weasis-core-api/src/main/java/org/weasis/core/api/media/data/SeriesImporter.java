@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.weasis.core.api.media.data;
 
+import java.util.Comparator;
+
 import javax.swing.JProgressBar;
 
 public interface SeriesImporter {
@@ -24,4 +26,15 @@ public interface SeriesImporter {
 
     void setPriority();
 
+    /**
+     * Indicates the media displayed in a viewer, the loading of the other media can be ordered from its position.
+     *
+     * @param media
+     *            the displayed media, null when the series is not displayed anymore
+     * @param sort
+     *            the order of the media in the viewer
+     */
+    default void setFocusedMedia(MediaElement media, Comparator<?> sort) {
+    }
+
 }
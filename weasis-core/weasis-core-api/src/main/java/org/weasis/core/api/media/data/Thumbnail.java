@@ -23,6 +23,7 @@ import java.awt.event.MouseWheelListener;
 import java.awt.geom.AffineTransform;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -35,6 +36,8 @@ import javax.swing.JLabel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingWorker;
 
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfInt;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.slf4j.Logger;
@@ -42,10 +45,13 @@ import org.slf4j.LoggerFactory;
 import org.weasis.core.api.Messages;
 import org.weasis.core.api.gui.util.AppProperties;
 import org.weasis.core.api.image.OpManager;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
 import org.weasis.core.api.media.MimeInspector;
+import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.util.FileUtil;
 import org.weasis.core.api.util.FontTools;
 import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.opencv.data.ImageCV;
 import org.weasis.opencv.data.PlanarImage;
 import org.weasis.opencv.op.ImageConversion;
 import org.weasis.opencv.op.ImageProcessor;
@@ -56,7 +62,11 @@ public class Thumbnail extends JLabel implements Thumbnailable {
 
     public static final File THUMBNAIL_CACHE_DIR =
         AppProperties.buildAccessibleTempDirectory(AppProperties.FILE_CACHE_DIR.getName(), "thumb"); //$NON-NLS-1$
-    public static final ExecutorService THUMB_LOADER = ThreadUtil.buildNewSingleThreadExecutor("Thumbnail Loader"); //$NON-NLS-1$
+    // Several threads for building the thumbnails of an import in parallel
+    public static final ExecutorService THUMB_LOADER = ThreadUtil.buildNewFixedThreadExecutor(
+        BundleTools.SYSTEM_PREFERENCES.getIntProperty("weasis.thumbnail.loader.threads", //$NON-NLS-1$
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2))),
+        "Thumbnail Loader"); //$NON-NLS-1$
 
     public static final RenderingHints DownScaleQualityHints =
         new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
@@ -79,6 +89,8 @@ public class Thumbnail extends JLabel implements Thumbnailable {
     protected volatile boolean readable = true;
     protected volatile AtomicBoolean loading = new AtomicBoolean(false);
     protected File thumbnailPath = null;
+    // Key of the thumbnail in the persistent store
+    protected volatile String storeKey = null;
     protected int thumbnailSize;
 
     public Thumbnail(int thumbnailSize) {
@@ -204,6 +216,21 @@ public class Thumbnail extends JLabel implements Thumbnailable {
 
     @Override
     public File getThumbnailPath() {
+        String key = storeKey;
+        if (thumbnailPath == null && key != null) {
+            // Extract the thumbnail from the store only when a file is required
+            byte[] data = ThumbnailStore.get(key);
+            if (data != null) {
+                try {
+                    // Unique name, the thumbnail file is removed when disposing
+                    File file = File.createTempFile("tumb_", ".jpg", THUMBNAIL_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
+                    Files.write(file.toPath(), data);
+                    thumbnailPath = file;
+                } catch (IOException e) {
+                    LOGGER.error("Cannot write thumbnail!", e);//$NON-NLS-1$
+                }
+            }
+        }
         return thumbnailPath;
     }
 
@@ -253,10 +280,40 @@ public class Thumbnail extends JLabel implements Thumbnailable {
             if (noPath) {
                 if (media instanceof ImageElement) {
                     final ImageElement image = (ImageElement) media;
-                    PlanarImage imgPl = image.getImage(opManager);
+                    // The key describes only the default rendering
+                    String key = opManager == null ? image.getThumbnailKey() : null;
+                    if (key != null) {
+                        storeKey = key;
+                        PlanarImage stored = readFromStore(key);
+                        if (stored != null) {
+                            mCache.put(this, stored);
+                            return;
+                        }
+                    }
+                    PlanarImage imgPl = image.getImage(opManager, true, Priority.THUMBNAIL);
                     if (imgPl != null) {
                         PlanarImage img = image.getRenderedImage(imgPl);
                         final PlanarImage thumb = createThumbnail(img);
+                        if (thumb != null && key != null && ThumbnailStore.isEnabled()) {
+                            try {
+                                MatOfByte buf = new MatOfByte();
+                                if (Imgcodecs.imencode(".jpg", thumb.toMat(), buf, //$NON-NLS-1$
+                                    new MatOfInt(Imgcodecs.CV_IMWRITE_JPEG_QUALITY, 80))) {
+                                    ThumbnailStore.put(key, buf.toArray());
+                                }
+                                buf.release();
+                                PlanarImage small = resize(thumb);
+                                if (small != thumb) {
+                                    thumb.release();
+                                }
+                                mCache.put(this, small);
+                            } finally {
+                                if (!keepMediaCache) {
+                                    image.removeImageFromCache();
+                                }
+                            }
+                            return;
+                        }
                         if (thumb != null) {
                             try {
                                 file = File.createTempFile("tumb_", ".jpg", Thumbnail.THUMBNAIL_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
@@ -299,23 +356,11 @@ public class Thumbnail extends JLabel implements Thumbnailable {
                 }
             } else {
                 Load ref = new Load(file);
-                // loading images sequentially, only one thread pool
-                Future<PlanarImage> future = ImageElement.IMAGE_LOADER.submit(ref);
+                // Thumbnails have a lower priority than the images displayed
+                Future<PlanarImage> future = ImageElement.IMAGE_LOADER.submit(ref, Priority.THUMBNAIL);
                 PlanarImage thumb = null;
                 try {
-                    PlanarImage img = future.get();
-                    if (img == null) {
-                        thumb = null;
-                    } else {
-                        int width = img.width();
-                        int height = img.height();
-                        if (width > thumbnailSize || height > thumbnailSize) {
-                            thumb =
-                                ImageProcessor.buildThumbnail(img, new Dimension(thumbnailSize, thumbnailSize), true);
-                        } else {
-                            thumb = img;
-                        }
-                    }
+                    thumb = resize(future.get());
 
                 } catch (InterruptedException e) {
                     // Re-assert the thread's interrupted status
@@ -336,6 +381,44 @@ public class Thumbnail extends JLabel implements Thumbnailable {
         }
     }
 
+    private PlanarImage readFromStore(String key) {
+        byte[] data = ThumbnailStore.get(key);
+        if (data == null) {
+            return null;
+        }
+        MatOfByte buf = new MatOfByte(data);
+        try {
+            Mat img = Imgcodecs.imdecode(buf, Imgcodecs.IMREAD_UNCHANGED);
+            if (img == null || img.empty()) {
+                return null;
+            }
+            PlanarImage small = resize(ImageCV.toImageCV(img));
+            if (small != img) {
+                img.release();
+            }
+            return small;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private PlanarImage resize(PlanarImage img) {
+        if (img == null) {
+            return null;
+        }
+        if (img.width() > thumbnailSize || img.height() > thumbnailSize) {
+            return ImageProcessor.buildThumbnail(img, new Dimension(thumbnailSize, thumbnailSize), true);
+        }
+        return img;
+    }
+
+    /**
+     * @return the statistics of the thumbnail cache (hits, misses, evictions...)
+     */
+    public static String getCacheStatistics() {
+        return mCache.toString();
+    }
+
     protected void removeImageFromCache() {
         // Unload image from memory
         mCache.remove(this);
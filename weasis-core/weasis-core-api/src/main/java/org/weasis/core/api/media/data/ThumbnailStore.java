@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.AppProperties;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.ThreadUtil;
+
+/**
+ * Persistent store of the encoded thumbnails, shared by the sessions. All the thumbnails are packed in a single file
+ * made of records (key, data) appended one after the other. The index is rebuilt by reading only the headers of the
+ * records when the store is opened for the first time.
+ * <p>
+ * The new thumbnails are kept in memory and written by batches from a single thread, so the threads building the
+ * thumbnails never wait for the disk. When the file exceeds its limit (weasis.thumbnail.store.size in MB), the oldest
+ * records are removed at the next opening.
+ * <p>
+ * The file can be used by several Weasis processes at the same time. The modifications are done with a lock on the
+ * file, the records appended by the other processes are added to the index before writing and the key of a record is
+ * compared before returning its data.
+ */
+final class ThumbnailStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailStore.class);
+
+    private static final int MAGIC = 0x57544842; // WTHB
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int MAX_KEY_LENGTH = 4096;
+
+    private static final long MAX_SIZE =
+        BundleTools.SYSTEM_PREFERENCES.getLongProperty("weasis.thumbnail.store.size", 256L) * 1024L * 1024L; //$NON-NLS-1$
+    private static final File STORE_FILE =
+        new File(AppProperties.WEASIS_PATH, "cache" + File.separator + "thumbnails.pack"); //$NON-NLS-1$ //$NON-NLS-2$
+    private static final ExecutorService WRITER = ThreadUtil.buildNewSingleThreadExecutor("Thumbnail Store"); //$NON-NLS-1$
+
+    // Position and length of the data of each record
+    private static final Map<String, long[]> INDEX = new HashMap<>();
+    // Thumbnails not yet written
+    private static final Map<String, byte[]> PENDING = new LinkedHashMap<>();
+    private static FileChannel channel;
+    private static long fileSize;
+    private static boolean loaded = false;
+    private static boolean flushScheduled = false;
+
+    private ThumbnailStore() {
+    }
+
+    static boolean isEnabled() {
+        return MAX_SIZE > 0;
+    }
+
+    /**
+     * @return the encoded thumbnail or null when it is not in the store
+     */
+    static byte[] get(String key) {
+        if (!isEnabled() || key == null) {
+            return null;
+        }
+        long[] pos;
+        synchronized (ThumbnailStore.class) {
+            load();
+            byte[] data = PENDING.get(key);
+            if (data != null) {
+                return data;
+            }
+            pos = INDEX.get(key);
+        }
+        if (pos == null) {
+            return null;
+        }
+        try {
+            // Read the whole record to check that it has not been replaced by another process
+            byte[] k = key.getBytes(StandardCharsets.UTF_8);
+            int dataOffset = RECORD_HEADER_LENGTH + k.length;
+            ByteBuffer buf = ByteBuffer.allocate(dataOffset + (int) pos[1]);
+            readFully(channel, buf, pos[0] - dataOffset);
+            byte[] record = buf.array();
+            if (buf.getInt() == k.length && buf.getInt() == pos[1]
+                && Arrays.equals(k, Arrays.copyOfRange(record, RECORD_HEADER_LENGTH, dataOffset))) {
+                return Arrays.copyOfRange(record, dataOffset, record.length);
+            }
+            LOGGER.debug("The thumbnail {} has been modified by another process", key); //$NON-NLS-1$
+        } catch (IOException e) {
+            LOGGER.error("Cannot read the thumbnail {}", key, e); //$NON-NLS-1$
+        }
+        synchronized (ThumbnailStore.class) {
+            INDEX.remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * Adds an encoded thumbnail, it is written asynchronously with the other new thumbnails.
+     */
+    static void put(String key, byte[] data) {
+        if (!isEnabled() || key == null || data == null || key.length() > MAX_KEY_LENGTH) {
+            return;
+        }
+        synchronized (ThumbnailStore.class) {
+            load();
+            if (channel == null || fileSize > MAX_SIZE) {
+                return;
+            }
+            PENDING.put(key, data);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                WRITER.execute(ThumbnailStore::flush);
+            }
+        }
+    }
+
+    private static void flush() {
+        List<Entry<String, byte[]>> batch;
+        long knownSize;
+        synchronized (ThumbnailStore.class) {
+            flushScheduled = false;
+            batch = new ArrayList<>(PENDING.entrySet());
+            knownSize = fileSize;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<byte[]> keys = new ArrayList<>(batch.size());
+        int length = 0;
+        for (Entry<String, byte[]> e : batch) {
+            byte[] k = e.getKey().getBytes(StandardCharsets.UTF_8);
+            keys.add(k);
+            length += RECORD_HEADER_LENGTH + k.length + e.getValue().length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        // Position of the data relative to the beginning of the batch
+        long[] offsets = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] k = keys.get(i);
+            byte[] data = batch.get(i).getValue();
+            buf.putInt(k.length);
+            buf.putInt(data.length);
+            buf.put(k);
+            offsets[i] = buf.position();
+            buf.put(data);
+        }
+        buf.flip();
+
+        boolean written = false;
+        boolean reset = false;
+        long position = 0L;
+        Map<String, long[]> added = new HashMap<>();
+        try (FileLock lock = channel.lock()) {
+            // The size can have been changed by another process
+            long size = channel.size();
+            long start = knownSize;
+            if (size < knownSize) {
+                // Compacted by another process
+                reset = true;
+                start = FILE_HEADER_LENGTH;
+            }
+            position = readRecords(channel, added, start, size);
+            if (position < size) {
+                // Interrupted writing of another process
+                channel.truncate(position);
+            }
+            while (buf.hasRemaining()) {
+                channel.write(buf, position + buf.position());
+            }
+            written = true;
+        } catch (IOException e) {
+            LOGGER.error("Cannot write the thumbnails", e); //$NON-NLS-1$
+        }
+
+        synchronized (ThumbnailStore.class) {
+            if (reset) {
+                INDEX.clear();
+            }
+            INDEX.putAll(added);
+            for (int i = 0; i < batch.size(); i++) {
+                Entry<String, byte[]> e = batch.get(i);
+                // Keep the entries replaced during the writing
+                if (PENDING.get(e.getKey()) == e.getValue()) {
+                    PENDING.remove(e.getKey());
+                    if (written) {
+                        INDEX.put(e.getKey(), new long[] { position + offsets[i], e.getValue().length });
+                    }
+                }
+            }
+            if (written) {
+                fileSize = position + length;
+            }
+        }
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        try {
+            FileUtil.prepareToWriteFile(STORE_FILE);
+            channel = open(STORE_FILE);
+            try (FileLock lock = channel.lock()) {
+                fileSize = readIndex(channel, INDEX);
+                if (fileSize > MAX_SIZE) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Cannot open the thumbnail store", e); //$NON-NLS-1$
+            FileUtil.safeClose(channel);
+            channel = null;
+            INDEX.clear();
+        }
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Fills the index with the records of the file, a truncated record at the end (interrupted writing) is removed.
+     * Must be called with the lock of the file.
+     *
+     * @return the size of the valid part of the file
+     */
+    private static long readIndex(FileChannel ch, Map<String, long[]> index) throws IOException {
+        long size = ch.size();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        if (size < FILE_HEADER_LENGTH) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            ch.truncate(0);
+            ch.write(header, 0);
+            return FILE_HEADER_LENGTH;
+        }
+        readFully(ch, header, 0);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            LOGGER.info("Reset the thumbnail store, unknown format"); //$NON-NLS-1$
+            ch.truncate(0);
+            return readIndex(ch, index);
+        }
+
+        long position = readRecords(ch, index, FILE_HEADER_LENGTH, size);
+        if (position < size) {
+            ch.truncate(position);
+        }
+        return position;
+    }
+
+    /**
+     * Fills the index with the records between two positions.
+     *
+     * @return the end of the last valid record
+     */
+    private static long readRecords(FileChannel ch, Map<String, long[]> index, long start, long size)
+        throws IOException {
+        long position = start;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            recordHeader.clear();
+            readFully(ch, recordHeader, position);
+            int keyLength = recordHeader.getInt();
+            int dataLength = recordHeader.getInt();
+            long dataPosition = position + RECORD_HEADER_LENGTH + keyLength;
+            if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || dataLength < 0
+                || dataPosition + dataLength > size) {
+                break;
+            }
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            readFully(ch, key, position + RECORD_HEADER_LENGTH);
+            index.put(new String(key.array(), StandardCharsets.UTF_8), new long[] { dataPosition, dataLength });
+            position = dataPosition + dataLength;
+        }
+        return position;
+    }
+
+    /**
+     * Keeps only the most recent records that fill half of the limit. The file is rewritten in place (with the lock of
+     * the file) because the other processes keep it open.
+     */
+    private static void compact() throws IOException {
+        List<Entry<String, long[]>> entries = new ArrayList<>(INDEX.entrySet());
+        entries.sort((e1, e2) -> Long.compare(e2.getValue()[0], e1.getValue()[0]));
+
+        File tmp = new File(STORE_FILE.getPath() + ".tmp"); //$NON-NLS-1$
+        FileUtil.delete(tmp);
+        Map<String, long[]> index = new HashMap<>();
+        long kept = 0L;
+        List<Entry<String, long[]>> keptEntries = new ArrayList<>();
+        for (Entry<String, long[]> e : entries) {
+            kept += RECORD_HEADER_LENGTH + e.getKey().length() + e.getValue()[1];
+            if (kept > MAX_SIZE / 2) {
+                break;
+            }
+            keptEntries.add(e);
+        }
+
+        long position = FILE_HEADER_LENGTH;
+        try (FileChannel out = open(tmp)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            out.write(header, 0);
+            // Keep the chronological order
+            for (int i = keptEntries.size() - 1; i >= 0; i--) {
+                Entry<String, long[]> e = keptEntries.get(i);
+                byte[] k = e.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_LENGTH + k.length + (int) e.getValue()[1]);
+                buf.putInt(k.length);
+                buf.putInt((int) e.getValue()[1]);
+                buf.put(k);
+                readFully(channel, buf, e.getValue()[0]);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    out.write(buf, position + buf.position());
+                }
+                index.put(e.getKey(), new long[] { position + RECORD_HEADER_LENGTH + k.length, e.getValue()[1] });
+                position += buf.limit();
+            }
+        }
+
+        try (FileChannel in = FileChannel.open(tmp.toPath(), StandardOpenOption.READ)) {
+            long copied = 0L;
+            while (copied < position) {
+                long n = channel.transferFrom(in, copied, position - copied);
+                if (n <= 0) {
+                    throw new EOFException();
+                }
+                copied += n;
+            }
+        } finally {
+            FileUtil.delete(tmp);
+        }
+        channel.truncate(position);
+        INDEX.clear();
+        INDEX.putAll(index);
+        fileSize = position;
+        LOGGER.info("Thumbnail store compacted: {} thumbnails kept", index.size()); //$NON-NLS-1$
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        buf.flip();
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.image;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.weasis.opencv.data.PlanarImage;
+
+public class SimpleOpManagerTest {
+
+    private static class CountingOp extends AbstractOp {
+        private int count;
+
+        CountingOp(String name) {
+            setName(name);
+        }
+
+        @Override
+        public CountingOp copy() {
+            return new CountingOp(getName());
+        }
+
+        @Override
+        public void process() throws Exception {
+            count++;
+            params.put(Param.OUTPUT_IMG, newImage());
+        }
+    }
+
+    private SimpleOpManager manager;
+    private CountingOp op1;
+    private CountingOp op2;
+    private CountingOp op3;
+
+    private static PlanarImage newImage() {
+        return (PlanarImage) Proxy.newProxyInstance(PlanarImage.class.getClassLoader(),
+            new Class<?>[] { PlanarImage.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "width": //$NON-NLS-1$
+                    case "height": //$NON-NLS-1$
+                        return 1;
+                    case "physicalBytes": //$NON-NLS-1$
+                        return 1L;
+                    case "hashCode": //$NON-NLS-1$
+                        return System.identityHashCode(proxy);
+                    case "equals": //$NON-NLS-1$
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    @Before
+    public void setUp() {
+        manager = new SimpleOpManager();
+        op1 = new CountingOp("op1"); //$NON-NLS-1$
+        op2 = new CountingOp("op2"); //$NON-NLS-1$
+        op3 = new CountingOp("op3"); //$NON-NLS-1$
+        manager.addImageOperationAction(op1);
+        manager.addImageOperationAction(op2);
+        manager.addImageOperationAction(op3);
+        manager.setFirstNode(newImage());
+        manager.process();
+    }
+
+    private void assertCounts(int c1, int c2, int c3) {
+        Assert.assertEquals(c1, op1.count);
+        Assert.assertEquals(c2, op2.count);
+        Assert.assertEquals(c3, op3.count);
+    }
+
+    @Test
+    public void testOnlyDownstreamOperations() {
+        assertCounts(1, 1, 1);
+
+        manager.process();
+        assertCounts(1, 1, 1);
+
+        manager.setParamValue("op2", "value", 1.0); //$NON-NLS-1$ //$NON-NLS-2$
+        manager.process();
+        assertCounts(1, 2, 2);
+
+        // Same value, nothing to process
+        manager.setParamValue("op2", "value", 1.0); //$NON-NLS-1$ //$NON-NLS-2$
+        manager.process();
+        assertCounts(1, 2, 2);
+
+        op1.setEnabled(false);
+        manager.process();
+        assertCounts(1, 3, 3);
+    }
+
+    @Test
+    public void testNewInputAndInvalidation() {
+        manager.setFirstNode(newImage());
+        manager.process();
+        assertCounts(2, 2, 2);
+
+        double[] values = { 1.0, 2.0 };
+        manager.setParamValue("op3", "values", values); //$NON-NLS-1$ //$NON-NLS-2$
+        manager.process();
+        assertCounts(2, 2, 3);
+
+        // The array can be modified before being set again
+        values[0] = 3.0;
+        manager.setParamValue("op3", "values", values); //$NON-NLS-1$ //$NON-NLS-2$
+        manager.process();
+        assertCounts(2, 2, 4);
+
+        manager.invalidate();
+        manager.process();
+        assertCounts(3, 3, 5);
+
+        manager.clearNodeIOCache();
+        manager.setFirstNode(newImage());
+        manager.process();
+        assertCounts(4, 4, 6);
+    }
+}
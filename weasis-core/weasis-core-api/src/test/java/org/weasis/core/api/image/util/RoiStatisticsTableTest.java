@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.image.util;
+
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoiStatisticsTableTest {
+    private static final double EPSILON = 1e-6;
+
+    private static final int WIDTH = 75;
+    private static final int HEIGHT = 41;
+
+    private static float[] buildPixels() {
+        Random random = new Random(7);
+        float[] pixels = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(4096) - 1024;
+        }
+        return pixels;
+    }
+
+    /**
+     * Statistics of the pixels having their center inside the shape
+     */
+    private static double[][] compute(float[] pixels, Shape shape, Integer paddingValue, Integer paddingLimit) {
+        double sum = 0.0;
+        double sumSquares = 0.0;
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float v = pixels[y * WIDTH + x];
+                if (paddingValue != null && v >= paddingValue && v <= paddingLimit) {
+                    continue;
+                }
+                if (shape.contains(x + 0.5, y + 0.5)) {
+                    sum += v;
+                    sumSquares += (double) v * v;
+                    count++;
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        double mean = sum / count;
+        return new double[][] { { min }, { max }, { mean }, { Math.sqrt(sumSquares / count - mean * mean) } };
+    }
+
+    private static void assertStatistics(double[][] expected, double[][] actual) {
+        Assert.assertNotNull(actual);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(expected[i][0], actual[i][0], EPSILON);
+        }
+    }
+
+    @Test
+    public void testRectangle() {
+        float[] pixels = buildPixels();
+        RoiStatisticsTable table = new RoiStatisticsTable(pixels, WIDTH, HEIGHT, null, null);
+        Shape[] shapes = { new Rectangle2D.Double(3.2, 5.7, 50.4, 20.1), new Rectangle2D.Double(0, 0, WIDTH, HEIGHT),
+            new Rectangle2D.Double(-10, 30, 200, 40), new Rectangle2D.Double(70.6, 2, 1, 1) };
+        for (Shape shape : shapes) {
+            assertStatistics(compute(pixels, shape, null, null), table.getStatistics(shape));
+        }
+        Assert.assertNull(table.getStatistics(new Rectangle2D.Double(100, 100, 10, 10)));
+    }
+
+    @Test
+    public void testEllipseAndPolygon() {
+        float[] pixels = buildPixels();
+        RoiStatisticsTable table = new RoiStatisticsTable(pixels, WIDTH, HEIGHT, null, null);
+        Path2D polygon = new Path2D.Double();
+        polygon.moveTo(2.3, 4.1);
+        polygon.lineTo(60.7, 8.2);
+        polygon.lineTo(30.1, 38.9);
+        polygon.lineTo(20.5, 15.5);
+        polygon.closePath();
+
+        // The flattened ellipse is very close to the curve
+        Shape ellipse = new Ellipse2D.Double(10.3, 4.2, 50.1, 30.4);
+        assertStatistics(compute(pixels, polygon, null, null), table.getStatistics(polygon));
+        double[][] expected = compute(pixels, ellipse, null, null);
+        double[][] actual = table.getStatistics(ellipse);
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected[2][0], actual[2][0], 2.0);
+    }
+
+    @Test
+    public void testSpans() {
+        Path2D polygon = new Path2D.Double();
+        polygon.moveTo(-3.5, 2.1);
+        polygon.lineTo(50.2, 12.7);
+        polygon.lineTo(12.4, 60.3);
+        polygon.closePath();
+        Shape[] shapes = { polygon, new Rectangle2D.Double(3.2, 5.7, 50.4, 20.1) };
+        for (Shape shape : shapes) {
+            boolean[] inside = new boolean[WIDTH * HEIGHT];
+            int[] spans = RoiStatisticsTable.getSpans(shape, WIDTH, HEIGHT);
+            for (int i = 0; i < spans.length; i += 3) {
+                for (int x = spans[i + 1]; x <= spans[i + 2]; x++) {
+                    Assert.assertFalse(inside[spans[i] * WIDTH + x]);
+                    inside[spans[i] * WIDTH + x] = true;
+                }
+            }
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    Assert.assertEquals(shape.contains(x + 0.5, y + 0.5), inside[y * WIDTH + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPadding() {
+        float[] pixels = buildPixels();
+        RoiStatisticsTable table = new RoiStatisticsTable(pixels, WIDTH, HEIGHT, 0, 2000);
+        Path2D polygon = new Path2D.Double();
+        polygon.moveTo(5, 5);
+        polygon.lineTo(70, 10);
+        polygon.lineTo(40, 35);
+        polygon.closePath();
+        Shape rect = new Rectangle2D.Double(1.1, 2.2, 60, 30);
+        assertStatistics(compute(pixels, polygon, 0, 2000), table.getStatistics(polygon));
+        assertStatistics(compute(pixels, rect, 0, 2000), table.getStatistics(rect));
+
+        // Reverse order of the padding limits
+        table = new RoiStatisticsTable(pixels, WIDTH, HEIGHT, 2000, 0);
+        assertStatistics(compute(pixels, rect, 0, 2000), table.getStatistics(rect));
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
+
+public class ImageLoadSchedulerTest {
+
+    private ImageLoadScheduler scheduler;
+    private CountDownLatch blocker;
+
+    @Before
+    public void setUp() {
+        scheduler = new ImageLoadScheduler("Test Loader", 1); //$NON-NLS-1$
+        blocker = new CountDownLatch(1);
+        // Keep the single thread busy until the test releases it
+        scheduler.submit(() -> blocker.await(5, TimeUnit.SECONDS), Priority.DISPLAY);
+    }
+
+    @After
+    public void tearDown() {
+        blocker.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Future<?> f1 = scheduler.submit("batch", () -> order.add("batch"), Priority.BATCH); //$NON-NLS-1$ //$NON-NLS-2$
+        Future<?> f2 = scheduler.submit("prefetch", () -> order.add("prefetch"), Priority.PREFETCH); //$NON-NLS-1$ //$NON-NLS-2$
+        Future<?> f3 = scheduler.submit("display", () -> order.add("display"), Priority.DISPLAY); //$NON-NLS-1$ //$NON-NLS-2$
+        blocker.countDown();
+        f1.get(5, TimeUnit.SECONDS);
+        f2.get(5, TimeUnit.SECONDS);
+        f3.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("[display, prefetch, batch]", order.toString()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testMergeAndRaisePriority() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Future<?> f1 = scheduler.submit("a", () -> order.add("a"), Priority.BATCH); //$NON-NLS-1$ //$NON-NLS-2$
+        Future<?> f2 = scheduler.submit("b", () -> order.add("b"), Priority.PREFETCH); //$NON-NLS-1$ //$NON-NLS-2$
+        Future<?> f3 = scheduler.submit("a", () -> order.add("a2"), Priority.DISPLAY); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertSame(f1, f3);
+        blocker.countDown();
+        f1.get(5, TimeUnit.SECONDS);
+        f2.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("[a, b]", order.toString()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Future<?> f1 = scheduler.submit("a", () -> Boolean.TRUE, Priority.PREFETCH); //$NON-NLS-1$
+        Future<?> f2 = scheduler.submit("b", () -> Boolean.TRUE, Priority.DISPLAY); //$NON-NLS-1$
+        Assert.assertTrue(scheduler.cancel("a")); //$NON-NLS-1$
+        Assert.assertFalse(scheduler.cancel("b")); //$NON-NLS-1$
+        Assert.assertTrue(f1.isCancelled());
+        Assert.assertFalse(scheduler.isPending("a")); //$NON-NLS-1$
+        blocker.countDown();
+        Assert.assertEquals(Boolean.TRUE, f2.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNoCancelAfterDisplayMerge() throws Exception {
+        Future<?> f1 = scheduler.submit("a", () -> Boolean.TRUE, Priority.PREFETCH); //$NON-NLS-1$
+        Future<?> f2 = scheduler.submit("a", () -> Boolean.TRUE, Priority.DISPLAY); //$NON-NLS-1$
+        Assert.assertSame(f1, f2);
+        Assert.assertFalse(scheduler.cancel("a")); //$NON-NLS-1$
+        Assert.assertEquals(0, scheduler.cancelAll(k -> true));
+        blocker.countDown();
+        Assert.assertEquals(Boolean.TRUE, f2.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSubmitAfterCancel() throws Exception {
+        Future<?> f1 = scheduler.submit("a", () -> Boolean.TRUE, Priority.PREFETCH); //$NON-NLS-1$
+        Assert.assertTrue(scheduler.cancel("a")); //$NON-NLS-1$
+        Future<?> f2 = scheduler.submit("a", () -> Boolean.TRUE, Priority.DISPLAY); //$NON-NLS-1$
+        Assert.assertNotSame(f1, f2);
+        blocker.countDown();
+        Assert.assertEquals(Boolean.TRUE, f2.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.weasis.opencv.data.ImageSize;
+
+public class NativeCacheTest {
+
+    private static final long ITEM_SIZE = 100;
+
+    private List<Integer> removedKeys;
+    private NativeCache<Integer, Item> cache;
+
+    static class Item implements ImageSize {
+        @Override
+        public long physicalBytes() {
+            return ITEM_SIZE;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        removedKeys = new ArrayList<>();
+        cache = new NativeCache<Integer, Item>(10 * ITEM_SIZE) {
+            @Override
+            protected void afterEntryRemove(Integer key, Item val) {
+                removedKeys.add(key);
+            }
+        };
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, new Item());
+        }
+        Assert.assertTrue(cache.getUsedMemory() <= cache.getMaxMemory());
+        Assert.assertEquals(cache.size() * ITEM_SIZE, cache.getUsedMemory());
+        Assert.assertEquals(50 - cache.size(), removedKeys.size());
+        Assert.assertEquals(removedKeys.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScan() {
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, new Item());
+            for (int j = 0; j < 5; j++) {
+                cache.get(i);
+            }
+        }
+        // Scan once through many other entries
+        for (int i = 100; i < 300; i++) {
+            cache.put(i, new Item());
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull("Frequent entry evicted: " + i, cache.get(i)); //$NON-NLS-1$
+        }
+        Assert.assertTrue(cache.getRejectionCount() > 0);
+    }
+
+    @Test
+    public void testPinnedEntries() {
+        cache.pin(1);
+        cache.put(1, new Item());
+        for (int i = 100; i < 300; i++) {
+            cache.put(i, new Item());
+        }
+        Assert.assertNotNull(cache.get(1));
+        cache.unpin(1);
+        Assert.assertFalse(cache.isPinned(1));
+    }
+
+    @Test
+    public void testCounters() {
+        cache.put(1, new Item());
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertNotNull(cache.remove(1));
+        Assert.assertEquals(0, cache.getUsedMemory());
+        Assert.assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.weasis.core.api.media.data.TagW.TagType;
+
+public class TagMapTest {
+
+    private static final TagW TAG_1 = new TagW("TagMapTest1", TagType.STRING); //$NON-NLS-1$
+    private static final TagW TAG_2 = new TagW("TagMapTest2", TagType.INTEGER); //$NON-NLS-1$
+    private static final TagW TAG_3 = new TagW("TagMapTest3", TagType.DOUBLE); //$NON-NLS-1$
+
+    @Test
+    public void testSameBehaviorAsHashMap() {
+        Map<TagW, Object> expected = new HashMap<>();
+        TagMap map = new TagMap();
+        TagW[] tags = new TagW[40];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = new TagW("TagMapTestLoop" + i, TagType.INTEGER); //$NON-NLS-1$
+        }
+        // Insertion in reverse order of the ordinals
+        for (int i = tags.length - 1; i >= 0; i--) {
+            expected.put(tags[i], i);
+            map.put(tags[i], i);
+        }
+        map.put(TAG_1, null);
+        expected.put(TAG_1, null);
+        map.remove(tags[5]);
+        expected.remove(tags[5]);
+        map.put(tags[6], 60);
+        expected.put(tags[6], 60);
+
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.size(), map.size());
+        Assert.assertTrue(map.containsKey(TAG_1));
+        Assert.assertNull(map.get(TAG_1));
+        Assert.assertFalse(map.containsKey(tags[5]));
+        Assert.assertEquals(60, map.get(tags[6]));
+    }
+
+    @Test
+    public void testEqualTagsShareTheEntry() {
+        TagMap map = new TagMap();
+        map.put(TAG_1, "value"); //$NON-NLS-1$
+        TagW copy = new TagW(TAG_1.getId(), TAG_1.getKeyword(), TagType.STRING);
+        Assert.assertEquals(TAG_1.getOrdinal(), copy.getOrdinal());
+        Assert.assertEquals("value", map.get(copy)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testInheritance() {
+        TagMap parent = new TagMap();
+        parent.put(TAG_1, "shared"); //$NON-NLS-1$
+        parent.put(TAG_2, 1);
+
+        TagMap child = new TagMap(parent);
+        child.put(TAG_2, 2);
+        child.put(TAG_3, 3.0);
+        child.remove(TAG_1);
+
+        Assert.assertNull(child.get(TAG_1));
+        Assert.assertFalse(child.containsKey(TAG_1));
+        Assert.assertEquals(2, child.get(TAG_2));
+        Assert.assertEquals(3.0, child.get(TAG_3));
+        Assert.assertEquals(2, child.size());
+
+        // The parent is not modified
+        Assert.assertEquals("shared", parent.get(TAG_1)); //$NON-NLS-1$
+        Assert.assertEquals(1, parent.get(TAG_2));
+        Assert.assertEquals(2, parent.size());
+
+        child.put(TAG_1, "own"); //$NON-NLS-1$
+        Assert.assertEquals("own", child.get(TAG_1)); //$NON-NLS-1$
+        Assert.assertEquals(3, child.size());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        TagMap parent = new TagMap();
+        parent.put(TAG_1, "shared"); //$NON-NLS-1$
+        TagMap child = new TagMap(parent);
+        child.put(TAG_2, 2);
+
+        for (Iterator<Entry<TagW, Object>> it = child.entrySet().iterator(); it.hasNext();) {
+            it.next();
+            it.remove();
+        }
+        Assert.assertTrue(child.isEmpty());
+        Assert.assertEquals(1, parent.size());
+    }
+
+    @Test
+    public void testSharedValues() {
+        TagW modality = new TagW("Modality", TagType.STRING); //$NON-NLS-1$
+        TagMap map1 = new TagMap();
+        TagMap map2 = new TagMap();
+        map1.put(modality, new String("CT")); //$NON-NLS-1$
+        map2.put(modality, new String("CT")); //$NON-NLS-1$
+        Assert.assertSame(map1.get(modality), map2.get(modality));
+
+        // The values of the other tags are not shared
+        map1.put(TAG_1, new String("1.2.3.4")); //$NON-NLS-1$
+        map2.put(TAG_1, new String("1.2.3.4")); //$NON-NLS-1$
+        Assert.assertEquals(map1.get(TAG_1), map2.get(TAG_1));
+        Assert.assertNotSame(map1.get(TAG_1), map2.get(TAG_1));
+    }
+}
@@ -95,8 +95,10 @@ import org.weasis.core.api.media.data.ImageElement;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesComparator;
+import org.weasis.core.api.media.data.SeriesImporter;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.service.AuditLog;
+import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.util.FontTools;
 import org.weasis.core.api.util.LangUtil;
 import org.weasis.core.api.util.StringUtil;
@@ -198,6 +200,9 @@ public abstract class DefaultView2d<E extends ImageElement> extends GraphicsPane
         this.tileOffset = 0;
 
         imageLayer = new RenderedImageLayer<>();
+        // Process only the visible part of the image at the screen resolution
+        imageLayer.getDisplayOpManager().setRegionProcessing(
+            BundleTools.SYSTEM_PREFERENCES.getBooleanProperty("weasis.display.region.processing", true)); //$NON-NLS-1$
         actionsInView.put(ActionW.LENS.cmd(), false);
         initActionWState();
         graphicMouseHandler = new GraphicMouseHandler<>(this);
@@ -483,6 +488,11 @@ public abstract class DefaultView2d<E extends ImageElement> extends GraphicsPane
             }
         }
         mediaSeries.setOpen(open);
+        SeriesImporter loader = open ? null : mediaSeries.getSeriesLoader();
+        if (loader != null) {
+            // Not displayed anymore, the remaining images are loaded in the default order
+            loader.setFocusedMedia(null, null);
+        }
         // TODO setSelected and setFocused must be global to all view as open
         mediaSeries.setSelected(false, null);
         mediaSeries.setFocused(false);
@@ -581,6 +591,12 @@ public abstract class DefaultView2d<E extends ImageElement> extends GraphicsPane
 
                 updateCanvas(img, false);
 
+                // Load first the images around the displayed one when the series is downloading
+                SeriesImporter loader = series == null ? null : series.getSeriesLoader();
+                if (loader != null) {
+                    loader.setFocusedMedia(img, getCurrentSortComparator());
+                }
+
                 imageLayer.fireOpEvent(new ImageOpEvent(ImageOpEvent.OpEvent.ImageChange, series, img, null));
                 resetZoom();
 
@@ -88,6 +88,7 @@ public class ZoomWin<E extends ImageElement> extends GraphicsPane implements Ima
     private final MouseHandler mouseHandler;
     private SimpleOpManager freezeOperations;
     private final HashMap<String, Object> freezeActionsInView = new HashMap<>();
+    private boolean parentRegionProcessing = false;
 
     public ZoomWin(DefaultView2d<E> view2d) {
         super(null);
@@ -159,6 +160,7 @@ public class ZoomWin<E extends ImageElement> extends GraphicsPane implements Ima
     }
 
     public void showLens(boolean val) {
+        setParentRegionProcessing(!val);
         if (val) {
             updateImage();
             refreshZoomWin();
@@ -172,6 +174,22 @@ public class ZoomWin<E extends ImageElement> extends GraphicsPane implements Ima
         }
     }
 
+    private void setParentRegionProcessing(boolean enable) {
+        // The lens requires the full image processed by the parent view
+        SimpleOpManager manager = view2d.getImageLayer().getDisplayOpManager();
+        if (enable) {
+            if (parentRegionProcessing) {
+                parentRegionProcessing = false;
+                manager.setRegionProcessing(true);
+                view2d.getImageLayer().updateDisplayOperations();
+            }
+        } else if (manager.isRegionProcessing()) {
+            parentRegionProcessing = true;
+            manager.setRegionProcessing(false);
+            view2d.getImageLayer().updateDisplayOperations();
+        }
+    }
+
     public void centerZoomWin() {
         int magPosx = (view2d.getWidth() / 2) - (getWidth() / 2);
         int magPosy = (view2d.getHeight() / 2) - (getHeight() / 2);
@@ -14,12 +14,14 @@ import java.awt.Point;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 import org.weasis.core.api.image.util.MeasurableLayer;
+import org.weasis.core.api.image.util.RoiStatisticsTable;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.ui.model.utils.bean.MeasureItem;
 import org.weasis.core.ui.model.utils.bean.Measurement;
@@ -48,6 +50,18 @@ public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implem
         }
     }
 
+    /**
+     * @return the shape in the image coordinates, a rectangle remains a Rectangle2D when the transform has no rotation
+     *         for computing the statistics in constant time
+     */
+    private Shape getTransformedShape(AffineTransform transform) {
+        if (shape instanceof Rectangle2D && (transform.getType() & (AffineTransform.TYPE_MASK_ROTATION
+            | AffineTransform.TYPE_FLIP | AffineTransform.TYPE_GENERAL_TRANSFORM)) == 0) {
+            return transform.createTransformedShape(shape).getBounds2D();
+        }
+        return transform.createTransformedShape(shape);
+    }
+
     @Override
     public List<MeasureItem> getImageStatistics(MeasurableLayer layer, Boolean releaseEvent) {
         if (layer != null) {
@@ -61,7 +75,7 @@ public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implem
                     Double[] mean = null;
                     Double[] stdv = null;
 
-                    if (releaseEvent && shape != null) {
+                    if (shape != null) {
                         PlanarImage image = layer.getSourceRenderedImage();
                         if (image == null) {
                             return null;
@@ -78,36 +92,43 @@ public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implem
                         Shape roi;
                         if (transform != null) {
                             // Rescale ROI, if needed
-                            roi = transform.createTransformedShape(shape);
+                            roi = getTransformedShape(transform);
                         } else {
                             roi = shape;
                         }
-                        
+
                         Integer paddingValue = (Integer) layer.getSourceTagValue(TagW.get("PixelPaddingValue")); //$NON-NLS-1$
                         Integer paddingLimit = (Integer) layer.getSourceTagValue(TagW.get("PixelPaddingRangeLimit")); //$NON-NLS-1$
-                        double[][] extrema = ImageProcessor.meanStdDev(image.toMat(), roi ,paddingValue, paddingLimit);
-                        
-                        
-                        if (extrema == null || extrema.length < 1 || extrema[0].length < 1) {
-                            return Collections.emptyList();
+                        double[][] extrema;
+                        if (releaseEvent) {
+                            extrema = ImageProcessor.meanStdDev(image.toMat(), roi, paddingValue, paddingLimit);
+                            if (extrema == null || extrema.length < 1 || extrema[0].length < 1) {
+                                return Collections.emptyList();
+                            }
+                        } else {
+                            // While dragging, the statistics are computed from the summed-area tables of the image
+                            RoiStatisticsTable table = RoiStatisticsTable.getTable(image, paddingValue, paddingLimit);
+                            extrema = table == null ? null : table.getStatistics(roi);
                         }
-                        min = new Double[extrema[0].length];
-                        max = new Double[extrema[0].length];
-                        mean = new Double[extrema[0].length];
-                        stdv = new Double[extrema[0].length];
-
-                        // LOGGER.error("Basic stats [ms]: {}", System.currentTimeMillis() - startTime);
-                        // unit = pixelValue * rescale slope + rescale intercept
-                        // FIXME do not handle modality lookup table!
-                        Double slopeVal = (Double) layer.getSourceTagValue(TagW.get("RescaleSlope")); //$NON-NLS-1$
-                        Double interceptVal = (Double) layer.getSourceTagValue(TagW.get("RescaleIntercept")); //$NON-NLS-1$
-                        double slope = slopeVal == null ? 1.0f : slopeVal.doubleValue();
-                        double intercept = interceptVal == null ? 0.0f : interceptVal.doubleValue();
-                        for (int i = 0; i < extrema[0].length; i++) {
-                            min[i] = extrema[0][i] * slope + intercept;
-                            max[i] = extrema[1][i] * slope + intercept;
-                            mean[i] = extrema[2][i] * slope + intercept;
-                            stdv[i] = extrema[3][i];
+
+                        if (extrema != null) {
+                            min = new Double[extrema[0].length];
+                            max = new Double[extrema[0].length];
+                            mean = new Double[extrema[0].length];
+                            stdv = new Double[extrema[0].length];
+
+                            // unit = pixelValue * rescale slope + rescale intercept
+                            // FIXME do not handle modality lookup table!
+                            Double slopeVal = (Double) layer.getSourceTagValue(TagW.get("RescaleSlope")); //$NON-NLS-1$
+                            Double interceptVal = (Double) layer.getSourceTagValue(TagW.get("RescaleIntercept")); //$NON-NLS-1$
+                            double slope = slopeVal == null ? 1.0f : slopeVal.doubleValue();
+                            double intercept = interceptVal == null ? 0.0f : interceptVal.doubleValue();
+                            for (int i = 0; i < extrema[0].length; i++) {
+                                min[i] = extrema[0][i] * slope + intercept;
+                                max[i] = extrema[1][i] * slope + intercept;
+                                mean[i] = extrema[2][i] * slope + intercept;
+                                stdv[i] = extrema[3][i];
+                            }
                         }
                     }
 
@@ -15,6 +15,7 @@ import java.awt.Point;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -60,6 +61,9 @@ public class RenderedImageLayer<E extends ImageElement> extends DefaultUUID impl
     private OpManager preprocessing;
     private E sourceImage;
     private PlanarImage displayImage;
+    // Display image converted for Java2D, rebuilt only when the display image changes
+    private BufferedImage displaySurface;
+    private PlanarImage displaySurfaceSource;
     private Boolean visible = true;
     private boolean enableDispOperations = true;
     private Point offset;
@@ -182,6 +186,15 @@ public class RenderedImageLayer<E extends ImageElement> extends DefaultUUID impl
     @Override
     public void setImage(E image, OpManager preprocessing) {
         boolean init = (image != null && !image.equals(this.sourceImage)) || (image == null && sourceImage != null);
+        if (init) {
+            // Keep the displayed image in the cache
+            if (sourceImage != null) {
+                sourceImage.unpinImage();
+            }
+            if (image != null) {
+                image.pinImage();
+            }
+        }
         this.sourceImage = image;
         this.preprocessing = preprocessing;
         // Rectify non square pixel image in the first operation
@@ -207,6 +220,24 @@ public class RenderedImageLayer<E extends ImageElement> extends DefaultUUID impl
         }
     }
 
+    /**
+     * Returns the display image for Java2D. The conversion is done only when the display image has changed, and the
+     * previous raster is recycled when the size and the type are the same (e.g. during window/level).
+     *
+     * @return the display image as BufferedImage
+     */
+    protected BufferedImage getDisplaySurface() {
+        PlanarImage img = displayImage;
+        if (img == null) {
+            displaySurface = null;
+            displaySurfaceSource = null;
+        } else if (img != displaySurfaceSource || displaySurface == null) {
+            displaySurface = ImageConversion.toBufferedImage(img, displaySurface);
+            displaySurfaceSource = img;
+        }
+        return displaySurface;
+    }
+
     public void drawImage(Graphics2D g2d) {
         // Get the clipping rectangle
         if (!visible || displayImage == null) {
@@ -226,8 +257,7 @@ public class RenderedImageLayer<E extends ImageElement> extends DefaultUUID impl
         }
 
         try {
-            g2d.drawRenderedImage(ImageConversion.toBufferedImage(displayImage),
-                AffineTransform.getTranslateInstance(0.0, 0.0));
+            g2d.drawRenderedImage(getDisplaySurface(), AffineTransform.getTranslateInstance(0.0, 0.0));
         } catch (Exception e) {
             LOGGER.error("Cannot draw the image", e);//$NON-NLS-1$
             if ("java.io.IOException: closed".equals(e.getMessage())) { //$NON-NLS-1$
@@ -365,14 +395,20 @@ public class RenderedImageLayer<E extends ImageElement> extends DefaultUUID impl
         disOpManager.setParamValue(AffineTransformOp.OP_NAME, AffineTransformOp.P_AFFINE_MATRIX, matrix);
         disOpManager.setParamValue(AffineTransformOp.OP_NAME, AffineTransformOp.P_DST_BOUNDS, bound);
 
-        g2d.drawRenderedImage(ImageConversion.toBufferedImage(img), AffineTransform.getScaleInstance(rx, ry));
+        BufferedImage printImage = img == displayImage ? getDisplaySurface() : ImageConversion.toBufferedImage(img);
+        g2d.drawRenderedImage(printImage, AffineTransform.getScaleInstance(rx, ry));
 
         g2d.setClip(clip);
     }
 
     public void dispose() {
+        if (sourceImage != null) {
+            sourceImage.unpinImage();
+        }
         sourceImage = null;
         displayImage = null;
+        displaySurface = null;
+        displaySurfaceSource = null;
         listenerList.clear();
         opListeners.clear();
     }
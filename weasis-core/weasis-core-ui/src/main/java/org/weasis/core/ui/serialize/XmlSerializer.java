@@ -10,16 +10,25 @@
  *******************************************************************************/
 package org.weasis.core.ui.serialize;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamReader;
 
 import org.slf4j.Logger;
@@ -30,42 +39,124 @@ import org.weasis.core.api.util.GzipManager;
 import org.weasis.core.ui.model.GraphicModel;
 import org.weasis.core.ui.model.imp.XmlGraphicModel;
 
+/**
+ * Reads and writes the graphic models in XML.
+ * <p>
+ * Building a JAXBContext is very expensive (reflection on all the graphic classes), so one context is kept for each
+ * class. The contexts are thread-safe but not the marshallers and the unmarshallers, they are kept in pools for being
+ * reused by the next calls.
+ */
 public class XmlSerializer {
     private static final Logger LOGGER = LoggerFactory.getLogger(XmlSerializer.class);
 
+    private static final int MAX_POOL_SIZE = 8;
+    private static final Map<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Queue<Marshaller>> MARSHALLERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Queue<Unmarshaller>> UNMARSHALLERS = new ConcurrentHashMap<>();
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    @FunctionalInterface
+    private interface JaxbFunction<T, R> {
+        R apply(T t) throws Exception;
+    }
+
+    /**
+     * @return the shared context of the class, built at the first call
+     */
+    public static JAXBContext getJaxbContext(Class<?> clazz) throws JAXBException {
+        JAXBContext context = CONTEXTS.get(clazz);
+        if (context == null) {
+            context = JAXBContext.newInstance(clazz);
+            JAXBContext old = CONTEXTS.putIfAbsent(clazz, context);
+            if (old != null) {
+                context = old;
+            }
+        }
+        return context;
+    }
+
+    private static <R> R marshal(Class<?> clazz, boolean formatted, boolean fragment,
+        JaxbFunction<Marshaller, R> function) throws Exception {
+        Queue<Marshaller> pool = MARSHALLERS.computeIfAbsent(clazz, k -> new ConcurrentLinkedQueue<>());
+        Marshaller marshaller = pool.poll();
+        if (marshaller == null) {
+            marshaller = getJaxbContext(clazz).createMarshaller();
+        }
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formatted);
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, fragment);
+        R result = function.apply(marshaller);
+        // Not returned to the pool after an error
+        if (pool.size() < MAX_POOL_SIZE) {
+            pool.offer(marshaller);
+        }
+        return result;
+    }
+
+    private static <R> R unmarshal(Class<?> clazz, JaxbFunction<Unmarshaller, R> function) throws Exception {
+        Queue<Unmarshaller> pool = UNMARSHALLERS.computeIfAbsent(clazz, k -> new ConcurrentLinkedQueue<>());
+        Unmarshaller unmarshaller = pool.poll();
+        if (unmarshaller == null) {
+            unmarshaller = getJaxbContext(clazz).createUnmarshaller();
+        }
+        R result = function.apply(unmarshaller);
+        // Not returned to the pool after an error
+        if (pool.size() < MAX_POOL_SIZE) {
+            pool.offer(unmarshaller);
+        }
+        return result;
+    }
+
+    private static GraphicModel removeGraphicsWithoutLayer(GraphicModel model) {
+        int length = model.getModels().size();
+        model.getModels().removeIf(g -> g.getLayer() == null);
+        if (length > model.getModels().size()) {
+            LOGGER.error("Removing {} graphics wihout a attached layer", length - model.getModels().size()); //$NON-NLS-1$
+        }
+        return model;
+    }
+
+    /**
+     * Reads a graphic model file, the XML is streamed (StAX) for not keeping the whole document in memory.
+     */
     public static GraphicModel readPresentationModel(File gpxFile) {
         if (gpxFile.canRead()) {
-            try {
-                JAXBContext jaxbContext = JAXBContext.newInstance(XmlGraphicModel.class);
-                Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-                GraphicModel model = (GraphicModel) jaxbUnmarshaller.unmarshal(gpxFile);
-                int length = model.getModels().size();
-                model.getModels().removeIf(g -> g.getLayer() == null);
-                if (length > model.getModels().size()) {
-                    LOGGER.error("Removing {} graphics wihout a attached layer", model.getModels().size() - length); //$NON-NLS-1$
-                }
-                return model;
+            XMLStreamReader xmler = null;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(gpxFile))) {
+                xmler = XML_INPUT_FACTORY.createXMLStreamReader(in);
+                XMLStreamReader reader = xmler;
+                GraphicModel model =
+                    unmarshal(XmlGraphicModel.class, u -> u.unmarshal(reader, XmlGraphicModel.class).getValue());
+                return removeGraphicsWithoutLayer(model);
             } catch (Exception e) {
                 LOGGER.error("Cannot load xml: ", e); //$NON-NLS-1$
+            } finally {
+                closeQuietly(xmler);
             }
         }
         return null;
     }
 
+    private static void closeQuietly(XMLStreamReader xmler) {
+        if (xmler != null) {
+            try {
+                xmler.close();
+            } catch (Exception e) {
+                LOGGER.debug("Cannot close the XML reader", e); //$NON-NLS-1$
+            }
+        }
+    }
+
     public static void writePresentation(ImageElement img, File destinationFile) {
         GraphicModel model = (GraphicModel) img.getTagValue(TagW.PresentationModel);
         if (model != null && !model.getModels().isEmpty()) {
             File gpxFile = new File(destinationFile.getParent(), destinationFile.getName() + ".xml"); //$NON-NLS-1$
 
             try {
-                JAXBContext jaxbContext = JAXBContext.newInstance(model.getClass());
-                Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-
                 // output pretty printed
-                jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
-                // jaxbMarshaller.marshal(model, System.out);
-                jaxbMarshaller.marshal(model, gpxFile);
+                marshal(model.getClass(), true, false, m -> {
+                    m.marshal(model, gpxFile);
+                    return null;
+                });
             } catch (Exception e) {
                 LOGGER.error("Cannot save xml: ", e); //$NON-NLS-1$
             }
@@ -80,11 +171,11 @@ public class XmlSerializer {
     public static void writePresentation(GraphicModel model, Writer writer) {
         if (model != null && model.hasSerializableGraphics()) {
             try {
-                JAXBContext jaxbContext = JAXBContext.newInstance(model.getClass());
-                Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
                 // Remove the xml header tag
-                jaxbMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
-                jaxbMarshaller.marshal(model, writer);
+                marshal(model.getClass(), false, true, m -> {
+                    m.marshal(model, writer);
+                    return null;
+                });
             } catch (Exception e) {
                 LOGGER.error("Cannot write GraphicModel", e); //$NON-NLS-1$
             }
@@ -93,44 +184,41 @@ public class XmlSerializer {
 
     public static GraphicModel readPresentation(XMLStreamReader xmler) {
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(XmlGraphicModel.class);
-            Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-            JAXBElement<XmlGraphicModel> unmarshalledObj =
-                jaxbUnmarshaller.unmarshal(new NoNamespaceStreamReaderDelegate(xmler), XmlGraphicModel.class);
-            GraphicModel model = unmarshalledObj.getValue();
-
-            int length = model.getModels().size();
-            model.getModels().removeIf(g -> g.getLayer() == null);
-            if (length > model.getModels().size()) {
-                LOGGER.error("Removing {} graphics wihout a attached layer", model.getModels().size() - length); //$NON-NLS-1$
-            }
-            return model;
+            GraphicModel model = unmarshal(XmlGraphicModel.class,
+                u -> u.unmarshal(new NoNamespaceStreamReaderDelegate(xmler), XmlGraphicModel.class).getValue());
+            return removeGraphicsWithoutLayer(model);
         } catch (Exception e) {
             LOGGER.error("Cannot write GraphicModel", e); //$NON-NLS-1$
         }
         return null;
     }
 
+    /**
+     * Writes a graphic model with a shared context, for the other formats (e.g. the private tag of DICOM PR).
+     */
+    public static void writePresentation(GraphicModel model, OutputStream outputStream) throws Exception {
+        marshal(model.getClass(), false, false, m -> {
+            m.marshal(model, outputStream);
+            return null;
+        });
+    }
+
     @SuppressWarnings("unchecked")
     public static <T> T deserialize(Reader reader, Class<T> clazz) throws JAXBException {
-        JAXBContext context = JAXBContext.newInstance(clazz);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
-
-        return (T) unmarshaller.unmarshal(reader);
+        try {
+            return unmarshal(clazz, u -> (T) u.unmarshal(reader));
+        } catch (JAXBException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JAXBException(e);
+        }
     }
 
     public static GraphicModel buildPresentationModel(byte[] gzipData) {
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(XmlGraphicModel.class);
-            Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
             ByteArrayInputStream inputStream = new ByteArrayInputStream(GzipManager.gzipUncompressToByte(gzipData));
-            GraphicModel model = (GraphicModel) jaxbUnmarshaller.unmarshal(inputStream);
-            int length = model.getModels().size();
-            model.getModels().removeIf(g -> g.getLayer() == null);
-            if (length > model.getModels().size()) {
-                LOGGER.error("Removing {} graphics wihout a attached layer", model.getModels().size() - length); //$NON-NLS-1$
-            }
-            return model;
+            GraphicModel model = unmarshal(XmlGraphicModel.class, u -> (GraphicModel) u.unmarshal(inputStream));
+            return removeGraphicsWithoutLayer(model);
         } catch (Exception e) {
             LOGGER.error("Cannot load xml graphic model: ", e); //$NON-NLS-1$
         }
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact map of the tag values of a media. The entries are stored in arrays sorted by the ordinal of the tags
+ * (TagW.getOrdinal()), which requires much less memory than a HashMap for the few dozen tags of an image.
+ * <p>
+ * The string values of a few tags having a small number of distinct values (modality, units...) are shared between
+ * all the maps: the same values read from thousands of instances are kept only once.
+ * <p>
+ * A map can inherit the entries of a parent map (e.g. the frames of a multi-frame instance). The parent must not be
+ * modified anymore, the changes (including the removals) are only stored in the child map.
+ * <p>
+ * This map is not thread-safe, the modifications must be done by one thread at a time. An insertion or a removal
+ * publishes new arrays, so a concurrent reader gets either the previous or the new value of a tag, never the value of
+ * another tag.
+ */
+public class TagMap extends AbstractMap<TagW, Object> {
+    private static final int MAX_INTERNED_LENGTH = 256;
+    // Limit of the shared values, beyond the values are not shared anymore
+    private static final int MAX_INTERNED_VALUES = 4096;
+    // Tags having few distinct values, their string values are shared
+    private static final Set<String> INTERNED_TAGS = new HashSet<>(Arrays.asList(
+        "Modality", "BodyPartExamined", "PhotometricInterpretation", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "PatientSex", "PatientPosition", "Manufacturer", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "ManufacturerModelName", "InstitutionName", "StationName", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "SOPClassUID", "TransferSyntaxUID", "RescaleType", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "Units", "PixelSpacingCalibrationDescription", "ConvolutionKernel", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "Laterality", "ImageLaterality", "PresentationIntentType", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "ViewPosition", "ScanningSequence", "SequenceVariant", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "ScanOptions")); //$NON-NLS-1$
+    private static final ConcurrentHashMap<String, String> INTERNED = new ConcurrentHashMap<>();
+    private static final Object REMOVED = new Object();
+    private static final Entries EMPTY = new Entries(0);
+
+    private volatile TagMap parent;
+    private volatile Entries entries;
+    private int modCount;
+
+    public TagMap() {
+        this(null, EMPTY);
+    }
+
+    /**
+     * @param parent
+     *            the map providing the default entries, it must not be modified anymore
+     */
+    public TagMap(TagMap parent) {
+        this(parent, EMPTY);
+    }
+
+    private TagMap(TagMap parent, Entries entries) {
+        this.parent = parent;
+        this.entries = entries;
+    }
+
+    /**
+     * @return a copy sharing the same parent
+     */
+    public TagMap snapshot() {
+        Entries e = entries;
+        Entries copy = new Entries(e.ordinals.length);
+        System.arraycopy(e.ordinals, 0, copy.ordinals, 0, e.ordinals.length);
+        System.arraycopy(e.keys, 0, copy.keys, 0, e.ordinals.length);
+        System.arraycopy(e.values, 0, copy.values, 0, e.ordinals.length);
+        return new TagMap(parent, copy);
+    }
+
+    /**
+     * @return a number incremented at each modification of this map (not of the parent)
+     */
+    public int getModificationCount() {
+        return modCount;
+    }
+
+    private static int indexOf(Entries e, Object key) {
+        if (key instanceof TagW) {
+            return Arrays.binarySearch(e.ordinals, ((TagW) key).getOrdinal());
+        }
+        return -1;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Entries e = entries;
+        int index = indexOf(e, key);
+        if (index >= 0) {
+            Object val = e.values[index];
+            return val == REMOVED ? null : val;
+        }
+        TagMap p = parent;
+        return p == null ? null : p.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Entries e = entries;
+        int index = indexOf(e, key);
+        if (index >= 0) {
+            return e.values[index] != REMOVED;
+        }
+        TagMap p = parent;
+        return p != null && p.containsKey(key);
+    }
+
+    @Override
+    public Object put(TagW key, Object value) {
+        Object old = get(key);
+        setValue(key, intern(key, value));
+        return old;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof TagW)) {
+            return null;
+        }
+        Object old = get(key);
+        Entries e = entries;
+        int index = indexOf(e, key);
+        TagMap p = parent;
+        if (p != null && p.containsKey(key)) {
+            // Hide the entry of the parent
+            setValue((TagW) key, REMOVED);
+        } else if (index >= 0) {
+            int length = e.ordinals.length;
+            Entries n = new Entries(length - 1);
+            copy(e, 0, n, 0, index);
+            copy(e, index + 1, n, index, length - index - 1);
+            entries = n;
+            modCount++;
+        }
+        return old;
+    }
+
+    private void setValue(TagW key, Object value) {
+        int ordinal = key.getOrdinal();
+        Entries e = entries;
+        int index = Arrays.binarySearch(e.ordinals, ordinal);
+        if (index >= 0) {
+            // Replacing a reference does not affect the other entries
+            e.keys[index] = key;
+            e.values[index] = value;
+        } else {
+            index = -(index + 1);
+            int length = e.ordinals.length;
+            Entries n = new Entries(length + 1);
+            copy(e, 0, n, 0, index);
+            copy(e, index, n, index + 1, length - index);
+            n.ordinals[index] = ordinal;
+            n.keys[index] = key;
+            n.values[index] = value;
+            entries = n;
+        }
+        modCount++;
+    }
+
+    private static void copy(Entries src, int srcPos, Entries dest, int destPos, int length) {
+        System.arraycopy(src.ordinals, srcPos, dest.ordinals, destPos, length);
+        System.arraycopy(src.keys, srcPos, dest.keys, destPos, length);
+        System.arraycopy(src.values, srcPos, dest.values, destPos, length);
+    }
+
+    @Override
+    public void clear() {
+        entries = EMPTY;
+        parent = null;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        Entries e = entries;
+        int size = 0;
+        for (Object val : e.values) {
+            if (val != REMOVED) {
+                size++;
+            }
+        }
+        TagMap p = parent;
+        if (p != null) {
+            for (TagW key : p.keySet()) {
+                if (indexOf(e, key) < 0) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Entry<TagW, Object>> entrySet() {
+        return new AbstractSet<Entry<TagW, Object>>() {
+
+            @Override
+            public Iterator<Entry<TagW, Object>> iterator() {
+                return new EntryIterator(getEntries());
+            }
+
+            @Override
+            public int size() {
+                return TagMap.this.size();
+            }
+        };
+    }
+
+    private List<Entry<TagW, Object>> getEntries() {
+        Entries e = entries;
+        List<Entry<TagW, Object>> list = new ArrayList<>(e.ordinals.length);
+        for (int i = 0; i < e.ordinals.length; i++) {
+            Object val = e.values[i];
+            if (val != REMOVED) {
+                list.add(new MapEntry(e.keys[i], val));
+            }
+        }
+        TagMap p = parent;
+        if (p != null) {
+            for (Entry<TagW, Object> pe : p.getEntries()) {
+                if (indexOf(e, pe.getKey()) < 0) {
+                    list.add(new MapEntry(pe.getKey(), pe.getValue()));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the shared instance of a string equal to the value of a tag having few distinct values, or the value
+     *         itself
+     */
+    static Object intern(TagW key, Object value) {
+        if (!(value instanceof String) || ((String) value).length() > MAX_INTERNED_LENGTH
+            || !INTERNED_TAGS.contains(key.getKeyword())) {
+            return value;
+        }
+        String str = (String) value;
+        String shared = INTERNED.get(str);
+        if (shared == null) {
+            if (INTERNED.size() >= MAX_INTERNED_VALUES) {
+                return str;
+            }
+            shared = INTERNED.putIfAbsent(str, str);
+            return shared == null ? str : shared;
+        }
+        return shared;
+    }
+
+    private static final class Entries {
+        final int[] ordinals;
+        final TagW[] keys;
+        final Object[] values;
+
+        Entries(int length) {
+            this.ordinals = new int[length];
+            this.keys = new TagW[length];
+            this.values = new Object[length];
+        }
+    }
+
+    private class MapEntry extends SimpleEntry<TagW, Object> {
+        private static final long serialVersionUID = 3364370651298371563L;
+
+        MapEntry(TagW key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            TagMap.this.put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry<TagW, Object>> {
+        private final Iterator<Entry<TagW, Object>> iterator;
+        private Entry<TagW, Object> last;
+
+        EntryIterator(List<Entry<TagW, Object>> entries) {
+            this.iterator = entries.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entry<TagW, Object> next() {
+            last = iterator.next();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            TagMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+}
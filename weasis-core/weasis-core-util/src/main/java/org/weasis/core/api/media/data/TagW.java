@@ -46,6 +46,8 @@ public class TagW implements Serializable {
 
     private static final long serialVersionUID = -7914330824854199622L;
     private static final AtomicInteger idCounter = new AtomicInteger(Integer.MAX_VALUE);
+    // Dense index of the tags for TagMap, the equal tags share the same ordinal
+    private static final Map<String, Integer> ordinals = new HashMap<>();
 
     protected static final Map<String, TagW> tags = Collections.synchronizedMap(new HashMap<String, TagW>());
 
@@ -202,6 +204,7 @@ public class TagW implements Serializable {
     protected final int vmMin;
     protected final int vmMax;
     protected final transient Object defaultValue;
+    private transient int ordinal;
 
     public TagW(int id, String keyword, String displayedName, TagType type, int vmMin, int vmMax, Object defaultValue) {
         this.id = id;
@@ -212,6 +215,7 @@ public class TagW implements Serializable {
         this.defaultValue = defaultValue;
         this.vmMax = vmMax < 1 ? 1 : vmMax;
         this.vmMin = vmMin < 1 ? 1 : vmMin;
+        this.ordinal = buildOrdinal(id, keyword);
 
         if (!isTypeCompliant(defaultValue)) {
             throw new IllegalArgumentException("defaultValue is not compliant to the tag type"); //$NON-NLS-1$
@@ -246,6 +250,23 @@ public class TagW implements Serializable {
         return id;
     }
 
+    /**
+     * @return a small positive number identifying the tag in this session, equal tags have the same ordinal
+     */
+    public int getOrdinal() {
+        if (ordinal == 0) {
+            // Deserialized tag
+            ordinal = buildOrdinal(id, keyword);
+        }
+        return ordinal;
+    }
+
+    private static int buildOrdinal(int id, String keyword) {
+        synchronized (ordinals) {
+            return ordinals.computeIfAbsent(id + "|" + keyword, k -> ordinals.size() + 1); //$NON-NLS-1$
+        }
+    }
+
     public String getKeyword() {
         return keyword;
     }
@@ -0,0 +1,597 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.data.Value;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.AppProperties;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.ThreadUtil;
+
+/**
+ * Persistent index of the DICOM headers, stored in the Weasis directory. The entries of the files of a folder are
+ * appended to a single pack file. An entry is identified by the name of the file and is only valid when the size and
+ * the last modified time of the file have not changed.
+ * <p>
+ * An entry contains only the attributes required for building the media and the series (the tags of the TagManager,
+ * the image and overlay modules, the functional groups...), the pixel data (replaced by the URI of the bulk data,
+ * including offset and length), the transfer syntax and the positions of the fragments of each frame. The complete
+ * header is read from the file only when it is requested (see DicomMediaIO.getDicomObject()).
+ * <p>
+ * The size of the index is limited (weasis.dicom.header.index.size in MB), the least recently used packs are removed
+ * first. The packs of the folders which do not exist anymore are removed at the first use.
+ */
+final class DicomHeaderIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DicomHeaderIndex.class);
+
+    private static final int MAGIC = 0x57494458; // WIDX
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".idx"; //$NON-NLS-1$
+    private static final String BULKDATA_PREFIX = "weasis:bulkdata:"; //$NON-NLS-1$
+    private static final String FRAGMENTS_PREFIX = "weasis:fragments:"; //$NON-NLS-1$
+    /** Maximum size of the packs kept in memory */
+    private static final long MAX_MEMORY = 64L * 1024L * 1024L;
+
+    private static final int[] INDEXED_TAGS = { Tag.SpecificCharacterSet, Tag.ImageType, Tag.SOPClassUID,
+        Tag.SOPInstanceUID, Tag.StudyDate, Tag.SeriesDate, Tag.AcquisitionDate, Tag.StudyTime, Tag.SeriesTime,
+        Tag.AcquisitionTime, Tag.Modality, Tag.PatientSize, Tag.PatientWeight, Tag.PixelData, Tag.FloatPixelData,
+        Tag.DoubleFloatPixelData, Tag.SharedFunctionalGroupsSequence, Tag.PerFrameFunctionalGroupsSequence };
+
+    private static final boolean ENABLED =
+        BundleTools.SYSTEM_PREFERENCES.getBooleanProperty("weasis.dicom.header.index", true); //$NON-NLS-1$
+    private static final long MAX_SIZE =
+        BundleTools.SYSTEM_PREFERENCES.getLongProperty("weasis.dicom.header.index.size", 256L) * 1024L * 1024L; //$NON-NLS-1$
+    private static final File INDEX_DIR =
+        new File(AppProperties.WEASIS_PATH, "cache" + File.separator + "dicom-headers"); //$NON-NLS-1$ //$NON-NLS-2$
+    private static final String TEMP_DIR = AppProperties.APP_TEMP_DIR.getAbsolutePath();
+    private static final ExecutorService WRITER = ThreadUtil.buildNewSingleThreadExecutor("Header Index"); //$NON-NLS-1$
+
+    // Packs in memory by folder path, in the access order
+    private static final LinkedHashMap<String, Pack> PACKS = new LinkedHashMap<>(16, 0.75f, true);
+    private static boolean cleaned = false;
+
+    static {
+        Arrays.sort(INDEXED_TAGS);
+    }
+
+    private DicomHeaderIndex() {
+    }
+
+    static final class Entry {
+        private final Attributes fmi;
+        private final Attributes dataset;
+        private final String transferSyntax;
+        private final boolean bigEndian;
+        private final List<Integer> fragmentsPositions;
+
+        Entry(Attributes fmi, Attributes dataset, String transferSyntax, boolean bigEndian,
+            List<Integer> fragmentsPositions) {
+            this.fmi = fmi;
+            this.dataset = dataset;
+            this.transferSyntax = transferSyntax;
+            this.bigEndian = bigEndian;
+            this.fragmentsPositions = fragmentsPositions;
+        }
+
+        Attributes getFileMetaInformation() {
+            return fmi;
+        }
+
+        /**
+         * @return the indexed attributes, not the complete header
+         */
+        Attributes getDataset() {
+            return dataset;
+        }
+
+        String getTransferSyntax() {
+            return transferSyntax;
+        }
+
+        boolean isBigEndian() {
+            return bigEndian;
+        }
+
+        List<Integer> getFragmentsPositions() {
+            return fragmentsPositions;
+        }
+    }
+
+    /**
+     * @return true when the headers of this file can be stored (the temporary files like the downloaded ones are
+     *         excluded)
+     */
+    static boolean isIndexable(File file) {
+        return ENABLED && MAX_SIZE > 0 && file != null && file.getParentFile() != null
+            && !file.getAbsolutePath().startsWith(TEMP_DIR);
+    }
+
+    /**
+     * @return the entry or null when the file has never been indexed or has been modified since
+     */
+    static Entry get(File file) {
+        if (!isIndexable(file)) {
+            return null;
+        }
+        Pack pack = getPack(file.getAbsoluteFile().getParentFile());
+        if (pack == null) {
+            return null;
+        }
+        byte[] record = pack.get(file.getName());
+        if (record == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            if (in.readLong() != file.length() || in.readLong() != file.lastModified()) {
+                pack.remove(file.getName());
+                return null;
+            }
+            String tsuid = in.readUTF();
+            boolean bigEndian = in.readBoolean();
+            int nbPositions = in.readInt();
+            List<Integer> positions = new ArrayList<>(nbPositions);
+            for (int i = 0; i < nbPositions; i++) {
+                positions.add(in.readInt());
+            }
+            Attributes fmi = readAttributes(in);
+            Attributes dataset = readAttributes(in);
+            restoreBulkData(dataset);
+            return new Entry(fmi, dataset, tsuid, bigEndian, positions);
+        } catch (Exception e) {
+            LOGGER.warn("Cannot read the header index of {}: {}", file, e.getMessage()); //$NON-NLS-1$
+            pack.remove(file.getName());
+        }
+        return null;
+    }
+
+    static void put(File file, Attributes fmi, Attributes dataset, String tsuid, boolean bigEndian,
+        List<Integer> fragmentsPositions) {
+        if (!isIndexable(file) || fmi == null || dataset == null || tsuid == null) {
+            return;
+        }
+        // The other instances (PR, KO, SR...) require their complete header
+        if (!dataset.contains(Tag.PixelData) && !dataset.contains(Tag.FloatPixelData)
+            && !dataset.contains(Tag.DoubleFloatPixelData)) {
+            return;
+        }
+        Pack pack = getPack(file.getAbsoluteFile().getParentFile());
+        if (pack == null) {
+            return;
+        }
+        try {
+            Attributes copy = new Attributes(dataset, getIndexedTags(dataset));
+            if (!replaceBulkData(copy)) {
+                return;
+            }
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+            try (DataOutputStream out = new DataOutputStream(buf)) {
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+                out.writeUTF(tsuid);
+                out.writeBoolean(bigEndian);
+                List<Integer> positions = fragmentsPositions == null ? Collections.emptyList() : fragmentsPositions;
+                out.writeInt(positions.size());
+                for (Integer pos : positions) {
+                    out.writeInt(pos);
+                }
+                writeAttributes(out, fmi);
+                writeAttributes(out, copy);
+            }
+            pack.put(file.getName(), buf.toByteArray());
+        } catch (Exception e) {
+            LOGGER.warn("Cannot write the header index of {}: {}", file, e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * @return the top level tags required for building the media and the series
+     */
+    private static int[] getIndexedTags(Attributes dataset) {
+        int[] tags = dataset.tags();
+        int[] selection = new int[tags.length];
+        int nb = 0;
+        for (int tag : tags) {
+            int group = tag >>> 16;
+            if ((group & 1) != 0) {
+                // Private tags
+                continue;
+            }
+            // Image Pixel, LUTs, acquisition, position, radiopharmaceutical and overlay modules
+            if (group == 0x0018 || group == 0x0020 || group == 0x0028 || group == 0x0054
+                || (group & 0xFF00) == 0x6000 || Arrays.binarySearch(INDEXED_TAGS, tag) >= 0
+                || DicomMediaIO.tagManager.contains(tag)) {
+                selection[nb++] = tag;
+            }
+        }
+        return Arrays.copyOf(selection, nb);
+    }
+
+    private static Pack getPack(File folder) {
+        String path = folder.getPath();
+        synchronized (PACKS) {
+            if (!cleaned) {
+                cleaned = true;
+                WRITER.execute(DicomHeaderIndex::cleanIndex);
+            }
+            Pack pack = PACKS.get(path);
+            if (pack == null) {
+                File packFile = getPackFile(path);
+                if (packFile == null) {
+                    return null;
+                }
+                pack = new Pack(path, packFile);
+                pack.load();
+                PACKS.put(path, pack);
+                long memorySize = 0L;
+                for (Pack p : PACKS.values()) {
+                    memorySize += p.size;
+                }
+                // Keep at least the pack of the current folder
+                Iterator<Pack> it = PACKS.values().iterator();
+                while (memorySize > MAX_MEMORY && PACKS.size() > 1 && it.hasNext()) {
+                    memorySize -= it.next().size;
+                    it.remove();
+                }
+            }
+            return pack;
+        }
+    }
+
+    private static File getPackFile(String folder) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+            byte[] digest = md.digest(folder.getBytes(StandardCharsets.UTF_8));
+            StringBuilder buf = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                buf.append(String.format("%02x", b)); //$NON-NLS-1$
+            }
+            return new File(INDEX_DIR, buf.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Cannot build the header index key", e); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * Removes the packs of the folders which do not exist anymore, the previous versions and the least recently used
+     * packs above the size limit. Called by the writer thread.
+     */
+    private static void cleanIndex() {
+        File[] files = INDEX_DIR.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Previous version, one file per instance in sub-folders
+        for (File f : files) {
+            if (f.isDirectory()) {
+                FileUtil.recursiveDelete(f);
+            }
+        }
+        List<File> packs = new ArrayList<>();
+        for (File f : files) {
+            if (f.isFile()) {
+                String folder = readFolder(f);
+                if (folder == null || !new File(folder).isDirectory()) {
+                    FileUtil.delete(f);
+                } else {
+                    packs.add(f);
+                }
+            }
+        }
+        evict(packs, null);
+    }
+
+    /**
+     * Removes the least recently modified packs above the size limit, except the one in use.
+     */
+    private static void evict(List<File> packs, File inUse) {
+        long total = 0L;
+        for (File f : packs) {
+            total += f.length();
+        }
+        if (total <= MAX_SIZE) {
+            return;
+        }
+        packs.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : packs) {
+            if (total <= MAX_SIZE) {
+                break;
+            }
+            if (f.equals(inUse)) {
+                continue;
+            }
+            long size = f.length();
+            String folder = readFolder(f);
+            if (FileUtil.delete(f) || !f.exists()) {
+                total -= size;
+                if (folder != null) {
+                    synchronized (PACKS) {
+                        PACKS.remove(folder);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String readFolder(File packFile) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(packFile), 512))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                return in.readUTF();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Cannot read the header index {}: {}", packFile, e.getMessage()); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    private static void writeAttributes(DataOutputStream out, Attributes attributes) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DicomOutputStream dos = new DicomOutputStream(buf, UID.ExplicitVRLittleEndian)) {
+            dos.writeDataset(null, attributes);
+        }
+        out.writeInt(buf.size());
+        buf.writeTo(out);
+    }
+
+    private static Attributes readAttributes(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        try (DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(data), UID.ExplicitVRLittleEndian)) {
+            return dis.readDataset(-1, -1);
+        }
+    }
+
+    /**
+     * Replaces the bulk data values (at all levels) by a string containing their URI.
+     *
+     * @return false when a value cannot be replaced
+     */
+    private static boolean replaceBulkData(Attributes attributes) throws Exception {
+        List<Object[]> values = new ArrayList<>();
+        attributes.accept((attrs, tag, vr, value) -> {
+            if (value instanceof BulkData || value instanceof Fragments) {
+                values.add(new Object[] { attrs, tag, vr, value });
+            }
+            return true;
+        }, true);
+
+        for (Object[] v : values) {
+            Attributes attrs = (Attributes) v[0];
+            int tag = (Integer) v[1];
+            VR vr = (VR) v[2];
+            StringBuilder buf = new StringBuilder();
+            if (v[3] instanceof BulkData) {
+                BulkData bulkData = (BulkData) v[3];
+                buf.append(BULKDATA_PREFIX).append(vr.name()).append(':').append(bulkData.bigEndian() ? '1' : '0')
+                    .append(':').append(bulkData.getURI());
+            } else {
+                Fragments fragments = (Fragments) v[3];
+                buf.append(FRAGMENTS_PREFIX).append(vr.name()).append(':').append(fragments.bigEndian() ? '1' : '0');
+                for (Object item : fragments) {
+                    buf.append('\n');
+                    if (item instanceof BulkData) {
+                        buf.append(((BulkData) item).getURI());
+                    } else if (item != Value.NULL && !(item instanceof byte[] && ((byte[]) item).length == 0)) {
+                        // Fragment read in memory
+                        return false;
+                    }
+                }
+            }
+            attrs.setString(tag, VR.UT, buf.toString());
+        }
+        return true;
+    }
+
+    private static void restoreBulkData(Attributes attributes) throws Exception {
+        List<Object[]> values = new ArrayList<>();
+        attributes.accept((attrs, tag, vr, value) -> {
+            if (vr == VR.UT) {
+                String val = attrs.getString(tag);
+                if (val != null && (val.startsWith(BULKDATA_PREFIX) || val.startsWith(FRAGMENTS_PREFIX))) {
+                    values.add(new Object[] { attrs, tag, val });
+                }
+            }
+            return true;
+        }, true);
+
+        for (Object[] v : values) {
+            Attributes attrs = (Attributes) v[0];
+            int tag = (Integer) v[1];
+            String val = (String) v[2];
+            boolean bulk = val.startsWith(BULKDATA_PREFIX);
+            String content = val.substring(bulk ? BULKDATA_PREFIX.length() : FRAGMENTS_PREFIX.length());
+            String[] lines = content.split("\n", -1); //$NON-NLS-1$
+            String[] header = lines[0].split(":", 3); //$NON-NLS-1$
+            VR vr = VR.valueOf(header[0]);
+            boolean bigEndian = "1".equals(header[1]); //$NON-NLS-1$
+            if (bulk) {
+                attrs.setValue(tag, vr, new BulkData(null, header[2], bigEndian));
+            } else {
+                Fragments fragments = attrs.newFragments(tag, vr, lines.length - 1);
+                for (int i = 1; i < lines.length; i++) {
+                    fragments.add(lines[i].isEmpty() ? Value.NULL : new BulkData(null, lines[i], bigEndian));
+                }
+            }
+        }
+    }
+
+    /**
+     * Entries of the files of a folder. The file contains a header (magic, version and folder path) followed by the
+     * records (file name and entry); a record replaces the previous ones of the same file, an empty entry removes it.
+     * The new records are appended by the writer thread, the file is rewritten when it contains too many obsolete
+     * records.
+     */
+    private static final class Pack {
+        private final String folder;
+        private final File file;
+        private final Map<String, byte[]> records = new HashMap<>();
+        private final Map<String, byte[]> pending = new LinkedHashMap<>();
+        private boolean flushScheduled = false;
+        private int obsolete = 0;
+        // Estimation of the memory used by the records
+        private volatile long size = 0L;
+
+        Pack(String folder, File file) {
+            this.folder = folder;
+            this.file = file;
+        }
+
+        synchronized byte[] get(String name) {
+            return records.get(name);
+        }
+
+        synchronized void put(String name, byte[] record) {
+            if (records.put(name, record) != null) {
+                obsolete++;
+            }
+            size += record.length + name.length() * 2L;
+            pending.put(name, record);
+            scheduleFlush();
+        }
+
+        synchronized void remove(String name) {
+            if (records.remove(name) != null) {
+                obsolete++;
+                pending.put(name, new byte[0]);
+                scheduleFlush();
+            }
+        }
+
+        private void scheduleFlush() {
+            if (!flushScheduled) {
+                flushScheduled = true;
+                // Batch the records of the files read at the same time
+                WRITER.execute(this::flush);
+            }
+        }
+
+        /**
+         * Reads the records from the file. Called once with the lock of the packs.
+         */
+        void load() {
+            if (!file.isFile()) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !folder.equals(in.readUTF())) {
+                    FileUtil.delete(file);
+                    return;
+                }
+                while (true) {
+                    String name;
+                    byte[] record;
+                    try {
+                        name = in.readUTF();
+                        record = new byte[in.readInt()];
+                        in.readFully(record);
+                    } catch (EOFException e) {
+                        // End of file or last record partially written
+                        break;
+                    }
+                    byte[] old = record.length == 0 ? records.remove(name) : records.put(name, record);
+                    if (old != null) {
+                        obsolete++;
+                    }
+                    size += record.length + name.length() * 2L;
+                }
+                // Used for removing the least recently used packs
+                file.setLastModified(System.currentTimeMillis());
+            } catch (IOException e) {
+                LOGGER.warn("Cannot read the header index {}: {}", file, e.getMessage()); //$NON-NLS-1$
+                records.clear();
+                FileUtil.delete(file);
+            }
+        }
+
+        private void flush() {
+            Map<String, byte[]> list;
+            boolean compact;
+            synchronized (this) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                compact = obsolete > 64 && obsolete > records.size();
+                list = new LinkedHashMap<>(compact ? records : pending);
+                pending.clear();
+                if (compact) {
+                    obsolete = 0;
+                }
+            }
+            try {
+                boolean newFile = compact || !file.isFile();
+                File target = file;
+                if (newFile) {
+                    INDEX_DIR.mkdirs();
+                    target = File.createTempFile("idx_", null, INDEX_DIR); //$NON-NLS-1$
+                }
+                try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(target, !newFile)))) {
+                    if (newFile) {
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeUTF(folder);
+                    }
+                    for (Map.Entry<String, byte[]> e : list.entrySet()) {
+                        out.writeUTF(e.getKey());
+                        out.writeInt(e.getValue().length);
+                        out.write(e.getValue());
+                    }
+                }
+                if (newFile) {
+                    Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Cannot write the header index {}: {}", file, e.getMessage()); //$NON-NLS-1$
+            }
+            File[] files = INDEX_DIR.listFiles((dir, name) -> name.endsWith(SUFFIX));
+            if (files != null) {
+                evict(new ArrayList<>(Arrays.asList(files)), file);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferUShort;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -25,6 +26,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.gui.util.ActionW;
 import org.weasis.core.api.gui.util.MathUtil;
+import org.weasis.core.api.image.ImageOpNode.Param;
+import org.weasis.core.api.image.IntermediateImage;
 import org.weasis.core.api.image.LutShape;
 import org.weasis.core.api.image.PseudoColorOp;
 import org.weasis.core.api.image.WindowOp;
@@ -204,6 +207,27 @@ public class DicomImageElement extends ImageElement {
         return TagD.getTagValue(this, Tag.SOPInstanceUID, String.class);
     }
 
+    @Override
+    public String getThumbnailKey() {
+        String sopUID = TagD.getTagValue(this, Tag.SOPInstanceUID, String.class);
+        if (sopUID == null) {
+            return null;
+        }
+        // The default rendering depends on the frame and on the VOI attributes
+        StringBuilder buf = new StringBuilder(sopUID);
+        buf.append('|');
+        buf.append(getKey() instanceof Integer ? (Integer) getKey() : 0);
+        buf.append('|');
+        buf.append(Arrays.toString(TagD.getTagValue(this, Tag.WindowCenter, double[].class)));
+        buf.append('|');
+        buf.append(Arrays.toString(TagD.getTagValue(this, Tag.WindowWidth, double[].class)));
+        buf.append('|');
+        buf.append(TagD.getTagValue(this, Tag.VOILUTFunction, String.class));
+        buf.append('|');
+        buf.append(TagD.getTagValue(this, Tag.PhotometricInterpretation, String.class));
+        return buf.toString();
+    }
+
     public double getRescaleIntercept(TagReadable tagable) {
         Double prIntercept = TagD.getTagValue(tagable, Tag.RescaleIntercept, Double.class);
         Double intercept =
@@ -678,8 +702,8 @@ public class DicomImageElement extends ImageElement {
 
         if (datatype >= DataBuffer.TYPE_BYTE && datatype < DataBuffer.TYPE_INT) {
             LookupTableCV modalityLookup = getModalityLookup(prTags, pixPadding, invLUT);
-            ImageCV imageModalityTransformed =
-                modalityLookup == null ? imageSource.toImageCV() : modalityLookup.lookup(imageSource.toMat());
+            ImageCV imageModalityTransformed = modalityLookup == null ? imageSource.toImageCV()
+                : getModalityTransformedImage(imageSource, modalityLookup, params);
 
             /*
              * C.11.2.1.2 Window center and window width
@@ -725,6 +749,23 @@ public class DicomImageElement extends ImageElement {
         return null;
     }
 
+    private static ImageCV getModalityTransformedImage(PlanarImage imageSource, LookupTableCV modalityLookup,
+        Map<String, Object> params) {
+        // The modality LUT does not depend on the window/level values, reuse it while they are changing
+        IntermediateImage cache = params == null ? null : (IntermediateImage) params.get(Param.INTERMEDIATE_IMG);
+        if (cache != null) {
+            PlanarImage img = cache.get(imageSource, modalityLookup);
+            if (img != null) {
+                return img.toImageCV();
+            }
+        }
+        ImageCV img = modalityLookup.lookup(imageSource.toMat());
+        if (cache != null) {
+            cache.set(imageSource, modalityLookup, img);
+        }
+        return img;
+    }
+
     public GeometryOfSlice getDispSliceGeometry() {
         // The geometry is adapted to get square pixel as all the images are displayed with square pixel.
         double[] imgOr = TagD.getTagValue(this, Tag.ImageOrientationPatient, double[].class);
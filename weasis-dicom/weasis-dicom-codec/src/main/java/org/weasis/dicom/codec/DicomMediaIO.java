@@ -26,7 +26,6 @@ import java.io.RandomAccessFile;
 import java.lang.ref.Reference;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.ByteOrder;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -81,6 +80,7 @@ import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SimpleTagable;
 import org.weasis.core.api.media.data.SoftHashMap;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagView;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.service.BundleTools;
@@ -120,6 +120,9 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
     public static final String SERIES_XDSI = "xds-i/dicom"; //$NON-NLS-1$
 
     private static final AtomicInteger instanceID = new AtomicInteger(1);
+    // On Windows a mapped file cannot be deleted until the mapping is garbage collected
+    private static final boolean MAPPED_PIXEL_DATA = BundleTools.SYSTEM_PREFERENCES.getBooleanProperty(
+        "weasis.dicom.mapped.pixeldata", !AppProperties.OPERATING_SYSTEM.startsWith("win")); //$NON-NLS-1$ //$NON-NLS-2$
     public static final TagManager tagManager = new TagManager();
 
     static {
@@ -283,11 +286,18 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
     private BulkData pixeldata;
     private final VR.Holder pixeldataVR = new VR.Holder();
     private Fragments pixeldataFragments;
+    private volatile MappedPixelData mappedPixelData;
+    // Header parsed when the file was written (only used for the first reading)
+    private Attributes streamedFmi;
+    private Attributes streamedDataset;
     private PhotometricInterpretation pmi;
 
     private URI uri;
     private int numberOfFrame;
-    private final Map<TagW, Object> tags;
+    private final TagMap tags;
+    // Tags shared by the frames of a multi-frame instance
+    private TagMap frameTags;
+    private int frameTagsModCount;
     private volatile MediaElement[] image = null;
     private volatile String mimeType;
     private final ArrayList<Integer> fragmentsPositions = new ArrayList<>();
@@ -311,6 +321,9 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
     private boolean skipLargePrivate = true;
     private volatile boolean readingHeader = false;
     private volatile boolean readingImage = false;
+    private volatile boolean disposed = false;
+    // The header comes from the index and contains only the attributes required for building the media
+    private volatile boolean partialHeader = false;
 
     private final FileCache fileCache;
 
@@ -318,7 +331,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
         super(dicomImageReaderSpi);
         this.uri = Objects.requireNonNull(uri);
         this.numberOfFrame = 0;
-        this.tags = new HashMap<>();
+        this.tags = new TagMap();
         this.mimeType = MIMETYPE;
         this.fileCache = new FileCache(this);
     }
@@ -331,6 +344,22 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
         this(Objects.requireNonNull(path).toUri());
     }
 
+    /**
+     * Reader of a file which has just been written from a stream (e.g. downloaded), its header is not parsed again.
+     *
+     * @param source
+     *            the file
+     * @param fmi
+     *            the file meta information
+     * @param dataset
+     *            the dataset up to the pixel data, which must be a BulkData referencing the file
+     */
+    public DicomMediaIO(File source, Attributes fmi, Attributes dataset) {
+        this(source);
+        this.streamedFmi = Objects.requireNonNull(fmi);
+        this.streamedDataset = Objects.requireNonNull(dataset);
+    }
+
     public DicomMediaIO(Attributes dcmItems) throws URISyntaxException {
         this(new URI("data:" + Objects.requireNonNull(dcmItems).getString(Tag.SOPInstanceUID))); //$NON-NLS-1$
         this.dcmMetadata = new DicomMetaData(null, Objects.requireNonNull(dcmItems));
@@ -356,6 +385,9 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
     public synchronized void replaceURI(URI uri) {
         if (!Objects.equals(this.uri, Objects.requireNonNull(uri))) {
             this.uri = uri;
+            mappedPixelData = null;
+            streamedFmi = null;
+            streamedDataset = null;
             reset();
         }
     }
@@ -480,7 +512,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
             return;
         }
         // Get the dicom header
-        Attributes header = getDicomObject();
+        Attributes header = getHeader();
         DicomMediaUtils.writeMetaData(group, header);
 
         // Series Group
@@ -707,9 +739,9 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
                 LOGGER.debug("Start reading dicom image frame: {} sopUID: {}", //$NON-NLS-1$
                     frame, TagD.getTagValue(this, Tag.SOPInstanceUID));
 
-                PlanarImage img = getUncacheImage(media, frame);
+                PlanarImage img = getUncacheImage(frame);
                 if (pmi == PhotometricInterpretation.PALETTE_COLOR) {
-                    img = DicomImageUtils.getRGBImageFromPaletteColorModel(img, getDicomObject());
+                    img = DicomImageUtils.getRGBImageFromPaletteColorModel(img, getHeader());
                 }
 
                 /*
@@ -720,7 +752,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
                 if (overlayBitMask != null) {
                     if (media.getTagValue(TagW.OverlayBurninDataPath) == null) {
                         // Serialize overlay (from pixel data)
-                        Attributes ds = getDicomObject();
+                        Attributes ds = getHeader();
                         int[] embeddedOverlayGroupOffsets = Overlays.getEmbeddedOverlayGroupOffsets(ds);
                         if (embeddedOverlayGroupOffsets.length > 0) {
                             FileOutputStream fileOut = null;
@@ -773,11 +805,41 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
         }
     }
 
-    private PlanarImage getUncacheImage(MediaElement media, int frame) throws IOException {
-        FileCache cache = media.getFileCache();
-        Optional<File> orinigal = cache.getOriginalFile();
+    /**
+     * Decodes a frame and stores it in the transcoding cache, called in background by {@link TranscodedFrameCache}.
+     */
+    PlanarImage transcodeFrame(int frame) throws IOException {
+        // Same lock as the image loader, the frames share the reader which cannot decode them concurrently
+        synchronized (this) {
+            if (disposed || frame < 0 || frame >= numberOfFrame || !hasPixel) {
+                return null;
+            }
+            // Prevent closing the stream when the header is removed from the cache
+            readingImage = true;
+            try {
+                return getUncacheImage(frame);
+            } finally {
+                readingImage = false;
+            }
+        }
+    }
+
+    private PlanarImage getUncacheImage(int frame) throws IOException {
+        Optional<File> orinigal = fileCache.getOriginalFile();
         if (orinigal.isPresent()) {
             readMetaData();
+            if (!compressedData && pixeldata != null) {
+                PlanarImage img = getMappedImage(orinigal.get(), frame);
+                if (img != null) {
+                    return img;
+                }
+            }
+            String sopUID = TagD.getTagValue(this, Tag.SOPInstanceUID, String.class);
+            String cacheKey = compressedData ? TranscodedFrameCache.getKey(sopUID, tsuid, frame) : null;
+            ImageCV cached = TranscodedFrameCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
             String syntax = tsuid;
             boolean rawData = !compressedData || isRLELossless();
             ExtendSegmentedInputImageStream extParams = buildSegmentedImageInputStream(frame);
@@ -817,17 +879,24 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
                 MatOfDouble lengths =
                     new MatOfDouble(Arrays.stream(extParams.getSegmentLengths()).asDoubleStream().toArray());
 
+                ImageCV img;
                 if (rawData) {
                     MatOfInt dicomparams = new MatOfInt(Imgcodecs.IMREAD_UNCHANGED, dcmFlags,
                         TagD.getTagValue(this, Tag.Columns, Integer.class),
                         TagD.getTagValue(this, Tag.Rows, Integer.class), 0,
                         TagD.getTagValue(this, Tag.SamplesPerPixel, Integer.class), bitsStored,
                         banded ? Imgcodecs.ILV_NONE : Imgcodecs.ILV_SAMPLE);
-                    return ImageCV.toImageCV(Imgcodecs.dicomRawFileRead(orinigal.get().getAbsolutePath(), positions,
+                    img = ImageCV.toImageCV(Imgcodecs.dicomRawFileRead(orinigal.get().getAbsolutePath(), positions,
                         lengths, dicomparams, pmi.name()));
+                } else {
+                    img = ImageCV.toImageCV(Imgcodecs.dicomJpgFileRead(orinigal.get().getAbsolutePath(), positions,
+                        lengths, dcmFlags, Imgcodecs.IMREAD_UNCHANGED));
                 }
-                return ImageCV.toImageCV(Imgcodecs.dicomJpgFileRead(orinigal.get().getAbsolutePath(), positions, lengths,
-                    dcmFlags, Imgcodecs.IMREAD_UNCHANGED));
+                if (cacheKey != null && img != null) {
+                    TranscodedFrameCache.put(cacheKey, img);
+                    TranscodedFrameCache.schedule(this, sopUID, tsuid, numberOfFrame);
+                }
+                return img;
 
                 // Mat buf = getMatBuffer(extParams);
                 // if (rawData) {
@@ -845,6 +914,46 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
         return null;
     }
 
+    /**
+     * Reads a frame from the pixel data mapped in memory. Only the monochrome and palette color images of 8 or 16 bits
+     * are supported, the other ones are read by the native decoder.
+     *
+     * @return the frame or null when the pixel data cannot be mapped
+     */
+    private PlanarImage getMappedImage(File file, int frame) throws IOException {
+        Integer samples = TagD.getTagValue(this, Tag.SamplesPerPixel, Integer.class);
+        if (!MAPPED_PIXEL_DATA || samples == null || samples != 1 || (bitsAllocated != 8 && bitsAllocated != 16)
+            || (dataType == DataBuffer.TYPE_SHORT && bitsStored < bitsAllocated)) {
+            // Signed values with high bits require a sign extension
+            return null;
+        }
+        int width = TagD.getTagValue(this, Tag.Columns, Integer.class);
+        int height = TagD.getTagValue(this, Tag.Rows, Integer.class);
+        MappedPixelData mapped = getMappedPixelData(file, pmi.frameLength(width, height, samples, bitsAllocated));
+        if (mapped == null) {
+            return null;
+        }
+        int cvType = bitsAllocated == 8 ? CvType.CV_8UC1
+            : dataType == DataBuffer.TYPE_SHORT ? CvType.CV_16SC1 : CvType.CV_16UC1;
+        return mapped.getFrame(frame, width, height, cvType);
+    }
+
+    private synchronized MappedPixelData getMappedPixelData(File file, int frameLength) throws IOException {
+        MappedPixelData mapped = mappedPixelData;
+        if (mapped == null || !mapped.getFile().equals(file)) {
+            if (pixeldata.length() >= 0 && (long) frameLength * numberOfFrame > pixeldata.length()) {
+                return null;
+            }
+            mapped = MappedPixelData.map(file, pixeldata.offset(), frameLength, numberOfFrame, bigendian);
+            if (mapped == null) {
+                LOGGER.debug("Cannot map the pixel data of {}", file); //$NON-NLS-1$
+                return null;
+            }
+            mappedPixelData = mapped;
+        }
+        return mapped;
+    }
+
     private PlanarImage getValidImage(RenderedImage buffer, MediaElement media) {
         PlanarImage img = null;
         if (buffer != null) {
@@ -857,7 +966,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
             // TODO free memory
             img = ImageConversion.toMat(image);
             if (image.getColorModel() instanceof PaletteColorModel) {
-                img = DicomImageUtils.getRGBImageFromPaletteColorModel(img, getDicomObject());
+                img = DicomImageUtils.getRGBImageFromPaletteColorModel(img, getHeader());
             }
 
             // TODO should be applied for all images
@@ -869,7 +978,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
             if (overlayBitMask != null) {
                 if (media.getTagValue(TagW.OverlayBurninDataPath) == null) {
                     // Serialize overlay (from pixel data)
-                    Attributes ds = getDicomObject();
+                    Attributes ds = getHeader();
                     int[] embeddedOverlayGroupOffsets = Overlays.getEmbeddedOverlayGroupOffsets(ds);
 
                     // TODO remove if the output image is cache
@@ -993,14 +1102,23 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
         return mimeType;
     }
 
+    private synchronized TagMap getFrameTags() {
+        // A copy because the tags of the first frame are the tags of this reader
+        if (frameTags == null || frameTagsModCount != tags.getModificationCount()) {
+            frameTags = tags.snapshot();
+            frameTagsModCount = tags.getModificationCount();
+        }
+        return frameTags;
+    }
+
     @Override
     public Map<TagW, Object> getMediaFragmentTags(Object key) {
         if (key instanceof Integer) {
             if ((Integer) key > 0) {
-                // Clone the shared tag
-                Map<TagW, Object> tagList = new HashMap<>(tags);
+                // Only the specific values of the frame are stored, the others are inherited
+                TagMap tagList = new TagMap(getFrameTags());
                 SimpleTagable tagable = new SimpleTagable(tagList);
-                if (DicomMediaUtils.writePerFrameFunctionalGroupsSequence(tagable, getDicomObject(), (Integer) key)) {
+                if (DicomMediaUtils.writePerFrameFunctionalGroupsSequence(tagable, getHeader(), (Integer) key)) {
                     DicomMediaUtils.computeSlicePositionVector(tagable);
                 }
                 return tagList;
@@ -1079,7 +1197,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
     }
 
     private boolean isRLELossless() {
-        return dis == null ? false : dis.getTransferSyntax().equals(UID.RLELossless);
+        return UID.RLELossless.equals(tsuid);
     }
 
     private ExtendSegmentedInputImageStream buildSegmentedImageInputStream(int frameIndex) throws IOException {
@@ -1131,6 +1249,13 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
                                 }
                             }
                         }
+                        // Keep the positions in the header index to avoid decoding all the fragments again
+                        Optional<File> file = fileCache.getOriginalFile();
+                        if (file.isPresent()) {
+                            DicomMetaData md = readMetaData();
+                            DicomHeaderIndex.put(file.get(), md.getFileMetaInformation(), md.getAttributes(), tsuid,
+                                bigendian, fragmentsPositions);
+                        }
                     }
 
                     if (fragmentsPositions.size() == numberOfFrame) {
@@ -1209,10 +1334,27 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
         this.skipLargePrivate = skipLargePrivate;
     }
 
+    /**
+     * @return the header, which can contain only the indexed attributes (enough for building the media and decoding
+     *         the images)
+     */
+    private Attributes getHeader() {
+        try {
+            return readMetaData().getAttributes();
+        } catch (Exception e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.error("Cannot read DICOM:", e); //$NON-NLS-1$
+            } else {
+                LOGGER.error(e.getMessage());
+            }
+        }
+        return null;
+    }
+
     @Override
     public Attributes getDicomObject() {
         try {
-            DicomMetaData md = readMetaData();
+            DicomMetaData md = readCompleteMetaData();
             return md.getAttributes();
         } catch (Exception e) {
             if (LOGGER.isDebugEnabled()) {
@@ -1238,7 +1380,11 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
 
     @Override
     public void dispose() {
-        HEADER_CACHE.remove(this);
+        disposed = true;
+        synchronized (HEADER_CACHE) {
+            HEADER_CACHE.remove(this);
+        }
+        mappedPixelData = null;
         readingHeader = false;
         readingImage = false;
         reset();
@@ -1287,7 +1433,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
      */
     @Override
     public IIOMetadata getStreamMetadata() throws IOException {
-        return readMetaData();
+        return readCompleteMetaData();
     }
 
     /**
@@ -1312,8 +1458,30 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
      *
      * @throws Exception
      */
-    private synchronized DicomMetaData readMetaData() throws IOException {
-        DicomMetaData header = HEADER_CACHE.get(this);
+    private DicomMetaData readMetaData() throws IOException {
+        return readMetaData(true);
+    }
+
+    /**
+     * @return the complete header, the file is parsed when the current header comes from the index
+     */
+    private synchronized DicomMetaData readCompleteMetaData() throws IOException {
+        DicomMetaData md = readMetaData(true);
+        if (partialHeader) {
+            synchronized (HEADER_CACHE) {
+                HEADER_CACHE.remove(this);
+            }
+            md = readMetaData(false);
+        }
+        return md;
+    }
+
+    private synchronized DicomMetaData readMetaData(boolean useIndex) throws IOException {
+        DicomMetaData header;
+        // The headers can be read by several threads (e.g. parallel import)
+        synchronized (HEADER_CACHE) {
+            header = HEADER_CACHE.get(this);
+        }
         if (header != null) {
             return header;
         } else if (dcmMetadata != null) {
@@ -1322,11 +1490,29 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
 
         try {
             readingHeader = true;
-            if (iis == null) {
-                Optional<File> file = fileCache.getOriginalFile();
-                if (file.isPresent()) {
-                    setInput(ImageIO.createImageInputStream(new File(uri)), false, false);
-                }
+            partialHeader = false;
+            if (streamedDataset != null) {
+                Attributes ds = streamedDataset;
+                Attributes fmi = streamedFmi;
+                // When evicted from the cache, the header will be read from the complete file
+                streamedFmi = null;
+                streamedDataset = null;
+                return setMetaData(fmi, ds, fmi.getString(Tag.TransferSyntaxUID), ds.bigEndian());
+            }
+
+            Optional<File> file = fileCache.getOriginalFile();
+            // Skip the parsing when the file has not changed since its last reading
+            DicomHeaderIndex.Entry entry = useIndex && file.isPresent() ? DicomHeaderIndex.get(file.get()) : null;
+            if (entry != null) {
+                partialHeader = true;
+                fragmentsPositions.clear();
+                fragmentsPositions.addAll(entry.getFragmentsPositions());
+                return setMetaData(entry.getFileMetaInformation(), entry.getDataset(), entry.getTransferSyntax(),
+                    entry.isBigEndian());
+            }
+
+            if (iis == null && file.isPresent()) {
+                setInput(ImageIO.createImageInputStream(new File(uri)), false, false);
             }
 
             if (iis == null) {
@@ -1344,57 +1530,65 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
             if (fmi == null) {
                 fmi = ds.createFileMetaInformation(dis.getTransferSyntax());
             }
-            DicomMetaData metadata = new DicomMetaData(fmi, ds);
-            Object pixdata = ds.getValue(Tag.PixelData, pixeldataVR);
-            if (pixdata == null) {
-                pixdata = ds.getValue(Tag.FloatPixelData, pixeldataVR);
-            }
-            if (pixdata == null) {
-                pixdata = ds.getValue(Tag.DoubleFloatPixelData, pixeldataVR);
+            if (useIndex && file.isPresent()) {
+                DicomHeaderIndex.put(file.get(), fmi, ds, dis.getTransferSyntax(), ds.bigEndian(), null);
             }
+            return setMetaData(fmi, ds, dis.getTransferSyntax(), ds.bigEndian());
+        } finally {
+            readingHeader = false;
+            FileUtil.safeClose(iis);
+            iis = null;
 
-            if (pixdata != null) {
-                tsuid = dis.getTransferSyntax();
-                numberOfFrame = ds.getInt(Tag.NumberOfFrames, 1);
-                hasPixel = ds.getInt(Tag.BitsStored, ds.getInt(Tag.BitsAllocated, 0)) > 0;
-
-                if (!tsuid.startsWith("1.2.840.10008.1.2.4.10") && hasPixel) { //$NON-NLS-1$
-
-                    if (pixdata instanceof BulkData) {
-                        bigendian = ds.bigEndian();
-                        iis.setByteOrder(ds.bigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
-                        this.pixeldata = (BulkData) pixdata;
-                        // Handle JPIP
-                    } else if (ds.getString(Tag.PixelDataProviderURL) != null) {
-                        // always little endian:
-                        // http://dicom.nema.org/medical/dicom/2017b/output/chtml/part05/sect_A.6.html
-                        if (numberOfFrame == 0) {
-                            numberOfFrame = 1;
-                            // compressed = true;
-                        }
-                    } else if (pixdata instanceof Fragments) {
-                        // ImageReaderFactory.ImageReaderItem readerItem = ImageReaderFactory.getImageReader(tsuid);
-                        // if (readerItem == null) {
-                        // throw new IOException("Unsupported Transfer Syntax: " + tsuid); //$NON-NLS-1$
-                        // }
-                        this.compressedData = true;
-                        this.pixeldataFragments = (Fragments) pixdata;
-                        bigendian = pixeldataFragments.bigEndian();
-                        if (bigendian) {
-                            LOGGER.error("Big endian fragments?"); //$NON-NLS-1$
-                        }
+        }
+    }
+
+    private DicomMetaData setMetaData(Attributes fmi, Attributes ds, String transferSyntax, boolean bigEndian) {
+        DicomMetaData metadata = new DicomMetaData(fmi, ds);
+        Object pixdata = ds.getValue(Tag.PixelData, pixeldataVR);
+        if (pixdata == null) {
+            pixdata = ds.getValue(Tag.FloatPixelData, pixeldataVR);
+        }
+        if (pixdata == null) {
+            pixdata = ds.getValue(Tag.DoubleFloatPixelData, pixeldataVR);
+        }
+
+        if (pixdata != null) {
+            tsuid = transferSyntax;
+            numberOfFrame = ds.getInt(Tag.NumberOfFrames, 1);
+            hasPixel = ds.getInt(Tag.BitsStored, ds.getInt(Tag.BitsAllocated, 0)) > 0;
+
+            if (!tsuid.startsWith("1.2.840.10008.1.2.4.10") && hasPixel) { //$NON-NLS-1$
+
+                if (pixdata instanceof BulkData) {
+                    bigendian = bigEndian;
+                    this.pixeldata = (BulkData) pixdata;
+                    // Handle JPIP
+                } else if (ds.getString(Tag.PixelDataProviderURL) != null) {
+                    // always little endian:
+                    // http://dicom.nema.org/medical/dicom/2017b/output/chtml/part05/sect_A.6.html
+                    if (numberOfFrame == 0) {
+                        numberOfFrame = 1;
+                        // compressed = true;
+                    }
+                } else if (pixdata instanceof Fragments) {
+                    // ImageReaderFactory.ImageReaderItem readerItem = ImageReaderFactory.getImageReader(tsuid);
+                    // if (readerItem == null) {
+                    // throw new IOException("Unsupported Transfer Syntax: " + tsuid); //$NON-NLS-1$
+                    // }
+                    this.compressedData = true;
+                    this.pixeldataFragments = (Fragments) pixdata;
+                    bigendian = pixeldataFragments.bigEndian();
+                    if (bigendian) {
+                        LOGGER.error("Big endian fragments?"); //$NON-NLS-1$
                     }
                 }
             }
+        }
 
+        synchronized (HEADER_CACHE) {
             HEADER_CACHE.put(this, metadata);
-            return metadata;
-        } finally {
-            readingHeader = false;
-            FileUtil.safeClose(iis);
-            iis = null;
-
         }
+        return metadata;
     }
 
     private SampleModel createSampleModel(int dataType, boolean banded) {
@@ -1408,7 +1602,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader {
     }
 
     private ColorModel createColorModel(int bits, int dataType) {
-        return pmi.createColorModel(bits, dataType, getDicomObject());
+        return pmi.createColorModel(bits, dataType, getHeader());
     }
 
     private boolean decodeJpeg2000(ImageInputStream iis) throws IOException {
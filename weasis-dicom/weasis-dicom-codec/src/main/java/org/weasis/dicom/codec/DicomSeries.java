@@ -10,10 +10,14 @@
  *******************************************************************************/
 package org.weasis.dicom.codec;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.dcm4che3.data.Tag;
 import org.slf4j.Logger;
@@ -23,6 +27,7 @@ import org.weasis.core.api.explorer.model.DataExplorerModel;
 import org.weasis.core.api.gui.util.Filter;
 import org.weasis.core.api.gui.util.MathUtil;
 import org.weasis.core.api.image.CvUtil;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesEvent;
 import org.weasis.core.api.media.data.TagView;
@@ -39,6 +44,9 @@ public class DicomSeries extends Series<DicomImageElement> {
 
     private static volatile PreloadingTask preloadingTask;
 
+    // Locations of the slices for each sort order (without filter)
+    private final Map<Comparator<DicomImageElement>, SlicePositionIndex> sliceIndexes = new HashMap<>(4);
+
     public DicomSeries(String subseriesInstanceUID) {
         this(subseriesInstanceUID, null, defaultTagView);
     }
@@ -76,7 +84,11 @@ public class DicomSeries extends Series<DicomImageElement> {
                 if (insertIndex < 0 || insertIndex > medias.size()) {
                     insertIndex = medias.size();
                 }
+                // Keep the sorted lists and the slice indexes to update them instead of rebuilding them
+                Map<Comparator<DicomImageElement>, List<DicomImageElement>> sorted = new HashMap<>(sortedMedias);
+                Map<Comparator<DicomImageElement>, SlicePositionIndex> indexes = new HashMap<>(sliceIndexes);
                 add(insertIndex, media);
+                updateSliceIndexes(media, insertIndex, sorted, indexes);
             }
             DataExplorerModel model = (DataExplorerModel) getTagValue(TagW.ExplorerModel);
             if (model != null) {
@@ -86,6 +98,61 @@ public class DicomSeries extends Series<DicomImageElement> {
         }
     }
 
+    private void updateSliceIndexes(DicomImageElement media, int insertIndex,
+        Map<Comparator<DicomImageElement>, List<DicomImageElement>> sorted,
+        Map<Comparator<DicomImageElement>, SlicePositionIndex> indexes) {
+        for (Entry<Comparator<DicomImageElement>, SlicePositionIndex> entry : indexes.entrySet()) {
+            Comparator<DicomImageElement> sort = entry.getKey();
+            SlicePositionIndex index = entry.getValue();
+            if (index.getListSize() != medias.size() - 1) {
+                continue;
+            }
+            int listIndex;
+            if (sort.equals(mediaOrder)) {
+                listIndex = insertIndex;
+            } else {
+                List<DicomImageElement> list = sorted.get(sort);
+                if (list == null || list.size() != index.getListSize()) {
+                    continue;
+                }
+                int pos = Collections.binarySearch(list, media, sort);
+                if (pos >= 0) {
+                    // Same sorting value, the position depends on the full sorting
+                    continue;
+                }
+                listIndex = -(pos + 1);
+                List<DicomImageElement> newList = new ArrayList<>(list.size() + 1);
+                newList.addAll(list.subList(0, listIndex));
+                newList.add(media);
+                newList.addAll(list.subList(listIndex, list.size()));
+                sortedMedias.put(sort, newList);
+            }
+            index.insert(media, listIndex);
+            sliceIndexes.put(sort, index);
+        }
+    }
+
+    @Override
+    protected void resetSortedMediasMap() {
+        super.resetSortedMediasMap();
+        synchronized (this) {
+            sliceIndexes.clear();
+        }
+    }
+
+    /**
+     * Must be called in a block synchronized on this series.
+     */
+    private SlicePositionIndex getSliceIndex(Comparator<DicomImageElement> sort) {
+        Comparator<DicomImageElement> key = sort == null ? mediaOrder : sort;
+        SlicePositionIndex index = sliceIndexes.get(key);
+        if (index == null || index.getListSize() != medias.size()) {
+            index = SlicePositionIndex.build(getSortedMedias(sort));
+            sliceIndexes.put(key, index);
+        }
+        return index;
+    }
+
     @Override
     public String getToolTips() {
         StringBuilder toolTips = new StringBuilder("<html>"); //$NON-NLS-1$
@@ -134,6 +201,23 @@ public class DicomSeries extends Series<DicomImageElement> {
     @Override
     public DicomImageElement getNearestImage(double location, int offset, Filter<DicomImageElement> filter,
         Comparator<DicomImageElement> sort) {
+        if (filter == null) {
+            DicomImageElement nearest = null;
+            int bestIndex = -1;
+            synchronized (this) {
+                SlicePositionIndex index = getSliceIndex(sort);
+                int slot = index.getNearestSlot(location);
+                if (slot >= 0) {
+                    nearest = index.getImage(slot);
+                    bestIndex = index.getListIndex(slot);
+                }
+            }
+            if (offset > 0) {
+                return getMedia(bestIndex + offset, filter, sort);
+            }
+            return nearest;
+        }
+
         Iterable<DicomImageElement> mediaList = getMedias(filter, sort);
         DicomImageElement nearest = null;
         int index = 0;
@@ -166,6 +250,16 @@ public class DicomSeries extends Series<DicomImageElement> {
     @Override
     public int getNearestImageIndex(double location, int offset, Filter<DicomImageElement> filter,
         Comparator<DicomImageElement> sort) {
+        if (filter == null) {
+            int bestIndex;
+            synchronized (this) {
+                SlicePositionIndex index = getSliceIndex(sort);
+                int slot = index.getNearestSlot(location);
+                bestIndex = slot < 0 ? -1 : index.getListIndex(slot);
+            }
+            return (offset > 0) ? (bestIndex + offset) : bestIndex;
+        }
+
         Iterable<DicomImageElement> mediaList = getMedias(filter, sort);
         int index = 0;
         int bestIndex = -1;
@@ -264,7 +358,7 @@ public class DicomSeries extends Series<DicomImageElement> {
                 if (cache == null || !cache) {
                     long start = System.currentTimeMillis();
                     try {
-                        img.getImage();
+                        img.getImage(null, true, Priority.PREFETCH);
                     } catch (OutOfMemoryError e) {
                         LOGGER.error("Out of memory when loading image: {}", img, e); //$NON-NLS-1$
                         CvUtil.runGarbageCollectorAndWait(50);
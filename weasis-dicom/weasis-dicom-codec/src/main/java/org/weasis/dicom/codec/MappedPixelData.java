@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.opencv.core.CvType;
+import org.weasis.opencv.data.ImageCV;
+
+/**
+ * Uncompressed pixel data of a DICOM file mapped in memory once, from which all the frames are read without opening
+ * the file again.
+ */
+final class MappedPixelData {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final ByteOrder byteOrder;
+    private final int frameLength;
+    private final int numberOfFrames;
+    // Reused for each frame, the data goes through a Java array because the OpenCV API cannot wrap the mapping
+    private byte[] bytes;
+    private short[] shorts;
+
+    private MappedPixelData(File file, MappedByteBuffer buffer, ByteOrder byteOrder, int frameLength,
+        int numberOfFrames) {
+        this.file = file;
+        this.buffer = buffer;
+        this.byteOrder = byteOrder;
+        this.frameLength = frameLength;
+        this.numberOfFrames = numberOfFrames;
+    }
+
+    /**
+     * @return the mapped pixel data or null when the frames cannot be mapped in one region (larger than 2 GB or
+     *         truncated file)
+     */
+    static MappedPixelData map(File file, long offset, int frameLength, int numberOfFrames, boolean bigEndian)
+        throws IOException {
+        long size = (long) frameLength * numberOfFrames;
+        if (offset < 0 || frameLength <= 0 || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (offset + size > channel.size()) {
+                return null;
+            }
+            // The mapping remains valid after closing the channel
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, offset, size);
+            return new MappedPixelData(file, buffer,
+                bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN, frameLength, numberOfFrames);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads a frame. The values are copied twice: from the mapping into an array reused by all the frames, then from
+     * this array into the native image. The frames of the same file are read one at a time.
+     *
+     * @param frame
+     *            the frame index
+     * @param width
+     * @param height
+     * @param cvType
+     *            CV_8UC1, CV_16UC1 or CV_16SC1
+     * @return the frame, the bytes are swapped when the data is big endian
+     */
+    synchronized ImageCV getFrame(int frame, int width, int height, int cvType) {
+        if (frame < 0 || frame >= numberOfFrames) {
+            throw new IndexOutOfBoundsException("frame: " + frame); //$NON-NLS-1$
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.position(frame * frameLength);
+        data.limit(frame * frameLength + frameLength);
+
+        int size = width * height;
+        ImageCV img = new ImageCV(height, width, cvType);
+        if (CvType.depth(cvType) == CvType.CV_8U) {
+            if (bytes == null || bytes.length != size) {
+                bytes = new byte[size];
+            }
+            data.get(bytes);
+            img.put(0, 0, bytes);
+        } else {
+            if (shorts == null || shorts.length != size) {
+                shorts = new short[size];
+            }
+            data.slice().order(byteOrder).asShortBuffer().get(shorts);
+            img.put(0, 0, shorts);
+        }
+        return img;
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.codec;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.weasis.core.api.media.data.TagW;
+
+/**
+ * Locations of the slices of a sorted list of images, ordered by location for finding the nearest slice with a binary
+ * search. The location of a slice is the projection of its position on the normal of the plane (the sum of the
+ * components of TagW.SlicePosition). The images without location are only counted in the size of the list.
+ */
+final class SlicePositionIndex {
+
+    private double[] locations;
+    private int[] indexes;
+    private DicomImageElement[] images;
+    private int size;
+    private int listSize;
+
+    private SlicePositionIndex(int capacity) {
+        this.locations = new double[capacity];
+        this.indexes = new int[capacity];
+        this.images = new DicomImageElement[capacity];
+        this.size = 0;
+        this.listSize = 0;
+    }
+
+    static SlicePositionIndex build(List<DicomImageElement> list) {
+        int nb = list.size();
+        SlicePositionIndex index = new SlicePositionIndex(Math.max(16, nb));
+        Integer[] order = new Integer[nb];
+        double[] values = new double[nb];
+        int k = 0;
+        for (int i = 0; i < nb; i++) {
+            Double location = getLocation(list.get(i));
+            if (location != null) {
+                values[i] = location;
+                order[k++] = i;
+            }
+        }
+        Integer[] slots = Arrays.copyOf(order, k);
+        // Stable sort: the images with the same location stay in the list order
+        Arrays.sort(slots, (i1, i2) -> Double.compare(values[i1], values[i2]));
+        for (int i = 0; i < k; i++) {
+            int idx = slots[i];
+            index.locations[i] = values[idx];
+            index.indexes[i] = idx;
+            index.images[i] = list.get(idx);
+        }
+        index.size = k;
+        index.listSize = nb;
+        return index;
+    }
+
+    static Double getLocation(DicomImageElement image) {
+        double[] val = (double[]) image.getTagValue(TagW.SlicePosition);
+        return val == null ? null : val[0] + val[1] + val[2];
+    }
+
+    /**
+     * @return the number of elements of the list, including the images without location
+     */
+    int getListSize() {
+        return listSize;
+    }
+
+    /**
+     * Updates the index after the insertion of an image in the list.
+     *
+     * @param image
+     *            the new image
+     * @param listIndex
+     *            the position of the image in the list
+     */
+    void insert(DicomImageElement image, int listIndex) {
+        for (int i = 0; i < size; i++) {
+            if (indexes[i] >= listIndex) {
+                indexes[i]++;
+            }
+        }
+        listSize++;
+
+        Double location = getLocation(image);
+        if (location == null) {
+            return;
+        }
+        if (size == locations.length) {
+            int capacity = size + (size >> 1) + 1;
+            locations = Arrays.copyOf(locations, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+            images = Arrays.copyOf(images, capacity);
+        }
+        // After the images with a lower location or with the same location and a lower index
+        int slot = 0;
+        int high = size;
+        while (slot < high) {
+            int mid = (slot + high) >>> 1;
+            if (locations[mid] < location || (locations[mid] == location && indexes[mid] < listIndex)) {
+                slot = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        System.arraycopy(locations, slot, locations, slot + 1, size - slot);
+        System.arraycopy(indexes, slot, indexes, slot + 1, size - slot);
+        System.arraycopy(images, slot, images, slot + 1, size - slot);
+        locations[slot] = location;
+        indexes[slot] = listIndex;
+        images[slot] = image;
+        size++;
+    }
+
+    /**
+     * @return the slot of the nearest image (the first one in the list order when several images are at the same
+     *         distance), or -1 when no image has a location
+     */
+    int getNearestSlot(double location) {
+        if (size == 0) {
+            return -1;
+        }
+        // First location greater than or equal to the value
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (locations[mid] < location) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        double bestDiff = Double.MAX_VALUE;
+        if (low < size) {
+            bestDiff = locations[low] - location;
+        }
+        if (low > 0) {
+            bestDiff = Math.min(bestDiff, location - locations[low - 1]);
+        }
+
+        int best = -1;
+        // Only the slices having the same location can be at the same distance on each side
+        for (int i = low; i < size && locations[i] - location <= bestDiff; i++) {
+            if (best < 0 || indexes[i] < indexes[best]) {
+                best = i;
+            }
+        }
+        for (int i = low - 1; i >= 0 && location - locations[i] <= bestDiff; i--) {
+            if (best < 0 || indexes[i] < indexes[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    int getListIndex(int slot) {
+        return indexes[slot];
+    }
+
+    DicomImageElement getImage(int slot) {
+        return images[slot];
+    }
+}
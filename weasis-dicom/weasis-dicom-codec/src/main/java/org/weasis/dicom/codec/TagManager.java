@@ -55,6 +55,20 @@ public class TagManager {
         return list != null && list.contains(tag);
     }
 
+    /**
+     * @return true when the tag is read at any level
+     */
+    public boolean contains(int tagID) {
+        for (List<TagW> list : levelMap.values()) {
+            for (TagW tag : list) {
+                if (tag.getId() == tagID) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public void readTags(Level level, Attributes header, Tagable tags) {
         if (level == null || header == null || tags == null) {
             return;
@@ -0,0 +1,588 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.codec;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.AppProperties;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.opencv.data.ImageCV;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Persistent cache of the decoded frames of the compressed DICOM files (JPEG, JPEG-LS, JPEG 2000, RLE), shared by the
+ * sessions. A frame is stored uncompressed after a small header, so reading it again only requires loading the file
+ * instead of decoding the compressed stream.
+ * <p>
+ * The frames decoded for the display are written asynchronously. The other frames of a multi-frame instance are
+ * transcoded by a low priority thread, only when no image has been requested for a while. The size of the cache is
+ * limited (weasis.dicom.transcoding.cache.size in MB, 0 disables the cache), the least recently used frames are removed
+ * first.
+ */
+public final class TranscodedFrameCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TranscodedFrameCache.class);
+
+    private static final int MAGIC = 0x57524157; // WRAW
+    private static final int HEADER_LENGTH = 16;
+    private static final String SUFFIX = ".raw"; //$NON-NLS-1$
+    private static final String PART_SUFFIX = ".part"; //$NON-NLS-1$
+    private static final long IDLE_DELAY = 1000L;
+    private static final long MAX_PENDING_SIZE = 64L * 1024L * 1024L;
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+    // Age of a partial file from which it is considered as abandoned
+    private static final long PART_EXPIRATION = TimeUnit.HOURS.toMillis(1);
+
+    private static final long MAX_SIZE =
+        BundleTools.SYSTEM_PREFERENCES.getLongProperty("weasis.dicom.transcoding.cache.size", 1024L) * 1024L * 1024L; //$NON-NLS-1$
+    private static final File CACHE_DIR =
+        new File(AppProperties.WEASIS_PATH, "cache" + File.separator + "dicom-raw"); //$NON-NLS-1$ //$NON-NLS-2$
+    private static final ExecutorService WRITER = ThreadUtil.buildNewSingleThreadExecutor("Transcoding Cache"); //$NON-NLS-1$
+    private static final ExecutorService TRANSCODER = ThreadUtil.buildNewSingleThreadExecutor("DICOM Transcoder"); //$NON-NLS-1$
+
+    // Path and size of the entries in the access order
+    private static final LinkedHashMap<String, Long> ENTRIES = new LinkedHashMap<>(1024, 0.75f, true);
+    // Keys of the frames waiting to be written
+    private static final Set<String> PENDING = new HashSet<>();
+    // SOP Instance UIDs of the instances waiting to be transcoded
+    private static final Set<String> SCHEDULED = new HashSet<>();
+    private static long totalSize = 0L;
+    private static long pendingSize = 0L;
+    private static boolean loaded = false;
+
+    private static volatile long lastActivity = 0L;
+    private static volatile Thread transcoderThread;
+
+    private static final LongAdder hitCount = new LongAdder();
+    private static final LongAdder missCount = new LongAdder();
+    private static final LongAdder writeCount = new LongAdder();
+    private static final LongAdder writeBytes = new LongAdder();
+    private static final LongAdder transcodedCount = new LongAdder();
+    private static final LongAdder transcodingTime = new LongAdder();
+
+    private TranscodedFrameCache() {
+    }
+
+    public static boolean isEnabled() {
+        return MAX_SIZE > 0;
+    }
+
+    /**
+     * @return the key of the frame, or null when the cache is disabled
+     */
+    static String getKey(String sopInstanceUID, String transferSyntaxUID, int frame) {
+        if (!isEnabled() || sopInstanceUID == null || transferSyntaxUID == null) {
+            return null;
+        }
+        return sopInstanceUID + '|' + transferSyntaxUID + '|' + frame;
+    }
+
+    /**
+     * @return the decoded frame or null when it is not in the cache
+     */
+    static ImageCV get(String key) {
+        File file = getEntryFile(key);
+        if (file == null) {
+            return null;
+        }
+        boolean foreground = Thread.currentThread() != transcoderThread;
+        if (foreground) {
+            lastActivity = System.currentTimeMillis();
+        }
+        synchronized (ENTRIES) {
+            load();
+            if (ENTRIES.get(file.getPath()) == null) {
+                if (foreground) {
+                    missCount.increment();
+                }
+                return null;
+            }
+        }
+        try {
+            ImageCV img = read(file);
+            if (img != null) {
+                if (foreground) {
+                    hitCount.increment();
+                }
+                WRITER.execute(() -> touch(file.toPath()));
+                return img;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read the transcoded frame {}: {}", key, e.getMessage()); //$NON-NLS-1$
+        }
+        remove(file);
+        if (foreground) {
+            missCount.increment();
+        }
+        return null;
+    }
+
+    static boolean contains(String key) {
+        File file = getEntryFile(key);
+        if (file == null) {
+            return false;
+        }
+        synchronized (ENTRIES) {
+            load();
+            return PENDING.contains(key) || ENTRIES.containsKey(file.getPath());
+        }
+    }
+
+    /**
+     * Adds a decoded frame, the pixels are copied and written asynchronously. The frame is ignored when too many frames
+     * are already waiting to be written.
+     */
+    static void put(String key, PlanarImage img) {
+        File file = getEntryFile(key);
+        if (file == null || img == null) {
+            return;
+        }
+        Mat mat = img.toMat();
+        long length = mat.total() * mat.elemSize();
+        if (length <= 0 || length > Integer.MAX_VALUE - HEADER_LENGTH) {
+            return;
+        }
+        synchronized (ENTRIES) {
+            load();
+            if (PENDING.contains(key) || ENTRIES.containsKey(file.getPath())
+                || pendingSize + length > MAX_PENDING_SIZE) {
+                return;
+            }
+            PENDING.add(key);
+            pendingSize += length;
+        }
+        ByteBuffer data;
+        try {
+            data = toBuffer(mat);
+        } catch (RuntimeException e) {
+            LOGGER.error("Cannot copy the frame {}", key, e); //$NON-NLS-1$
+            data = null;
+        }
+        ByteBuffer buffer = data;
+        WRITER.execute(() -> {
+            try {
+                if (buffer != null) {
+                    write(file, buffer);
+                }
+            } finally {
+                synchronized (ENTRIES) {
+                    PENDING.remove(key);
+                    pendingSize -= length;
+                    if (buffer != null && file.isFile()) {
+                        Long old = ENTRIES.put(file.getPath(), file.length());
+                        totalSize += file.length() - (old == null ? 0L : old);
+                        evict();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the transcoding of all the frames of a multi-frame instance. The frames are decoded one by one by a low
+     * priority thread, only when no image has been requested during the last second.
+     */
+    static void schedule(DicomMediaIO reader, String sopInstanceUID, String transferSyntaxUID, int numberOfFrames) {
+        if (!isEnabled() || sopInstanceUID == null || numberOfFrames <= 1
+            || Thread.currentThread() == transcoderThread) {
+            return;
+        }
+        synchronized (ENTRIES) {
+            if (!SCHEDULED.add(sopInstanceUID)) {
+                return;
+            }
+        }
+        TRANSCODER.execute(() -> {
+            transcoderThread = Thread.currentThread();
+            transcoderThread.setPriority(Thread.MIN_PRIORITY);
+            try {
+                transcode(reader, sopInstanceUID, transferSyntaxUID, numberOfFrames);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (ENTRIES) {
+                    SCHEDULED.remove(sopInstanceUID);
+                }
+            }
+        });
+    }
+
+    private static void transcode(DicomMediaIO reader, String sopInstanceUID, String transferSyntaxUID,
+        int numberOfFrames) throws InterruptedException {
+        int nb = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < numberOfFrames; i++) {
+            String key = getKey(sopInstanceUID, transferSyntaxUID, i);
+            if (contains(key)) {
+                continue;
+            }
+            while (System.currentTimeMillis() - lastActivity < IDLE_DELAY) {
+                Thread.sleep(IDLE_DELAY);
+            }
+            long time = System.nanoTime();
+            try {
+                PlanarImage img = reader.transcodeFrame(i);
+                if (img == null) {
+                    break;
+                }
+                // Written by getUncacheImage()
+                img.release();
+            } catch (Exception e) {
+                LOGGER.error("Cannot transcode the frame {} of {}", i, sopInstanceUID, e); //$NON-NLS-1$
+                break;
+            }
+            transcodingTime.add(System.nanoTime() - time);
+            if (contains(key)) {
+                transcodedCount.increment();
+                nb++;
+            } else {
+                // Not queued, too many frames are waiting to be written
+                waitForWriter();
+            }
+        }
+        if (nb > 0) {
+            LOGGER.debug("Transcoded {} frames of {} in {} ms", nb, sopInstanceUID, //$NON-NLS-1$
+                (System.nanoTime() - start) / 1000000L);
+            logStatistics();
+        }
+    }
+
+    private static void waitForWriter() throws InterruptedException {
+        while (true) {
+            synchronized (ENTRIES) {
+                if (pendingSize <= MAX_PENDING_SIZE / 2) {
+                    return;
+                }
+            }
+            Thread.sleep(100L);
+        }
+    }
+
+    private static void logStatistics() {
+        if (LOGGER.isDebugEnabled()) {
+            long used;
+            synchronized (ENTRIES) {
+                used = totalSize;
+            }
+            LOGGER.debug("Transcoding cache: {} hits, {} misses, {} frames written ({} MB), " //$NON-NLS-1$
+                + "{} frames transcoded in background in {} ms, {} MB used", //$NON-NLS-1$
+                hitCount.sum(), missCount.sum(), writeCount.sum(), writeBytes.sum() / (1024L * 1024L),
+                transcodedCount.sum(), transcodingTime.sum() / 1000000L, used / (1024L * 1024L));
+        }
+    }
+
+    private static File getEntryFile(String key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+            byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder buf = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                buf.append(String.format("%02x", b)); //$NON-NLS-1$
+            }
+            // Split in sub-folders to avoid too many files in one directory
+            return new File(new File(CACHE_DIR, buf.substring(0, 2)), buf.substring(2) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Cannot build the transcoding cache key", e); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * Copies the pixels in a buffer made of the header (magic, rows, columns, type) and the data in little endian.
+     */
+    private static ByteBuffer toBuffer(Mat mat) {
+        Mat m = mat.isContinuous() ? mat : mat.clone();
+        try {
+            int rows = m.rows();
+            int cols = m.cols();
+            int type = m.type();
+            int nb = (int) (m.total() * m.channels());
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + (int) (m.total() * m.elemSize()));
+            buf.putInt(MAGIC).putInt(rows).putInt(cols).putInt(type);
+            ByteBuffer data = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+            switch (CvType.depth(type)) {
+                case CvType.CV_8U:
+                case CvType.CV_8S:
+                    byte[] b = new byte[nb];
+                    m.get(0, 0, b);
+                    data.put(b);
+                    break;
+                case CvType.CV_16U:
+                case CvType.CV_16S:
+                    short[] s = new short[nb];
+                    m.get(0, 0, s);
+                    data.asShortBuffer().put(s);
+                    break;
+                case CvType.CV_32S:
+                    int[] i = new int[nb];
+                    m.get(0, 0, i);
+                    data.asIntBuffer().put(i);
+                    break;
+                case CvType.CV_32F:
+                    float[] f = new float[nb];
+                    m.get(0, 0, f);
+                    data.asFloatBuffer().put(f);
+                    break;
+                default:
+                    double[] d = new double[nb];
+                    m.get(0, 0, d);
+                    data.asDoubleBuffer().put(d);
+                    break;
+            }
+            buf.clear();
+            return buf;
+        } finally {
+            if (m != mat) {
+                m.release();
+            }
+        }
+    }
+
+    private static ImageCV read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                return null;
+            }
+            int rows = header.getInt();
+            int cols = header.getInt();
+            int type = header.getInt();
+            if (rows <= 0 || cols <= 0 || (long) rows * cols * CvType.ELEM_SIZE(type) != size - HEADER_LENGTH) {
+                return null;
+            }
+            int nb = rows * cols * CvType.channels(type);
+            ImageCV img = new ImageCV(rows, cols, type);
+            int depth = CvType.depth(type);
+            if (depth == CvType.CV_8U || depth == CvType.CV_8S) {
+                // Read directly in the array copied into the image
+                byte[] b = new byte[nb];
+                readFully(channel, ByteBuffer.wrap(b));
+                img.put(0, 0, b);
+                return img;
+            }
+            // The data in little endian is converted by small chunks into the array copied into the image
+            ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            switch (depth) {
+                case CvType.CV_16U:
+                case CvType.CV_16S:
+                    short[] s = new short[nb];
+                    for (int pos = 0; pos < nb;) {
+                        int n = fill(channel, chunk, 2, nb - pos);
+                        chunk.asShortBuffer().get(s, pos, n);
+                        pos += consume(chunk, n * 2, n);
+                    }
+                    img.put(0, 0, s);
+                    break;
+                case CvType.CV_32S:
+                    int[] i = new int[nb];
+                    for (int pos = 0; pos < nb;) {
+                        int n = fill(channel, chunk, 4, nb - pos);
+                        chunk.asIntBuffer().get(i, pos, n);
+                        pos += consume(chunk, n * 4, n);
+                    }
+                    img.put(0, 0, i);
+                    break;
+                case CvType.CV_32F:
+                    float[] f = new float[nb];
+                    for (int pos = 0; pos < nb;) {
+                        int n = fill(channel, chunk, 4, nb - pos);
+                        chunk.asFloatBuffer().get(f, pos, n);
+                        pos += consume(chunk, n * 4, n);
+                    }
+                    img.put(0, 0, f);
+                    break;
+                default:
+                    double[] d = new double[nb];
+                    for (int pos = 0; pos < nb;) {
+                        int n = fill(channel, chunk, 8, nb - pos);
+                        chunk.asDoubleBuffer().get(d, pos, n);
+                        pos += consume(chunk, n * 8, n);
+                    }
+                    img.put(0, 0, d);
+                    break;
+            }
+            return img;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Reads the next bytes in the chunk and prepares it for getting the values.
+     *
+     * @return the number of complete values available in the chunk (limited to max)
+     */
+    private static int fill(FileChannel channel, ByteBuffer chunk, int elemSize, int max) throws IOException {
+        do {
+            if (channel.read(chunk) < 0 && chunk.position() < elemSize) {
+                throw new EOFException();
+            }
+        } while (chunk.position() < elemSize);
+        chunk.flip();
+        return Math.min(chunk.remaining() / elemSize, max);
+    }
+
+    /**
+     * Skips the bytes read from the chunk and keeps the remaining ones (incomplete value) for the next reading.
+     *
+     * @return the number of values read
+     */
+    private static int consume(ByteBuffer chunk, int length, int nb) {
+        chunk.position(chunk.position() + length);
+        chunk.compact();
+        return nb;
+    }
+
+    private static void write(File file, ByteBuffer buffer) {
+        File part = null;
+        try {
+            file.getParentFile().mkdirs();
+            // Unique name, the same frame can be written by another Weasis process
+            part = File.createTempFile("frame_", PART_SUFFIX, file.getParentFile()); //$NON-NLS-1$
+            try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(part.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            writeCount.increment();
+            writeBytes.add(buffer.limit());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write the transcoded frame {}: {}", file, e.getMessage()); //$NON-NLS-1$
+            if (part != null) {
+                FileUtil.delete(part);
+            }
+        }
+    }
+
+    private static void remove(File file) {
+        synchronized (ENTRIES) {
+            Long size = ENTRIES.remove(file.getPath());
+            if (size != null) {
+                totalSize -= size;
+            }
+        }
+        FileUtil.delete(file);
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(null,
+                FileTime.fromMillis(System.currentTimeMillis()), null);
+        } catch (IOException e) {
+            LOGGER.debug("Cannot update the access time of {}: {}", path, e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Reads the entries of the previous sessions in the order of their last access. Must be called with the lock.
+     */
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!CACHE_DIR.isDirectory()) {
+            return;
+        }
+        // The files being written by another Weasis process are recent
+        long expiration = System.currentTimeMillis() - PART_EXPIRATION;
+        List<Object[]> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(CACHE_DIR.toPath(), 2)) {
+            for (Path p : stream.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (p.getFileName().toString().endsWith(PART_SUFFIX)) {
+                    if (attrs.lastModifiedTime().toMillis() < expiration) {
+                        // Interrupted writing
+                        FileUtil.delete(p.toFile());
+                    }
+                    continue;
+                }
+                files.add(new Object[] { p.toFile().getPath(), attrs.size(), attrs.lastAccessTime().toMillis() });
+            }
+        } catch (IOException e) {
+            LOGGER.error("Cannot read the transcoding cache", e); //$NON-NLS-1$
+        }
+        files.sort((a, b) -> Long.compare((Long) a[2], (Long) b[2]));
+        for (Object[] f : files) {
+            ENTRIES.put((String) f[0], (Long) f[1]);
+            totalSize += (Long) f[1];
+        }
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries. Must be called with the lock.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<String, Long>> it = ENTRIES.entrySet().iterator();
+        while (totalSize > MAX_SIZE && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            File file = new File(entry.getKey());
+            if (FileUtil.delete(file) || !file.exists()) {
+                totalSize -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+}
@@ -57,6 +57,11 @@ public class OverlayOp extends AbstractOp {
         return new OverlayOp(this);
     }
 
+    @Override
+    public boolean supportsRegionProcessing() {
+        return true;
+    }
+
     @Override
     public void handleImageOpEvent(ImageOpEvent event) {
         OpEvent type = event.getEventType();
@@ -103,7 +108,8 @@ public class OverlayOp extends AbstractOp {
                     }
                 }
             }
-            result = imgOverlay == null ? source : ImageProcessor.overlay(source.toMat(), imgOverlay, Color.WHITE);
+            result = imgOverlay == null ? source
+                : ImageProcessor.overlay(source.toMat(), toInputCoordinates(imgOverlay, source), Color.WHITE);
         }
         params.put(Param.OUTPUT_IMG, result);
     }
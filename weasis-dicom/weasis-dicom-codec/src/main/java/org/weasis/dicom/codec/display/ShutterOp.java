@@ -66,6 +66,11 @@ public class ShutterOp extends AbstractOp {
         return new ShutterOp(this);
     }
 
+    @Override
+    public boolean supportsRegionProcessing() {
+        return true;
+    }
+
     @Override
     public void handleImageOpEvent(ImageOpEvent event) {
         OpEvent type = event.getEventType();
@@ -112,7 +117,7 @@ public class ShutterOp extends AbstractOp {
         Object pr = params.get(P_PR_ELEMENT);
 
         if (shutter && area != null) {
-            result = ImageProcessor.applyShutter(source.toMat(), area, getShutterColor());
+            result = ImageProcessor.applyShutter(source.toMat(), toInputCoordinates(area), getShutterColor());
         }
 
         // Potentially override the shutter in the original dicom
@@ -133,7 +138,8 @@ public class ShutterOp extends AbstractOp {
                     if (shuttOverlayGroup != null) {
                         RenderedImage overlayImg =
                             OverlayUtils.getShutterOverlay(attributes, frame, width, height, shuttOverlayGroup);
-                        imgOverlay = ImageProcessor.applyShutter(result.toMat(), overlayImg, getShutterColor());
+                        imgOverlay = ImageProcessor.applyShutter(result.toMat(),
+                            toInputCoordinates(overlayImg, result), getShutterColor());
                     }
                 }
             }
@@ -20,6 +20,7 @@ import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -32,6 +33,7 @@ import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.apache.felix.service.command.CommandProcessor;
 import org.dcm4che3.data.Tag;
@@ -52,6 +54,7 @@ import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.MediaSeriesGroupNode;
 import org.weasis.core.api.media.data.Series;
+import org.weasis.core.api.media.data.SeriesEvent;
 import org.weasis.core.api.media.data.TagView;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.media.data.Thumbnail;
@@ -101,15 +104,64 @@ public class DicomModel implements TreeModel, DataExplorerModel {
         new TagView(TagD.getTagFromIDs(Tag.SeriesDescription, Tag.SeriesNumber, Tag.SeriesTime)));
     public static final ExecutorService LOADING_EXECUTOR = ThreadUtil.buildNewSingleThreadExecutor("Dicom Model"); //$NON-NLS-1$
 
+    /**
+     * Time window (in ms) during which the ADD and UPDATE events of a series sent from a background thread are merged.
+     * 0 disables the coalescing.
+     */
+    public static final int EVENT_COALESCING_DELAY =
+        BundleTools.SYSTEM_PREFERENCES.getIntProperty("weasis.dicom.event.coalescing.delay", 100); //$NON-NLS-1$
+
     private static final List<TreeModelNode> modelStructure = Arrays.asList(TreeModelNode.ROOT, patient, study, series);
 
     private final Tree<MediaSeriesGroup> model;
     private PropertyChangeSupport propertyChange = null;
     private final SplittingRules splittingRules;
+    // Events waiting to be delivered in the EDT, in the order of their first occurrence
+    private final Map<EventKey, ObservableEvent> pendingEvents = new LinkedHashMap<>();
+    private final Timer eventTimer;
+    private boolean flushScheduled = false;
 
     public DicomModel() {
         model = new Tree<>(MediaSeriesGroupNode.rootNode);
         splittingRules = new SplittingRules();
+        eventTimer = new Timer(EVENT_COALESCING_DELAY, e -> flushPendingEvents());
+        eventTimer.setRepeats(false);
+    }
+
+    /**
+     * Identifies the events with the same action on the same series (compared by reference). The events carrying a
+     * SeriesEvent are identified by the action of the SeriesEvent and by its source (the series or the image).
+     */
+    private static final class EventKey {
+        private final ObservableEvent.BasicAction action;
+        private final SeriesEvent.Action seriesAction;
+        private final Object value;
+
+        EventKey(ObservableEvent event) {
+            this.action = event.getActionCommand();
+            Object val = event.getNewValue();
+            if (val instanceof SeriesEvent) {
+                this.seriesAction = ((SeriesEvent) val).getActionCommand();
+                this.value = ((SeriesEvent) val).getSource();
+            } else {
+                this.seriesAction = null;
+                this.value = val;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * action.hashCode() + Objects.hashCode(seriesAction)) + System.identityHashCode(value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EventKey)) {
+                return false;
+            }
+            EventKey other = (EventKey) obj;
+            return action == other.action && seriesAction == other.seriesAction && value == other.value;
+        }
     }
 
     @Override
@@ -300,10 +352,74 @@ public class DicomModel implements TreeModel, DataExplorerModel {
             if (event == null) {
                 throw new NullPointerException();
             }
-            if (SwingUtilities.isEventDispatchThread()) {
+            boolean edt = SwingUtilities.isEventDispatchThread();
+            if (!edt && isCoalescable(event)) {
+                synchronized (pendingEvents) {
+                    // Keep the position of the first event and deliver the latest one
+                    pendingEvents.put(new EventKey(event), event);
+                    if (!flushScheduled) {
+                        flushScheduled = true;
+                        eventTimer.restart();
+                    }
+                }
+            } else if (edt) {
+                // Keep the order: the pending events have been sent before
+                flushPendingEvents();
                 propertyChange.firePropertyChange(event);
             } else {
-                SwingUtilities.invokeLater(() -> propertyChange.firePropertyChange(event));
+                // Keep the order: take the pending events now, the events coalesced later are delivered after
+                List<ObservableEvent> events = takePendingEvents();
+                SwingUtilities.invokeLater(() -> {
+                    fireEvents(events);
+                    propertyChange.firePropertyChange(event);
+                });
+            }
+        }
+    }
+
+    private static boolean isCoalescable(ObservableEvent event) {
+        ObservableEvent.BasicAction action = event.getActionCommand();
+        if (EVENT_COALESCING_DELAY <= 0
+            || !(ObservableEvent.BasicAction.ADD.equals(action) || ObservableEvent.BasicAction.UPDATE.equals(action))) {
+            return false;
+        }
+        Object val = event.getNewValue();
+        if (val instanceof SeriesEvent) {
+            // Only the events where the latest one describes the whole state (the listeners read the series)
+            SeriesEvent.Action seriesAction = ((SeriesEvent) val).getActionCommand();
+            return ((SeriesEvent) val).getSource() != null && (SeriesEvent.Action.ADD_IMAGE.equals(seriesAction)
+                || SeriesEvent.Action.UPDATE_IMAGE.equals(seriesAction)
+                || SeriesEvent.Action.PRELOADING.equals(seriesAction));
+        }
+        return val instanceof Series;
+    }
+
+    /**
+     * Delivers once the latest ADD and UPDATE events of each series received during the coalescing window. Must be called
+     * from the EDT.
+     */
+    private void flushPendingEvents() {
+        fireEvents(takePendingEvents());
+    }
+
+    private List<ObservableEvent> takePendingEvents() {
+        synchronized (pendingEvents) {
+            if (pendingEvents.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<ObservableEvent> events = new ArrayList<>(pendingEvents.values());
+            pendingEvents.clear();
+            flushScheduled = false;
+            eventTimer.stop();
+            return events;
+        }
+    }
+
+    private void fireEvents(List<ObservableEvent> events) {
+        PropertyChangeSupport support = propertyChange;
+        if (support != null) {
+            for (ObservableEvent e : events) {
+                support.firePropertyChange(e);
             }
         }
     }
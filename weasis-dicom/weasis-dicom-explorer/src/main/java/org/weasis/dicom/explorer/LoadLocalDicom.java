@@ -14,8 +14,16 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.dcm4che3.data.Tag;
 import org.slf4j.LoggerFactory;
@@ -31,7 +39,9 @@ import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesThumbnail;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.media.data.Thumbnail;
+import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.ThreadUtil;
 import org.weasis.core.ui.docking.UIManager;
 import org.weasis.core.ui.editor.SeriesViewerFactory;
 import org.weasis.core.ui.editor.ViewerPluginBuilder;
@@ -46,7 +56,16 @@ import org.weasis.dicom.codec.TagD.Level;
 public class LoadLocalDicom extends ExplorerTask<Boolean, String> {
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(LoadLocalDicom.class);
+
+    private static final int NB_READERS = Math.max(1, BundleTools.SYSTEM_PREFERENCES
+        .getIntProperty("weasis.dicom.import.threads", Runtime.getRuntime().availableProcessors())); //$NON-NLS-1$
+    private static final int QUEUE_SIZE = 512;
+    private static final int BATCH_SIZE = 64;
+    private static final File END_OF_FILES = new File(""); //$NON-NLS-1$
+    private static final String SIDECAR_EXTENSION = ".xml"; //$NON-NLS-1$
     private final File[] files;
+    // Paths of the files having a graphic sidecar (same name + .xml), found in the listing of their folder
+    private final Set<String> sidecarFiles = ConcurrentHashMap.newKeySet();
     private final DicomModel dicomModel;
     private final boolean recursive;
     private boolean openPlugin;
@@ -77,55 +96,159 @@ public class LoadLocalDicom extends ExplorerTask<Boolean, String> {
         LOGGER.info("End of loading DICOM locally"); //$NON-NLS-1$
     }
 
+    /**
+     * Imports the files with a parallel pipeline: one thread walks the folders, several threads read the DICOM headers
+     * and the current thread inserts the instances into the model by batches.
+     *
+     * @param file
+     *            the files and folders to import
+     * @param firstLevel
+     *            the folders of the first level are always read, the sub-folders only when recursive
+     */
     public void addSelectionAndnotify(File[] file, boolean firstLevel) {
         if (file == null || file.length < 1) {
             return;
         }
-        final ArrayList<SeriesThumbnail> thumbs = new ArrayList<>();
-        final ArrayList<File> folders = new ArrayList<>();
+        final BlockingQueue<File> files = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<DicomMediaIO> readers = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final CountDownLatch readersDone = new CountDownLatch(NB_READERS);
+        final ExecutorService executor = ThreadUtil.buildNewFixedThreadExecutor(NB_READERS + 1, "DICOM Import"); //$NON-NLS-1$
+        try {
+            executor.execute(() -> walkFiles(file, firstLevel, files));
+            for (int i = 0; i < NB_READERS; i++) {
+                executor.execute(() -> readHeaders(files, readers, readersDone));
+            }
+
+            final ArrayList<SeriesThumbnail> thumbs = new ArrayList<>();
+            final ArrayList<DicomMediaIO> batch = new ArrayList<>(BATCH_SIZE);
+            while (!isCancelled()) {
+                DicomMediaIO loader = readers.poll(100, TimeUnit.MILLISECONDS);
+                if (loader == null) {
+                    if (readersDone.getCount() == 0 && readers.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(loader);
+                readers.drainTo(batch, BATCH_SIZE - 1);
+                for (DicomMediaIO dicomReader : batch) {
+                    // Issue: must handle adding image to viewer and building thumbnail (middle image)
+                    SeriesThumbnail t = buildDicomStructure(dicomReader, openPlugin);
+                    if (t != null) {
+                        thumbs.add(t);
+                    }
+                }
+                batch.clear();
+            }
 
+            // Only one task in the EDT, the images of the thumbnails are read by the pool of the thumbnail loader
+            GuiExecutor.instance().execute(() -> {
+                for (final SeriesThumbnail t : thumbs) {
+                    MediaSeries<MediaElement> series = t.getSeries();
+                    // Avoid to rebuild most of CR series thumbnail
+                    if (series != null && series.size(null) > 2) {
+                        t.reBuildThumbnail();
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void walkFiles(File[] file, boolean firstLevel, BlockingQueue<File> files) {
+        try {
+            addFiles(file, firstLevel, files);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // One end marker for each reader
+            for (int i = 0; i < NB_READERS; i++) {
+                if (!files.offer(END_OF_FILES)) {
+                    try {
+                        files.put(END_OF_FILES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addFiles(File[] file, boolean firstLevel, BlockingQueue<File> files) throws InterruptedException {
+        if (file == null) {
+            return;
+        }
+        final ArrayList<File> folders = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        for (File f : file) {
+            if (f != null) {
+                names.add(f.getName());
+            }
+        }
         for (int i = 0; i < file.length; i++) {
             if (isCancelled()) {
                 return;
             }
-
             if (file[i] == null) {
                 continue;
             } else if (file[i].isDirectory()) {
                 if (firstLevel || recursive) {
                     folders.add(file[i]);
                 }
-            } else {
-                if (file[i].canRead()) {
-                    if (FileUtil.isFileExtensionMatching(file[i], DicomCodec.FILE_EXTENSIONS)
-                        || MimeInspector.isMatchingMimeTypeFromMagicNumber(file[i], DicomMediaIO.MIMETYPE)) {
-                        DicomMediaIO loader = new DicomMediaIO(file[i]);
-                        if (loader.isReadableDicom()) {
-                            // Issue: must handle adding image to viewer and building thumbnail (middle image)
-                            SeriesThumbnail t = buildDicomStructure(loader, openPlugin);
-                            if (t != null) {
-                                thumbs.add(t);
-                            }
+            } else if (file[i].canRead()) {
+                String name = file[i].getName();
+                if (name.endsWith(SIDECAR_EXTENSION)
+                    && names.contains(name.substring(0, name.length() - SIDECAR_EXTENSION.length()))) {
+                    // Graphic sidecar, read with its file
+                    continue;
+                }
+                // The selected files are not a complete listing of their folder
+                if (names.contains(name + SIDECAR_EXTENSION)
+                    || (firstLevel && new File(file[i].getPath() + SIDECAR_EXTENSION).isFile())) {
+                    sidecarFiles.add(file[i].getPath());
+                }
+                files.put(file[i]);
+            }
+        }
+        for (File folder : folders) {
+            addFiles(folder.listFiles(), false, files);
+        }
+    }
 
-                            File gpxFile = new File(file[i].getPath() + ".xml"); //$NON-NLS-1$
-                            GraphicModel graphicModel = XmlSerializer.readPresentationModel(gpxFile);
-                            if (graphicModel != null) {
-                                loader.setTag(TagW.PresentationModel, graphicModel);
+    private void readHeaders(BlockingQueue<File> files, BlockingQueue<DicomMediaIO> readers,
+        CountDownLatch readersDone) {
+        try {
+            File file;
+            while ((file = files.take()) != END_OF_FILES && !isCancelled()) {
+                try {
+                    if (FileUtil.isFileExtensionMatching(file, DicomCodec.FILE_EXTENSIONS)
+                        || MimeInspector.isMatchingMimeTypeFromMagicNumber(file, DicomMediaIO.MIMETYPE)) {
+                        DicomMediaIO loader = new DicomMediaIO(file);
+                        if (loader.isReadableDicom()) {
+                            if (sidecarFiles.remove(file.getPath())) {
+                                File gpxFile = new File(file.getPath() + SIDECAR_EXTENSION);
+                                GraphicModel graphicModel = XmlSerializer.readPresentationModel(gpxFile);
+                                if (graphicModel != null) {
+                                    loader.setTag(TagW.PresentationModel, graphicModel);
+                                }
                             }
+                            readers.put(loader);
                         }
                     }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    LOGGER.error("Cannot read {}", file, e); //$NON-NLS-1$
                 }
             }
-        }
-        for (final SeriesThumbnail t : thumbs) {
-            MediaSeries<MediaElement> series = t.getSeries();
-            // Avoid to rebuild most of CR series thumbnail
-            if (series != null && series.size(null) > 2) {
-                GuiExecutor.instance().execute(t::reBuildThumbnail);
-            }
-        }
-        for (int i = 0; i < folders.size(); i++) {
-            addSelectionAndnotify(folders.get(i).listFiles(), false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readersDone.countDown();
         }
     }
 
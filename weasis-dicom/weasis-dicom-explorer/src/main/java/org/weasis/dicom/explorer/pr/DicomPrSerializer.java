@@ -28,9 +28,6 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.Tag;
@@ -58,6 +55,7 @@ import org.weasis.core.ui.model.graphic.imp.area.ThreePointsCircleGraphic;
 import org.weasis.core.ui.model.graphic.imp.line.PolylineGraphic;
 import org.weasis.core.ui.model.imp.XmlGraphicModel;
 import org.weasis.core.ui.model.layer.GraphicLayer;
+import org.weasis.core.ui.serialize.XmlSerializer;
 import org.weasis.dicom.codec.DcmMediaReader;
 import org.weasis.dicom.codec.DicomImageElement;
 import org.weasis.dicom.codec.PresentationStateReader;
@@ -136,11 +134,8 @@ public class DicomPrSerializer {
 
     private static void writePrivateTags(GraphicModel model, Attributes attributes) {
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(model.getClass());
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            jaxbMarshaller.marshal(model, outputStream);
-            // jaxbMarshaller.marshal(model, System.out);
+            XmlSerializer.writePresentation(model, outputStream);
             attributes.setString(PresentationStateReader.PRIVATE_CREATOR_TAG, VR.LO,
                 PresentationStateReader.PR_MODEL_ID);
             attributes.setBytes(PresentationStateReader.PR_MODEL_PRIVATE_TAG, VR.OB,
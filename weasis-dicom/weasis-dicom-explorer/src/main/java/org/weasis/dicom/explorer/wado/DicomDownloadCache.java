@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.explorer.wado;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.AppProperties;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.ThreadUtil;
+
+/**
+ * Persistent cache of the downloaded DICOM instances, shared by the sessions. An entry is identified by the SOP Instance
+ * UID, the requested transfer syntax and the values of the overridden tags, it is consulted before sending any request.
+ * Thus, opening again a study or resuming a series partially downloaded only requires the missing instances.
+ * <p>
+ * The length and the checksum of an entry are stored next to it and verified the first time the entry is used in a
+ * session, a truncated or corrupted file is removed and downloaded again.
+ * <p>
+ * The directory can be used by several Weasis processes, only the partial downloads abandoned for a while are removed.
+ * The entries of the previous sessions are read in a background thread.
+ * <p>
+ * The size of the cache is limited (weasis.dicom.download.cache.size in MB), the least recently used entries of the
+ * previous sessions are removed first. The files used in the current session are never removed because they are
+ * referenced by the model.
+ */
+final class DicomDownloadCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DicomDownloadCache.class);
+
+    private static final String PART_SUFFIX = ".part"; //$NON-NLS-1$
+    // Age of a partial or checksum file without entry from which it is considered as abandoned
+    private static final long PART_EXPIRATION = TimeUnit.HOURS.toMillis(1);
+    private static final String ENTRY_SUFFIX = ".dcm"; //$NON-NLS-1$
+    private static final String SUM_SUFFIX = ".sum"; //$NON-NLS-1$
+    private static final long MAX_SIZE =
+        BundleTools.SYSTEM_PREFERENCES.getLongProperty("weasis.dicom.download.cache.size", 2048L) * 1024L * 1024L; //$NON-NLS-1$
+    private static final File CACHE_DIR =
+        new File(AppProperties.WEASIS_PATH, "cache" + File.separator + "dicom-downloads"); //$NON-NLS-1$ //$NON-NLS-2$
+
+    // Path and size of the entries in the access order
+    private static final LinkedHashMap<String, Long> ENTRIES = new LinkedHashMap<>(256, 0.75f, true);
+    private static final Set<String> SESSION_ENTRIES = new HashSet<>();
+    private static long totalSize = 0L;
+    private static final AtomicBoolean LOADING_STARTED = new AtomicBoolean(false);
+    private static final ExecutorService LOADER =
+        ThreadUtil.buildNewSingleThreadExecutor("Download Cache Loader"); //$NON-NLS-1$
+
+    private DicomDownloadCache() {
+    }
+
+    static boolean isEnabled() {
+        return MAX_SIZE > 0;
+    }
+
+    /**
+     * @param overriddenValues
+     *            the tags replaced in the downloaded file with their values, null when the file is not modified
+     * @return the key of the instance, or null when the cache is disabled
+     */
+    static String getKey(String sopInstanceUID, String transferSyntaxUID, Integer compressionRate,
+        String overriddenValues) {
+        if (!isEnabled() || sopInstanceUID == null) {
+            return null;
+        }
+        return sopInstanceUID + '|' + (transferSyntaxUID == null ? "" : transferSyntaxUID) + '|' //$NON-NLS-1$
+            + (compressionRate == null ? 0 : compressionRate) + '|'
+            + (overriddenValues == null ? "" : overriddenValues); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the file of the entry or null when the instance is not in the cache or is not valid
+     */
+    static File get(String key) {
+        File file = getEntryFile(key);
+        if (file == null) {
+            return null;
+        }
+        startLoading();
+        boolean verify;
+        synchronized (ENTRIES) {
+            String path = file.getPath();
+            if (!file.isFile()) {
+                Long size = ENTRIES.remove(path);
+                if (size != null) {
+                    totalSize -= size;
+                }
+                return null;
+            }
+            if (ENTRIES.get(path) == null) {
+                ENTRIES.put(path, file.length());
+                totalSize += file.length();
+            }
+            // Added before the verification to prevent the eviction
+            verify = SESSION_ENTRIES.add(path);
+        }
+        if (verify && !isValid(file)) {
+            LOGGER.warn("Corrupted entry {} in the download cache", key); //$NON-NLS-1$
+            remove(key);
+            return null;
+        }
+        touch(file.toPath());
+        return file;
+    }
+
+    /**
+     * @return a new file for writing a download, in the same file system as the entries
+     */
+    static File createPartFile() throws IOException {
+        CACHE_DIR.mkdirs();
+        return File.createTempFile("dl_", PART_SUFFIX, CACHE_DIR); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the file where the entry will be stored
+     */
+    static File getEntryFile(String key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+            byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder buf = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                buf.append(String.format("%02x", b)); //$NON-NLS-1$
+            }
+            // Split in sub-folders to avoid too many files in one directory
+            return new File(new File(CACHE_DIR, buf.substring(0, 2)), buf.substring(2) + ENTRY_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Cannot build the download cache key", e); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * Moves a complete download into the cache.
+     *
+     * @return the file of the entry or null when the download cannot be moved
+     */
+    static File put(String key, File partFile) {
+        File file = getEntryFile(key);
+        if (file == null || partFile == null || !partFile.isFile()) {
+            return null;
+        }
+        startLoading();
+        try {
+            file.getParentFile().mkdirs();
+            // Written before the entry, a checksum file without entry is removed at the next start
+            String sum = partFile.length() + " " + Long.toHexString(computeChecksum(partFile)); //$NON-NLS-1$
+            Files.write(getSumFile(file).toPath(), sum.getBytes(StandardCharsets.US_ASCII));
+            try {
+                Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot store {} in the download cache: {}", key, e.getMessage()); //$NON-NLS-1$
+            return null;
+        }
+        synchronized (ENTRIES) {
+            String path = file.getPath();
+            Long old = ENTRIES.put(path, file.length());
+            totalSize += file.length() - (old == null ? 0L : old);
+            SESSION_ENTRIES.add(path);
+            evict();
+        }
+        return file;
+    }
+
+    /**
+     * Removes an invalid entry.
+     */
+    static void remove(String key) {
+        File file = getEntryFile(key);
+        if (file != null) {
+            synchronized (ENTRIES) {
+                String path = file.getPath();
+                Long size = ENTRIES.remove(path);
+                if (size != null) {
+                    totalSize -= size;
+                }
+                SESSION_ENTRIES.remove(path);
+            }
+            FileUtil.delete(file);
+            FileUtil.delete(getSumFile(file));
+        }
+    }
+
+    private static File getSumFile(File entry) {
+        String name = entry.getName();
+        return new File(entry.getParentFile(), name.substring(0, name.length() - ENTRY_SUFFIX.length()) + SUM_SUFFIX);
+    }
+
+    /**
+     * @return true when the length and the checksum of the entry are the ones stored when it was added
+     */
+    private static boolean isValid(File entry) {
+        File sumFile = getSumFile(entry);
+        if (!sumFile.isFile()) {
+            return false;
+        }
+        try {
+            String content = new String(Files.readAllBytes(sumFile.toPath()), StandardCharsets.US_ASCII);
+            String[] sum = content.trim().split(" "); //$NON-NLS-1$
+            return sum.length == 2 && Long.parseLong(sum[0]) == entry.length()
+                && Long.parseLong(sum[1], 16) == computeChecksum(entry);
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.debug("Cannot verify {}: {}", entry, e.getMessage()); //$NON-NLS-1$
+            return false;
+        }
+    }
+
+    private static long computeChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[FileUtil.FILE_BUFFER];
+            int nread;
+            while ((nread = in.read(buf)) > 0) {
+                crc.update(buf, 0, nread);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void touch(Path path) {
+        try {
+            // Do not change the modification time which validates the header index
+            Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(null,
+                FileTime.fromMillis(System.currentTimeMillis()), null);
+        } catch (IOException e) {
+            LOGGER.debug("Cannot update the access time of {}: {}", path, e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Starts reading the entries of the previous sessions in a background thread, the cache can be used meanwhile.
+     */
+    private static void startLoading() {
+        if (LOADING_STARTED.compareAndSet(false, true)) {
+            LOADER.execute(DicomDownloadCache::load);
+        }
+    }
+
+    /**
+     * Reads the entries of the previous sessions in the order of their last access.
+     */
+    private static void load() {
+        if (!CACHE_DIR.isDirectory()) {
+            return;
+        }
+        // The files being written by another Weasis process are recent
+        long expiration = System.currentTimeMillis() - PART_EXPIRATION;
+        List<Object[]> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(CACHE_DIR.toPath(), 2)) {
+            for (Path p : stream.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                String name = p.getFileName().toString();
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                boolean expired = attrs.lastModifiedTime().toMillis() < expiration;
+                if (name.endsWith(PART_SUFFIX)) {
+                    if (expired) {
+                        // Interrupted download
+                        FileUtil.delete(p.toFile());
+                    }
+                    continue;
+                }
+                if (name.endsWith(SUM_SUFFIX)) {
+                    String entryName = name.substring(0, name.length() - SUM_SUFFIX.length()) + ENTRY_SUFFIX;
+                    if (expired && !Files.exists(p.resolveSibling(entryName))) {
+                        FileUtil.delete(p.toFile());
+                    }
+                    continue;
+                }
+                files.add(new Object[] { p.toFile().getPath(), attrs.size(), attrs.lastAccessTime().toMillis() });
+            }
+        } catch (IOException e) {
+            LOGGER.error("Cannot read the download cache", e); //-NLS-1$
+        }
+        files.sort((a, b) -> Long.compare((Long) a[2], (Long) b[2]));
+
+        synchronized (ENTRIES) {
+            // The entries used since the start are the most recent ones
+            List<Object[]> used = new ArrayList<>(ENTRIES.size());
+            for (Map.Entry<String, Long> e : ENTRIES.entrySet()) {
+                used.add(new Object[] { e.getKey(), e.getValue() });
+            }
+            ENTRIES.clear();
+            totalSize = 0L;
+            for (Object[] f : files) {
+                add((String) f[0], (Long) f[1]);
+            }
+            for (Object[] f : used) {
+                add((String) f[0], (Long) f[1]);
+            }
+            evict();
+        }
+    }
+
+    private static void add(String path, long size) {
+        Long old = ENTRIES.put(path, size);
+        totalSize += size - (old == null ? 0L : old);
+    }
+
+    /**
+     * Removes the least recently used entries, except the ones of the current session. Must be called with the lock.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<String, Long>> it = ENTRIES.entrySet().iterator();
+        while (totalSize > MAX_SIZE && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            File file = new File(entry.getKey());
+            // An entry can have been removed by another process
+            if (!SESSION_ENTRIES.contains(entry.getKey()) && (FileUtil.delete(file) || !file.exists())) {
+                FileUtil.delete(getSumFile(file));
+                totalSize -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+}
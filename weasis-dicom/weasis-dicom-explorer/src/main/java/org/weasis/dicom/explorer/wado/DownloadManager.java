@@ -101,7 +101,6 @@ public class DownloadManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadManager.class);
 
-    public static final String CONCURRENT_SERIES = "download.concurrent.series"; //$NON-NLS-1$
     public static final List<LoadSeries> TASKS = new ArrayList<>();
 
     // Executor without concurrency (only one task is executed at the same time)
@@ -110,13 +109,18 @@ public class DownloadManager {
     public static final ThreadPoolExecutor UNIQUE_EXECUTOR =
         new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, UNIQUE_QUEUE);
 
-    // Executor with simultaneous tasks
+    // Executor with simultaneous tasks. A series only queues its images in the download scheduler and waits, the number
+    // of simultaneous downloads is limited by the scheduler (see ImageDownloadScheduler.CONCURRENT_IMAGES). Thus, all
+    // the series feed the scheduler which chooses the next image according to the priorities.
+    private static final int SERIES_THREADS = 64;
     private static final BlockingQueue<Runnable> PRIORITY_QUEUE =
         new PriorityBlockingQueue<>(10, new PriorityTaskComparator());
-    public static final ThreadPoolExecutor CONCURRENT_EXECUTOR =
-        new ThreadPoolExecutor(BundleTools.SYSTEM_PREFERENCES.getIntProperty(CONCURRENT_SERIES, 3),
-            BundleTools.SYSTEM_PREFERENCES.getIntProperty(CONCURRENT_SERIES, 3), 0L, TimeUnit.MILLISECONDS,
-            PRIORITY_QUEUE, ThreadUtil.getThreadFactory("Series Downloader")); //$NON-NLS-1$
+    public static final ThreadPoolExecutor CONCURRENT_EXECUTOR = new ThreadPoolExecutor(SERIES_THREADS, SERIES_THREADS,
+        60L, TimeUnit.SECONDS, PRIORITY_QUEUE, ThreadUtil.getThreadFactory("Series Downloader")); //$NON-NLS-1$
+
+    static {
+        CONCURRENT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
 
     public static class PriorityTaskComparator implements Comparator<Runnable>, Serializable {
 
@@ -126,9 +130,10 @@ public class DownloadManager {
         public int compare(final Runnable r1, final Runnable r2) {
             LoadSeries o1 = (LoadSeries) r1;
             LoadSeries o2 = (LoadSeries) r2;
-            DownloadPriority val1 = o1.getPriority();
-            DownloadPriority val2 = o2.getPriority();
+            return comparePriority(o1.getPriority(), o2.getPriority());
+        }
 
+        public static int comparePriority(DownloadPriority val1, DownloadPriority val2) {
             int rep = val1.getPriority().compareTo(val2.getPriority());
             if (rep != 0) {
                 return rep;
@@ -200,11 +205,6 @@ public class DownloadManager {
                 }
 
             }
-            if (DownloadManager.TASKS.isEmpty()) {
-                // When all loadseries are ended, reset to default the number of simultaneous download (series)
-                DownloadManager.CONCURRENT_EXECUTOR.setCorePoolSize(
-                    BundleTools.SYSTEM_PREFERENCES.getIntProperty(DownloadManager.CONCURRENT_SERIES, 3));
-            }
         }
     }
 
@@ -585,8 +585,7 @@ public class DownloadManager {
         dicomSeries.setTag(TagW.WadoInstanceReferenceList, seriesInstanceList);
 
         if (!seriesInstanceList.isEmpty()) {
-            final LoadSeries loadSeries = new LoadSeries(dicomSeries, model,
-                BundleTools.SYSTEM_PREFERENCES.getIntProperty(LoadSeries.CONCURRENT_DOWNLOADS_IN_SERIES, 4), true);
+            final LoadSeries loadSeries = new LoadSeries(dicomSeries, model, true);
             loadSeries.setPriority(new DownloadPriority(patient, study, dicomSeries, true));
             params.getSeriesMap().put(seriesUID, loadSeries);
         }
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.explorer.wado;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.ThreadUtil;
+
+/**
+ * Download engine shared by all the series. The number of simultaneous requests is limited globally and the next image
+ * to download is chosen among all the series being loaded, first according to the priority of its series and then to
+ * its rank in the series (around the displayed image or from coarse to fine). Thus, the connections (kept alive by the
+ * HTTP client) are never idle between two series.
+ */
+public final class ImageDownloadScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageDownloadScheduler.class);
+
+    public static final String CONCURRENT_IMAGES = "download.concurrent.images"; //$NON-NLS-1$
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final PriorityBlockingQueue<Runnable> QUEUE =
+        new PriorityBlockingQueue<>(64, new ImageTaskComparator());
+    private static final ThreadPoolExecutor EXECUTOR;
+    // Delay (in ms) for coalescing the requests of sorting the queue (e.g. when scrolling through a stack)
+    private static final long REORDER_DELAY = 100;
+    private static final AtomicBoolean REORDER_SCHEDULED = new AtomicBoolean(false);
+    private static final ScheduledExecutorService REORDER_EXECUTOR =
+        Executors.newSingleThreadScheduledExecutor(ThreadUtil.getThreadFactory("Download Scheduler")); //$NON-NLS-1$
+
+    static {
+        // By default, the same number of requests as the former limit (4 images per series x 3 simultaneous series)
+        int nbThreads = Math.max(1, BundleTools.SYSTEM_PREFERENCES.getIntProperty(CONCURRENT_IMAGES, 12));
+        EXECUTOR = new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.MILLISECONDS, QUEUE,
+            ThreadUtil.getThreadFactory("Image Downloader")); //$NON-NLS-1$
+    }
+
+    private ImageDownloadScheduler() {
+    }
+
+    static final class ImageTask extends FutureTask<Boolean> {
+        private final LoadSeries loadSeries;
+        private final int order;
+        private final int position;
+        private final long sequence;
+
+        ImageTask(LoadSeries loadSeries, int order, int position, Callable<Boolean> download) {
+            super(download);
+            this.loadSeries = loadSeries;
+            this.order = order;
+            this.position = position;
+            this.sequence = SEQUENCE.getAndIncrement();
+        }
+
+        int getRank() {
+            return loadSeries.getDownloadRank(order, position);
+        }
+    }
+
+    static class ImageTaskComparator implements Comparator<Runnable>, Serializable {
+        private static final long serialVersionUID = -2637469612476934575L;
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            ImageTask t1 = (ImageTask) r1;
+            ImageTask t2 = (ImageTask) r2;
+            if (t1.loadSeries != t2.loadSeries) {
+                DownloadPriority p1 = t1.loadSeries.getPriority();
+                DownloadPriority p2 = t2.loadSeries.getPriority();
+                if (p1 != null && p2 != null) {
+                    int rep = DownloadManager.PriorityTaskComparator.comparePriority(p1, p2);
+                    if (rep != 0) {
+                        return rep;
+                    }
+                }
+            } else {
+                int rep = Integer.compare(t1.getRank(), t2.getRank());
+                if (rep != 0) {
+                    return rep;
+                }
+            }
+            return Long.compare(t1.sequence, t2.sequence);
+        }
+    }
+
+    /**
+     * Queues the downloads of a series and waits until they are all completed. When the current thread is interrupted
+     * (series canceled), the downloads not yet started are removed from the queue.
+     *
+     * @param loadSeries
+     *            the series, its priority is used for ordering the downloads with the other series
+     * @param downloads
+     *            the downloads in the default order of the series
+     * @param positions
+     *            the index of each download in the list of images sorted by instance number (for ordering around the
+     *            displayed image)
+     */
+    public static void invokeAll(LoadSeries loadSeries, List<? extends Callable<Boolean>> downloads, int[] positions)
+        throws InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<>(downloads.size());
+        boolean done = false;
+        try {
+            for (int i = 0; i < downloads.size(); i++) {
+                ImageTask task = new ImageTask(loadSeries, i, positions[i], downloads.get(i));
+                futures.add(task);
+                EXECUTOR.execute(task);
+            }
+            for (Future<Boolean> f : futures) {
+                try {
+                    f.get();
+                } catch (CancellationException | ExecutionException e) {
+                    LOGGER.debug("Image download not completed: {}", e.getMessage()); //$NON-NLS-1$
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (Future<Boolean> f : futures) {
+                    f.cancel(true);
+                }
+                EXECUTOR.purge();
+            }
+        }
+    }
+
+    /**
+     * Sorts again the pending downloads, must be called when the priority of a series or the displayed image has
+     * changed. The requests are coalesced and the sorting is executed later in a background thread.
+     */
+    public static void reorder() {
+        if (REORDER_SCHEDULED.compareAndSet(false, true)) {
+            REORDER_EXECUTOR.schedule(ImageDownloadScheduler::reorderQueue, REORDER_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void reorderQueue() {
+        REORDER_SCHEDULED.set(false);
+        Set<LoadSeries> series = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Runnable r : QUEUE) {
+            series.add(((ImageTask) r).loadSeries);
+        }
+        for (LoadSeries s : series) {
+            s.updateFocus();
+        }
+        List<Runnable> tasks = new ArrayList<>(QUEUE.size());
+        QUEUE.drainTo(tasks);
+        QUEUE.addAll(tasks);
+    }
+}
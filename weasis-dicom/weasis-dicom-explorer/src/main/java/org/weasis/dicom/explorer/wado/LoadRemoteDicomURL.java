@@ -22,7 +22,6 @@ import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.MediaSeriesGroupNode;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.TagW;
-import org.weasis.core.api.service.BundleTools;
 import org.weasis.dicom.codec.DicomSeries;
 import org.weasis.dicom.codec.TagD;
 import org.weasis.dicom.codec.TagD.Level;
@@ -110,8 +109,7 @@ public class LoadRemoteDicomURL extends ExplorerTask<Boolean, String> {
             if (!seriesInstanceList.isEmpty()) {
                 String modality = TagD.getTagValue(dicomSeries, Tag.Modality, String.class);
                 boolean ps = modality != null && ("PR".equals(modality) || "KO".equals(modality)); //$NON-NLS-1$ //$NON-NLS-2$
-                final LoadSeries loadSeries = new LoadSeries(dicomSeries, dicomModel,
-                    BundleTools.SYSTEM_PREFERENCES.getIntProperty(LoadSeries.CONCURRENT_DOWNLOADS_IN_SERIES, 4), true);
+                final LoadSeries loadSeries = new LoadSeries(dicomSeries, dicomModel, true);
                 if (!ps) {
                     loadSeries.startDownloadImageReference(wadoParameters);
                 }
@@ -14,31 +14,43 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JProgressBar;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
 import org.dcm4che3.data.ElementDictionary;
 import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.io.DicomOutputStream;
-import org.dcm4che3.util.SafeClose;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.ObservableEvent;
@@ -58,7 +70,6 @@ import org.weasis.core.api.util.FileUtil;
 import org.weasis.core.api.util.NetworkUtil;
 import org.weasis.core.api.util.StreamIOException;
 import org.weasis.core.api.util.StringUtil;
-import org.weasis.core.api.util.ThreadUtil;
 import org.weasis.core.ui.docking.UIManager;
 import org.weasis.core.ui.editor.SeriesViewerFactory;
 import org.weasis.core.ui.editor.ViewerPluginBuilder;
@@ -86,26 +97,38 @@ import org.weasis.dicom.mf.WadoParameters;
 public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesImporter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LoadSeries.class);
-    public static final String CONCURRENT_DOWNLOADS_IN_SERIES = "download.concurrent.series.images"; //$NON-NLS-1$
 
-    public static final File DICOM_TMP_DIR = AppProperties.buildAccessibleTempDirectory("downloading"); //$NON-NLS-1$
     public static final TagW DOWNLOAD_START_TIME = new TagW("DownloadSartTime", TagType.TIME); //$NON-NLS-1$
 
     public enum Status {
         DOWNLOADING, PAUSED, COMPLETE, CANCELLED, ERROR
     }
 
-    public final int concurrentDownloads;
     private final DicomModel dicomModel;
     private final Series<?> dicomSeries;
     private final SeriesInstanceList seriesInstanceList;
     private final JProgressBar progressBar;
     private volatile DownloadPriority priority = null;
     private final boolean writeInCache;
+    // Serializes adding the downloaded images to the series
+    private final Object updateLock = new Object();
 
     private volatile boolean hasError = false;
-
-    public LoadSeries(Series<?> dicomSeries, DicomModel dicomModel, int concurrentDownloads, boolean writeInCache) {
+    // Index of each SOP instance in the list sorted by instance number
+    private volatile Map<String, Integer> sopPositions = Collections.emptyMap();
+    // Position in the order of the viewer of each SOP instance (by index in the list sorted by instance number)
+    private volatile int[] viewPositions = null;
+    // Last displayed image, processed by the download scheduler
+    private final AtomicReference<FocusRequest> focusRequest = new AtomicReference<>();
+    // Order and images used for computing the view positions (only accessed by the download scheduler)
+    private Comparator<?> positionSort = null;
+    private int positionCount = -1;
+    private Map<String, Integer> positionMap = null;
+    // Position of the image displayed in a viewer (-1 when not displayed) and the scroll direction
+    private volatile int focusPosition = -1;
+    private volatile int focusDirection = 1;
+
+    public LoadSeries(Series<?> dicomSeries, DicomModel dicomModel, boolean writeInCache) {
         super(Messages.getString("DicomExplorer.loading"), writeInCache, true); //$NON-NLS-1$
         if (dicomModel == null || dicomSeries == null) {
             throw new IllegalArgumentException("null parameters"); //$NON-NLS-1$
@@ -121,11 +144,9 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
             progressBar.setVisible(false);
         }
         this.dicomSeries.setSeriesLoader(this);
-        this.concurrentDownloads = concurrentDownloads;
     }
 
-    public LoadSeries(Series<?> dicomSeries, DicomModel dicomModel, JProgressBar progressBar, int concurrentDownloads,
-        boolean writeInCache) {
+    public LoadSeries(Series<?> dicomSeries, DicomModel dicomModel, JProgressBar progressBar, boolean writeInCache) {
         super(Messages.getString("DicomExplorer.loading"), writeInCache, true); //$NON-NLS-1$
         if (dicomModel == null || dicomSeries == null || progressBar == null) {
             throw new IllegalArgumentException("null parameters"); //$NON-NLS-1$
@@ -138,7 +159,6 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
         this.progressBar = progressBar;
         this.writeInCache = writeInCache;
         this.dicomSeries.setSeriesLoader(this);
-        this.concurrentDownloads = concurrentDownloads;
     }
 
     @Override
@@ -315,10 +335,16 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
         }
 
         List<SopInstance> sopList = seriesInstanceList.getSortedList();
-
-        ExecutorService imageDownloader =
-            ThreadUtil.buildNewFixedThreadExecutor(concurrentDownloads, "Image Downloader"); //$NON-NLS-1$
-        ArrayList<Callable<Boolean>> tasks = new ArrayList<>(sopList.size());
+        // The overridden values are written in the files, they are part of the key of the download cache
+        String overriddenValues = getOverriddenValues(patient, study, wado.getOverrideDicomTagIDList());
+
+        ArrayList<Download> tasks = new ArrayList<>(sopList.size());
+        int[] positions = new int[sopList.size()];
+        Map<String, Integer> sopMap = new HashMap<>(sopList.size());
+        for (int i = 0; i < sopList.size(); i++) {
+            sopMap.putIfAbsent(sopList.get(i).getSopInstanceUID(), i);
+        }
+        sopPositions = sopMap;
         int[] dindex = generateDownladOrder(sopList.size());
         GuiExecutor.instance().execute(() -> {
             progressBar.setMaximum(sopList.size());
@@ -344,6 +370,7 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
             }
 
             URLConnection urlConnection = null;
+            String cacheKey = null;
             try {
                 String studyUID = ""; //$NON-NLS-1$
                 String seriesUID = ""; //$NON-NLS-1$
@@ -377,12 +404,22 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
                             request.append("&imageQuality="); //$NON-NLS-1$
                             request.append(rate);
                         }
+                        cacheKey = DicomDownloadCache.getKey(instance.getSopInstanceUID(), wadoTsuid, rate,
+                            overriddenValues);
+                    } else {
+                        cacheKey =
+                            DicomDownloadCache.getKey(instance.getSopInstanceUID(), null, null, overriddenValues);
                     }
                 } else {
                     request.append(instance.getDirectDownloadFile());
+                    cacheKey = DicomDownloadCache.getKey(instance.getSopInstanceUID(), null, null, overriddenValues);
                 }
                 request.append(wado.getAdditionnalParameters());
                 urlConnection = initConnection(new URL(request.toString()), wado);
+                if ("file".equals(urlConnection.getURL().getProtocol())) { //$NON-NLS-1$
+                    // Local files are not copied in the download cache
+                    cacheKey = null;
+                }
             } catch (MalformedURLException e) {
                 LOGGER.error("Invalid URL", e); //$NON-NLS-1$
                 continue;
@@ -392,18 +429,18 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
                 continue;
             }
             LOGGER.debug("Download DICOM instance {} index {}.", urlConnection, k); //$NON-NLS-1$
-            Download ref = new Download(urlConnection);
+            Download ref = new Download(urlConnection, instance.getSopInstanceUID(), cacheKey);
+            positions[tasks.size()] = dindex[k];
             tasks.add(ref);
         }
 
         try {
             dicomSeries.setTag(DOWNLOAD_START_TIME, System.currentTimeMillis());
-            imageDownloader.invokeAll(tasks);
+            // Shared engine: the images are downloaded with the ones of the other series according to their priority
+            ImageDownloadScheduler.invokeAll(this, tasks, positions);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-
-        imageDownloader.shutdown();
         return true;
     }
 
@@ -553,6 +590,26 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
         return outFile;
     }
 
+    /**
+     * @return the tags of the override list with their values, or null when there is no tag to override
+     */
+    private static String getOverriddenValues(MediaSeriesGroup patient, MediaSeriesGroup study, int[] overrideList) {
+        if (overrideList == null || overrideList.length == 0) {
+            return null;
+        }
+        StringBuilder buf = new StringBuilder();
+        for (int tag : overrideList) {
+            TagW tagElement = patient.getTagElement(tag);
+            Object value =
+                tagElement == null ? study.getTagValue(study.getTagElement(tag)) : patient.getTagValue(tagElement);
+            buf.append(Integer.toHexString(tag));
+            buf.append('=');
+            buf.append(Arrays.deepToString(new Object[] { value }));
+            buf.append(';');
+        }
+        return buf.toString();
+    }
+
     private int[] generateDownladOrder(final int size) {
         int[] dindex = new int[size];
         if (size < 4) {
@@ -593,10 +650,17 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
     class Download implements Callable<Boolean> {
 
         private final URLConnection urlConnection; // download URL
+        private final String sopInstanceUID;
+        private final String cacheKey; // key in the persistent download cache, null when not cached
         private Status status; // current status of download
+        // Reader built from the header parsed while downloading
+        private DicomMediaIO headerReader;
+        private boolean parentUpdated = false;
 
-        public Download(URLConnection urlConnection) {
+        public Download(URLConnection urlConnection, String sopInstanceUID, String cacheKey) {
             this.urlConnection = urlConnection;
+            this.sopInstanceUID = sopInstanceUID;
+            this.cacheKey = cacheKey;
             this.status = Status.DOWNLOADING;
         }
 
@@ -657,12 +721,12 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
         }
 
         // Solves missing tmp folder problem (on Windows).
-        private File getDicomTmpDir() {
-            if (!DICOM_TMP_DIR.exists()) {
+        private File getDicomExportDir() {
+            if (!DicomMediaIO.DICOM_EXPORT_DIR.exists()) {
                 LOGGER.info("DICOM tmp dir not foud. Re-creating it!"); //$NON-NLS-1$
-                AppProperties.buildAccessibleTempDirectory("downloading"); //$NON-NLS-1$
+                AppProperties.buildAccessibleTempDirectory("dicom"); //$NON-NLS-1$
             }
-            return DICOM_TMP_DIR;
+            return DicomMediaIO.DICOM_EXPORT_DIR;
         }
 
         /**
@@ -673,8 +737,13 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
          * @throws URISyntaxException
          */
         private boolean process() throws IOException, URISyntaxException {
+            if (readFromCache()) {
+                return true;
+            }
             boolean cache = true;
             File tempFile = null;
+            File partFile = null;
+            boolean inDownloadCache = false;
             DicomMediaIO dicomReader = null;
 
             try (InputStream stream = NetworkUtil.getUrlInputStream(urlConnection)) {
@@ -683,7 +752,14 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
                     cache = false;
                 }
                 if (cache) {
-                    tempFile = File.createTempFile("image_", ".dcm", getDicomTmpDir()); //$NON-NLS-1$ //$NON-NLS-2$
+                    if (cacheKey == null) {
+                        // Written directly in its final location
+                        tempFile = File.createTempFile("image_", ".dcm", getDicomExportDir()); //$NON-NLS-1$ //$NON-NLS-2$
+                    } else {
+                        // Written in a partial file and moved into the download cache when complete
+                        partFile = DicomDownloadCache.createPartFile();
+                        tempFile = DicomDownloadCache.getEntryFile(cacheKey);
+                    }
                 }
 
                 // Cannot resume with WADO because the stream is modified on the fly by the wado server. In dcm4chee,
@@ -694,16 +770,22 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
                 if (dicomSeries != null) {
                     if (cache) {
                         LOGGER.debug("Start to download DICOM instance {} to {}.", getUrl(), tempFile.getName()); //$NON-NLS-1$
-                        int bytesTransferred = downloadInFileCache(stream, tempFile);
+                        int bytesTransferred = downloadInFileCache(stream, partFile == null ? tempFile : partFile,
+                            tempFile);
                         if (bytesTransferred == -1) {
                             LOGGER.info("End of downloading {} ", getUrl()); //$NON-NLS-1$
                         } else if (bytesTransferred >= 0) {
                             return false;
                         }
-
-                        File renameFile = new File(DicomMediaIO.DICOM_EXPORT_DIR, tempFile.getName());
-                        if (tempFile.renameTo(renameFile)) {
-                            tempFile = renameFile;
+                        dicomReader = headerReader;
+                        headerReader = null;
+                        if (partFile != null) {
+                            inDownloadCache = DicomDownloadCache.put(cacheKey, partFile) != null;
+                            if (!inDownloadCache) {
+                                // Cannot be stored, the header reader refers to the entry file
+                                tempFile = partFile;
+                                dicomReader = null;
+                            }
                         }
                     } else {
                         tempFile = new File(urlConnection.getURL().toURI());
@@ -711,24 +793,10 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
                     // Ensure the stream is closed if image is not written in cache
                     FileUtil.safeClose(stream);
 
-                    dicomReader = new DicomMediaIO(tempFile);
-                    if (dicomReader.isReadableDicom() && dicomSeries.size(null) == 0) {
-                        // Override the group (patient, study and series) by the dicom fields except the UID of the
-                        // group
-                        MediaSeriesGroup patient = dicomModel.getParent(dicomSeries, DicomModel.patient);
-                        dicomReader.writeMetaData(patient);
-                        MediaSeriesGroup study = dicomModel.getParent(dicomSeries, DicomModel.study);
-                        dicomReader.writeMetaData(study);
-                        dicomReader.writeMetaData(dicomSeries);
-                        GuiExecutor.instance().invokeAndWait(() -> {
-                            Thumbnail thumb = (Thumbnail) dicomSeries.getTagValue(TagW.Thumbnail);
-                            if (thumb != null) {
-                                thumb.repaint();
-                            }
-                            dicomModel.firePropertyChange(new ObservableEvent(ObservableEvent.BasicAction.UDPATE_PARENT,
-                                dicomModel, null, dicomSeries));
-                        });
+                    if (dicomReader == null) {
+                        dicomReader = new DicomMediaIO(tempFile);
                     }
+                    updateParentGroups(dicomReader);
                 }
             }
 
@@ -736,13 +804,21 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
             if (status == Status.DOWNLOADING) {
                 status = Status.COMPLETE;
                 if (tempFile != null && dicomSeries != null && dicomReader.isReadableDicom()) {
-                    if (cache) {
+                    // The files of the download cache are kept when the image is disposed
+                    if (cache && !inDownloadCache) {
                         dicomReader.getFileCache().setOriginalTempFile(tempFile);
                     }
-                    final DicomMediaIO reader = dicomReader;
-                    // Necessary to wait the runnable because the dicomSeries must be added to the dicomModel
-                    // before reaching done() of SwingWorker
-                    GuiExecutor.instance().invokeAndWait(() -> updateUI(reader));
+                    // The images are added to the model in this thread (the events are coalesced by the model),
+                    // only the viewer of the first image is opened in the EDT
+                    boolean firstImageToDisplay;
+                    synchronized (updateLock) {
+                        firstImageToDisplay = addMedias(dicomReader);
+                    }
+                    if (firstImageToDisplay) {
+                        // Necessary to wait the runnable because the dicomSeries must be displayed before reaching
+                        // done() of SwingWorker
+                        GuiExecutor.instance().invokeAndWait(this::openFirstImage);
+                    }
                 }
             }
             // Increment progress bar in EDT and repaint when downloaded
@@ -750,110 +826,227 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
             return true;
         }
 
-        private int downloadInFileCache(InputStream stream, File tempFile) throws IOException {
+        /**
+         * Adds the instance from the persistent download cache, without any request.
+         *
+         * @return true when the instance was in the cache and is valid
+         */
+        private boolean readFromCache() {
+            File file = DicomDownloadCache.get(cacheKey);
+            if (file == null) {
+                return false;
+            }
+            DicomMediaIO dicomReader = new DicomMediaIO(file);
+            // The length and the checksum are verified by the cache, the file must also contain the requested instance
+            if (!dicomReader.isReadableDicom() || !sopInstanceUID
+                .equals(TagD.getTagValue(dicomReader, Tag.SOPInstanceUID, String.class))) {
+                LOGGER.warn("Invalid DICOM instance {} in the download cache, download it again", sopInstanceUID); //$NON-NLS-1$
+                dicomReader.reset();
+                DicomDownloadCache.remove(cacheKey);
+                return false;
+            }
+            LOGGER.debug("DICOM instance {} read from the download cache.", sopInstanceUID); //$NON-NLS-1$
+            status = Status.COMPLETE;
+            if (dicomSeries != null) {
+                updateParentGroups(dicomReader);
+                boolean firstImageToDisplay;
+                synchronized (updateLock) {
+                    firstImageToDisplay = addMedias(dicomReader);
+                }
+                if (firstImageToDisplay) {
+                    GuiExecutor.instance().invokeAndWait(this::openFirstImage);
+                }
+            }
+            incrementProgressBarValue();
+            return true;
+        }
+
+        private int downloadInFileCache(InputStream stream, File tempFile, File target) throws IOException {
             final WadoParameters wado = (WadoParameters) dicomSeries.getTagValue(TagW.WadoParameters);
             int[] overrideList = Optional.ofNullable(wado).map(WadoParameters::getOverrideDicomTagIDList).orElse(null);
 
-            int bytesTransferred;
-            if (overrideList == null) {
-                bytesTransferred =
-                    FileUtil.writeStream(new DicomSeriesProgressMonitor(dicomSeries, stream, false), tempFile);
-            } else {
-                bytesTransferred =
-                    writFile(new DicomSeriesProgressMonitor(dicomSeries, stream, false), tempFile, overrideList);
-            }
-
+            int bytesTransferred =
+                writeDicom(new DicomSeriesProgressMonitor(dicomSeries, stream, false), tempFile, target, overrideList);
             if (bytesTransferred == Integer.MIN_VALUE) {
                 LOGGER.warn("Stop downloading unsupported TSUID, retry to download non compressed TSUID"); //$NON-NLS-1$
                 InputStream stream2 = replaceToDefaultTSUID();
-                if (overrideList == null) {
-                    bytesTransferred =
-                        FileUtil.writeStream(new DicomSeriesProgressMonitor(dicomSeries, stream2, false), tempFile);
-                } else {
-                    bytesTransferred =
-                        writFile(new DicomSeriesProgressMonitor(dicomSeries, stream2, false), tempFile, overrideList);
-                }
+                bytesTransferred =
+                    writeDicom(new DicomSeriesProgressMonitor(dicomSeries, stream2, false), tempFile, target,
+                        overrideList);
             }
             return bytesTransferred;
         }
 
         /**
+         * Writes the DICOM stream into the file while parsing its header. Without tag to override, the received bytes
+         * are written unchanged and the parser only reads a copy of the header. Otherwise the header is encoded again
+         * with the tags of the override list replaced. In both cases the pixel data is copied as it arrives, without
+         * being read in memory. When the header is complete, the reader of the file is built from the parsed header
+         * (see {@link #headerReader}).
+         *
          * @param in
-         * @param tempFile
+         * @param file
+         * @param target
+         *            the final location of the file (can be the same file), referenced by the header reader
          * @param overrideList
          * @return bytes transferred. O = error, -1 = all bytes has been transferred, other = bytes transferred before
          *         interruption
          * @throws StreamIOException
          */
-        public int writFile(InputStream in, File tempFile, int[] overrideList) throws StreamIOException {
-            if (in == null && tempFile == null) {
+        private int writeDicom(InputStream in, File file, File target, int[] overrideList)
+            throws StreamIOException {
+            if (in == null || file == null) {
                 return 0;
             }
-
-            DicomInputStream dis = null;
-            DicomOutputStream dos = null;
-
-            try {
-                String tsuid = null;
-                Attributes dataset;
-                dis = new DicomInputStream(in);
-                try {
-                    dis.setIncludeBulkData(IncludeBulkData.URI);
-                    dataset = dis.readDataset(-1, -1);
-                    tsuid = dis.getTransferSyntax();
-                } finally {
-                    dis.close();
-                }
-
-                dos = new DicomOutputStream(tempFile);
-
-                if (overrideList != null) {
-                    MediaSeriesGroup study = dicomModel.getParent(dicomSeries, DicomModel.study);
-                    MediaSeriesGroup patient = dicomModel.getParent(dicomSeries, DicomModel.patient);
-                    ElementDictionary dic = ElementDictionary.getStandardElementDictionary();
-
-                    for (int tag : overrideList) {
-                        TagW tagElement = patient.getTagElement(tag);
-                        Object value = null;
-                        if (tagElement == null) {
-                            tagElement = study.getTagElement(tag);
-                            value = study.getTagValue(tagElement);
-                        } else {
-                            value = patient.getTagValue(tagElement);
-                        }
-
-                        DicomMediaUtils.fillAttributes(dataset, tagElement, value, dic);
-                    }
+            headerReader = null;
+            try (BufferedInputStream bis = new BufferedInputStream(in, FileUtil.FILE_BUFFER);
+                FileOutputStream fos = new FileOutputStream(file);
+                BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+                if ((overrideList == null || overrideList.length == 0) && hasFileMetaInformation(bis)) {
+                    copyDicom(bis, bos, target);
+                } else {
+                    encodeDicom(bis, fos, bos, target, overrideList);
                 }
-                dos.writeDataset(dataset.createFileMetaInformation(tsuid), dataset);
-                dos.finish();
-                dos.flush();
+                bos.flush();
                 return -1;
             } catch (InterruptedIOException e) {
-                FileUtil.delete(tempFile);
+                headerReader = null;
+                FileUtil.delete(file);
                 LOGGER.error("Interruption when writing file: {}", e.getMessage()); //$NON-NLS-1$
                 return e.bytesTransferred;
             } catch (IOException e) {
-                FileUtil.delete(tempFile);
+                headerReader = null;
+                FileUtil.delete(file);
                 throw new StreamIOException(e);
             } catch (Exception e) {
-                FileUtil.delete(tempFile);
+                headerReader = null;
+                FileUtil.delete(file);
                 LOGGER.error("Writing DICOM temp file", e); //$NON-NLS-1$
                 return 0;
             } finally {
-                SafeClose.close(dos);
-                if (dis != null) {
-                    List<File> blkFiles = dis.getBulkDataFiles();
-                    if (blkFiles != null) {
-                        for (File file : blkFiles) {
-                            FileUtil.delete(file);
-                        }
+                FileUtil.safeClose(in);
+            }
+        }
+
+        /**
+         * Writes the stream unchanged, the parser reads the bytes written until the beginning of the pixel data.
+         */
+        private void copyDicom(InputStream in, OutputStream out, File target) throws IOException {
+            DicomInputStream dis = new DicomInputStream(new TeeInputStream(in, out));
+            dis.setIncludeBulkData(IncludeBulkData.YES);
+            Attributes fmi = dis.readFileMetaInformation();
+            boolean deflated = isDeflated(dis.getTransferSyntax());
+            Attributes dataset = dis.readDataset(-1, Tag.PixelData);
+            if (dis.tag() == Tag.PixelData && !deflated && dis.length() != -1) {
+                // The file is identical to the stream, the position of the parser is the offset in the file
+                buildHeaderReader(target, fmi, dataset, dis.vr(), dis.length(), dis.getPosition());
+            }
+            // The bytes read in advance by the parser are already written, copy the following ones
+            byte[] buf = new byte[FileUtil.FILE_BUFFER];
+            int nread;
+            while ((nread = in.read(buf)) > 0) {
+                out.write(buf, 0, nread);
+            }
+        }
+
+        /**
+         * Writes the header encoded again with the overridden tags and copies the pixel data.
+         */
+        private void encodeDicom(InputStream in, FileOutputStream fos, BufferedOutputStream bos, File target,
+            int[] overrideList) throws IOException {
+            DicomInputStream dis = new DicomInputStream(in);
+            DicomOutputStream dos = new DicomOutputStream(bos, UID.ExplicitVRLittleEndian);
+            dis.setIncludeBulkData(IncludeBulkData.YES);
+            Attributes fmi = dis.readFileMetaInformation();
+            String tsuid = dis.getTransferSyntax();
+            // The deflated data cannot be copied without being decoded
+            boolean deflated = isDeflated(tsuid);
+            Attributes dataset = dis.readDataset(-1, deflated ? -1 : Tag.PixelData);
+            overrideTags(dataset, overrideList);
+            if (fmi == null) {
+                fmi = dataset.createFileMetaInformation(tsuid);
+            }
+            dos.writeDataset(fmi, dataset);
+
+            if (dis.tag() == Tag.PixelData && !deflated) {
+                VR vr = dis.vr();
+                int length = dis.length();
+                dos.writeHeader(Tag.PixelData, vr, length);
+                dos.flush();
+                if (length != -1) {
+                    // Native pixel data: the reader can use the header without parsing the file again
+                    buildHeaderReader(target, fmi, dataset, vr, length, fos.getChannel().position());
+                }
+                // Copy the pixel data (and the following attributes) as they arrive
+                byte[] buf = new byte[FileUtil.FILE_BUFFER];
+                int nread;
+                while ((nread = dis.read(buf)) > 0) {
+                    bos.write(buf, 0, nread);
+                }
+            }
+            dos.finish();
+            dos.flush();
+        }
+
+        private void buildHeaderReader(File target, Attributes fmi, Attributes dataset, VR vr, int length,
+            long offset) {
+            Attributes header = new Attributes(dataset);
+            header.setValue(Tag.PixelData, vr, new BulkData(null,
+                target.toURI().toString() + "?offset=" + offset + "&length=" + length, //$NON-NLS-1$ //$NON-NLS-2$
+                dataset.bigEndian()));
+            headerReader = new DicomMediaIO(target, fmi, header);
+            updateParentGroups(headerReader);
+        }
+
+        private void overrideTags(Attributes dataset, int[] overrideList) {
+            if (overrideList != null) {
+                MediaSeriesGroup study = dicomModel.getParent(dicomSeries, DicomModel.study);
+                MediaSeriesGroup patient = dicomModel.getParent(dicomSeries, DicomModel.patient);
+                ElementDictionary dic = ElementDictionary.getStandardElementDictionary();
+
+                for (int tag : overrideList) {
+                    TagW tagElement = patient.getTagElement(tag);
+                    Object value = null;
+                    if (tagElement == null) {
+                        tagElement = study.getTagElement(tag);
+                        value = study.getTagValue(tagElement);
+                    } else {
+                        value = patient.getTagValue(tagElement);
                     }
+
+                    DicomMediaUtils.fillAttributes(dataset, tagElement, value, dic);
                 }
             }
         }
 
-        private void updateUI(final DicomMediaIO reader) {
+        /**
+         * Overrides the group (patient, study and series) by the DICOM fields of the first image, except the UID of the
+         * group.
+         */
+        private void updateParentGroups(DicomMediaIO reader) {
+            if (parentUpdated || !reader.isReadableDicom() || dicomSeries.size(null) != 0) {
+                return;
+            }
+            parentUpdated = true;
+            MediaSeriesGroup patient = dicomModel.getParent(dicomSeries, DicomModel.patient);
+            reader.writeMetaData(patient);
+            MediaSeriesGroup study = dicomModel.getParent(dicomSeries, DicomModel.study);
+            reader.writeMetaData(study);
+            reader.writeMetaData(dicomSeries);
+            GuiExecutor.instance().invokeAndWait(() -> {
+                Thumbnail thumb = (Thumbnail) dicomSeries.getTagValue(TagW.Thumbnail);
+                if (thumb != null) {
+                    thumb.repaint();
+                }
+                dicomModel.firePropertyChange(
+                    new ObservableEvent(ObservableEvent.BasicAction.UDPATE_PARENT, dicomModel, null, dicomSeries));
+            });
+        }
+
+        /**
+         * @return true when the first image of the series has been added
+         */
+        private boolean addMedias(final DicomMediaIO reader) {
             boolean firstImageToDisplay = false;
             MediaElement[] medias = reader.getMediaElement();
             if (medias != null) {
@@ -882,37 +1075,38 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
             if (thumb != null) {
                 thumb.repaint();
             }
+            return firstImageToDisplay;
+        }
 
-            if (firstImageToDisplay) {
-                boolean openNewTab = true;
-                MediaSeriesGroup entry1 = dicomModel.getParent(dicomSeries, DicomModel.patient);
-                if (entry1 != null) {
-                    synchronized (UIManager.VIEWER_PLUGINS) {
-                        for (final ViewerPlugin p : UIManager.VIEWER_PLUGINS) {
-                            if (entry1.equals(p.getGroupID())) {
-                                if (p instanceof ImageViewerPlugin) {
-                                    ViewCanvas pane = ((ImageViewerPlugin) p).getSelectedImagePane();
-                                    if (pane != null && pane.getImageLayer() != null
-                                        && pane.getImageLayer().getSourceImage() == null) {
-                                        // When the selected view has no image send, open in it.
-                                        break;
-                                    }
+        private void openFirstImage() {
+            boolean openNewTab = true;
+            MediaSeriesGroup entry1 = dicomModel.getParent(dicomSeries, DicomModel.patient);
+            if (entry1 != null) {
+                synchronized (UIManager.VIEWER_PLUGINS) {
+                    for (final ViewerPlugin p : UIManager.VIEWER_PLUGINS) {
+                        if (entry1.equals(p.getGroupID())) {
+                            if (p instanceof ImageViewerPlugin) {
+                                ViewCanvas pane = ((ImageViewerPlugin) p).getSelectedImagePane();
+                                if (pane != null && pane.getImageLayer() != null
+                                    && pane.getImageLayer().getSourceImage() == null) {
+                                    // When the selected view has no image send, open in it.
+                                    break;
                                 }
-                                openNewTab = false;
-                                break;
                             }
+                            openNewTab = false;
+                            break;
                         }
                     }
                 }
-                if (openNewTab) {
-                    SeriesViewerFactory plugin = UIManager.getViewerFactory(dicomSeries.getMimeType());
-                    if (plugin != null && !(plugin instanceof MimeSystemAppFactory)) {
-                        ViewerPluginBuilder.openSequenceInPlugin(plugin, dicomSeries, dicomModel, true, true);
-                    } else if (plugin != null) {
-                        // Send event to select the related patient in Dicom Explorer.
-                        dicomModel.firePropertyChange(
-                            new ObservableEvent(ObservableEvent.BasicAction.SELECT, dicomModel, null, dicomSeries));
-                    }
+            }
+            if (openNewTab) {
+                SeriesViewerFactory plugin = UIManager.getViewerFactory(dicomSeries.getMimeType());
+                if (plugin != null && !(plugin instanceof MimeSystemAppFactory)) {
+                    ViewerPluginBuilder.openSequenceInPlugin(plugin, dicomSeries, dicomModel, true, true);
+                } else if (plugin != null) {
+                    // Send event to select the related patient in Dicom Explorer.
+                    dicomModel.firePropertyChange(
+                        new ObservableEvent(ObservableEvent.BasicAction.SELECT, dicomModel, null, dicomSeries));
                 }
             }
         }
@@ -970,6 +1164,7 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
                 // Set the priority to the current loadingSeries and stop a task.
                 p.setPriority(DownloadPriority.COUNTER.getAndDecrement());
                 DownloadManager.offerSeriesInQueue(this);
+                ImageDownloadScheduler.reorder();
                 synchronized (DownloadManager.TASKS) {
                     for (LoadSeries s : DownloadManager.TASKS) {
                         if (s != this && StateValue.STARTED.equals(s.getState())) {
@@ -982,9 +1177,223 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
         }
     }
 
+    @Override
+    public void setFocusedMedia(MediaElement media, Comparator<?> sort) {
+        // Called from the EDT at each scroll: only keep the latest request, it is processed by the download scheduler
+        focusRequest.set(new FocusRequest(media, sort));
+        ImageDownloadScheduler.reorder();
+    }
+
+    /**
+     * Updates the position of the displayed image and the positions of all the images in the order of the viewer. Only
+     * called from the download scheduler before sorting again the pending downloads.
+     */
+    void updateFocus() {
+        FocusRequest request = focusRequest.getAndSet(null);
+        if (request == null) {
+            return;
+        }
+        if (request.media == null) {
+            // Not displayed anymore, go back to the default order
+            focusPosition = -1;
+            focusDirection = 1;
+            return;
+        }
+        String sopUID = TagD.getTagValue(request.media, Tag.SOPInstanceUID, String.class);
+        Integer index = sopUID == null ? null : sopPositions.get(sopUID);
+        if (index == null) {
+            return;
+        }
+        updateViewPositions(request.sort);
+        int[] positions = viewPositions;
+        int position = positions == null ? index : positions[index];
+        if (position != focusPosition) {
+            if (focusPosition >= 0) {
+                focusDirection = position > focusPosition ? 1 : -1;
+            }
+            focusPosition = position;
+        }
+    }
+
+    /**
+     * Computes the positions of the images in the order of the viewer. The images not yet downloaded are placed between
+     * their downloaded neighbors in the instance number order.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void updateViewPositions(Comparator<?> sort) {
+        Map<String, Integer> sopMap = sopPositions;
+        int count = dicomSeries.size(null);
+        if (sort == positionSort && count == positionCount && sopMap == positionMap) {
+            return;
+        }
+        positionSort = sort;
+        positionCount = count;
+        positionMap = sopMap;
+        int size = sopMap.size();
+        if (sort == null || size == 0) {
+            viewPositions = null;
+            return;
+        }
+
+        List<? extends MediaElement> medias = ((Series) dicomSeries).copyOfMedias(null, (Comparator) sort);
+
+        double[] keys = new double[size];
+        Arrays.fill(keys, Double.NaN);
+        int firstKnown = -1;
+        int lastKnown = -1;
+        for (int i = 0; i < medias.size(); i++) {
+            String uid = TagD.getTagValue(medias.get(i), Tag.SOPInstanceUID, String.class);
+            Integer index = uid == null ? null : sopMap.get(uid);
+            if (index != null && index < size && Double.isNaN(keys[index])) {
+                keys[index] = i;
+                firstKnown = firstKnown < 0 ? index : Math.min(firstKnown, index);
+                lastKnown = Math.max(lastKnown, index);
+            }
+        }
+        if (firstKnown < 0) {
+            viewPositions = null;
+            return;
+        }
+        // Inverted stack or sorting in the reverse order of the instance number
+        double slope = keys[lastKnown] < keys[firstKnown] ? -1.0 : 1.0;
+        int prev = -1;
+        for (int i = 0; i < size; i++) {
+            if (!Double.isNaN(keys[i])) {
+                prev = i;
+                continue;
+            }
+            int next = i + 1;
+            while (next < size && Double.isNaN(keys[next])) {
+                next++;
+            }
+            if (prev >= 0 && next < size) {
+                keys[i] = keys[prev] + (keys[next] - keys[prev]) * (i - prev) / (next - prev);
+            } else if (prev >= 0) {
+                keys[i] = keys[prev] + slope * (i - prev);
+            } else {
+                keys[i] = keys[next] - slope * (next - i);
+            }
+        }
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (o1, o2) -> Double.compare(keys[o1], keys[o2]));
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[order[i]] = i;
+        }
+        viewPositions = positions;
+    }
+
+    /**
+     * @param order
+     *            the index in the default download order (from coarse to fine)
+     * @param index
+     *            the index in the list of images sorted by instance number
+     * @return the rank in the download order, the images are ordered by distance to the displayed image in the order of
+     *         the viewer (those in the scroll direction are favored) or in the default order when the series is not
+     *         displayed
+     */
+    int getDownloadRank(int order, int index) {
+        int focus = focusPosition;
+        if (focus < 0) {
+            return order;
+        }
+        int[] positions = viewPositions;
+        int position = positions == null || index >= positions.length ? index : positions[index];
+        int distance = position - focus;
+        return distance * focusDirection >= 0 ? Math.abs(distance) : 2 * Math.abs(distance);
+    }
+
+    private static boolean isDeflated(String tsuid) {
+        return tsuid.startsWith(UID.DeflatedExplicitVRLittleEndian) || UID.JPIPReferencedDeflate.equals(tsuid);
+    }
+
+    /**
+     * @return true when the stream begins with the preamble and the DICOM prefix of a file
+     */
+    private static boolean hasFileMetaInformation(InputStream in) throws IOException {
+        byte[] b = new byte[132];
+        in.mark(b.length);
+        try {
+            int n = 0;
+            int nread;
+            while (n < b.length && (nread = in.read(b, n, b.length - n)) > 0) {
+                n += nread;
+            }
+            return n == b.length && b[128] == 'D' && b[129] == 'I' && b[130] == 'C' && b[131] == 'M';
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Input stream writing the bytes read in an output stream.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                out.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                out.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Read the skipped bytes to write them
+            byte[] buf = new byte[(int) Math.min(n, FileUtil.FILE_BUFFER)];
+            long remaining = n;
+            int nread;
+            while (remaining > 0 && (nread = read(buf, 0, (int) Math.min(remaining, buf.length))) > 0) {
+                remaining -= nread;
+            }
+            return n - remaining;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // Bytes read again after a reset would be written twice
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // Both streams are closed by the caller
+        }
+    }
+
+    private static final class FocusRequest {
+        private final MediaElement media;
+        private final Comparator<?> sort;
+
+        FocusRequest(MediaElement media, Comparator<?> sort) {
+            this.media = media;
+            this.sort = sort;
+        }
+    }
+
     public LoadSeries cancelAndReplace(LoadSeries s) {
-        LoadSeries taskResume = new LoadSeries(s.getDicomSeries(), dicomModel, s.getProgressBar(),
-            s.getConcurrentDownloads(), s.writeInCache);
+        LoadSeries taskResume = new LoadSeries(s.getDicomSeries(), dicomModel, s.getProgressBar(), s.writeInCache);
         s.cancel();
         taskResume.setPriority(s.getPriority());
         Thumbnail thumbnail = (Thumbnail) s.getDicomSeries().getTagValue(TagW.Thumbnail);
@@ -998,8 +1407,4 @@ public class LoadSeries extends ExplorerTask<Boolean, String> implements SeriesI
         return taskResume;
     }
 
-    public int getConcurrentDownloads() {
-        return concurrentDownloads;
-    }
-
 }
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.dcm4che3.data.Tag;
+import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
+import org.weasis.core.api.media.data.MediaSeries;
+import org.weasis.core.api.media.data.Series;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.dicom.codec.DicomImageElement;
+import org.weasis.dicom.codec.TagD;
+
+/**
+ * Read-ahead of the images of a stack according to the scroll direction and speed of a view.
+ * <p>
+ * Each time the displayed image changes, the images ahead are submitted to the image loader with the prefetch priority
+ * (the closest first) and the requests that are not relevant anymore are cancelled. The images already loaded are left
+ * to the eviction of the cache, they are only released when far behind and when the cache is almost full. The number
+ * of images ahead is proportional to the scroll speed and limited by a memory budget.
+ */
+public class StackPrefetcher {
+
+    // Time in seconds covered by the read-ahead
+    private static final double LOOKAHEAD_TIME =
+        BundleTools.SYSTEM_PREFERENCES.getDoubleProperty("weasis.prefetch.lookahead.time", 1.0); //$NON-NLS-1$
+    // Proportion of the image cache that can be used by the read-ahead of one view
+    private static final double MEMORY_RATIO =
+        BundleTools.SYSTEM_PREFERENCES.getDoubleProperty("weasis.prefetch.memory.ratio", 0.15); //$NON-NLS-1$
+    private static final int MIN_AHEAD = 3;
+    private static final int MAX_AHEAD = 128;
+    // Number of images kept behind relative to the number of images ahead, going back must not reload the stack
+    private static final int BEHIND_RATIO =
+        BundleTools.SYSTEM_PREFERENCES.getIntProperty("weasis.prefetch.behind.ratio", 4); //$NON-NLS-1$
+    private static final int MIN_BEHIND = 32;
+    // Proportion of the image cache above which the images prefetched far behind are released
+    private static final double MEMORY_PRESSURE = 0.9;
+    // Reset the speed when the delay between two images is longer
+    private static final long IDLE_TIME_MS = 1000;
+
+    private final Set<DicomImageElement> prefetched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private MediaSeries<DicomImageElement> series;
+    private Filter<DicomImageElement> filter;
+    private Comparator<DicomImageElement> sort;
+    private int seriesSize = -1;
+    private List<DicomImageElement> stack = Collections.emptyList();
+    // Number of images on each side of the displayed image covered by the last update
+    private int span;
+
+    private int lastIndex = -1;
+    private long lastTime;
+    private int direction = 1;
+    // Smoothed speed in images per second
+    private double speed;
+
+    /**
+     * Updates the read-ahead when a new image is displayed. Must be called from the EDT.
+     *
+     * @param series
+     *            the series of the view
+     * @param image
+     *            the displayed image
+     * @param index
+     *            the index of the displayed image in the series, with the filter and the sort comparator of the view
+     * @param filter
+     *            the filter of the view
+     * @param sort
+     *            the sort comparator of the view
+     * @param loop
+     *            true when the scrolling goes back to the first image after the last one (cine)
+     */
+    public void update(MediaSeries<DicomImageElement> series, DicomImageElement image, int index,
+        Filter<DicomImageElement> filter, Comparator<DicomImageElement> sort, boolean loop) {
+        if (!(series instanceof Series) || image == null || index < 0) {
+            stop();
+            return;
+        }
+        List<DicomImageElement> list = getStack(series, image, index, filter, sort);
+        if (index >= list.size() || list.get(index) != image) {
+            // The series has changed since the view got the index
+            return;
+        }
+        updateSpeed(index, list.size(), loop);
+
+        int ahead = getAheadNumber(image, list.size());
+        int behind = Math.min(Math.max(MIN_BEHIND, ahead * BEHIND_RATIO), list.size() - 1);
+        span = Math.max(ahead, behind);
+
+        // Images to keep: the ones ahead and the ones behind to allow going back
+        Set<DicomImageElement> window = new HashSet<>();
+        DicomImageElement[] toLoad = new DicomImageElement[ahead];
+        for (int i = 1; i <= ahead; i++) {
+            DicomImageElement img = getImage(list, index + i * direction, loop);
+            if (img == null) {
+                break;
+            }
+            window.add(img);
+            toLoad[i - 1] = img;
+        }
+        for (int i = 1; i <= behind; i++) {
+            DicomImageElement img = getImage(list, index - i * direction, loop);
+            if (img == null) {
+                break;
+            }
+            window.add(img);
+        }
+        window.add(image);
+
+        releaseOutside(window);
+
+        // Submit the closest first, the requests of the same priority are executed in submission order
+        for (DicomImageElement img : toLoad) {
+            if (img == null) {
+                break;
+            }
+            if (img.isReadable() && img.preloadImage(Priority.PREFETCH) != null) {
+                prefetched.add(img);
+            }
+        }
+    }
+
+    /**
+     * Cancels all the pending requests and releases the prefetched images that are not displayed when the cache is
+     * almost full.
+     */
+    public void stop() {
+        releaseOutside(Collections.<DicomImageElement> emptySet());
+        series = null;
+        filter = null;
+        sort = null;
+        seriesSize = -1;
+        stack = Collections.emptyList();
+        span = 0;
+        lastIndex = -1;
+        speed = 0.0;
+    }
+
+    private void releaseOutside(Set<DicomImageElement> window) {
+        boolean memoryPressure =
+            ImageElement.getCacheMemoryUsed() > ImageElement.getCacheMemoryLimit() * MEMORY_PRESSURE;
+        Iterator<DicomImageElement> it = prefetched.iterator();
+        while (it.hasNext()) {
+            DicomImageElement img = it.next();
+            if (!window.contains(img)) {
+                it.remove();
+                // Cancel the request when still waiting otherwise let the cache evict the image when needed
+                if (!img.cancelImageLoading() && memoryPressure && !img.isImagePinned()) {
+                    img.removeImageFromCache();
+                }
+            }
+        }
+    }
+
+    private List<DicomImageElement> getStack(MediaSeries<DicomImageElement> s, DicomImageElement image, int index,
+        Filter<DicomImageElement> f, Comparator<DicomImageElement> c) {
+        // The size changes while downloading
+        int size = s.size(null);
+        if (s != series || f != filter || c != sort || (size != seriesSize && needsNewImages(image, index))) {
+            if (s != series) {
+                stop();
+            }
+            this.series = s;
+            this.filter = f;
+            this.sort = c;
+            this.seriesSize = size;
+            this.stack = s.copyOfMedias(f, c);
+        }
+        return stack;
+    }
+
+    /**
+     * While downloading, the copy of the stack is kept as long as the displayed image has the same position and the
+     * images around it do not reach the ends of the copy. The new images inserted inside the window are taken at the
+     * next copy.
+     */
+    private boolean needsNewImages(DicomImageElement image, int index) {
+        List<DicomImageElement> list = stack;
+        return index >= list.size() || list.get(index) != image || index - span < 0 || index + span >= list.size();
+    }
+
+    private void updateSpeed(int index, int size, boolean loop) {
+        long time = System.currentTimeMillis();
+        if (lastIndex >= 0) {
+            int delta = index - lastIndex;
+            if (loop && Math.abs(delta) > size / 2) {
+                // Looping from the last to the first image or inversely
+                delta = delta > 0 ? delta - size : delta + size;
+            }
+            long elapsed = time - lastTime;
+            if (delta != 0) {
+                int dir = delta > 0 ? 1 : -1;
+                double instantSpeed = Math.abs(delta) * 1000.0 / Math.max(1L, elapsed);
+                if (dir != direction || elapsed > IDLE_TIME_MS) {
+                    speed = dir != direction ? 0.0 : Math.abs(delta);
+                    direction = dir;
+                } else {
+                    speed = speed * 0.5 + instantSpeed * 0.5;
+                }
+            }
+        }
+        lastIndex = index;
+        lastTime = time;
+    }
+
+    private int getAheadNumber(DicomImageElement image, int size) {
+        int ahead = Math.max(MIN_AHEAD, (int) Math.ceil(speed * LOOKAHEAD_TIME));
+        long imageSize = evaluateImageSize(image);
+        if (imageSize > 0) {
+            long budget = (long) (ImageElement.getCacheMemoryLimit() * MEMORY_RATIO);
+            ahead = (int) Math.min(ahead, Math.max(1L, budget / imageSize));
+        }
+        return Math.min(Math.min(ahead, MAX_AHEAD), size - 1);
+    }
+
+    private static DicomImageElement getImage(List<DicomImageElement> list, int index, boolean loop) {
+        int size = list.size();
+        int i = index;
+        if (loop && size > 0) {
+            i = ((index % size) + size) % size;
+        }
+        return i >= 0 && i < size ? list.get(i) : null;
+    }
+
+    private static long evaluateImageSize(DicomImageElement image) {
+        Integer allocated = TagD.getTagValue(image, Tag.BitsAllocated, Integer.class);
+        Integer sample = TagD.getTagValue(image, Tag.SamplesPerPixel, Integer.class);
+        Integer rows = TagD.getTagValue(image, Tag.Rows, Integer.class);
+        Integer columns = TagD.getTagValue(image, Tag.Columns, Integer.class);
+        if (allocated != null && sample != null && rows != null && columns != null) {
+            return ((long) rows * columns * sample * allocated) / 8L;
+        }
+        return 0L;
+    }
+}
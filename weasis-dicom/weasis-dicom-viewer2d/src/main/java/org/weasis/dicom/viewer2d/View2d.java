@@ -13,8 +13,10 @@ package org.weasis.dicom.viewer2d;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
+import java.awt.GridLayout;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.event.ActionListener;
@@ -29,8 +31,11 @@ import java.beans.PropertyChangeEvent;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
@@ -39,12 +44,16 @@ import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JSeparator;
+import javax.swing.JSpinner;
 import javax.swing.KeyStroke;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.TransferHandler;
 import javax.vecmath.Point3d;
 import javax.vecmath.Tuple3d;
@@ -56,13 +65,18 @@ import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.DataExplorerView;
 import org.weasis.core.api.explorer.model.DataExplorerModel;
 import org.weasis.core.api.explorer.model.TreeModel;
+import org.weasis.core.api.gui.task.TaskInterruptionException;
+import org.weasis.core.api.gui.task.TaskMonitor;
 import org.weasis.core.api.gui.util.ActionState;
 import org.weasis.core.api.gui.util.ActionW;
 import org.weasis.core.api.gui.util.ComboItemListener;
+import org.weasis.core.api.gui.util.DecFormater;
 import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.gui.util.GuiExecutor;
 import org.weasis.core.api.gui.util.JMVUtils;
 import org.weasis.core.api.gui.util.MathUtil;
 import org.weasis.core.api.gui.util.MouseActionAdapter;
+import org.weasis.core.api.gui.util.SliderCineListener;
 import org.weasis.core.api.image.AffineTransformOp;
 import org.weasis.core.api.image.FilterOp;
 import org.weasis.core.api.image.ImageOpEvent;
@@ -75,6 +89,7 @@ import org.weasis.core.api.image.util.ImageLayer;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.Series;
+import org.weasis.core.api.media.data.SeriesComparator;
 import org.weasis.core.api.media.data.SeriesThumbnail;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.service.AuditLog;
@@ -100,8 +115,10 @@ import org.weasis.core.ui.editor.image.ViewCanvas;
 import org.weasis.core.ui.editor.image.ViewerPlugin;
 import org.weasis.core.ui.editor.image.ViewerToolBar;
 import org.weasis.core.ui.model.AbstractGraphicModel;
+import org.weasis.core.ui.model.GraphicModel;
 import org.weasis.core.ui.model.graphic.DragGraphic;
 import org.weasis.core.ui.model.graphic.Graphic;
+import org.weasis.core.ui.model.graphic.GraphicArea;
 import org.weasis.core.ui.model.graphic.imp.area.PolygonGraphic;
 import org.weasis.core.ui.model.graphic.imp.area.RectangleGraphic;
 import org.weasis.core.ui.model.graphic.imp.line.LineGraphic;
@@ -156,6 +173,7 @@ public class View2d extends DefaultView2d<DicomImageElement> {
     private final ContextMenuHandler contextMenuHandler = new ContextMenuHandler();
 
     protected final KOViewButton koStarButton;
+    private final StackPrefetcher prefetcher = new StackPrefetcher();
 
     public View2d(ImageViewerEventManager<DicomImageElement> eventManager) {
         super(eventManager);
@@ -648,6 +666,26 @@ public class View2d extends DefaultView2d<DicomImageElement> {
             updatePrButtonState(img);
             updateKOselectedState(img);
         }
+        updatePrefetching(img);
+    }
+
+    private void updatePrefetching(DicomImageElement img) {
+        if (img == null || series == null) {
+            prefetcher.stop();
+        } else {
+            ActionState cineAction = eventManager.getAction(ActionW.SCROLL_SERIES);
+            boolean loop = eventManager.getSelectedViewPane() == this && cineAction instanceof SliderCineListener
+                && ((SliderCineListener) cineAction).isCining();
+            Filter<DicomImageElement> filter =
+                (Filter<DicomImageElement>) actionsInView.get(ActionW.FILTERED_SERIES.cmd());
+            prefetcher.update(series, img, getFrameIndex(), filter, getCurrentSortComparator(), loop);
+        }
+    }
+
+    @Override
+    public void disposeView() {
+        prefetcher.stop();
+        super.disposeView();
     }
 
     private void deletePrLayers() {
@@ -1137,6 +1175,15 @@ public class View2d extends DefaultView2d<DicomImageElement> {
                     popupMenu.add(calibMenu);
                     popupMenu.add(new JSeparator());
                 }
+
+                DicomImageElement img = getImage();
+                if (graphicComplete && graph instanceof GraphicArea && img != null
+                    && img.isPhotometricInterpretationMonochrome() && series != null && series.size(null) > 1) {
+                    final JMenuItem volMenu = new JMenuItem(Messages.getString("View2d.vol_stats")); //$NON-NLS-1$
+                    volMenu.addActionListener(e -> computeVolumeStatistics(graph));
+                    popupMenu.add(volMenu);
+                    popupMenu.add(new JSeparator());
+                }
             }
 
             if (!list.isEmpty()) {
@@ -1153,6 +1200,141 @@ public class View2d extends DefaultView2d<DicomImageElement> {
         return null;
     }
 
+    /**
+     * Computes the statistics of the ROI across a range of slices. The graphics of the same type drawn on the other
+     * slices are the key ROIs, the ROI of the slices between them is interpolated.
+     */
+    private void computeVolumeStatistics(final Graphic graph) {
+        final MediaSeries<DicomImageElement> ser = series;
+        DicomImageElement curImg = getImage();
+        if (ser == null || curImg == null) {
+            return;
+        }
+        SeriesComparator sort = (SeriesComparator) getActionValue(ActionW.SORTSTACK.cmd());
+        Boolean reverse = (Boolean) getActionValue(ActionW.INVERSESTACK.cmd());
+        Comparator sortFilter = (reverse != null && reverse) ? sort.getReversOrderComparator() : sort;
+        Filter filter = (Filter) getActionValue(ActionW.FILTERED_SERIES.cmd());
+        final List<DicomImageElement> medias = ser.copyOfMedias(filter, sortFilter);
+        int curIndex = medias.indexOf(curImg);
+        if (curIndex < 0) {
+            return;
+        }
+
+        final Map<Integer, Shape> keyRois = new HashMap<>();
+        keyRois.put(curIndex, graph.getShape());
+        Rectangle2D bounds = graph.getShape().getBounds2D();
+        for (int i = 0; i < medias.size(); i++) {
+            GraphicModel model = i == curIndex ? null
+                : (GraphicModel) medias.get(i).getTagValue(TagW.PresentationModel);
+            if (model == null) {
+                continue;
+            }
+            // When there are several graphics of the same type, take the closest one
+            Shape roi = null;
+            double distance = Double.MAX_VALUE;
+            for (Graphic g : model.getModels()) {
+                if (g.getClass() == graph.getClass() && g.getShape() != null
+                    && LangUtil.getNULLtoFalse(g.isGraphicComplete())) {
+                    Rectangle2D b = g.getShape().getBounds2D();
+                    double d = Point2D.distance(b.getCenterX(), b.getCenterY(), bounds.getCenterX(),
+                        bounds.getCenterY());
+                    if (d < distance) {
+                        distance = d;
+                        roi = g.getShape();
+                    }
+                }
+            }
+            if (roi != null) {
+                keyRois.put(i, roi);
+            }
+        }
+
+        int first = keyRois.size() > 1 ? Collections.min(keyRois.keySet()) : 0;
+        int last = keyRois.size() > 1 ? Collections.max(keyRois.keySet()) : medias.size() - 1;
+        JSpinner firstSpinner = new JSpinner(new SpinnerNumberModel(first + 1, 1, medias.size(), 1));
+        JSpinner lastSpinner = new JSpinner(new SpinnerNumberModel(last + 1, 1, medias.size(), 1));
+        JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
+        panel.add(new JLabel(Messages.getString("View2d.vol_first") + StringUtil.COLON)); //$NON-NLS-1$
+        panel.add(firstSpinner);
+        panel.add(new JLabel(Messages.getString("View2d.vol_last") + StringUtil.COLON)); //$NON-NLS-1$
+        panel.add(lastSpinner);
+
+        ColorLayerUI layer = ColorLayerUI.createTransparentLayerUI(View2d.this);
+        int res = JOptionPane.showConfirmDialog(ColorLayerUI.getContentPane(layer), panel,
+            Messages.getString("View2d.vol_stats"), JOptionPane.OK_CANCEL_OPTION); //$NON-NLS-1$
+        if (layer != null) {
+            layer.hideUI();
+        }
+        if (res != JOptionPane.OK_OPTION) {
+            return;
+        }
+        final int start = Math.min((Integer) firstSpinner.getValue(), (Integer) lastSpinner.getValue()) - 1;
+        final int end = Math.max((Integer) firstSpinner.getValue(), (Integer) lastSpinner.getValue()) - 1;
+
+        final TaskMonitor taskMonitor = new TaskMonitor(this, Messages.getString("MipView.monitoring_proc"), //$NON-NLS-1$
+            Messages.getString("MipView.init"), 0, end - start + 1); //$NON-NLS-1$
+        Runnable runnable = () -> {
+            VolumeStatistics.Result result = null;
+            try {
+                taskMonitor.setMillisToPopup(1250);
+                result = new VolumeStatistics(medias, keyRois, taskMonitor).compute(start, end);
+            } catch (TaskInterruptionException e) {
+                LOGGER.info(e.getMessage());
+            } catch (Throwable t) {
+                AuditLog.logError(LOGGER, t, "Volume statistics error"); //$NON-NLS-1$
+            } finally {
+                final VolumeStatistics.Result stats = result;
+                GuiExecutor.instance().execute(() -> {
+                    taskMonitor.close();
+                    if (stats != null) {
+                        JOptionPane.showMessageDialog(View2d.this, getVolumeStatisticsText(stats, curImg),
+                            Messages.getString("View2d.vol_stats"), JOptionPane.INFORMATION_MESSAGE); //$NON-NLS-1$
+                    }
+                });
+            }
+        };
+        Thread process = new Thread(runnable, Messages.getString("View2d.vol_build")); //$NON-NLS-1$
+        process.start();
+    }
+
+    private static String getVolumeStatisticsText(VolumeStatistics.Result stats, DicomImageElement img) {
+        String unit = img.getPixelValueUnit();
+        String valUnit = unit == null ? "" : " " + unit; //$NON-NLS-1$ //$NON-NLS-2$
+        StringBuilder buf = new StringBuilder();
+        buf.append(Messages.getString("View2d.vol_slices")); //$NON-NLS-1$
+        buf.append(StringUtil.COLON_AND_SPACE);
+        buf.append(stats.getNbSlices());
+        buf.append('\n');
+        buf.append(Messages.getString("View2d.vol_voxels")); //$NON-NLS-1$
+        buf.append(StringUtil.COLON_AND_SPACE);
+        buf.append(stats.getCount());
+        buf.append('\n');
+        if (!Double.isNaN(stats.getVolume())) {
+            buf.append(Messages.getString("View2d.vol_volume")); //$NON-NLS-1$
+            buf.append(StringUtil.COLON_AND_SPACE);
+            buf.append(DecFormater.twoDecimal(stats.getVolume()));
+            buf.append(' ');
+            buf.append(stats.getUnit().getAbbreviation());
+            buf.append("3\n"); //$NON-NLS-1$
+        }
+        if (stats.getCount() > 0) {
+            appendValue(buf, Messages.getString("View2d.vol_min"), stats.getMin(), valUnit); //$NON-NLS-1$
+            appendValue(buf, Messages.getString("View2d.vol_max"), stats.getMax(), valUnit); //$NON-NLS-1$
+            appendValue(buf, Messages.getString("View2d.vol_mean"), stats.getMean(), valUnit); //$NON-NLS-1$
+            appendValue(buf, Messages.getString("View2d.vol_median"), stats.getMedian(), valUnit); //$NON-NLS-1$
+            appendValue(buf, Messages.getString("View2d.vol_std"), stats.getStandardDeviation(), valUnit); //$NON-NLS-1$
+        }
+        return buf.toString();
+    }
+
+    private static void appendValue(StringBuilder buf, String name, double value, String unit) {
+        buf.append(name);
+        buf.append(StringUtil.COLON_AND_SPACE);
+        buf.append(DecFormater.twoDecimal(value));
+        buf.append(unit);
+        buf.append('\n');
+    }
+
     protected JPopupMenu buildContexMenu(final MouseEvent evt) {
         JPopupMenu popupMenu = new JPopupMenu();
         TitleMenuItem itemTitle =
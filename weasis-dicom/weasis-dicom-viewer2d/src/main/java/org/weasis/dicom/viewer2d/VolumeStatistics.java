@@ -0,0 +1,619 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Tag;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.weasis.core.api.gui.task.TaskInterruptionException;
+import org.weasis.core.api.gui.task.TaskMonitor;
+import org.weasis.core.api.gui.util.GuiExecutor;
+import org.weasis.core.api.gui.util.MathUtil;
+import org.weasis.core.api.image.util.RoiStatisticsTable;
+import org.weasis.core.api.image.util.Unit;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
+import org.weasis.core.api.media.data.TagW;
+import org.weasis.core.api.util.StringUtil;
+import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.dicom.codec.DicomImageElement;
+import org.weasis.dicom.codec.TagD;
+import org.weasis.opencv.data.LookupTableCV;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Statistics of a ROI applied to a range of slices. The ROI of a slice is either a key ROI drawn on this slice or the
+ * linear interpolation of the contours of the nearest key ROIs (the first and the last key ROIs are repeated outside
+ * of their range).
+ * <p>
+ * The slices are processed in parallel and each image is only read through the cache, so the memory does not depend
+ * on the number of slices. Like the statistics of a single ROI, the pixel padding values are excluded and the values
+ * are converted by the modality LUT (the Modality LUT Sequence or the rescale slope and intercept).
+ */
+final class VolumeStatistics {
+    /** Number of points of the resampled contours to interpolate */
+    private static final int NB_CONTOUR_POINTS = 128;
+    /** Above this number, the width of the bins of the histogram is doubled */
+    private static final int MAX_BINS = 1 << 18;
+
+    private final List<DicomImageElement> slices;
+    private final NavigableMap<Integer, Shape> keyRois;
+    private final TaskMonitor taskMonitor;
+    private final Map<Integer, double[]> contours = new ConcurrentHashMap<>();
+    private final AtomicInteger done = new AtomicInteger();
+
+    /**
+     * @param slices
+     *            the sorted images of the stack
+     * @param keyRois
+     *            the ROIs by index of slice, in the coordinates of the displayed image
+     * @param taskMonitor
+     *            the monitor for the progress and the cancellation, can be null
+     */
+    VolumeStatistics(List<DicomImageElement> slices, Map<Integer, Shape> keyRois, TaskMonitor taskMonitor) {
+        this.slices = Objects.requireNonNull(slices);
+        this.keyRois = new TreeMap<>(keyRois);
+        this.taskMonitor = taskMonitor;
+        if (this.keyRois.isEmpty()) {
+            throw new IllegalArgumentException("At least one ROI is required"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Computes the statistics of the slices from first to last (included).
+     */
+    Result compute(int first, int last) throws IOException {
+        int start = Math.max(0, first);
+        int end = Math.min(slices.size() - 1, last);
+        if (start > end) {
+            throw new IllegalArgumentException("Invalid range of slices"); //$NON-NLS-1$
+        }
+        done.set(0);
+        double binWidth = getBinWidth(slices.get(start));
+
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(1, (end - start + nbThreads) / nbThreads);
+        List<Callable<Accumulator>> tasks = new ArrayList<>();
+        for (int i = start; i <= end; i += chunk) {
+            final int from = i;
+            final int to = Math.min(end, i + chunk - 1);
+            tasks.add(() -> {
+                Accumulator acc = new Accumulator(binWidth);
+                for (int k = from; k <= to; k++) {
+                    checkAborting();
+                    addSlice(k, acc);
+                    updateProgress(done.incrementAndGet());
+                }
+                return acc;
+            });
+        }
+
+        Accumulator total = new Accumulator(binWidth);
+        ExecutorService executor = ThreadUtil
+            .buildNewFixedThreadExecutor(Math.max(1, Math.min(tasks.size(), nbThreads)), "Volume Statistics"); //$NON-NLS-1$
+        try {
+            for (Future<Accumulator> f : executor.invokeAll(tasks)) {
+                total.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskInterruptionException("Volume statistics have been canceled!"); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Result(total, getVoxelVolume(start, end), slices.get(start).getPixelSpacingUnit(), end - start + 1);
+    }
+
+    private void checkAborting() {
+        if (taskMonitor != null && taskMonitor.isAborting()) {
+            throw new TaskInterruptionException("Volume statistics have been canceled!"); //$NON-NLS-1$
+        }
+    }
+
+    private void updateProgress(int progress) {
+        if (taskMonitor == null) {
+            return;
+        }
+        GuiExecutor.instance().execute(() -> {
+            taskMonitor.setProgress(progress);
+            StringBuilder buf = new StringBuilder(Messages.getString("SeriesBuilder.image")); //$NON-NLS-1$
+            buf.append(StringUtil.COLON_AND_SPACE);
+            buf.append(progress);
+            buf.append("/"); //$NON-NLS-1$
+            buf.append(taskMonitor.getMaximum());
+            taskMonitor.setNote(buf.toString());
+        });
+    }
+
+    private void addSlice(int index, Accumulator acc) throws IOException {
+        DicomImageElement dcm = slices.get(index);
+        Shape roi = getRoi(index);
+        if (roi == null) {
+            return;
+        }
+        // The displayed image is rescaled when the pixels are not square
+        double rx = dcm.getRescaleX();
+        double ry = dcm.getRescaleY();
+        if (MathUtil.isDifferent(rx, 1.0) || MathUtil.isDifferent(ry, 1.0)) {
+            roi = AffineTransform.getScaleInstance(1.0 / rx, 1.0 / ry).createTransformedShape(roi);
+        }
+
+        PlanarImage img = dcm.getImage(null, false, Priority.BATCH);
+        if (img == null) {
+            throw new IOException("Cannot read an image!"); //$NON-NLS-1$
+        }
+        if (img.channels() != 1) {
+            throw new IOException("Only the single channel images are supported!"); //$NON-NLS-1$
+        }
+        int[] spans = RoiStatisticsTable.getSpans(roi, img.width(), img.height());
+        if (spans.length == 0) {
+            return;
+        }
+        int y0 = spans[0];
+        int y1 = spans[spans.length - 3];
+        int width = img.width();
+        float[] pixels = new float[(y1 - y0 + 1) * width];
+        Mat rows = img.toMat().rowRange(y0, y1 + 1);
+        Mat mat = new Mat();
+        rows.convertTo(mat, CvType.CV_32F);
+        mat.get(0, 0, pixels);
+        mat.release();
+        rows.release();
+
+        Integer paddingValue = dcm.getPaddingValue();
+        double padMin = Double.NaN;
+        double padMax = Double.NaN;
+        if (paddingValue != null) {
+            Integer paddingLimit = dcm.getPaddingLimit();
+            int limit = paddingLimit == null ? paddingValue : paddingLimit;
+            padMin = Math.min(paddingValue, limit);
+            padMax = Math.max(paddingValue, limit);
+        }
+        LookupTableCV mLUT = getModalityLutSequence(dcm);
+        double slope = dcm.getRescaleSlope(null);
+        double intercept = dcm.getRescaleIntercept(null);
+
+        for (int i = 0; i < spans.length; i += 3) {
+            int offset = (spans[i] - y0) * width;
+            for (int x = spans[i + 1]; x <= spans[i + 2]; x++) {
+                float v = pixels[offset + x];
+                if (paddingValue != null && v >= padMin && v <= padMax) {
+                    continue;
+                }
+                double val;
+                if (mLUT != null) {
+                    int p = (int) v;
+                    val = p >= mLUT.getOffset() && p < mLUT.getOffset() + mLUT.getNumEntries() ? mLUT.lookup(0, p) : v;
+                } else {
+                    val = v * slope + intercept;
+                }
+                acc.add(val);
+            }
+        }
+    }
+
+    private static LookupTableCV getModalityLutSequence(DicomImageElement dcm) {
+        Object lut = dcm.getTagValue(TagW.ModalityLUTData);
+        if (lut instanceof LookupTableCV && ((LookupTableCV) lut).getNumBands() == 1) {
+            return (LookupTableCV) lut;
+        }
+        return null;
+    }
+
+    /**
+     * @return one bin by stored value when possible
+     */
+    private static double getBinWidth(DicomImageElement dcm) {
+        if (getModalityLutSequence(dcm) != null) {
+            return 1.0;
+        }
+        double slope = Math.abs(dcm.getRescaleSlope(null));
+        return slope > 0.0 ? slope : 1.0;
+    }
+
+    /**
+     * @return the volume of a voxel in the pixel spacing unit, or NaN when the pixels have no spatial calibration
+     */
+    private double getVoxelVolume(int start, int end) {
+        DicomImageElement dcm = slices.get(start);
+        if (Unit.PIXEL == dcm.getPixelSpacingUnit()) {
+            return Double.NaN;
+        }
+        double spacing = Double.NaN;
+        double[] p1 = (double[]) dcm.getTagValue(TagW.SlicePosition);
+        double[] p2 = (double[]) slices.get(end).getTagValue(TagW.SlicePosition);
+        if (end > start && p1 != null && p2 != null) {
+            spacing = Math.abs((p2[0] + p2[1] + p2[2]) - (p1[0] + p1[1] + p1[2])) / (end - start);
+        }
+        if (!(spacing > 0.0)) {
+            Double thickness = TagD.getTagValue(dcm, Tag.SliceThickness, Double.class);
+            spacing = thickness == null ? Double.NaN : thickness;
+        }
+        double pixelSize = dcm.getPixelSize();
+        return pixelSize * dcm.getRescaleX() * pixelSize * dcm.getRescaleY() * spacing;
+    }
+
+    /**
+     * @return the ROI of the slice in the coordinates of the displayed image
+     */
+    Shape getRoi(int index) {
+        Map.Entry<Integer, Shape> before = keyRois.floorEntry(index);
+        Map.Entry<Integer, Shape> after = keyRois.ceilingEntry(index);
+        if (before == null) {
+            return after.getValue();
+        }
+        if (after == null || before.getKey().equals(after.getKey())) {
+            return before.getValue();
+        }
+        double[] c1 = contours.computeIfAbsent(before.getKey(), k -> getContour(keyRois.get(k)));
+        double[] c2 = contours.computeIfAbsent(after.getKey(), k -> getContour(keyRois.get(k)));
+        if (c1 == null || c2 == null) {
+            // Cannot interpolate an empty shape
+            return index - before.getKey() <= after.getKey() - index ? before.getValue() : after.getValue();
+        }
+        double t = (index - before.getKey()) / (double) (after.getKey() - before.getKey());
+        return interpolate(c1, c2, t);
+    }
+
+    /**
+     * @return the interpolated closed polygon between two contours of the same number of points
+     */
+    static Shape interpolate(double[] c1, double[] c2, double t) {
+        double[] b = align(c1, c2);
+        Path2D path = new Path2D.Double();
+        for (int i = 0; i < c1.length; i += 2) {
+            double x = c1[i] + t * (b[i] - c1[i]);
+            double y = c1[i + 1] + t * (b[i + 1] - c1[i + 1]);
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        path.closePath();
+        return path;
+    }
+
+    /**
+     * @return the second contour in the same orientation as the first one and starting at the point minimizing the
+     *         distances between the corresponding points
+     */
+    private static double[] align(double[] c1, double[] c2) {
+        int n = c1.length / 2;
+        double[] b = c2;
+        if (Math.signum(getSignedArea(c1)) != Math.signum(getSignedArea(c2))) {
+            b = new double[c2.length];
+            for (int i = 0; i < n; i++) {
+                b[2 * i] = c2[2 * (n - 1 - i)];
+                b[2 * i + 1] = c2[2 * (n - 1 - i) + 1];
+            }
+        }
+        int bestShift = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int s = 0; s < n; s++) {
+            double dist = 0.0;
+            for (int i = 0; i < n && dist < bestDistance; i++) {
+                int j = (i + s) % n;
+                double dx = b[2 * j] - c1[2 * i];
+                double dy = b[2 * j + 1] - c1[2 * i + 1];
+                dist += dx * dx + dy * dy;
+            }
+            if (dist < bestDistance) {
+                bestDistance = dist;
+                bestShift = s;
+            }
+        }
+        double[] shifted = new double[b.length];
+        for (int i = 0; i < n; i++) {
+            int j = (i + bestShift) % n;
+            shifted[2 * i] = b[2 * j];
+            shifted[2 * i + 1] = b[2 * j + 1];
+        }
+        return shifted;
+    }
+
+    private static double getSignedArea(double[] c) {
+        double area = 0.0;
+        int n = c.length / 2;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            area += c[2 * i] * c[2 * j + 1] - c[2 * j] * c[2 * i + 1];
+        }
+        return area;
+    }
+
+    /**
+     * @return the first closed contour of the shape resampled at regular intervals ([x0, y0, x1, y1...]), or null when
+     *         the contour has no length
+     */
+    static double[] getContour(Shape shape) {
+        double[] pts = new double[64];
+        int nb = 0;
+        double[] coords = new double[6];
+        PathIterator it = shape.getPathIterator(new AffineTransform(), 0.1);
+        while (!it.isDone()) {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO && nb > 0 || type == PathIterator.SEG_CLOSE) {
+                break;
+            }
+            if (nb * 2 + 2 > pts.length) {
+                pts = Arrays.copyOf(pts, pts.length * 2);
+            }
+            pts[nb * 2] = coords[0];
+            pts[nb * 2 + 1] = coords[1];
+            nb++;
+            it.next();
+        }
+        if (nb < 2) {
+            return null;
+        }
+
+        // Cumulative length of the closed polygon
+        double[] lengths = new double[nb + 1];
+        for (int i = 0; i < nb; i++) {
+            int j = (i + 1) % nb;
+            lengths[i + 1] = lengths[i] + Math.hypot(pts[2 * j] - pts[2 * i], pts[2 * j + 1] - pts[2 * i + 1]);
+        }
+        double perimeter = lengths[nb];
+        if (perimeter <= 0.0) {
+            return null;
+        }
+        double[] contour = new double[NB_CONTOUR_POINTS * 2];
+        int seg = 0;
+        for (int k = 0; k < NB_CONTOUR_POINTS; k++) {
+            double d = perimeter * k / NB_CONTOUR_POINTS;
+            while (seg < nb - 1 && lengths[seg + 1] < d) {
+                seg++;
+            }
+            int next = (seg + 1) % nb;
+            double segLength = lengths[seg + 1] - lengths[seg];
+            double r = segLength > 0.0 ? (d - lengths[seg]) / segLength : 0.0;
+            contour[2 * k] = pts[2 * seg] + r * (pts[2 * next] - pts[2 * seg]);
+            contour[2 * k + 1] = pts[2 * seg + 1] + r * (pts[2 * next + 1] - pts[2 * seg + 1]);
+        }
+        return contour;
+    }
+
+    /**
+     * Histogram with bins of a fixed width starting at 0, which grows in both directions and doubles the width of its
+     * bins when required.
+     */
+    static final class Histogram {
+        private double binWidth;
+        private long firstBin;
+        private long[] counts;
+
+        Histogram(double binWidth) {
+            this.binWidth = binWidth;
+            this.counts = new long[0];
+        }
+
+        void add(double value, long count) {
+            long bin = (long) Math.floor(value / binWidth);
+            if (counts.length == 0) {
+                firstBin = bin;
+                counts = new long[16];
+            }
+            while (Math.max(bin, firstBin + counts.length - 1) - Math.min(bin, firstBin) >= MAX_BINS) {
+                coarsen();
+                bin = (long) Math.floor(value / binWidth);
+            }
+            if (bin < firstBin) {
+                int grow = (int) Math.max(firstBin - bin, counts.length / 2);
+                grow = (int) Math.min(grow, MAX_BINS - counts.length);
+                long[] c = new long[counts.length + grow];
+                System.arraycopy(counts, 0, c, grow, counts.length);
+                counts = c;
+                firstBin -= grow;
+            } else if (bin >= firstBin + counts.length) {
+                int size = (int) Math.min(MAX_BINS, Math.max(bin - firstBin + 1, counts.length * 2L));
+                counts = Arrays.copyOf(counts, size);
+            }
+            counts[(int) (bin - firstBin)] += count;
+        }
+
+        private void coarsen() {
+            long first = Math.floorDiv(firstBin, 2);
+            long last = Math.floorDiv(firstBin + counts.length - 1, 2);
+            long[] c = new long[(int) (last - first + 1)];
+            for (int i = 0; i < counts.length; i++) {
+                c[(int) (Math.floorDiv(firstBin + i, 2) - first)] += counts[i];
+            }
+            counts = c;
+            firstBin = first;
+            binWidth *= 2.0;
+        }
+
+        void add(Histogram h) {
+            if (h.counts.length == 0) {
+                return;
+            }
+            Histogram other = h;
+            if (other.binWidth < binWidth) {
+                other = new Histogram(other.binWidth);
+                other.firstBin = h.firstBin;
+                other.counts = h.counts.clone();
+                while (other.binWidth < binWidth) {
+                    other.coarsen();
+                }
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] > 0) {
+                    // Center of the bin
+                    add((other.firstBin + i + 0.5) * other.binWidth, other.counts[i]);
+                }
+            }
+        }
+
+        double getBinWidth() {
+            return binWidth;
+        }
+
+        /**
+         * @return the lower value of the first bin
+         */
+        double getFirstValue() {
+            return firstBin * binWidth;
+        }
+
+        long[] getCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * @return the lower value of the bin containing the given fraction of the values (0.5 for the median)
+         */
+        double getQuantile(double fraction, long total) {
+            long target = (long) Math.ceil(fraction * total);
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += counts[i];
+                if (sum >= target && sum > 0) {
+                    return (firstBin + i) * binWidth;
+                }
+            }
+            return Double.NaN;
+        }
+    }
+
+    private static final class Accumulator {
+        private final Histogram histogram;
+        private double sum = 0.0;
+        private double sumSquares = 0.0;
+        private long count = 0;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        Accumulator(double binWidth) {
+            this.histogram = new Histogram(binWidth);
+        }
+
+        void add(double val) {
+            sum += val;
+            sumSquares += val * val;
+            count++;
+            if (val < min) {
+                min = val;
+            }
+            if (val > max) {
+                max = val;
+            }
+            histogram.add(val, 1);
+        }
+
+        void add(Accumulator acc) {
+            sum += acc.sum;
+            sumSquares += acc.sumSquares;
+            count += acc.count;
+            min = Math.min(min, acc.min);
+            max = Math.max(max, acc.max);
+            histogram.add(acc.histogram);
+        }
+    }
+
+    static final class Result {
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double std;
+        private final double volume;
+        private final Unit unit;
+        private final int nbSlices;
+        private final Histogram histogram;
+
+        private Result(Accumulator acc, double voxelVolume, Unit unit, int nbSlices) {
+            this.count = acc.count;
+            this.min = acc.count == 0 ? Double.NaN : acc.min;
+            this.max = acc.count == 0 ? Double.NaN : acc.max;
+            this.mean = acc.count == 0 ? Double.NaN : acc.sum / acc.count;
+            this.std = acc.count == 0 ? Double.NaN
+                : Math.sqrt(Math.max(0.0, acc.sumSquares / acc.count - mean * mean));
+            this.volume = acc.count * voxelVolume;
+            this.unit = unit;
+            this.nbSlices = nbSlices;
+            this.histogram = acc.histogram;
+        }
+
+        /**
+         * @return the number of voxels
+         */
+        long getCount() {
+            return count;
+        }
+
+        double getMin() {
+            return min;
+        }
+
+        double getMax() {
+            return max;
+        }
+
+        double getMean() {
+            return mean;
+        }
+
+        double getStandardDeviation() {
+            return std;
+        }
+
+        double getMedian() {
+            return histogram.getQuantile(0.5, count);
+        }
+
+        /**
+         * @return the volume in the cubic pixel spacing unit, or NaN when it is unknown
+         */
+        double getVolume() {
+            return volume;
+        }
+
+        Unit getUnit() {
+            return unit;
+        }
+
+        int getNbSlices() {
+            return nbSlices;
+        }
+
+        Histogram getHistogram() {
+            return histogram;
+        }
+    }
+}
@@ -151,10 +151,10 @@ public class MipView extends View2d {
                 taskMonitor.setMillisToPopup(1250);
                 SeriesBuilder.applyMipParameters(taskMonitor, view, ser, dicoms, mipType, extend, fullSeries);
             } catch (TaskInterruptionException e) {
-                dicoms.clear();
+                disposeImages(dicoms);
                 LOGGER.info(e.getMessage());
             } catch (Throwable t) {
-                dicoms.clear();
+                disposeImages(dicoms);
                 AuditLog.logError(LOGGER, t, "Mip renderding error"); //$NON-NLS-1$
             } finally {
                 // Following actions need to be executed in EDT thread
@@ -194,6 +194,13 @@ public class MipView extends View2d {
 
     }
 
+    private static void disposeImages(List<DicomImageElement> dicoms) {
+        for (DicomImageElement dcm : dicoms) {
+            dcm.dispose();
+        }
+        dicoms.clear();
+    }
+
     protected void setMip(DicomImageElement dicom) {
         DicomImageElement oldImage = getImage();
         if (dicom != null) {
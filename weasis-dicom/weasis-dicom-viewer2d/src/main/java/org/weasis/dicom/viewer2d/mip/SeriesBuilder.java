@@ -11,11 +11,12 @@
 package org.weasis.dicom.viewer2d.mip;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -35,6 +36,7 @@ import org.weasis.core.api.image.op.MaxCollectionZprojection;
 import org.weasis.core.api.image.op.MeanCollectionZprojection;
 import org.weasis.core.api.image.op.MinCollectionZprojection;
 import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.SeriesComparator;
 import org.weasis.core.api.media.data.TagW;
@@ -46,8 +48,10 @@ import org.weasis.dicom.codec.TagD;
 import org.weasis.dicom.viewer2d.Messages;
 import org.weasis.dicom.viewer2d.View2d;
 import org.weasis.dicom.viewer2d.mip.MipView.Type;
+import org.weasis.dicom.viewer2d.mpr.MemoryRawImage;
 import org.weasis.dicom.viewer2d.mpr.RawImageIO;
 import org.weasis.opencv.data.FileRawImage;
+import org.weasis.opencv.data.ImageCV;
 import org.weasis.opencv.data.PlanarImage;
 
 public class SeriesBuilder {
@@ -70,7 +74,7 @@ public class SeriesBuilder {
             Boolean reverse = (Boolean) view.getActionValue(ActionW.INVERSESTACK.cmd());
             Comparator sortFilter = (reverse != null && reverse) ? sort.getReversOrderComparator() : sort;
             Filter filter = (Filter) view.getActionValue(ActionW.FILTERED_SERIES.cmd());
-            Iterable<DicomImageElement> medias = series.copyOfMedias(filter, sortFilter);
+            List<DicomImageElement> medias = series.copyOfMedias(filter, sortFilter);
 
             int curImg = extend - 1;
             ActionState sequence = view.getEventManager().getAction(ActionW.SCROLL_SERIES);
@@ -80,7 +84,7 @@ public class SeriesBuilder {
             }
 
             int minImg = fullSeries ? extend : curImg;
-            int maxImg = fullSeries ? series.size(filter) - extend : curImg;
+            int maxImg = fullSeries ? Math.min(medias.size() - 1, medias.size() - extend) : curImg;
             if (fullSeries) {
                 taskMonitor.setMaximum(maxImg - minImg);
             }
@@ -104,71 +108,64 @@ public class SeriesBuilder {
             cpTags.setString(Tag.SeriesDescription, VR.LO, attributes.getString(Tag.SeriesDescription, "") + " [MIP]"); //$NON-NLS-1$ //$NON-NLS-2$
             cpTags.setString(Tag.ImageType, VR.CS, new String[] { "DERIVED", "SECONDARY", "PROJECTION IMAGE" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
             String seriesUID = UIDUtils.createUID();
+            File mipDir = AppProperties.buildAccessibleTempDirectory(AppProperties.FILE_CACHE_DIR.getName(), "mip"); //$NON-NLS-1$
 
-            for (int index = minImg; index <= maxImg; index++) {
-                Iterator<DicomImageElement> iter = medias.iterator();
-                final List<ImageElement> sources = new ArrayList<>();
-                int startIndex = index - extend;
-                if (startIndex < 0) {
-                    startIndex = 0;
+            FileRawImage[] raws = new FileRawImage[Math.max(0, maxImg - minImg + 1)];
+            int width = 0;
+            int height = 0;
+            if (fullSeries) {
+                // All the slabs in one pass, the results are kept in memory when they fit in the image cache
+                PlanarImage first = medias.isEmpty() ? null : medias.get(0).getImage(null, false, Priority.BATCH);
+                if (first != null) {
+                    width = first.width();
+                    height = first.height();
                 }
-                int stopIndex = index + extend;
-                int k = 0;
-                while (iter.hasNext()) {
-                    DicomImageElement dcm = iter.next();
-                    if (k >= startIndex) {
-                        sources.add(dcm);
-                    }
-
-                    if (k >= stopIndex) {
-                        break;
+                boolean inMemory = first != null
+                    && first.physicalBytes() * raws.length <= ImageElement.getCacheMemoryLimit() / 4;
+                AtomicInteger done = new AtomicInteger();
+                try {
+                    new SlidingZprojection(medias, mipType, extend, taskMonitor).compute(minImg, maxImg,
+                        (index, image) -> {
+                            raws[index - minImg] = inMemory ? newMemoryRawImage(mipDir, image)
+                                : writeRawImage(mipDir, image);
+                            updateProgress(taskMonitor, done.incrementAndGet());
+                        });
+                } catch (IOException e) {
+                    releaseRawImages(raws);
+                    if (taskMonitor.isAborting()) {
+                        throw new TaskInterruptionException("Rebuilding MIP series has been canceled!"); //$NON-NLS-1$
                     }
-                    k++;
+                    LOGGER.error("Writing MIP", e); //$NON-NLS-1$
+                    return;
+                } catch (RuntimeException e) {
+                    releaseRawImages(raws);
+                    throw e;
                 }
-
-                if (sources.size() > 1) {
-                    if (fullSeries) {
-                        taskMonitor.setShowProgression(false);
-                    }
-                    curImage = addCollectionOperation(mipType, sources, taskMonitor);
-                } else {
-                    curImage = null;
+            } else if (maxImg >= 0 && maxImg < medias.size()) {
+                List<ImageElement> sources = getSources(medias, maxImg, extend);
+                curImage = sources.size() > 1 ? addCollectionOperation(mipType, sources, taskMonitor) : null;
+                if (curImage != null) {
+                    width = curImage.width();
+                    height = curImage.height();
+                    raws[0] = newMemoryRawImage(mipDir, curImage.toImageCV());
                 }
+            }
 
-                if (fullSeries) {
-                    taskMonitor.setShowProgression(true);
-                }
+            for (int index = minImg; index <= maxImg; index++) {
+                final List<ImageElement> sources = getSources(medias, index, extend);
+                FileRawImage raw = raws[index - minImg];
+                // From here the image element owns the raw image
+                raws[index - minImg] = null;
 
                 final DicomImageElement dicom;
-                if (curImage != null) {
-
+                if (raw != null && sources.size() > 1) {
                     DicomImageElement imgRef = (DicomImageElement) sources.get(sources.size() / 2);
-                    FileRawImage raw = null;
-                    try {
-                        File mipDir =
-                            AppProperties.buildAccessibleTempDirectory(AppProperties.FILE_CACHE_DIR.getName(), "mip"); //$NON-NLS-1$
-                        raw = new FileRawImage(File.createTempFile("mip_", ".wcv", mipDir));//$NON-NLS-1$ //$NON-NLS-2$
-                        if(!raw.write(curImage)) {
-                            raw = null;
-                        }
-                    } catch (Exception e) {
-                        if (raw != null) {
-                            FileUtil.delete(raw.getFile());
-                        }
-                        if (taskMonitor.isAborting()) {
-                            throw new TaskInterruptionException("Rebuilding MIP series has been canceled!"); //$NON-NLS-1$
-                        }
-                        LOGGER.error("Writing MIP", e); //$NON-NLS-1$
-                    }
-                    if (raw == null) {
-                        return;
-                    }
                     RawImageIO rawIO = new RawImageIO(raw, null);
                     rawIO.setBaseAttributes(cpTags);
 
                     // Tags with same values for all the Series
-                    rawIO.setTag(TagD.get(Tag.Columns), curImage.width());
-                    rawIO.setTag(TagD.get(Tag.Rows), curImage.height());
+                    rawIO.setTag(TagD.get(Tag.Columns), width);
+                    rawIO.setTag(TagD.get(Tag.Rows), height);
                     rawIO.setTag(TagD.get(Tag.BitsAllocated), imgRef.getBitsAllocated());
                     rawIO.setTag(TagD.get(Tag.BitsStored), imgRef.getBitsStored());
 
@@ -215,27 +212,76 @@ public class SeriesBuilder {
                             RawImageIO reader = (RawImageIO) getMediaReader();
                             return FileUtil.nioCopyFile(reader.getDicomFile(), output);
                         }
+
+                        @Override
+                        public void dispose() {
+                            super.dispose();
+                            // The image in memory is not managed by the image cache
+                            releaseRawImage(raw);
+                        }
                     };
 
                     dicoms.add(dicom);
 
                     if (taskMonitor.isAborting()) {
+                        releaseRawImages(raws);
                         throw new TaskInterruptionException("Rebuilding MIP series has been canceled!"); //$NON-NLS-1$
                     }
-                    final int progress = index - minImg;
-                    GuiExecutor.instance().execute(() -> {
-                        taskMonitor.setProgress(progress);
-                        StringBuilder buf = new StringBuilder(Messages.getString("SeriesBuilder.image")); //$NON-NLS-1$
-                        buf.append(StringUtil.COLON_AND_SPACE);
-                        buf.append(progress);
-                        buf.append("/"); //$NON-NLS-1$
-                        buf.append(taskMonitor.getMaximum());
-                        taskMonitor.setNote(buf.toString());
-                    });
+                } else {
+                    releaseRawImage(raw);
                 }
+            }
+        }
+    }
 
+    private static List<ImageElement> getSources(List<DicomImageElement> medias, int index, int extend) {
+        int startIndex = Math.max(0, index - extend);
+        int stopIndex = Math.min(medias.size() - 1, index + extend);
+        return new ArrayList<>(medias.subList(startIndex, stopIndex + 1));
+    }
+
+    private static FileRawImage newMemoryRawImage(File mipDir, ImageCV image) {
+        // The file is only an identifier, it is never written
+        return new MemoryRawImage(new File(mipDir, "mip_" + UIDUtils.createUID() + ".wcv"), image); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static void releaseRawImage(FileRawImage raw) {
+        if (raw instanceof MemoryRawImage) {
+            ((MemoryRawImage) raw).release();
+        } else if (raw != null) {
+            FileUtil.delete(raw.getFile());
+        }
+    }
+
+    private static void releaseRawImages(FileRawImage[] raws) {
+        for (FileRawImage raw : raws) {
+            releaseRawImage(raw);
+        }
+    }
+
+    private static FileRawImage writeRawImage(File mipDir, ImageCV image) throws IOException {
+        FileRawImage raw = new FileRawImage(File.createTempFile("mip_", ".wcv", mipDir));//$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            if (!raw.write(image)) {
+                FileUtil.delete(raw.getFile());
+                throw new IOException("Cannot write " + raw.getFile()); //$NON-NLS-1$
             }
+        } finally {
+            image.release();
         }
+        return raw;
+    }
+
+    private static void updateProgress(TaskMonitor taskMonitor, int progress) {
+        GuiExecutor.instance().execute(() -> {
+            taskMonitor.setProgress(progress);
+            StringBuilder buf = new StringBuilder(Messages.getString("SeriesBuilder.image")); //$NON-NLS-1$
+            buf.append(StringUtil.COLON_AND_SPACE);
+            buf.append(progress);
+            buf.append("/"); //$NON-NLS-1$
+            buf.append(taskMonitor.getMaximum());
+            taskMonitor.setNote(buf.toString());
+        });
     }
 
     static double getThickness(ImageElement firstDcm, ImageElement lastDcm) {
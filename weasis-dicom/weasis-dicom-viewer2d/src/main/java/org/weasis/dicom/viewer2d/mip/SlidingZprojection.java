@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d.mip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.weasis.core.api.gui.task.TaskInterruptionException;
+import org.weasis.core.api.gui.task.TaskMonitor;
+import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
+import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.dicom.viewer2d.mip.MipView.Type;
+import org.weasis.opencv.data.ImageCV;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Computes the projections of all the slabs of a stack by reusing the work between consecutive slabs. The slab of the
+ * image i contains the images from i - extend to i + extend (limited to the stack).
+ * <p>
+ * For the mean, a running sum is updated by adding the image entering the slab and by subtracting the one leaving it.
+ * For the minimum and the maximum, the stack is split into blocks of the size of a slab (van Herk/Gil-Werman): a slab
+ * covers at most two consecutive blocks and its value is the combination of a suffix of the first block and a prefix
+ * of the second one. Each source image is decoded at most twice and the independent parts of the stack are processed
+ * in parallel.
+ */
+final class SlidingZprojection {
+
+    @FunctionalInterface
+    interface SlabConsumer {
+        /**
+         * Receives the projection of a slab, called from the computing threads. The consumer becomes the owner of the
+         * image.
+         */
+        void accept(int index, ImageCV image) throws IOException;
+    }
+
+    private final List<? extends ImageElement> sources;
+    private final Type type;
+    private final int extend;
+    private final TaskMonitor taskMonitor;
+    private final int slabSize;
+    private int width;
+    private int height;
+    private int cvType;
+
+    SlidingZprojection(List<? extends ImageElement> sources, Type type, int extend, TaskMonitor taskMonitor) {
+        this.sources = sources;
+        this.type = type;
+        this.extend = Math.max(0, extend);
+        this.taskMonitor = taskMonitor;
+        this.slabSize = 2 * this.extend + 1;
+    }
+
+    /**
+     * Computes the projection of the slabs centered on the images from first to last (included).
+     */
+    void compute(int first, int last, SlabConsumer consumer) throws IOException {
+        if (sources.isEmpty() || first > last) {
+            return;
+        }
+        // The first image gives the size and the type of the projections
+        PlanarImage img = sources.get(0).getImage(null, false, Priority.BATCH);
+        if (img == null) {
+            throw new IOException("Cannot read an image!"); //$NON-NLS-1$
+        }
+        width = img.width();
+        height = img.height();
+        cvType = img.type();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        if (Type.MEAN.equals(type)) {
+            int nbThreads = Runtime.getRuntime().availableProcessors();
+            int chunk = Math.max(slabSize, (last - first + nbThreads) / nbThreads);
+            for (int i = first; i <= last; i += chunk) {
+                final int start = i;
+                final int end = Math.min(last, i + chunk - 1);
+                tasks.add(() -> {
+                    computeMean(start, end, consumer);
+                    return null;
+                });
+            }
+        } else {
+            int firstBlock = getStart(first) / slabSize;
+            int lastBlock = getStart(last) / slabSize;
+            for (int k = firstBlock; k <= lastBlock; k++) {
+                final int block = k;
+                tasks.add(() -> {
+                    computeMinMax(block, first, last, consumer);
+                    return null;
+                });
+            }
+        }
+
+        ExecutorService executor = ThreadUtil.buildNewFixedThreadExecutor(
+            Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors())), "MIP Builder"); //$NON-NLS-1$
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskInterruptionException("Rebuilding MIP series has been canceled!"); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int getStart(int index) {
+        return Math.max(0, index - extend);
+    }
+
+    private int getEnd(int index) {
+        return Math.min(sources.size() - 1, index + extend);
+    }
+
+    private void checkAborting() {
+        if (taskMonitor != null && taskMonitor.isAborting()) {
+            throw new TaskInterruptionException("Rebuilding MIP series has been canceled!"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Returns the image owned by the image cache. The image is pinned in the cache to prevent its release while it is
+     * used, each call must be balanced with a call of {@link #unpinSource(int)}.
+     *
+     * @return the image or null when it cannot be read or when its size is different
+     */
+    private Mat getSource(int index) {
+        ImageElement element = sources.get(index);
+        element.pinImage();
+        PlanarImage img = element.getImage(null, false, Priority.BATCH);
+        if (img == null || img.width() != width || img.height() != height || img.type() != cvType) {
+            return null;
+        }
+        return img.toMat();
+    }
+
+    private void unpinSource(int index) {
+        sources.get(index).unpinImage();
+    }
+
+    private ImageCV combine(Mat m1, Mat m2) {
+        if (m1 == null && m2 == null) {
+            return null;
+        }
+        ImageCV dst = new ImageCV();
+        if (m1 == null || m2 == null) {
+            (m1 == null ? m2 : m1).copyTo(dst);
+        } else if (Type.MIN.equals(type)) {
+            Core.min(m1, m2, dst);
+        } else {
+            Core.max(m1, m2, dst);
+        }
+        return dst;
+    }
+
+    private static void release(Mat[] images) {
+        for (Mat m : images) {
+            if (m != null) {
+                m.release();
+            }
+        }
+    }
+
+    private void computeMinMax(int block, int first, int last, SlabConsumer consumer) throws IOException {
+        int blockStart = block * slabSize;
+        int blockEnd = Math.min(sources.size() - 1, blockStart + slabSize - 1);
+        int n = blockEnd - blockStart + 1;
+
+        // Slabs starting in this block
+        int from = Math.max(first, blockStart == 0 ? 0 : blockStart + extend);
+        int to = Math.min(last, blockEnd + extend);
+        if (from > to) {
+            return;
+        }
+
+        Mat[] slices = new Mat[n];
+        // Suffixes of the block (combination from j to the end of the block)
+        ImageCV[] suffix = new ImageCV[n];
+        ImageCV[] prefix = null;
+        ImageCV running = null;
+        int pinned = 0;
+        try {
+            // The images of the block are pinned until the suffixes and the prefixes are built
+            while (pinned < n) {
+                checkAborting();
+                pinned++;
+                slices[pinned - 1] = getSource(blockStart + pinned - 1);
+            }
+            suffix[n - 1] = combine(slices[n - 1], null);
+            for (int j = n - 2; j >= 0; j--) {
+                suffix[j] = combine(slices[j], suffix[j + 1]);
+            }
+            if (blockStart == 0 && getEnd(from) < blockEnd) {
+                // Slabs limited by the beginning of the stack: prefixes of the first block
+                prefix = new ImageCV[n];
+                prefix[0] = combine(slices[0], null);
+                for (int j = 1; j < n; j++) {
+                    prefix[j] = combine(slices[j], prefix[j - 1]);
+                }
+            }
+            for (; pinned > 0; pinned--) {
+                unpinSource(blockStart + pinned - 1);
+            }
+
+            int next = blockEnd;
+            for (int i = from; i <= to; i++) {
+                checkAborting();
+                int start = getStart(i);
+                int end = getEnd(i);
+                ImageCV result;
+                if (end <= blockEnd) {
+                    result = end == blockEnd ? combine(suffix[start - blockStart], null)
+                        : combine(prefix[end - blockStart], null);
+                } else {
+                    // Prefix of the next block
+                    while (next < end) {
+                        next++;
+                        try {
+                            Mat src = getSource(next);
+                            if (running == null) {
+                                running = combine(src, null);
+                            } else if (src != null) {
+                                ImageCV old = running;
+                                running = combine(src, running);
+                                old.release();
+                            }
+                        } finally {
+                            unpinSource(next);
+                        }
+                    }
+                    result = combine(suffix[start - blockStart], running);
+                }
+                if (result != null) {
+                    consumer.accept(i, result);
+                }
+            }
+        } finally {
+            for (; pinned > 0; pinned--) {
+                unpinSource(blockStart + pinned - 1);
+            }
+            release(suffix);
+            if (prefix != null) {
+                release(prefix);
+            }
+            if (running != null) {
+                running.release();
+            }
+        }
+    }
+
+    private void computeMean(int from, int to, SlabConsumer consumer) throws IOException {
+        Mat sum = Mat.zeros(height, width, CvType.CV_32FC(CvType.channels(cvType)));
+        Mat tmp = new Mat();
+        int count = 0;
+        int start = getStart(from);
+        int end = start - 1;
+        try {
+            for (int i = from; i <= to; i++) {
+                checkAborting();
+                int newStart = getStart(i);
+                int newEnd = getEnd(i);
+                for (int k = start; k < newStart; k++) {
+                    if (k <= end) {
+                        try {
+                            Mat src = getSource(k);
+                            if (src != null) {
+                                src.convertTo(tmp, sum.type());
+                                Core.subtract(sum, tmp, sum);
+                                count--;
+                            }
+                        } finally {
+                            unpinSource(k);
+                        }
+                    }
+                }
+                for (int k = Math.max(end + 1, newStart); k <= newEnd; k++) {
+                    try {
+                        Mat src = getSource(k);
+                        if (src != null) {
+                            // Accumulate does not support 16-bit signed
+                            src.convertTo(tmp, sum.type());
+                            Core.add(sum, tmp, sum);
+                            count++;
+                        }
+                    } finally {
+                        unpinSource(k);
+                    }
+                }
+                start = newStart;
+                end = newEnd;
+                if (count > 0) {
+                    ImageCV result = new ImageCV();
+                    sum.convertTo(result, cvType, 1.0 / count);
+                    consumer.accept(i, result);
+                }
+            }
+        } finally {
+            sum.release();
+            tmp.release();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+
+import org.opencv.core.Range;
+import org.weasis.opencv.data.FileRawImage;
+import org.weasis.opencv.data.ImageCV;
+import org.weasis.opencv.data.PlanarImage;
+
+/**
+ * Computed image kept in memory instead of being written in a raw file. Each reading returns a new header sharing the
+ * pixel data: the image cache releases only this header when it removes the image, and the pixel data are released by
+ * {@link #release()} when the image element is disposed.
+ */
+public class MemoryRawImage extends FileRawImage {
+
+    private final ImageCV image;
+    private boolean released = false;
+
+    /**
+     * @param file
+     *            the file identifying the image, it is never written
+     * @param image
+     *            the image, owned by this object
+     */
+    public MemoryRawImage(File file, ImageCV image) {
+        super(file);
+        this.image = Objects.requireNonNull(image);
+    }
+
+    public int getWidth() {
+        return image.width();
+    }
+
+    public int getHeight() {
+        return image.height();
+    }
+
+    @Override
+    public synchronized ImageCV read() throws IOException {
+        if (released) {
+            throw new IOException("The image has been released: " + getFile()); //$NON-NLS-1$
+        }
+        return new ImageCV(image, Range.all());
+    }
+
+    /**
+     * Releases the pixel data. The images already returned by {@link #read()} remain valid until they are released.
+     */
+    public synchronized void release() {
+        if (!released) {
+            released = true;
+            image.release();
+        }
+    }
+
+    @Override
+    public boolean write(PlanarImage mat) {
+        // Read-only image
+        return false;
+    }
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.opencv.core.CvType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.opencv.data.ImageCV;
+
+/**
+ * Samples an arbitrary plane (oblique or not) of a volume with a trilinear interpolation, directly at the display
+ * resolution. A thick slab can be projected along the normal of the plane (maximum, minimum or average intensity).
+ * <p>
+ * All the coordinates are expressed in voxels: x and y are the column and the row of a slice, z is the index of the
+ * slice. The rows of the output image are computed in parallel by bands.
+ */
+final class MprReslicer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MprReslicer.class);
+
+    private static final int NB_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService EXECUTOR =
+        ThreadUtil.buildNewFixedThreadExecutor(NB_THREADS, "MPR Reslicer"); //$NON-NLS-1$
+
+    public enum SlabMode {
+        MIP, MIN_IP, MEAN
+    }
+
+    private MprReslicer() {
+    }
+
+    /**
+     * @param volume
+     *            single channel volume
+     * @param origin
+     *            position of the top left pixel of the image
+     * @param rowStep
+     *            displacement between two columns of the image
+     * @param colStep
+     *            displacement between two rows of the image
+     * @param width
+     *            width of the image
+     * @param height
+     *            height of the image
+     * @param background
+     *            value of the pixels outside the volume
+     * @return the image with the type of the volume
+     */
+    static ImageCV reslice(MprVolume volume, Point3d origin, Vector3d rowStep, Vector3d colStep, int width,
+        int height, double background) {
+        return reslice(volume, origin, rowStep, colStep, width, height, null, 1, SlabMode.MEAN, background);
+    }
+
+    /**
+     * @param volume
+     *            single channel volume
+     * @param origin
+     *            position of the top left pixel of the image, in the middle of the slab
+     * @param rowStep
+     *            displacement between two columns of the image
+     * @param colStep
+     *            displacement between two rows of the image
+     * @param width
+     *            width of the image
+     * @param height
+     *            height of the image
+     * @param slabStep
+     *            displacement between two samples across the slab (usually the normal of the plane), can be null when
+     *            there is only one sample
+     * @param slabSamples
+     *            number of samples across the slab
+     * @param mode
+     *            projection of the samples of the slab
+     * @param background
+     *            value of the pixels outside the volume
+     * @return the image with the type of the volume
+     */
+    static ImageCV reslice(MprVolume volume, Point3d origin, Vector3d rowStep, Vector3d colStep, int width,
+        int height, Vector3d slabStep, int slabSamples, SlabMode mode, double background) {
+        float[] data = resample(volume, origin, rowStep, colStep, width, height, slabStep, slabSamples, mode,
+            background);
+        ImageCV img = new ImageCV(height, width, CvType.CV_32FC1);
+        img.put(0, 0, data);
+        if (CvType.depth(volume.getCvType()) == CvType.CV_32F) {
+            return img;
+        }
+        // Rounded and saturated
+        ImageCV dst = new ImageCV();
+        img.convertTo(dst, volume.getCvType());
+        img.release();
+        return dst;
+    }
+
+    /**
+     * Same as {@link #reslice(MprVolume, Point3d, Vector3d, Vector3d, int, int, Vector3d, int, SlabMode, double)}
+     *
+     * @return the values of the image (row by row) before the conversion to the type of the volume
+     * @throws IllegalStateException
+     *             when the volume has been released
+     */
+    static float[] resample(MprVolume volume, Point3d origin, Vector3d rowStep, Vector3d colStep, int width,
+        int height, Vector3d slabStep, int slabSamples, SlabMode mode, double background) {
+        if (CvType.channels(volume.getCvType()) != 1) {
+            throw new IllegalArgumentException("Only single channel volumes can be resliced"); //$NON-NLS-1$
+        }
+        if (!volume.tryRetain()) {
+            throw new IllegalStateException("The volume has been released: " + volume.getFile()); //$NON-NLS-1$
+        }
+        int nbSamples = slabStep == null ? 1 : Math.max(1, slabSamples);
+        float[] data = new float[width * height];
+        int nbBands = Math.min(height, NB_THREADS);
+        List<Callable<Void>> bands = new ArrayList<>(nbBands);
+        for (int b = 0; b < nbBands; b++) {
+            final int start = b * height / nbBands;
+            final int end = (b + 1) * height / nbBands;
+            bands.add(() -> {
+                computeRows(volume, origin, rowStep, colStep, width, start, end, slabStep, nbSamples, mode,
+                    background, data);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : EXECUTOR.invokeAll(bands)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error("Reslicing the volume", e.getCause()); //$NON-NLS-1$
+        } finally {
+            volume.release();
+        }
+        return data;
+    }
+
+    private static void computeRows(MprVolume volume, Point3d origin, Vector3d rowStep, Vector3d colStep, int width,
+        int start, int end, Vector3d slabStep, int nbSamples, SlabMode mode, double background, float[] data) {
+        // The slab is centered on the plane
+        double shift = (nbSamples - 1) / 2.0;
+        double sx = slabStep == null ? 0.0 : slabStep.x;
+        double sy = slabStep == null ? 0.0 : slabStep.y;
+        double sz = slabStep == null ? 0.0 : slabStep.z;
+        for (int j = start; j < end; j++) {
+            double lx = origin.x + j * colStep.x;
+            double ly = origin.y + j * colStep.y;
+            double lz = origin.z + j * colStep.z;
+            int offset = j * width;
+            for (int i = 0; i < width; i++) {
+                double px = lx + i * rowStep.x;
+                double py = ly + i * rowStep.y;
+                double pz = lz + i * rowStep.z;
+                double result = Double.NaN;
+                int count = 0;
+                for (int k = 0; k < nbSamples; k++) {
+                    double d = k - shift;
+                    double val = sample(volume, px + d * sx, py + d * sy, pz + d * sz);
+                    if (Double.isNaN(val)) {
+                        continue;
+                    }
+                    if (count == 0) {
+                        result = val;
+                    } else if (mode == SlabMode.MIP) {
+                        result = Math.max(result, val);
+                    } else if (mode == SlabMode.MIN_IP) {
+                        result = Math.min(result, val);
+                    } else {
+                        result += val;
+                    }
+                    count++;
+                }
+                if (count == 0) {
+                    result = background;
+                } else if (mode == SlabMode.MEAN) {
+                    result /= count;
+                }
+                data[offset + i] = (float) result;
+            }
+        }
+    }
+
+    /**
+     * @return the trilinear interpolation at this position or NaN when it is outside the volume
+     */
+    private static double sample(MprVolume volume, double x, double y, double z) {
+        int maxX = volume.getWidth() - 1;
+        int maxY = volume.getHeight() - 1;
+        int maxZ = volume.getDepth() - 1;
+        if (x < 0.0 || y < 0.0 || z < 0.0 || x > maxX || y > maxY || z > maxZ) {
+            return Double.NaN;
+        }
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int z0 = (int) z;
+        int x1 = Math.min(x0 + 1, maxX);
+        int y1 = Math.min(y0 + 1, maxY);
+        int z1 = Math.min(z0 + 1, maxZ);
+        double fx = x - x0;
+        double fy = y - y0;
+        double fz = z - z0;
+
+        double c00 = lerp(volume.getValue(x0, y0, z0), volume.getValue(x1, y0, z0), fx);
+        double c10 = lerp(volume.getValue(x0, y1, z0), volume.getValue(x1, y1, z0), fx);
+        double c01 = lerp(volume.getValue(x0, y0, z1), volume.getValue(x1, y0, z1), fx);
+        double c11 = lerp(volume.getValue(x0, y1, z1), volume.getValue(x1, y1, z1), fx);
+        return lerp(lerp(c00, c10, fy), lerp(c01, c11, fy), fz);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+}
@@ -0,0 +1,495 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOException;
+
+import org.dcm4che3.data.Tag;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.weasis.core.api.gui.util.MathUtil;
+import org.weasis.core.api.media.data.ImageLoadScheduler.Priority;
+import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.ThreadUtil;
+import org.weasis.dicom.codec.DicomImageElement;
+import org.weasis.dicom.codec.TagD;
+import org.weasis.opencv.data.FileRawImage;
+import org.weasis.opencv.data.ImageCV;
+import org.weasis.opencv.data.PlanarImage;
+import org.weasis.opencv.op.ImageProcessor;
+
+/**
+ * Volume of a stack of images stored in a single file which is mapped in memory. The file contains a compact header
+ * (magic number, version, dimensions and OpenCV type) followed by the slices in little endian order.
+ * <p>
+ * The slices are decoded in parallel and written directly at their position in the file, thus only the images being
+ * decoded are in the heap. The reformatted planes are read on demand as strided views of the volume (see
+ * {@link Plane}).
+ * <p>
+ * The volume is shared by the reconstructed series: each of them retains it and releases it when it is disposed. The
+ * file is deleted when the last reference is released.
+ */
+final class MprVolume {
+
+    private static final int MAGIC = 0x57564F4C; // WVOL
+    private static final int VERSION = 1;
+    static final int HEADER_LENGTH = 32;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final int cvType;
+    private final int elemSize;
+    private final int slicesPerChunk;
+    // A mapped region is limited to 2 GB, the volume is split in chunks of whole slices
+    private final MappedByteBuffer[] chunks;
+    // Identifies the source images in the order of the slices
+    private final String[] sourceKeys;
+    private final AtomicInteger references = new AtomicInteger();
+    private volatile boolean released = false;
+
+    MprVolume(File file, int width, int height, int depth, int cvType, String[] sourceKeys) throws IOException {
+        this.file = file;
+        this.sourceKeys = sourceKeys;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.cvType = cvType;
+        this.elemSize = (int) CvType.ELEM_SIZE(cvType);
+        long sliceLength = getSliceLength();
+        this.slicesPerChunk = (int) Math.max(1L, Math.min(depth, Integer.MAX_VALUE / sliceLength));
+        this.chunks = new MappedByteBuffer[(depth + slicesPerChunk - 1) / slicesPerChunk];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) { //$NON-NLS-1$
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < chunks.length; i++) {
+                int nbSlices = Math.min(slicesPerChunk, depth - i * slicesPerChunk);
+                // The mapping remains valid after closing the channel
+                chunks[i] = channel.map(MapMode.READ_ONLY, HEADER_LENGTH + i * slicesPerChunk * sliceLength,
+                    nbSlices * sliceLength);
+                chunks[i].order(ORDER);
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getCvType() {
+        return cvType;
+    }
+
+    private long getSliceLength() {
+        return (long) width * height * elemSize;
+    }
+
+    /**
+     * @return true when the volume has been built from these images, in the same order
+     */
+    boolean isBuiltFrom(List<DicomImageElement> medias) {
+        return !released && Arrays.equals(sourceKeys, getSourceKeys(medias));
+    }
+
+    static String[] getSourceKeys(List<DicomImageElement> medias) {
+        String[] keys = new String[medias.size()];
+        for (int i = 0; i < keys.length; i++) {
+            DicomImageElement dcm = medias.get(i);
+            keys[i] = TagD.getTagValue(dcm, Tag.SOPInstanceUID, String.class) + "#" + dcm.getKey(); //$NON-NLS-1$
+        }
+        return keys;
+    }
+
+    /**
+     * Adds a reference to the volume, must be balanced with a call of {@link #release()}.
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Adds a reference only when the volume has not been released, to read it from another thread without losing the
+     * mapping in the meantime.
+     *
+     * @return true when the reference has been added, it must be balanced with a call of {@link #release()}
+     */
+    boolean tryRetain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Removes a reference to the volume. The mapping is dropped and the file is deleted when there is no more
+     * reference, the readers hold a reference (see {@link #tryRetain()}) so that it cannot happen during a read.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            released = true;
+            // The mapping is unmapped by the garbage collector
+            Arrays.fill(chunks, null);
+            if (!FileUtil.delete(file)) {
+                // Cannot delete a file still mapped on some systems
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Decodes the images in parallel and writes them into the volume file.
+     *
+     * @param file
+     *            the volume file
+     * @param medias
+     *            the images sorted by slice position
+     * @param thread
+     *            the thread building the MPR, the build stops when it is interrupted
+     * @param progress
+     *            called each time a slice is written (from the decoding threads)
+     * @return the volume or null when the thread has been interrupted
+     */
+    static MprVolume build(File file, List<DicomImageElement> medias, Thread thread, Runnable progress)
+        throws IOException {
+        if (medias.isEmpty()) {
+            throw new IIOException("No image to build the volume!"); //$NON-NLS-1$
+        }
+        // The first image gives the size and the type of the volume
+        ImageCV first = readSlice(medias.get(0));
+        int width = first.width();
+        int height = first.height();
+        int type = first.type();
+        int depth = medias.size();
+        long sliceLength = (long) width * height * CvType.ELEM_SIZE(type);
+
+        boolean completed = false;
+        ExecutorService executor = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) { //$NON-NLS-1$
+            raf.setLength(HEADER_LENGTH + sliceLength * depth);
+            FileChannel channel = raf.getChannel();
+            writeHeader(channel, width, height, depth, type);
+            writeFully(channel, toBuffer(first), HEADER_LENGTH);
+            progress.run();
+
+            int nbThreads = Math.max(1, Math.min(depth - 1, Runtime.getRuntime().availableProcessors()));
+            executor = ThreadUtil.buildNewFixedThreadExecutor(nbThreads, "MPR Builder"); //$NON-NLS-1$
+            List<Future<?>> futures = new ArrayList<>(depth - 1);
+            for (int i = 1; i < depth; i++) {
+                final int z = i;
+                futures.add(executor.submit(() -> {
+                    if (thread.isInterrupted()) {
+                        return null;
+                    }
+                    ImageCV img = readSlice(medias.get(z));
+                    if (img.width() != width || img.height() != height || img.type() != type) {
+                        throw new IIOException("All the images must have the same size and type!"); //$NON-NLS-1$
+                    }
+                    // Positional write, the channel can be shared by the threads
+                    writeFully(channel, toBuffer(img), HEADER_LENGTH + z * sliceLength);
+                    progress.run();
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+            if (thread.isInterrupted()) {
+                return null;
+            }
+            completed = true;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (!completed) {
+                FileUtil.delete(file);
+            }
+        }
+        return new MprVolume(file, width, height, depth, type, getSourceKeys(medias));
+    }
+
+    static void writeHeader(FileChannel channel, int width, int height, int depth, int type) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(depth).putInt(type);
+        header.rewind();
+        writeFully(channel, header, 0);
+    }
+
+    private static ImageCV readSlice(DicomImageElement dcm) throws IOException {
+        PlanarImage image = dcm.getImage(null, false, Priority.BATCH);
+        if (image == null) {
+            throw new IIOException("Cannot read an image!"); //$NON-NLS-1$
+        }
+        if (MathUtil.isDifferent(dcm.getRescaleX(), dcm.getRescaleY())) {
+            Dimension dim = new Dimension((int) (Math.abs(dcm.getRescaleX()) * image.width()),
+                (int) (Math.abs(dcm.getRescaleY()) * image.height()));
+            return ImageProcessor.scale(image.toImageCV(), dim, Imgproc.INTER_LINEAR);
+        }
+        return image.toImageCV();
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    /**
+     * @return the values of the image in little endian order
+     */
+    static ByteBuffer toBuffer(Mat mat) {
+        int size = (int) mat.total() * mat.channels();
+        ByteBuffer buf = ByteBuffer.allocate((int) (mat.total() * mat.elemSize())).order(ORDER);
+        switch (CvType.depth(mat.type())) {
+            case CvType.CV_8U:
+            case CvType.CV_8S:
+                byte[] b = new byte[size];
+                mat.get(0, 0, b);
+                buf.put(b);
+                break;
+            case CvType.CV_16U:
+            case CvType.CV_16S:
+                short[] s = new short[size];
+                mat.get(0, 0, s);
+                buf.asShortBuffer().put(s);
+                break;
+            case CvType.CV_32S:
+                int[] i = new int[size];
+                mat.get(0, 0, i);
+                buf.asIntBuffer().put(i);
+                break;
+            case CvType.CV_32F:
+                float[] f = new float[size];
+                mat.get(0, 0, f);
+                buf.asFloatBuffer().put(f);
+                break;
+            case CvType.CV_64F:
+                double[] d = new double[size];
+                mat.get(0, 0, d);
+                buf.asDoubleBuffer().put(d);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported image type: " + CvType.typeToString(mat.type())); //$NON-NLS-1$
+        }
+        buf.rewind();
+        return buf;
+    }
+
+    private ImageCV toImage(byte[] data, int rows, int cols) {
+        ImageCV img = new ImageCV(rows, cols, cvType);
+        int size = rows * cols * CvType.channels(cvType);
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ORDER);
+        switch (CvType.depth(cvType)) {
+            case CvType.CV_8U:
+            case CvType.CV_8S:
+                img.put(0, 0, data);
+                break;
+            case CvType.CV_16U:
+            case CvType.CV_16S:
+                short[] s = new short[size];
+                buf.asShortBuffer().get(s);
+                img.put(0, 0, s);
+                break;
+            case CvType.CV_32S:
+                int[] i = new int[size];
+                buf.asIntBuffer().get(i);
+                img.put(0, 0, i);
+                break;
+            case CvType.CV_32F:
+                float[] f = new float[size];
+                buf.asFloatBuffer().get(f);
+                img.put(0, 0, f);
+                break;
+            default:
+                double[] d = new double[size];
+                buf.asDoubleBuffer().get(d);
+                img.put(0, 0, d);
+                break;
+        }
+        return img;
+    }
+
+    private ByteBuffer getSlice(int z) {
+        // Independent position and limit, the planes can be read concurrently
+        ByteBuffer data = chunks[z / slicesPerChunk].duplicate();
+        data.position((int) ((z % slicesPerChunk) * getSliceLength()));
+        return data;
+    }
+
+    /**
+     * Reads a voxel of a single channel volume. The method is thread-safe.
+     *
+     * @return the value of the voxel, the coordinates must be inside the volume
+     */
+    double getValue(int x, int y, int z) {
+        ByteBuffer chunk = chunks[z / slicesPerChunk];
+        int pos = (int) ((z % slicesPerChunk) * getSliceLength()) + (y * width + x) * elemSize;
+        // Absolute reads do not change the state of the buffer
+        switch (CvType.depth(cvType)) {
+            case CvType.CV_8U:
+                return chunk.get(pos) & 0xFF;
+            case CvType.CV_8S:
+                return chunk.get(pos);
+            case CvType.CV_16U:
+                return chunk.getShort(pos) & 0xFFFF;
+            case CvType.CV_16S:
+                return chunk.getShort(pos);
+            case CvType.CV_32S:
+                return chunk.getInt(pos);
+            case CvType.CV_32F:
+                return chunk.getFloat(pos);
+            default:
+                return chunk.getDouble(pos);
+        }
+    }
+
+    /**
+     * @return the plane made of the row y of each slice (depth x width)
+     */
+    ImageCV getRowPlane(int y, boolean reverse) {
+        int rowLength = width * elemSize;
+        byte[] data = new byte[depth * rowLength];
+        for (int z = 0; z < depth; z++) {
+            ByteBuffer slice = getSlice(reverse ? depth - 1 - z : z);
+            slice.position(slice.position() + y * rowLength);
+            slice.get(data, z * rowLength, rowLength);
+        }
+        return toImage(data, depth, width);
+    }
+
+    /**
+     * @return the plane made of the column x of each slice (depth x height)
+     */
+    ImageCV getColumnPlane(int x, boolean reverse) {
+        int rowLength = width * elemSize;
+        byte[] data = new byte[depth * height * elemSize];
+        int index = 0;
+        for (int z = 0; z < depth; z++) {
+            ByteBuffer slice = getSlice(reverse ? depth - 1 - z : z);
+            int start = slice.position() + x * elemSize;
+            for (int y = 0; y < height; y++) {
+                int pos = start + y * rowLength;
+                for (int k = 0; k < elemSize; k++) {
+                    data[index++] = slice.get(pos + k);
+                }
+            }
+        }
+        return toImage(data, depth, height);
+    }
+
+    /**
+     * Image of a reformatted series, read from the volume instead of a raw file.
+     */
+    static class Plane extends FileRawImage {
+        private final MprVolume volume;
+        private final int index;
+        private final boolean columnPlane;
+        private final boolean reverse;
+        private final boolean rotate;
+
+        /**
+         * @param volume
+         * @param index
+         *            the index of the row (or the column) in the slices
+         * @param columnPlane
+         *            true for a plane made of columns, false for a plane made of rows
+         * @param reverse
+         *            the order of the slices is reversed
+         * @param rotate
+         *            the plane is rotated of 90 degrees clockwise
+         */
+        Plane(MprVolume volume, int index, boolean columnPlane, boolean reverse, boolean rotate) {
+            super(volume.getFile());
+            this.volume = volume;
+            this.index = index;
+            this.columnPlane = columnPlane;
+            this.reverse = reverse;
+            this.rotate = rotate;
+        }
+
+        @Override
+        public ImageCV read() throws IOException {
+            if (!volume.tryRetain()) {
+                throw new IIOException("The volume has been released: " + volume.getFile()); //$NON-NLS-1$
+            }
+            ImageCV img;
+            try {
+                img = columnPlane ? volume.getColumnPlane(index, reverse) : volume.getRowPlane(index, reverse);
+            } finally {
+                volume.release();
+            }
+            if (rotate) {
+                ImageCV rotated = ImageProcessor.getRotatedImage(img, Core.ROTATE_90_CLOCKWISE);
+                img.release();
+                return rotated;
+            }
+            return img;
+        }
+
+        @Override
+        public boolean write(PlanarImage mat) {
+            // Read-only view of the volume
+            return false;
+        }
+    }
+}
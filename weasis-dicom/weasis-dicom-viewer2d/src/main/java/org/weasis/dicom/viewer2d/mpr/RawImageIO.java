@@ -23,7 +23,6 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -48,6 +47,7 @@ import org.weasis.core.api.media.data.FileCache;
 import org.weasis.core.api.media.data.MediaElement;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.util.FileUtil;
 import org.weasis.dicom.codec.DcmMediaReader;
@@ -55,6 +55,7 @@ import org.weasis.dicom.codec.DicomMediaIO;
 import org.weasis.dicom.codec.TagD;
 import org.weasis.dicom.codec.utils.DicomMediaUtils;
 import org.weasis.opencv.data.FileRawImage;
+import org.weasis.opencv.data.ImageCV;
 import org.weasis.opencv.data.PlanarImage;
 
 import com.sun.media.imageio.stream.RawImageInputStream;
@@ -70,14 +71,14 @@ public class RawImageIO implements DcmMediaReader {
     protected FileRawImage imageCV;
     private final FileCache fileCache;
 
-    private final HashMap<TagW, Object> tags;
+    private final TagMap tags;
     private final Codec codec;
     private Attributes attributes;
 
     public RawImageIO(FileRawImage imageCV, Codec codec) {
         this.imageCV = Objects.requireNonNull(imageCV);
         this.fileCache = new FileCache(this);
-        this.tags = new HashMap<>();
+        this.tags = new TagMap();
         this.codec = codec;
     }
 
@@ -90,10 +91,20 @@ public class RawImageIO implements DcmMediaReader {
 
         DicomOutputStream out = null;
         try {
-            File file = imageCV.getFile();
-            BulkData bdl = new BulkData(file.toURI().toString(), FileRawImage.HEADER_LENGTH,
-                (int) file.length() - FileRawImage.HEADER_LENGTH, false);
-            dcm.setValue(Tag.PixelData, VR.OW, bdl);
+            if (imageCV instanceof MprVolume.Plane || imageCV instanceof MemoryRawImage) {
+                // Not stored in a raw file (plane of a volume or image in memory)
+                ImageCV img = imageCV.read();
+                try {
+                    dcm.setBytes(Tag.PixelData, VR.OW, MprVolume.toBuffer(img).array());
+                } finally {
+                    img.release();
+                }
+            } else {
+                File file = imageCV.getFile();
+                BulkData bdl = new BulkData(file.toURI().toString(), FileRawImage.HEADER_LENGTH,
+                    (int) file.length() - FileRawImage.HEADER_LENGTH, false);
+                dcm.setValue(Tag.PixelData, VR.OW, bdl);
+            }
             File tmpFile = new File(DicomMediaIO.DICOM_EXPORT_DIR, dcm.getString(Tag.SOPInstanceUID));
             out = new DicomOutputStream(tmpFile);
             out.writeDataset(dcm.createFileMetaInformation(UID.ImplicitVRLittleEndian), dcm);
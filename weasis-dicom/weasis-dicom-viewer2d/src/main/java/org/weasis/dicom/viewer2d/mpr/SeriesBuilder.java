@@ -17,11 +17,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.IIOException;
 import javax.swing.JOptionPane;
 import javax.swing.JProgressBar;
 import javax.vecmath.Point3d;
@@ -32,7 +30,6 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.util.UIDUtils;
 import org.opencv.core.Core;
-import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.ObservableEvent;
@@ -59,14 +56,12 @@ import org.weasis.dicom.explorer.DicomModel;
 import org.weasis.dicom.viewer2d.Messages;
 import org.weasis.dicom.viewer2d.mpr.MprView.SliceOrientation;
 import org.weasis.opencv.data.FileRawImage;
-import org.weasis.opencv.data.ImageCV;
-import org.weasis.opencv.data.PlanarImage;
-import org.weasis.opencv.op.ImageProcessor;
 
 public class SeriesBuilder {
     private static final Logger LOGGER = LoggerFactory.getLogger(SeriesBuilder.class);
 
     static TagW SeriesReferences = new TagW("series.builder.refs", TagType.STRING, 2, 2); //$NON-NLS-1$
+    static TagW SeriesVolume = new TagW("series.builder.volume", TagType.OBJECT); //$NON-NLS-1$
     public static final File MPR_CACHE_DIR =
         AppProperties.buildAccessibleTempDirectory(AppProperties.FILE_CACHE_DIR.getName(), "mpr"); //$NON-NLS-1$
 
@@ -81,7 +76,6 @@ public class SeriesBuilder {
             SliceOrientation type1 = view.getSliceOrientation();
             if (type1 != null) {
 
-                String seriesID = (String) series.getTagValue(TagW.SubseriesInstanceUID);
                 Filter filter = (Filter) view.getActionValue(ActionW.FILTERED_SERIES.cmd());
 
                 // Get image stack sort from Reference Coordinates System
@@ -235,63 +229,100 @@ public class SeriesBuilder {
                                 SortSeriesStack.slicePosition);
                             final Attributes attributes = ((DcmMediaReader) img.getMediaReader()).getDicomObject();
 
-                            for (int i = 0; i < 2; i++) {
-                                if (needBuild[i]) {
-                                    final MprView mprView = recView[i];
-                                    final ViewParameter viewParams = recParams[i];
-
-                                    Iterable<DicomImageElement> medias = series.copyOfMedias(filter,
-                                        viewParams.reverseSeriesOrder
-                                            ? SortSeriesStack.slicePosition.getReversOrderComparator()
-                                            : SortSeriesStack.slicePosition);
-                                    double origPixSize = img.getPixelSize();
-
-                                    FileRawImage[] secSeries = new FileRawImage[i == 0 ? height : width];
-                                    /*
-                                     * Write the new image by tacking the lines (from first to last) of all the images
-                                     * of the original series stack
-                                     */
-                                    double sPixSize = writeBlock(secSeries, series, medias, viewParams, mprView, thread,
-                                        abort, seriesID, size);
-
-                                    if (thread.isInterrupted()) {
-                                        return;
-                                    }
-                                    /*
-                                     * Reconstruct dicom files, adapt position, orientation, pixel spacing, instance
-                                     * number and UIDs.
-                                     */
-                                    final DicomSeries dicomSeries =
-                                        buildDicomSeriesFromRaw(secSeries, new Dimension(i == 0 ? width : height, size),
-                                            img, viewParams, origPixSize, sPixSize, geometry, mprView, attributes);
-
-                                    if (dicomSeries != null && dicomSeries.size(null) > 0) {
-                                        ((DcmMediaReader) dicomSeries.getMedia(0, null, null).getMediaReader())
-                                            .writeMetaData(dicomSeries);
-                                        if (study != null && treeModel != null) {
-                                            dicomSeries.setTag(TagW.ExplorerModel, model);
-                                            treeModel.addHierarchyNode(study, dicomSeries);
-                                            if (treeModel instanceof DicomModel) {
-                                                DicomModel dicomModel = (DicomModel) treeModel;
-                                                dicomModel.firePropertyChange(new ObservableEvent(
-                                                    ObservableEvent.BasicAction.ADD, dicomModel, null, dicomSeries));
+                            MprVolume volume = null;
+                            double sPixSize = 0.0;
+                            try {
+                                for (int i = 0; i < 2; i++) {
+                                    if (needBuild[i]) {
+                                        final MprView mprView = recView[i];
+                                        final ViewParameter viewParams = recParams[i];
+
+                                        if (volume == null) {
+                                            // The volume is built once for the two reconstructed series and kept with
+                                            // the source series for building them again and for reslicing
+                                            List<DicomImageElement> medias =
+                                                series.copyOfMedias(filter, SortSeriesStack.slicePosition);
+                                            sPixSize = checkSpacing(medias, mprView, abort);
+                                            MprVolume previous = (MprVolume) series.getTagValue(SeriesVolume);
+                                            if (previous != null && previous.isBuiltFrom(medias)) {
+                                                volume = previous;
+                                            } else {
+                                                // New file, a previous volume can still be used by other series
+                                                File file =
+                                                    File.createTempFile("mpr_", ".wvol", MPR_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
+                                                volume = MprVolume.build(file, medias, thread,
+                                                    () -> GuiExecutor.instance().execute(() -> {
+                                                        for (int k = 0; k < 2; k++) {
+                                                            if (bar[k] != null) {
+                                                                bar[k].setValue(bar[k].getValue() + 1);
+                                                                recView[k].repaint();
+                                                            }
+                                                        }
+                                                    }));
+                                                if (volume == null) {
+                                                    return;
+                                                }
+                                                series.setTag(SeriesVolume, volume);
                                             }
+                                            // Kept until the reconstructed series retain it
+                                            volume.retain();
                                         }
-
-                                        GuiExecutor.instance().execute(() -> {
-                                            mprView.setProgressBar(null);
-                                            mprView.setSeries(dicomSeries);
-                                            // Copy the synch values from the main view
-                                            for (String action : MPRContainer.DEFAULT_MPR.getSynchData().getActions()
-                                                .keySet()) {
-                                                mprView.setActionsInView(action, view.getActionValue(action));
+                                        if (thread.isInterrupted()) {
+                                            return;
+                                        }
+                                        double origPixSize = img.getPixelSize();
+
+                                        /*
+                                         * The new images are made of the lines (from first to last) of all the images
+                                         * of the original series stack
+                                         */
+                                        FileRawImage[] secSeries = getPlanes(volume, viewParams);
+                                        /*
+                                         * Reconstruct dicom files, adapt position, orientation, pixel spacing, instance
+                                         * number and UIDs.
+                                         */
+                                        Dimension dim = new Dimension(i == 0 ? volume.getWidth() : volume.getHeight(),
+                                            volume.getDepth());
+                                        final DicomSeries dicomSeries = buildDicomSeriesFromRaw(secSeries, dim, img,
+                                            viewParams, origPixSize, sPixSize, geometry, mprView, attributes, volume);
+
+                                        if (dicomSeries != null && dicomSeries.size(null) > 0) {
+                                            // Released when the series is disposed
+                                            volume.retain();
+                                            dicomSeries.setTag(SeriesVolume, volume);
+                                            ((DcmMediaReader) dicomSeries.getMedia(0, null, null).getMediaReader())
+                                                .writeMetaData(dicomSeries);
+                                            if (study != null && treeModel != null) {
+                                                dicomSeries.setTag(TagW.ExplorerModel, model);
+                                                treeModel.addHierarchyNode(study, dicomSeries);
+                                                if (treeModel instanceof DicomModel) {
+                                                    DicomModel dicomModel = (DicomModel) treeModel;
+                                                    dicomModel.firePropertyChange(
+                                                        new ObservableEvent(ObservableEvent.BasicAction.ADD,
+                                                            dicomModel, null, dicomSeries));
+                                                }
                                             }
-                                            mprView.zoom(mainView.getViewModel().getViewScale());
-                                            mprView.center();
-                                            mprView.repaint();
-                                        });
+
+                                            GuiExecutor.instance().execute(() -> {
+                                                mprView.setProgressBar(null);
+                                                mprView.setSeries(dicomSeries);
+                                                // Copy the synch values from the main view
+                                                for (String action : MPRContainer.DEFAULT_MPR.getSynchData()
+                                                    .getActions().keySet()) {
+                                                    mprView.setActionsInView(action, view.getActionValue(action));
+                                                }
+                                                mprView.zoom(mainView.getViewModel().getViewScale());
+                                                mprView.center();
+                                                mprView.repaint();
+                                            });
+                                        }
                                     }
                                 }
+                            } finally {
+                                if (volume != null) {
+                                    // The reconstructed series retain the volume, otherwise it is deleted
+                                    volume.release();
+                                }
                             }
                         }
                     }
@@ -302,25 +333,14 @@ public class SeriesBuilder {
 
     private static DicomSeries buildDicomSeriesFromRaw(final FileRawImage[] newSeries, Dimension dim,
         DicomImageElement img, ViewParameter params, double origPixSize, double sPixSize, GeometryOfSlice geometry,
-        final MprView view, final Attributes attributes) throws Exception {
+        final MprView view, final Attributes attributes, final MprVolume volume) throws Exception {
 
         int bitsAllocated = img.getBitsAllocated();
         int bitsStored = img.getBitsStored();
         double[] pixSpacing = new double[] { sPixSize, origPixSize };
 
-        final JProgressBar bar = view.getProgressBar();
-
         if (params.rotateOutputImg) {
-            if (bar != null) {
-                GuiExecutor.instance().execute(() -> {
-                    bar.setMaximum(newSeries.length);
-                    bar.setValue(0);
-                    // Force to reset the progress bar (substance)
-                    bar.updateUI();
-                    view.repaint();
-                });
-            }
-
+            // The planes are rotated when they are read from the volume
             pixSpacing = new double[] { origPixSize, sPixSize };
 
             int tmp = dim.width;
@@ -351,21 +371,6 @@ public class SeriesBuilder {
         List<DicomImageElement> dcms = new ArrayList<>();
 
         for (int i = 0; i < newSeries.length; i++) {
-            if (params.rotateOutputImg) {
-                try {
-                    newSeries[i].write(ImageProcessor.getRotatedImage(newSeries[i].read(), Core.ROTATE_90_CLOCKWISE));
-                } catch (Exception e) {
-                    FileUtil.delete(newSeries[i].getFile());
-                    throw e;
-                }
-                
-                if (bar != null) {
-                    GuiExecutor.instance().execute(() -> {
-                        bar.setValue(bar.getValue() + 1);
-                        view.repaint();
-                    });
-                }
-            }
             RawImageIO rawIO = new RawImageIO(newSeries[i], null);
             rawIO.setBaseAttributes(cpTags);
 
@@ -436,104 +441,79 @@ public class SeriesBuilder {
             };
             dcms.add(dcm);
         }
-        return new DicomSeries(params.seriesUID, dcms, DicomModel.series.getTagView());
-    }
-
-    private static double writeBlock(FileRawImage[] newSeries, MediaSeries<DicomImageElement> series,
-        Iterable<DicomImageElement> medias, ViewParameter params, final MprView view, Thread thread,
-        final boolean[] abort, String seriesID, int dstHeight) throws IOException {
-        ImageCV[] builImgs = new ImageCV[newSeries.length];
-        
-        // TODO should return the more frequent space!
-        final JProgressBar bar = view.getProgressBar();
-        try {
-
-            double epsilon = 1e-3;
-            double lastPos = 0.0;
-            double lastSpace = 0.0;
-            int index = 0;
-            Iterator<DicomImageElement> iter = medias.iterator();
-            while (iter.hasNext()) {
-                if (thread.isInterrupted()) {
-                    return lastSpace;
-                }
-                DicomImageElement dcm = iter.next();
-                double[] sp = (double[]) dcm.getTagValue(TagW.SlicePosition);
-                boolean validSp = sp != null && sp.length == 3;
-                if (!validSp && !abort[1]) {
-                    confirmMessage(view, Messages.getString("SeriesBuilder.space_missing"), abort); //$NON-NLS-1$
-                } else if (validSp) {
-                    double pos = sp[0] + sp[1] + sp[2];
-                    if (index > 0) {
-                        double space = Math.abs(pos - lastPos);
-                        if (!abort[1]
-                            && (MathUtil.isEqualToZero(space) || (index > 1 && lastSpace - space > epsilon))) {
-                            confirmMessage(view, Messages.getString("SeriesBuilder.space"), abort); //$NON-NLS-1$
-                        }
-                        lastSpace = space;
-                    }
-                    lastPos = pos;
-                    index++;
-                    if (bar != null) {
-                        GuiExecutor.instance().execute(() -> {
-                            bar.setValue(bar.getValue() + 1);
-                            view.repaint();
-                        });
+        return new DicomSeries(params.seriesUID, dcms, DicomModel.series.getTagView()) {
+            private boolean disposed = false;
+
+            @Override
+            public void dispose() {
+                super.dispose();
+                synchronized (this) {
+                    if (!disposed) {
+                        disposed = true;
+                        volume.release();
                     }
                 }
-                
-                // TODO do not open more than 512 files (Limitation to open 1024 in the same time on Ubuntu)
-                PlanarImage image = dcm.getImage(null, false);
-                if (image == null) {
-                    abort[0] = true;
-                    throw new IIOException("Cannot read an image!"); //$NON-NLS-1$
-                }
-                if (MathUtil.isDifferent(dcm.getRescaleX(), dcm.getRescaleY())) {
-                    Dimension dim = new Dimension((int) (Math.abs(dcm.getRescaleX()) * image.width()),
-                        (int) (Math.abs(dcm.getRescaleY()) * image.height()));
-                    image = ImageProcessor.scale(image.toImageCV(), dim, Imgproc.INTER_LINEAR);
-                }
-
-                writeRasterInRaw(image, newSeries, builImgs, params, dstHeight, index);
             }
-            
-
-            return lastSpace;
-        } finally {
-            for (int i = 0; i < newSeries.length; i++) {
-                if (newSeries[i] != null) {
-                    if (abort[0]) {
-                        newSeries[i].getFile().delete();
-                    } else {
-                        newSeries[i].write(builImgs[i]);
+        };
+    }
+
+    /**
+     * Checks the spacing between the slices.
+     *
+     * @return the spacing between the two last slices
+     */
+    private static double checkSpacing(List<DicomImageElement> medias, final MprView view, final boolean[] abort) {
+        // TODO should return the more frequent space!
+        double epsilon = 1e-3;
+        double lastPos = 0.0;
+        double lastSpace = 0.0;
+        int index = 0;
+        for (DicomImageElement dcm : medias) {
+            double[] sp = (double[]) dcm.getTagValue(TagW.SlicePosition);
+            boolean validSp = sp != null && sp.length == 3;
+            if (!validSp && !abort[1]) {
+                confirmMessage(view, Messages.getString("SeriesBuilder.space_missing"), abort); //$NON-NLS-1$
+            } else if (validSp) {
+                double pos = sp[0] + sp[1] + sp[2];
+                if (index > 0) {
+                    double space = Math.abs(pos - lastPos);
+                    if (!abort[1] && (MathUtil.isEqualToZero(space) || (index > 1 && lastSpace - space > epsilon))) {
+                        confirmMessage(view, Messages.getString("SeriesBuilder.space"), abort); //$NON-NLS-1$
                     }
-                    builImgs[i].release();
+                    lastSpace = space;
                 }
+                lastPos = pos;
+                index++;
             }
         }
+        return lastSpace;
     }
 
-    private static void writeRasterInRaw(PlanarImage image, FileRawImage[] newSeries, ImageCV[] builImgs,
-        ViewParameter params, int dstHeight, int imgIndex) throws IOException {
-        ImageCV img = ImageProcessor.getRotatedImage(image.toMat(), params.rotateCvType);
-        if (newSeries != null && img != null && img.height() == newSeries.length) {
-
-            if (newSeries[0] == null) {
-                File dir = new File(MPR_CACHE_DIR, params.seriesUID);
-                dir.mkdirs();
-                for (int i = 0; i < newSeries.length; i++) {
-                    newSeries[i] = new FileRawImage(new File(dir, "mpr_" + (i + 1) + ".wcv"));//$NON-NLS-1$ //$NON-NLS-2$
-                    builImgs[i] = new ImageCV(dstHeight, img.width(), img.type());
-                }
-            }
-
-            for (int j = 0; j < newSeries.length; j++) {
-                img.row(j).copyTo(builImgs[j].row(imgIndex - 1));
-            }
+    /**
+     * @return the images of the reconstructed series as views of the volume. The source images are rotated according
+     *         to the parameters: without rotation, an image is made of a row of each slice; with a rotation of 90
+     *         degrees counterclockwise, it is made of a column (from the last to the first).
+     */
+    private static FileRawImage[] getPlanes(MprVolume volume, ViewParameter params) {
+        boolean columnPlane;
+        int nb;
+        if (params.rotateCvType < 0) {
+            columnPlane = false;
+            nb = volume.getHeight();
+        } else if (params.rotateCvType == Core.ROTATE_90_COUNTERCLOCKWISE) {
+            columnPlane = true;
+            nb = volume.getWidth();
+        } else {
+            throw new IllegalArgumentException("Unsupported rotation: " + params.rotateCvType); //$NON-NLS-1$
         }
-
+        FileRawImage[] planes = new FileRawImage[nb];
+        for (int j = 0; j < nb; j++) {
+            planes[j] = new MprVolume.Plane(volume, columnPlane ? nb - 1 - j : j, columnPlane,
+                params.reverseSeriesOrder, params.rotateOutputImg);
+        }
+        return planes;
     }
-    
+
     private static void rotate(Vector3d vSrc, Vector3d axis, double angle, Vector3d vDst) {
         axis.normalize();
         vDst.x = axis.x * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle))
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.weasis.dicom.viewer2d.mpr.MprReslicer.SlabMode;
+
+public class MprReslicerTest {
+    private static final double EPSILON = 1e-4;
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+    private static final int DEPTH = 6;
+
+    private float[] voxels;
+    private MprVolume volume;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(11);
+        voxels = new float[WIDTH * HEIGHT * DEPTH];
+        for (int i = 0; i < voxels.length; i++) {
+            voxels[i] = random.nextInt(2000) - 500;
+        }
+        File file = File.createTempFile("mpr_", ".wvol"); //$NON-NLS-1$ //$NON-NLS-2$
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) { //$NON-NLS-1$
+            FileChannel channel = raf.getChannel();
+            MprVolume.writeHeader(channel, WIDTH, HEIGHT, DEPTH, CvType.CV_32FC1);
+            ByteBuffer buf = ByteBuffer.allocate(voxels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            buf.asFloatBuffer().put(voxels);
+            MprVolume.writeFully(channel, buf, MprVolume.HEADER_LENGTH);
+        }
+        volume = new MprVolume(file, WIDTH, HEIGHT, DEPTH, CvType.CV_32FC1, new String[0]);
+        volume.retain();
+    }
+
+    @After
+    public void tearDown() {
+        if (!volume.isReleased()) {
+            volume.release();
+        }
+        Assert.assertTrue(volume.isReleased());
+    }
+
+    private float getVoxel(int x, int y, int z) {
+        return voxels[(z * HEIGHT + y) * WIDTH + x];
+    }
+
+    @Test
+    public void testAxisAlignedPlanes() {
+        for (int z = 0; z < DEPTH; z++) {
+            float[] data = MprReslicer.resample(volume, new Point3d(0, 0, z), new Vector3d(1, 0, 0),
+                new Vector3d(0, 1, 0), WIDTH, HEIGHT, null, 1, SlabMode.MEAN, 0.0);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    Assert.assertEquals(getVoxel(x, y, z), data[y * WIDTH + x], EPSILON);
+                }
+            }
+        }
+
+        // Plane made of the row 3 of each slice
+        float[] data = MprReslicer.resample(volume, new Point3d(0, 3, 0), new Vector3d(1, 0, 0), new Vector3d(0, 0, 1),
+            WIDTH, DEPTH, null, 1, SlabMode.MEAN, 0.0);
+        for (int z = 0; z < DEPTH; z++) {
+            for (int x = 0; x < WIDTH; x++) {
+                Assert.assertEquals(getVoxel(x, 3, z), data[z * WIDTH + x], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testInterpolationAndBackground() {
+        float[] data = MprReslicer.resample(volume, new Point3d(0, 0, 2.5), new Vector3d(1, 0, 0),
+            new Vector3d(0, 1, 0), WIDTH, HEIGHT, null, 1, SlabMode.MEAN, 0.0);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = (getVoxel(x, y, 2) + getVoxel(x, y, 3)) / 2.0;
+                Assert.assertEquals(expected, data[y * WIDTH + x], EPSILON);
+            }
+        }
+
+        // The plane is shifted of two columns outside the volume
+        data = MprReslicer.resample(volume, new Point3d(-2, 0, 1), new Vector3d(1, 0, 0), new Vector3d(0, 1, 0),
+            WIDTH, HEIGHT, null, 1, SlabMode.MEAN, -1000.0);
+        for (int y = 0; y < HEIGHT; y++) {
+            Assert.assertEquals(-1000.0, data[y * WIDTH], EPSILON);
+            Assert.assertEquals(-1000.0, data[y * WIDTH + 1], EPSILON);
+            Assert.assertEquals(getVoxel(0, y, 1), data[y * WIDTH + 2], EPSILON);
+        }
+    }
+
+    @Test
+    public void testSlab() {
+        // Slab of 3 slices centered on the slice 2
+        for (SlabMode mode : SlabMode.values()) {
+            float[] data = MprReslicer.resample(volume, new Point3d(0, 0, 2), new Vector3d(1, 0, 0),
+                new Vector3d(0, 1, 0), WIDTH, HEIGHT, new Vector3d(0, 0, 1), 3, mode, 0.0);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    float v1 = getVoxel(x, y, 1);
+                    float v2 = getVoxel(x, y, 2);
+                    float v3 = getVoxel(x, y, 3);
+                    double expected;
+                    if (mode == SlabMode.MIP) {
+                        expected = Math.max(v1, Math.max(v2, v3));
+                    } else if (mode == SlabMode.MIN_IP) {
+                        expected = Math.min(v1, Math.min(v2, v3));
+                    } else {
+                        expected = (v1 + v2 + v3) / 3.0;
+                    }
+                    Assert.assertEquals(expected, data[y * WIDTH + x], EPSILON);
+                }
+            }
+        }
+
+        // The samples outside the volume are ignored (slab centered on the first slice)
+        float[] data = MprReslicer.resample(volume, new Point3d(0, 0, 0), new Vector3d(1, 0, 0),
+            new Vector3d(0, 1, 0), WIDTH, HEIGHT, new Vector3d(0, 0, 1), 3, SlabMode.MEAN, 0.0);
+        Assert.assertEquals((getVoxel(4, 2, 0) + getVoxel(4, 2, 1)) / 2.0, data[2 * WIDTH + 4], EPSILON);
+    }
+
+    @Test
+    public void testReleasedVolume() {
+        MprReslicer.resample(volume, new Point3d(0, 0, 0), new Vector3d(1, 0, 0), new Vector3d(0, 1, 0), WIDTH,
+            HEIGHT, null, 1, SlabMode.MEAN, 0.0);
+        // The reference taken while reslicing has been given back
+        volume.release();
+        Assert.assertTrue(volume.isReleased());
+        Assert.assertFalse(volume.tryRetain());
+
+        boolean rejected = false;
+        try {
+            MprReslicer.resample(volume, new Point3d(0, 0, 0), new Vector3d(1, 0, 0), new Vector3d(0, 1, 0), WIDTH,
+                HEIGHT, null, 1, SlabMode.MEAN, 0.0);
+        } catch (IllegalStateException e) {
+            rejected = true;
+        }
+        Assert.assertTrue(rejected);
+    }
+}
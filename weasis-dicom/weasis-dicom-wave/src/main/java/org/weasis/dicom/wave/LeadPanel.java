@@ -17,6 +17,7 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Paint;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.Toolkit;
@@ -39,6 +40,7 @@ public class LeadPanel extends JPanel {
     private final WaveView view;
     private final ChannelDefinition channels;
     private final WaveDataReadable data;
+    private final WaveMinMaxPyramid pyramid;
     private final MarkerAnnotation markerAnnotation;
 
     private double ratioX;
@@ -54,6 +56,7 @@ public class LeadPanel extends JPanel {
     public LeadPanel(WaveView view, WaveDataReadable data, ChannelDefinition channels) {
         this.view = view;
         this.data = data;
+        this.pyramid = view.getWavePyramid();
         this.channels = channels;
         this.mvCellCount = view.getMvCells();
         this.secondCellCount = view.getSeconds() * 10;
@@ -331,18 +334,65 @@ public class LeadPanel extends JPanel {
         Stroke stroke = new BasicStroke(1.2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
         g2.setStroke(stroke);
 
-        Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, sampleNumber);
-        double x = 0.0;
-        double y = halfHeight - (data.getSample(0, channels) / 1000 * cellHeight);
-        path.moveTo(x, y);
-        for (int i = 1; i < this.sampleNumber; i++) {
-            x = ratioX * i;
-            y = halfHeight - (data.getSample(i, channels) / 1000 * cellHeight);
-            path.lineTo(x, y);
+        if (sampleNumber <= 0) {
+            return;
+        }
+        // Only the visible samples
+        Rectangle clip = g2.getClipBounds();
+        int first = 0;
+        int last = sampleNumber - 1;
+        if (clip != null) {
+            first = Math.max(0, (int) Math.floor(clip.getMinX() / ratioX) - 1);
+            last = Math.min(last, (int) Math.ceil(clip.getMaxX() / ratioX) + 1);
+        }
+        if (first > last) {
+            return;
+        }
+
+        int level = pyramid == null ? -1 : pyramid.getLevel(1.0 / ratioX);
+        Path2D path;
+        if (level < 0) {
+            path = new Path2D.Double(Path2D.WIND_NON_ZERO, last - first + 1);
+            path.moveTo(ratioX * first, halfHeight - (data.getSample(first, channels) / 1000 * cellHeight));
+            for (int i = first + 1; i <= last; i++) {
+                double x = ratioX * i;
+                double y = halfHeight - (data.getSample(i, channels) / 1000 * cellHeight);
+                path.lineTo(x, y);
+            }
+        } else {
+            // Several samples per pixel: a vertical line from the minimum to the maximum of each pixel column
+            int blockSize = pyramid.getBlockSize(level);
+            int firstPx = (int) Math.floor(first * ratioX);
+            int lastPx = (int) Math.ceil(last * ratioX);
+            path = new Path2D.Double(Path2D.WIND_NON_ZERO, 2 * (lastPx - firstPx + 1));
+            boolean start = true;
+            for (int px = firstPx; px <= lastPx; px++) {
+                int s1 = Math.max(first, (int) (px / ratioX));
+                int s2 = Math.min(last, (int) ((px + 1) / ratioX) - 1);
+                if (s1 > last) {
+                    break;
+                }
+                s2 = Math.max(s1, s2);
+                int min = pyramid.getMin(channels, level, s1 / blockSize, s2 / blockSize);
+                int max = pyramid.getMax(channels, level, s1 / blockSize, s2 / blockSize);
+                double y1 = halfHeight - (getValue(min) / 1000 * cellHeight);
+                double y2 = halfHeight - (getValue(max) / 1000 * cellHeight);
+                if (start) {
+                    path.moveTo(px, y1);
+                    start = false;
+                } else {
+                    path.lineTo(px, y1);
+                }
+                path.lineTo(px, y2);
+            }
         }
         g2.draw(path);
     }
 
+    private double getValue(int rawSample) {
+        return rawSample * channels.getAmplitudeUnitScalingFactor() + channels.getBaseline();
+    }
+
     private void drawSelectedBackground(Graphics2D g2) {
         SignalMarker start = getSignalMarker(Measure.VERTICAL, SignalMarker.Type.START);
         SignalMarker stop = getSignalMarker(Measure.VERTICAL, SignalMarker.Type.STOP);
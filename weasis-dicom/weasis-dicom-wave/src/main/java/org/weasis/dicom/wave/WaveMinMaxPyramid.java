@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2018 Weasis Team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ *******************************************************************************/
+package org.weasis.dicom.wave;
+
+/**
+ * Minimum and maximum raw values of each channel by blocks of samples, for drawing long recordings with only a few
+ * points per pixel. The level 0 contains blocks of 8 samples and each level contains blocks twice larger than the
+ * previous one.
+ */
+public class WaveMinMaxPyramid {
+    private static final int BASE_SHIFT = 3;
+
+    // [channel][level][block]
+    private final short[][][] minValues;
+    private final short[][][] maxValues;
+
+    public WaveMinMaxPyramid(WaveDataReadable data) {
+        int nbChannels = data.getNbOfChannels();
+        int nbSamples = data.getNbSamplesPerChannel();
+        int nbLevels = 0;
+        for (long blocks = nbSamples; blocks > 1; blocks = (blocks + 1) / 2) {
+            nbLevels++;
+        }
+        nbLevels = Math.max(1, nbLevels - BASE_SHIFT + 1);
+
+        this.minValues = new short[nbChannels][nbLevels][];
+        this.maxValues = new short[nbChannels][nbLevels][];
+
+        int blockSize = 1 << BASE_SHIFT;
+        int nbBlocks = (nbSamples + blockSize - 1) / blockSize;
+        for (int c = 0; c < nbChannels; c++) {
+            short[] min = new short[nbBlocks];
+            short[] max = new short[nbBlocks];
+            int offset = c;
+            for (int b = 0; b < nbBlocks; b++) {
+                int end = Math.min(nbSamples, (b + 1) * blockSize);
+                int bmin = Integer.MAX_VALUE;
+                int bmax = Integer.MIN_VALUE;
+                for (int i = b * blockSize; i < end; i++) {
+                    int val = data.getData().getElem(i * nbChannels + offset);
+                    if (val < bmin) {
+                        bmin = val;
+                    }
+                    if (val > bmax) {
+                        bmax = val;
+                    }
+                }
+                min[b] = (short) bmin;
+                max[b] = (short) bmax;
+            }
+            minValues[c][0] = min;
+            maxValues[c][0] = max;
+
+            for (int l = 1; l < nbLevels; l++) {
+                short[] pmin = minValues[c][l - 1];
+                short[] pmax = maxValues[c][l - 1];
+                int size = (pmin.length + 1) / 2;
+                min = new short[size];
+                max = new short[size];
+                for (int b = 0; b < size; b++) {
+                    int k = 2 * b;
+                    boolean pair = k + 1 < pmin.length;
+                    min[b] = pair ? (short) Math.min(pmin[k], pmin[k + 1]) : pmin[k];
+                    max[b] = pair ? (short) Math.max(pmax[k], pmax[k + 1]) : pmax[k];
+                }
+                minValues[c][l] = min;
+                maxValues[c][l] = max;
+            }
+        }
+    }
+
+    /**
+     * @return the level having the largest blocks not exceeding the number of samples per pixel, or -1 when the
+     *         samples must be drawn individually
+     */
+    public int getLevel(double samplesPerPixel) {
+        if (minValues.length == 0) {
+            return -1;
+        }
+        int level = -1;
+        int nbLevels = minValues[0].length;
+        while (level + 1 < nbLevels && getBlockSize(level + 1) <= samplesPerPixel) {
+            level++;
+        }
+        return level;
+    }
+
+    public int getBlockSize(int level) {
+        return 1 << (BASE_SHIFT + level);
+    }
+
+    /**
+     * @return the minimum raw value of the blocks from first to last (included)
+     */
+    public int getMin(ChannelDefinition channel, int level, int first, int last) {
+        short[] values = minValues[channel.getPosition()][level];
+        int end = Math.min(last, values.length - 1);
+        int min = Integer.MAX_VALUE;
+        for (int b = Math.max(0, first); b <= end; b++) {
+            min = Math.min(min, values[b]);
+        }
+        return min;
+    }
+
+    /**
+     * @return the maximum raw value of the blocks from first to last (included)
+     */
+    public int getMax(ChannelDefinition channel, int level, int first, int last) {
+        short[] values = maxValues[channel.getPosition()][level];
+        int end = Math.min(last, values.length - 1);
+        int max = Integer.MIN_VALUE;
+        for (int b = Math.max(0, first); b <= end; b++) {
+            max = Math.max(max, values[b]);
+        }
+        return max;
+    }
+}
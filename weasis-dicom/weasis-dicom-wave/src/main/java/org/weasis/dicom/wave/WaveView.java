@@ -81,6 +81,7 @@ public class WaveView extends JPanel implements SeriesViewerListener {
     private Format currentFormat;
     private int samplesPerSecond;
     private WaveDataReadable waveData;
+    private WaveMinMaxPyramid wavePyramid;
     private final List<ChannelDefinition> channels;
     private double zoomRatio = 1.0;
 
@@ -338,6 +339,8 @@ public class WaveView extends JPanel implements SeriesViewerListener {
         } else {
             throw new Exception("Unexpected bitsAllocated value: " + bitsAllocated); //$NON-NLS-1$
         }
+        // Built once for drawing long recordings quickly at any zoom
+        wavePyramid = new WaveMinMaxPyramid(waveData);
     }
 
     private void addChannelPanels() {
@@ -465,6 +468,10 @@ public class WaveView extends JPanel implements SeriesViewerListener {
         return WaveLayoutManager.AUTO_AMPLITUDE;
     }
 
+    public WaveMinMaxPyramid getWavePyramid() {
+        return wavePyramid;
+    }
+
     public InfoPanel getInfoPanel() {
         return infoPanel;
     }
@@ -57,6 +57,19 @@ public class ImageConversion {
      * @return BufferedImage
      */
     public static BufferedImage toBufferedImage(Mat matrix) {
+        return toBufferedImage(matrix, null);
+    }
+
+    /**
+     * Converts/writes a Mat into a BufferedImage. When the reusable image is compatible with the Mat (same size, data
+     * type and number of bands), the pixels are copied into its raster instead of allocating a new one.
+     *
+     * @param matrix
+     * @param reusableImage
+     *            the image to recycle, can be null
+     * @return BufferedImage the reusable image or a new one
+     */
+    public static BufferedImage toBufferedImage(Mat matrix, BufferedImage reusableImage) {
         if (matrix == null) {
             return null;
         }
@@ -67,11 +80,16 @@ public class ImageConversion {
         int elemSize = CvType.ELEM_SIZE(type);
         int channels = CvType.channels(type);
         int bpp = (elemSize * 8) / channels;
+        int dataType = convertToDataType(type);
+
+        if (isCompatible(reusableImage, cols, rows, channels, bpp, dataType)) {
+            copyToDataBuffer(matrix, reusableImage.getRaster().getDataBuffer());
+            return reusableImage;
+        }
 
         ColorSpace cs;
         WritableRaster raster;
         ComponentColorModel colorModel;
-        int dataType = convertToDataType(type);
 
         switch (channels) {
             case 1:
@@ -91,8 +109,30 @@ public class ImageConversion {
                     "No implementation to handle " + matrix.channels() + " channels");
         }
 
-        DataBuffer buf = raster.getDataBuffer();
+        copyToDataBuffer(matrix, raster.getDataBuffer());
+        return new BufferedImage(colorModel, raster, false, null);
+
+    }
 
+    private static boolean isCompatible(BufferedImage img, int cols, int rows, int channels, int bpp, int dataType) {
+        if (img == null || img.getWidth() != cols || img.getHeight() != rows) {
+            return false;
+        }
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        if (raster.getDataBuffer().getDataType() != dataType || sm.getNumBands() != channels
+            || sm.getSampleSize(0) != bpp || raster.getSampleModelTranslateX() != 0
+            || raster.getSampleModelTranslateY() != 0 || !(sm instanceof ComponentSampleModel)) {
+            return false;
+        }
+        // The data must be contiguous like in a Mat, BGR for 3 channels
+        ComponentSampleModel csm = (ComponentSampleModel) sm;
+        int[] offsets = channels == 3 ? new int[] { 2, 1, 0 } : new int[] { 0 };
+        return csm.getPixelStride() == channels && csm.getScanlineStride() == cols * channels
+            && Arrays.equals(csm.getBandOffsets(), offsets) && raster.getDataBuffer().getNumBanks() == 1;
+    }
+
+    private static void copyToDataBuffer(Mat matrix, DataBuffer buf) {
         if (buf instanceof DataBufferByte) {
             matrix.get(0, 0, ((DataBufferByte) buf).getData());
         } else if (buf instanceof DataBufferUShort) {
@@ -106,8 +146,6 @@ public class ImageConversion {
         } else if (buf instanceof DataBufferDouble) {
             matrix.get(0, 0, ((DataBufferDouble) buf).getData());
         }
-        return new BufferedImage(colorModel, raster, false, null);
-
     }
 
     public static BufferedImage toBufferedImage(PlanarImage matrix) {
@@ -117,6 +155,13 @@ public class ImageConversion {
         return toBufferedImage(matrix.toMat());
     }
 
+    public static BufferedImage toBufferedImage(PlanarImage matrix, BufferedImage reusableImage) {
+        if (matrix == null) {
+            return null;
+        }
+        return toBufferedImage(matrix.toMat(), reusableImage);
+    }
+
     public static int convertToDataType(int cvType) {
         switch (CvType.depth(cvType)) {
             case CvType.CV_8U:
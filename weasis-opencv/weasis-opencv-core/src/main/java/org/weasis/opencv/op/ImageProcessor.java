@@ -218,7 +218,8 @@ public class ImageProcessor {
         Mat dst = new Mat();
         Core.inRange(src, new Scalar(paddingValue), new Scalar(paddingLimit), dst);
         Core.bitwise_not(dst, dst);
-        Core.add(dst, mask, mask);
+        // Keep only the pixels of the ROI which are not padding values
+        Core.bitwise_and(dst, mask, mask);
     }
 
     public static List<MatOfPoint> findContours(RenderedImage source, Rectangle area) {
@@ -267,8 +268,12 @@ public class ImageProcessor {
     }
 
     public static ImageCV overlay(Mat source, RenderedImage imgOverlay, Color color) {
+        return overlay(source, ImageConversion.toMat(Objects.requireNonNull(imgOverlay)), color);
+    }
+
+    public static ImageCV overlay(Mat source, Mat imgOverlay, Color color) {
         ImageCV srcImg = ImageCV.toImageCV(Objects.requireNonNull(source));
-        Mat mask = ImageConversion.toMat(Objects.requireNonNull(imgOverlay));
+        Mat mask = Objects.requireNonNull(imgOverlay);
         if (isGray(color) && srcImg.channels() == 1) {
             Mat grayImg = new Mat(srcImg.size(), CvType.CV_8UC1, new Scalar(color.getRed()));
             ImageCV dstImg = new ImageCV();
@@ -331,8 +336,12 @@ public class ImageProcessor {
     }
 
     public static ImageCV applyShutter(Mat source, RenderedImage imgOverlay, Color color) {
+        return applyShutter(source, ImageConversion.toMat(Objects.requireNonNull(imgOverlay)), color);
+    }
+
+    public static ImageCV applyShutter(Mat source, Mat imgOverlay, Color color) {
         ImageCV srcImg = ImageCV.toImageCV(Objects.requireNonNull(source));
-        Mat mask = ImageConversion.toMat(Objects.requireNonNull(imgOverlay));
+        Mat mask = Objects.requireNonNull(imgOverlay);
         if (isGray(color) && srcImg.channels() == 1) {
             Mat grayImg = new Mat(srcImg.size(), CvType.CV_8UC1, new Scalar(color.getRed()));
             ImageCV dstImg = new ImageCV();